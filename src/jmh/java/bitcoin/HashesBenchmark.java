@@ -0,0 +1,108 @@
+package bitcoin;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashes against the previous implementations, kept here as legacy*: r160SHA256Hash
+ * registering BouncyCastle and looking up both digests on every call, and doubleSHA256
+ * looking up a new digest. The sizes are a public key (33), a bet redeem script (~300) and a
+ * raw transaction (~2000). "threads" runs the same with 4 threads, each one with its own
+ * digests.
+ *
+ * Run with ./gradlew jmh
+ * Created by fmontoto on 08-05-17.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HashesBenchmark {
+    @Param({"33", "300", "2000"})
+    int size;
+
+    byte[] data;
+    ByteBuffer buffer;
+    byte[] out;
+
+    static private byte[] legacyR160SHA256Hash(byte[] val) throws NoSuchAlgorithmException {
+        Security.addProvider(new BouncyCastleProvider());
+        MessageDigest r160dig = MessageDigest.getInstance("RIPEMD160");
+        MessageDigest sha256dig = MessageDigest.getInstance("SHA-256");
+        return r160dig.digest(sha256dig.digest(val));
+    }
+
+    static private byte[] legacyDoubleSHA256(byte[] val) throws NoSuchAlgorithmException {
+        MessageDigest dig = MessageDigest.getInstance("SHA-256");
+        byte [] first_digest = dig.digest(val);
+        dig.reset();
+        return dig.digest(first_digest);
+    }
+
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        new Random(1).nextBytes(data);
+        buffer = ByteBuffer.wrap(data);
+        out = new byte[Hashes.SHA256_LENGTH];
+    }
+
+    @Benchmark
+    public byte[] legacyHash160() throws NoSuchAlgorithmException {
+        return legacyR160SHA256Hash(data);
+    }
+
+    @Benchmark
+    public byte[] hash160() {
+        return Hashes.hash160(data);
+    }
+
+    @Benchmark
+    public byte[] hash160IntoArray() {
+        Hashes.hash160(data, 0, data.length, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] legacyDoubleSHA256() throws NoSuchAlgorithmException {
+        return legacyDoubleSHA256(data);
+    }
+
+    @Benchmark
+    public byte[] doubleSHA256() {
+        return Hashes.doubleSHA256(data);
+    }
+
+    @Benchmark
+    public byte[] doubleSHA256IntoArray() {
+        Hashes.doubleSHA256(data, 0, data.length, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] doubleSHA256Buffer() {
+        buffer.rewind();
+        return Hashes.doubleSHA256(buffer);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] legacyHash160Threads() throws NoSuchAlgorithmException {
+        return legacyR160SHA256Hash(data);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] hash160Threads() {
+        return Hashes.hash160(data);
+    }
+}
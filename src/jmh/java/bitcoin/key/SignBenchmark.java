@@ -0,0 +1,48 @@
+package bitcoin.key;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing a transaction digest with Secp256k1Signer and, as reference, with bitcoinj (the
+ * canonicalisation step used before). Both produce the same deterministic signature.
+ *
+ * Run with ./gradlew jmh
+ * Created by fmontoto on 04-05-17.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SignBenchmark {
+    BigInteger key;
+    ECKey ecKey;
+    byte[] digest;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        key = new BigInteger(255, random);
+        ecKey = ECKey.fromPrivate(key);
+        digest = new byte[32];
+        random.nextBytes(digest);
+    }
+
+    @Benchmark
+    public byte[] secp256k1Signer() throws InvalidKeyException {
+        return Secp256k1Signer.sign(key, digest);
+    }
+
+    @Benchmark
+    public byte[] bitcoinj() {
+        return ecKey.sign(Sha256Hash.wrap(digest)).encodeToDER();
+    }
+}
@@ -0,0 +1,74 @@
+package bitcoin.transaction;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * txid() call pattern of the protocol flows (ProtocolTxsTest): TransactionBuilder.bet and
+ * oracleInscription build an AbsoluteOutput, and so ask for the txid, for every output they
+ * spend from the same bet promise. Those flows need a running bitcoind, so the bet promise is
+ * built here with random keys and hashes but the same shape: funding inputs, OP_RETURN with
+ * the bet, two players' P2SH outputs, one P2SH output per oracle and the change.
+ *
+ * "recomputed" touches an input before asking for the txid, which forces the hash to be
+ * computed again as it was done before memoizing it.
+ *
+ * Run with ./gradlew jmh
+ * Created by fmontoto on 19-04-17.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TxidBenchmark {
+    @Param({"5", "20"})
+    int oracles;
+
+    Transaction betPromise;
+
+    static private byte[] randomBytes(Random random, int size) {
+        byte[] ret = new byte[size];
+        random.nextBytes(ret);
+        return ret;
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        betPromise = new Transaction(1, 0);
+        for(int i = 0; i < 2; i++)
+            betPromise.appendInput(new Input(i, randomBytes(random, 32), randomBytes(random, 107)));
+        betPromise.appendOutput(new Output(0, randomBytes(random, 300)));
+        for(int i = 0; i < 2 + oracles; i++)
+            betPromise.appendOutput(new Output(100000, randomBytes(random, 23)));
+        betPromise.appendOutput(new Output(100000, randomBytes(random, 25)));
+    }
+
+    private List<AbsoluteOutput> spendAllOutputs(boolean forceRecompute)
+            throws NoSuchAlgorithmException {
+        List<AbsoluteOutput> ret = new LinkedList<>();
+        for(int i = 1; i < betPromise.getOutputs().size(); i++) {
+            if(forceRecompute)
+                betPromise.getInput(0).setSequenceNo(0xffffffff);
+            ret.add(new AbsoluteOutput(betPromise, i));
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public List<AbsoluteOutput> spendBetPromiseMemoized() throws NoSuchAlgorithmException {
+        return spendAllOutputs(false);
+    }
+
+    @Benchmark
+    public List<AbsoluteOutput> spendBetPromiseRecomputed() throws NoSuchAlgorithmException {
+        return spendAllOutputs(true);
+    }
+}
@@ -0,0 +1,92 @@
+package core;
+
+import bitcoin.transaction.Output;
+import bitcoin.transaction.ParseTransactionException;
+import bitcoin.transaction.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table driven hex codec against the previous String.format/Character.digit implementation,
+ * kept here as legacy*, over raw transactions as returned by bitcoind.
+ *
+ * Run with ./gradlew jmh
+ * Created by fmontoto on 22-04-17.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HexBenchmark {
+    @Param({"2", "200"})
+    int outputs;
+
+    String rawTransactionHex;
+    byte[] rawTransaction;
+
+    static private byte[] legacyHexToByteArray(String s) {
+        byte[] data = new byte[s.length() / 2];
+        for (int i = 0; i < s.length(); i += 2) {
+            data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
+                    + Character.digit(s.charAt(i + 1), 16));
+        }
+        return data;
+    }
+
+    static private String legacyByteArrayToHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < bytes.length; i++) {
+            sb.append(String.format("%02X", bytes[i]));
+        }
+        return sb.toString();
+    }
+
+    @Setup
+    public void setUp() throws ParseTransactionException {
+        Transaction tx = new Transaction(
+                "010000000167ACA719146B3E5F0A5C4D37C2E487C1635C36272BE6C3E614AA2C9A0BADC2520000000"
+                + "06A473044022053002185456A6C14112DDF0576D6679BED9CC17E1F0555C717C8DB1E512041CE02"
+                + "206FA9CFBC517BEBEC996E4BBE9F43DB546D4606D71EE137BB22E77733E5971536012102F262D3D"
+                + "68F940FE1F751194092438B541BA809A4E81D145870C9A121D1419235FFFFFFFF02000000000000"
+                + "00002A6A28444F4350524F4F467F1213F5F0D7DE70C071A65BEC6A7D1D061C225323AD2B9CF495C"
+                + "E4518F66E4B107A0700000000001976A9140002104E305CA7CF99DD6D2A688561F23197DB8388AC"
+                + "00000000");
+        for(int i = 2; i < outputs; i++)
+            tx.appendOutput(new Output(i, tx.getOutput(1).getScript()));
+        rawTransaction = tx.serialize();
+        rawTransactionHex = tx.hexlify();
+    }
+
+    @Benchmark
+    public String encodeLegacy() {
+        return legacyByteArrayToHex(rawTransaction);
+    }
+
+    @Benchmark
+    public String encode() {
+        return Utils.byteArrayToHex(rawTransaction);
+    }
+
+    @Benchmark
+    public byte[] decodeLegacy() {
+        return legacyHexToByteArray(rawTransactionHex);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Utils.hexToByteArray(rawTransactionHex);
+    }
+
+    @Benchmark
+    public Transaction parseTransactionLegacy() throws ParseTransactionException {
+        return new Transaction(legacyHexToByteArray(rawTransactionHex));
+    }
+
+    @Benchmark
+    public Transaction parseTransaction() throws ParseTransactionException {
+        return new Transaction(rawTransactionHex);
+    }
+}
@@ -3,6 +3,8 @@ package bitcoin;
 import bitcoin.transaction.AbsoluteOutput;
 import bitcoin.transaction.ParseTransactionException;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -46,4 +48,31 @@ public class ClientUtils {
         assertFalse(ret.isEmpty());
         return ret;
     }
+
+    /**
+     * Return the unspent outputs paying to the addresses, from the locally maintained set
+     * instead of asking bitcoind.
+     * @param utxoSet
+     * @param addresses In the format of {@link bitcoin.transaction.Output#getPayAddress()}
+     * @return
+     */
+    public static List<AbsoluteOutput> getUnspentOutputs(
+            UtxoSet utxoSet, Collection<String> addresses) {
+        List<AbsoluteOutput> ret = new ArrayList<>();
+        for(String address : addresses)
+            ret.addAll(utxoSet.getByAddress(address));
+        assertFalse(ret.isEmpty());
+        return ret;
+    }
+
+    public static List<AbsoluteOutput> getOutputsAvailableAtLeast(
+            UtxoSet utxoSet, Collection<String> addresses, long atLeast) {
+        List<AbsoluteOutput> ret = new LinkedList<>();
+        for(String address : addresses)
+            for(AbsoluteOutput ao : utxoSet.getByAddress(address))
+                if(ao.getValue() >= atLeast)
+                    ret.add(ao);
+        assertFalse(ret.isEmpty());
+        return ret;
+    }
 }
@@ -0,0 +1,210 @@
+package bitcoin;
+
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * SHA-256 and RIPEMD-160 based hashes used by bitcoin: txids, addresses, script hashes...
+ *
+ * Every thread reuses its own digest instances instead of looking them up on each call, and
+ * the BouncyCastle provider is registered once, when this class is loaded. Besides the byte[]
+ * versions there are (array, offset, length) and ByteBuffer overloads, so a slice of a bigger
+ * buffer can be hashed without copying it, and versions writing the result into an array of
+ * the caller.
+ *
+ * Created by fmontoto on 08-05-17.
+ */
+public final class Hashes {
+    private static final Logger LOGGER = Logger.getLogger(Hashes.class.getName());
+
+    static public final int SHA256_LENGTH = 32;
+    static public final int RIPEMD160_LENGTH = 20;
+
+    // r160SHA256Hash used to register it on every call, code looking up BouncyCastle
+    // algorithms through the JCA might depend on it.
+    static {
+        if(Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null)
+            Security.addProvider(new BouncyCastleProvider());
+    }
+
+    static private final class Digests {
+        final MessageDigest sha256;
+        final RIPEMD160Digest ripemd160 = new RIPEMD160Digest();
+        // Intermediate result of the composed hashes.
+        final byte[] scratch = new byte[SHA256_LENGTH];
+
+        Digests() {
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                LOGGER.throwing("Hashes", "Digests", e);
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+        }
+    }
+
+    static private final ThreadLocal<Digests> digests = ThreadLocal.withInitial(Digests::new);
+
+    // SHA256(tag) || SHA256(tag) of the tags used so far.
+    static private final ConcurrentMap<String, byte[]> tagPrefixes = new ConcurrentHashMap<>();
+
+    private Hashes() {}
+
+    static public byte[] sha256(byte[] val) {
+        return sha256(val, 0, val.length);
+    }
+
+    static public byte[] sha256(byte[] val, int offset, int length) {
+        byte[] ret = new byte[SHA256_LENGTH];
+        sha256(val, offset, length, ret, 0);
+        return ret;
+    }
+
+    /**
+     * Hash the remaining bytes of the buffer, its position is moved up to the limit.
+     */
+    static public byte[] sha256(ByteBuffer val) {
+        MessageDigest dig = digests.get().sha256;
+        dig.update(val);
+        return dig.digest();
+    }
+
+    /**
+     * Write the SHA-256 of val[offset, offset + length) at out[outOffset].
+     */
+    static public void sha256(byte[] val, int offset, int length, byte[] out, int outOffset) {
+        checkRoom(out, outOffset, SHA256_LENGTH);
+        MessageDigest dig = digests.get().sha256;
+        dig.update(val, offset, length);
+        finish(dig, out, outOffset);
+    }
+
+    static public byte[] doubleSHA256(byte[] val) {
+        return doubleSHA256(val, 0, val.length);
+    }
+
+    static public byte[] doubleSHA256(byte[] val, int offset, int length) {
+        byte[] ret = new byte[SHA256_LENGTH];
+        doubleSHA256(val, offset, length, ret, 0);
+        return ret;
+    }
+
+    /**
+     * Hash the remaining bytes of the buffer, its position is moved up to the limit.
+     */
+    static public byte[] doubleSHA256(ByteBuffer val) {
+        Digests d = digests.get();
+        d.sha256.update(val);
+        finish(d.sha256, d.scratch, 0);
+        d.sha256.update(d.scratch);
+        return d.sha256.digest();
+    }
+
+    static public void doubleSHA256(byte[] val, int offset, int length, byte[] out,
+                                    int outOffset) {
+        checkRoom(out, outOffset, SHA256_LENGTH);
+        Digests d = digests.get();
+        d.sha256.update(val, offset, length);
+        finish(d.sha256, d.scratch, 0);
+        d.sha256.update(d.scratch);
+        finish(d.sha256, out, outOffset);
+    }
+
+    static public byte[] ripemd160(byte[] val) {
+        return ripemd160(val, 0, val.length);
+    }
+
+    static public byte[] ripemd160(byte[] val, int offset, int length) {
+        byte[] ret = new byte[RIPEMD160_LENGTH];
+        ripemd160(val, offset, length, ret, 0);
+        return ret;
+    }
+
+    static public void ripemd160(byte[] val, int offset, int length, byte[] out, int outOffset) {
+        checkRoom(out, outOffset, RIPEMD160_LENGTH);
+        RIPEMD160Digest dig = digests.get().ripemd160;
+        dig.update(val, offset, length);
+        dig.doFinal(out, outOffset);
+    }
+
+    /**
+     * RIPEMD-160 of the SHA-256, as used for addresses and script hashes.
+     */
+    static public byte[] hash160(byte[] val) {
+        return hash160(val, 0, val.length);
+    }
+
+    static public byte[] hash160(byte[] val, int offset, int length) {
+        byte[] ret = new byte[RIPEMD160_LENGTH];
+        hash160(val, offset, length, ret, 0);
+        return ret;
+    }
+
+    /**
+     * Hash the remaining bytes of the buffer, its position is moved up to the limit.
+     */
+    static public byte[] hash160(ByteBuffer val) {
+        Digests d = digests.get();
+        d.sha256.update(val);
+        finish(d.sha256, d.scratch, 0);
+        byte[] ret = new byte[RIPEMD160_LENGTH];
+        d.ripemd160.update(d.scratch, 0, SHA256_LENGTH);
+        d.ripemd160.doFinal(ret, 0);
+        return ret;
+    }
+
+    static public void hash160(byte[] val, int offset, int length, byte[] out, int outOffset) {
+        checkRoom(out, outOffset, RIPEMD160_LENGTH);
+        Digests d = digests.get();
+        d.sha256.update(val, offset, length);
+        finish(d.sha256, d.scratch, 0);
+        d.ripemd160.update(d.scratch, 0, SHA256_LENGTH);
+        d.ripemd160.doFinal(out, outOffset);
+    }
+
+    /**
+     * BIP 340 tagged hash: SHA256(SHA256(tag) || SHA256(tag) || data[0] || data[1] || ...).
+     */
+    static public byte[] taggedHash(String tag, byte[]... data) {
+        byte[] prefix = tagPrefixes.computeIfAbsent(tag, t -> {
+            byte[] tagHash = sha256(t.getBytes(StandardCharsets.UTF_8));
+            byte[] ret = new byte[2 * SHA256_LENGTH];
+            System.arraycopy(tagHash, 0, ret, 0, SHA256_LENGTH);
+            System.arraycopy(tagHash, 0, ret, SHA256_LENGTH, SHA256_LENGTH);
+            return ret;
+        });
+        MessageDigest dig = digests.get().sha256;
+        dig.update(prefix);
+        for(byte[] d : data)
+            dig.update(d);
+        return dig.digest();
+    }
+
+    // Checked before updating the digests, which must be left ready for the next call.
+    static private void checkRoom(byte[] out, int outOffset, int length) {
+        if(outOffset < 0 || outOffset + length > out.length)
+            throw new IndexOutOfBoundsException(
+                    "No room for " + length + " bytes at " + outOffset + " of " + out.length
+                            + " bytes");
+    }
+
+    // Also resets the digest, out has room for the result.
+    static private void finish(MessageDigest dig, byte[] out, int outOffset) {
+        try {
+            dig.digest(out, outOffset, SHA256_LENGTH);
+        } catch (DigestException e) {
+            LOGGER.throwing("Hashes", "finish", e);
+            throw new IllegalStateException(e);
+        }
+    }
+}
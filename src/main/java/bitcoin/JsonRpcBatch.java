@@ -0,0 +1,213 @@
+package bitcoin;
+
+import wf.bitcoin.krotjson.JSON;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidParameterException;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Sends many JSON-RPC calls to bitcoind in a single HTTP POST (a JSON array of requests). Calls
+ * are split in batches of at most batchSize elements and every call gets its own
+ * {@link Response}, so a failed element doesn't fail the whole batch.
+ *
+ * Created by fmontoto on 13-05-17.
+ */
+public class JsonRpcBatch {
+    private static final Logger LOGGER = Logger.getLogger(JsonRpcBatch.class.getName());
+    static public final int DEFAULT_BATCH_SIZE = 100;
+
+    private final URL url;
+    private final String authorization;
+    private volatile int batchSize;
+
+    /**
+     * A method call, the params are serialized as JSON.
+     */
+    static public class Request {
+        private final String method;
+        private final Object[] params;
+
+        public Request(String method, Object... params) {
+            this.method = method;
+            this.params = params;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+    }
+
+    /**
+     * Outcome of a single call, either a result or the error returned by bitcoind.
+     */
+    static public class Response {
+        private final Object result;
+        private final String error;
+
+        private Response(Object result, String error) {
+            this.result = result;
+            this.error = error;
+        }
+
+        public boolean isError() {
+            return error != null;
+        }
+
+        public Object getResult() {
+            return result;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * @param url bitcoind url, the user info (user:password) is sent as basic authentication.
+     */
+    public JsonRpcBatch(URL url, int batchSize) {
+        if(url == null)
+            throw new InvalidParameterException("The RPC url is not configured.");
+        setBatchSize(batchSize);
+        if(url.getUserInfo() != null) {
+            authorization = "Basic " + Base64.getEncoder().encodeToString(
+                    url.getUserInfo().getBytes(StandardCharsets.UTF_8));
+            try {
+                url = new URL(url.getProtocol(), url.getHost(), url.getPort(), url.getFile());
+            } catch (MalformedURLException e) {
+                throw new InvalidParameterException(e.getMessage());
+            }
+        }
+        else {
+            authorization = null;
+        }
+        this.url = url;
+    }
+
+    public JsonRpcBatch(URL url) {
+        this(url, DEFAULT_BATCH_SIZE);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if(batchSize <= 0)
+            throw new InvalidParameterException("Batch size must be positive, got " + batchSize);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return One response per request, in the same order.
+     * @throws UncheckedIOException If bitcoind could not be reached or the whole batch failed,
+     * as the wrapped rpc client does on connection errors.
+     */
+    public List<Response> call(List<Request> requests) {
+        List<Response> ret = new ArrayList<>(requests.size());
+        int size = batchSize;
+        for(int from = 0; from < requests.size(); from += size)
+            ret.addAll(post(requests.subList(from, Math.min(requests.size(), from + size))));
+        return ret;
+    }
+
+    private List<Response> post(List<Request> batch) {
+        List<Object> body = new ArrayList<>(batch.size());
+        for(int i = 0; i < batch.size(); i++) {
+            Map<String, Object> call = new LinkedHashMap<>();
+            call.put("jsonrpc", "1.0");
+            call.put("id", i);
+            call.put("method", batch.get(i).method);
+            call.put("params", batch.get(i).params);
+            body.add(call);
+        }
+        String replyText;
+        try {
+            replyText = send(JSON.stringify(body));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Object reply;
+        try {
+            reply = JSON.parse(replyText);
+        } catch (RuntimeException e) {
+            throw new UncheckedIOException(
+                    new IOException("Malformed batch reply: " + e.getMessage()));
+        }
+        if(!(reply instanceof List))
+            throw new UncheckedIOException(new IOException("Batch call rejected: " + reply));
+
+        // bitcoind may answer in any order, match the responses by id.
+        Response[] ret = new Response[batch.size()];
+        for(Object o : (List<?>) reply) {
+            if(!(o instanceof Map))
+                continue;
+            Map<?, ?> response = (Map<?, ?>) o;
+            Object id = response.get("id");
+            if(!(id instanceof Number) || ((Number) id).longValue() < 0
+                    || ((Number) id).longValue() >= ret.length)
+                continue;
+            Object error = response.get("error");
+            ret[((Number) id).intValue()] = error == null
+                    ? new Response(response.get("result"), null)
+                    : new Response(null, errorMessage(error));
+        }
+        for(int i = 0; i < ret.length; i++) {
+            if(ret[i] == null) {
+                LOGGER.warning("No response for " + batch.get(i).method);
+                ret[i] = new Response(null, "Missing response");
+            }
+        }
+        return Arrays.asList(ret);
+    }
+
+    static private String errorMessage(Object error) {
+        if(error instanceof Map && ((Map<?, ?>) error).get("message") != null)
+            return ((Map<?, ?>) error).get("code") + ": " + ((Map<?, ?>) error).get("message");
+        return error.toString();
+    }
+
+    private String send(String body) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "application/json");
+        if(authorization != null)
+            conn.setRequestProperty("Authorization", authorization);
+        try(OutputStream out = conn.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        // bitcoind answers a batch with 200 even if some calls failed, anything else means the
+        // whole batch failed (wrong credentials, too large...). The streams are drained so the
+        // connection can be kept alive for the next batch.
+        if(conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            InputStream error = conn.getErrorStream();
+            if(error != null)
+                readAll(error);
+            throw new IOException("RPC server answered " + conn.getResponseCode() + " "
+                                  + conn.getResponseMessage());
+        }
+        return readAll(conn.getInputStream());
+    }
+
+    static private String readAll(InputStream in) throws IOException {
+        try(InputStream is = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = is.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
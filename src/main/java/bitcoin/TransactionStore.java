@@ -0,0 +1,393 @@
+package bitcoin;
+
+import bitcoin.transaction.ParseTransactionException;
+import bitcoin.transaction.Transaction;
+import bitcoin.transaction.TransactionView;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import static core.Utils.byteArrayToHex;
+import static core.Utils.hexToByteArray;
+
+/**
+ * Append only on-disk store of raw transactions by txid, read through memory mapped files.
+ *
+ * The transactions are appended to segment files of at most segmentBytes, a new segment is
+ * started when the current one is full. Every record is
+ * [raw length (4)][type (1)][txid (32)][crc32 of type, txid and raw (4)][raw], removals are
+ * tombstone records without raw bytes. The txid -> (segment, offset, length) index lives in
+ * memory and is rebuilt scanning the segments when the store is opened; a record cut by a crash
+ * fails its length or checksum and the segment is truncated there.
+ *
+ * Replaced and removed records are dead bytes until {@link #compact()} copies the live records
+ * to new segments. When the files grow over maxBytes the store first compacts, then drops its
+ * oldest segments.
+ *
+ * Created by fmontoto on 15-05-17.
+ */
+public class TransactionStore implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(TransactionStore.class.getName());
+    static public final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    static public final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+    static private final String SUFFIX = ".txs";
+    static private final int HEADER_SIZE = 4 + 1 + 32 + 4;
+    static private final byte PUT = 1;
+    static private final byte REMOVE = 2;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long segmentBytes;
+    // Held while the store is open, so two processes don't append to the same segments.
+    private final FileChannel lockChannel;
+    // By segment number, the last one is the one being appended.
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<String, Location> index = new HashMap<>();
+    private long diskBytes;
+    private long deadBytes;
+
+    static private class Location {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+
+        private Location(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    static private class Segment {
+        private final int number;
+        private final Path path;
+        private final FileChannel channel;
+        private long size;
+        private MappedByteBuffer mapped;
+
+        private Segment(int number, Path path) throws IOException {
+            this.number = number;
+            this.path = path;
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+            size = channel.size();
+        }
+
+        /**
+         * @return A read only view of the segment covering at least up to end.
+         */
+        private ByteBuffer map(long end) throws IOException {
+            if(mapped == null || mapped.capacity() < end)
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return mapped.asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * @param dir Directory of the store, created if needed. It must not be shared, opening it
+     *            while another store has it open fails.
+     * @param maxBytes Max size of the segment files.
+     * @param segmentBytes Size at which a new segment is started.
+     */
+    public TransactionStore(Path dir, long maxBytes, long segmentBytes) throws IOException {
+        if(segmentBytes <= HEADER_SIZE || segmentBytes > Integer.MAX_VALUE)
+            throw new InvalidParameterException("Invalid segment size " + segmentBytes);
+        if(maxBytes < segmentBytes)
+            throw new InvalidParameterException("maxBytes must be at least the segment size");
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        lockChannel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE,
+                                       StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if(lock == null) {
+            lockChannel.close();
+            throw new IOException(dir + " is open by another transaction store.");
+        }
+        List<Integer> numbers = new ArrayList<>();
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for(Path file : files) {
+                String name = file.getFileName().toString();
+                name = name.substring(0, name.length() - SUFFIX.length());
+                try {
+                    numbers.add(Integer.parseInt(name));
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Ignoring " + file);
+                }
+            }
+        }
+        Collections.sort(numbers);
+        for(int number : numbers)
+            recover(openSegment(number));
+        if(segments.isEmpty())
+            openSegment(0);
+    }
+
+    public TransactionStore(Path dir, long maxBytes) throws IOException {
+        this(dir, maxBytes, Math.min(maxBytes, DEFAULT_SEGMENT_BYTES));
+    }
+
+    private Segment openSegment(int number) throws IOException {
+        Segment segment = new Segment(number,
+                                      dir.resolve(String.format("%08d%s", number, SUFFIX)));
+        segments.put(number, segment);
+        diskBytes += segment.size;
+        return segment;
+    }
+
+    static private long checksum(ByteBuffer record, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer header = record.duplicate();
+        header.limit(offset + 37).position(offset + 4);
+        crc.update(header);
+        ByteBuffer raw = record.duplicate();
+        raw.limit(offset + HEADER_SIZE + length).position(offset + HEADER_SIZE);
+        crc.update(raw);
+        return crc.getValue();
+    }
+
+    // Rebuild the index from the records of the segment, truncating it at the first bad one.
+    private void recover(Segment segment) throws IOException {
+        ByteBuffer buffer = segment.map(segment.size);
+        int offset = 0;
+        while(offset + HEADER_SIZE <= segment.size) {
+            int length = buffer.getInt(offset);
+            byte type = buffer.get(offset + 4);
+            if(length < 0 || offset + HEADER_SIZE + (long) length > segment.size
+                    || (type != PUT && type != REMOVE))
+                break;
+            if((buffer.getInt(offset + 37) & 0xFFFFFFFFL) != checksum(buffer, offset, length))
+                break;
+            byte[] txid = new byte[32];
+            ByteBuffer b = buffer.duplicate();
+            b.position(offset + 5);
+            b.get(txid);
+            Location location = type == PUT ? new Location(segment, offset, length) : null;
+            apply(byteArrayToHex(txid).toLowerCase(), location, HEADER_SIZE + length);
+            offset += HEADER_SIZE + length;
+        }
+        if(offset != segment.size) {
+            LOGGER.warning("Truncating " + segment.path + " from " + segment.size + " to "
+                           + offset + " bytes, the tail was not completely written");
+            diskBytes -= segment.size - offset;
+            segment.channel.truncate(offset);
+            segment.size = offset;
+            segment.mapped = null;
+        }
+    }
+
+    // Point txid to location (null to remove it), the record takes recordBytes on disk.
+    private void apply(String txid, Location location, long recordBytes) {
+        Location old = location == null ? index.remove(txid) : index.put(txid, location);
+        if(old != null)
+            deadBytes += HEADER_SIZE + old.length;
+        // Tombstones are dead as soon as they are written, they only matter until compaction.
+        if(location == null)
+            deadBytes += recordBytes;
+    }
+
+    private Segment append(byte type, String txid, ByteBuffer raw) throws IOException {
+        int length = raw == null ? 0 : raw.remaining();
+        Segment segment = segments.lastEntry().getValue();
+        if(segment.size > 0 && segment.size + HEADER_SIZE + length > segmentBytes)
+            segment = openSegment(segment.number + 1);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.putInt(length).put(type).put(hexToByteArray(txid)).putInt(0);
+        if(raw != null)
+            record.put(raw.duplicate());
+        record.putInt(37, (int) checksum(record, 0, length));
+        record.flip();
+        long offset = segment.size;
+        while(record.hasRemaining())
+            segment.channel.write(record, offset + record.position());
+        segment.size += record.limit();
+        diskBytes += record.limit();
+        apply(txid, type == PUT ? new Location(segment, (int) offset, length) : null,
+              record.limit());
+        return segment;
+    }
+
+    static private String normalize(String txid) {
+        if(txid.length() != 64)
+            throw new InvalidParameterException("Invalid txid " + txid);
+        return txid.toLowerCase();
+    }
+
+    public synchronized boolean contains(String txid) {
+        return index.containsKey(normalize(txid));
+    }
+
+    /**
+     * @return A read only buffer with the raw transaction, mapped from the file (nothing is
+     * copied), or null if the transaction is not in the store.
+     */
+    public synchronized ByteBuffer get(String txid) throws IOException {
+        Location location = index.get(normalize(txid));
+        if(location == null)
+            return null;
+        int start = location.offset + HEADER_SIZE;
+        ByteBuffer ret = location.segment.map(start + location.length);
+        ret.limit(start + location.length).position(start);
+        return ret.slice();
+    }
+
+    /**
+     * The transaction parsed straight from the mapped file, or null if it is not in the store.
+     */
+    public Transaction getTransaction(String txid) throws IOException, ParseTransactionException {
+        ByteBuffer raw = get(txid);
+        return raw == null ? null : new Transaction(new TransactionView(raw));
+    }
+
+    /**
+     * Add the transaction, replacing the previous record of the txid if any.
+     */
+    public synchronized void put(String txid, ByteBuffer raw) throws IOException {
+        if(raw.remaining() > segmentBytes - HEADER_SIZE)
+            throw new InvalidParameterException("Transaction larger than a segment.");
+        append(PUT, normalize(txid), raw);
+        enforceMaxBytes();
+    }
+
+    public void put(String txid, byte[] raw) throws IOException {
+        put(txid, ByteBuffer.wrap(raw));
+    }
+
+    /**
+     * @return True if the transaction was in the store.
+     */
+    public synchronized boolean remove(String txid) throws IOException {
+        String key = normalize(txid);
+        if(!index.containsKey(key))
+            return false;
+        append(REMOVE, key, null);
+        enforceMaxBytes();
+        return true;
+    }
+
+    private void enforceMaxBytes() throws IOException {
+        if(diskBytes <= maxBytes)
+            return;
+        if(deadBytes > 0)
+            compact();
+        while(diskBytes > maxBytes && segments.size() > 1)
+            dropSegment(segments.firstEntry().getValue());
+    }
+
+    private void dropSegment(Segment segment) throws IOException {
+        Iterator<Location> it = index.values().iterator();
+        while(it.hasNext()) {
+            Location location = it.next();
+            if(location.segment == segment)
+                it.remove();
+        }
+        segments.remove(segment.number);
+        segment.channel.close();
+        segment.mapped = null;
+        Files.delete(segment.path);
+        diskBytes -= segment.size;
+        recountDeadBytes();
+    }
+
+    private void recountDeadBytes() {
+        long live = 0;
+        for(Location location : index.values())
+            live += HEADER_SIZE + location.length;
+        deadBytes = diskBytes - live;
+    }
+
+    /**
+     * Copy the live records to new segments and delete the old ones, dropping the replaced
+     * records and the tombstones. A crash in the middle leaves duplicated records, the index
+     * keeps the last one.
+     */
+    public synchronized void compact() throws IOException {
+        Segment last = segments.lastEntry().getValue();
+        if(deadBytes == 0)
+            return;
+        Segment current = last.size == 0 ? last : openSegment(last.number + 1);
+        List<Segment> old = new ArrayList<>(segments.headMap(current.number).values());
+        // Older first, keeping the order of the records.
+        List<Map.Entry<String, Location>> live = new ArrayList<>();
+        for(Map.Entry<String, Location> e : index.entrySet())
+            if(e.getValue().segment != current)
+                live.add(new AbstractMap.SimpleImmutableEntry<>(e));
+        live.sort((a, b) -> {
+            Location la = a.getValue(), lb = b.getValue();
+            if(la.segment != lb.segment)
+                return Integer.compare(la.segment.number, lb.segment.number);
+            return Integer.compare(la.offset, lb.offset);
+        });
+        for(Map.Entry<String, Location> e : live) {
+            Location location = e.getValue();
+            int start = location.offset + HEADER_SIZE;
+            ByteBuffer raw = location.segment.map(start + location.length);
+            raw.limit(start + location.length).position(start);
+            append(PUT, e.getKey(), raw);
+        }
+        // The copies must be on disk before the originals are deleted.
+        for(Segment segment : segments.tailMap(current.number).values())
+            segment.channel.force(false);
+        for(Segment segment : old) {
+            segments.remove(segment.number);
+            segment.channel.close();
+            segment.mapped = null;
+            Files.delete(segment.path);
+            diskBytes -= segment.size;
+        }
+        recountDeadBytes();
+    }
+
+    /**
+     * Force the appended records to the disk.
+     */
+    public synchronized void flush() throws IOException {
+        segments.lastEntry().getValue().channel.force(false);
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return Size of the segment files.
+     */
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * @return Bytes of the segment files taken by replaced or removed records.
+     */
+    public synchronized long getDeadBytes() {
+        return deadBytes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        for(Segment segment : segments.values()) {
+            segment.channel.close();
+            segment.mapped = null;
+        }
+        lockChannel.close();
+    }
+}
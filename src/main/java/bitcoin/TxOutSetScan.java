@@ -0,0 +1,47 @@
+package bitcoin;
+
+import bitcoin.transaction.AbsoluteOutput;
+
+import java.util.List;
+
+/**
+ * Unspent outputs found by bitcoind's scantxoutset, a scan of its chainstate at a given block.
+ *
+ * Created by fmontoto on 19-05-17.
+ */
+public class TxOutSetScan {
+    private final int height;
+    private final String bestBlock;
+    private final List<AbsoluteOutput> outputs;
+    private final int[] heights;
+
+    public TxOutSetScan(int height, String bestBlock, List<AbsoluteOutput> outputs,
+                        int[] heights) {
+        this.height = height;
+        this.bestBlock = bestBlock;
+        this.outputs = outputs;
+        this.heights = heights;
+    }
+
+    /**
+     * @return Height of the block the chainstate was scanned at.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    public String getBestBlock() {
+        return bestBlock;
+    }
+
+    public List<AbsoluteOutput> getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * @return Height of the block confirming the i-th output.
+     */
+    public int getHeight(int i) {
+        return heights[i];
+    }
+}
@@ -1,20 +1,15 @@
 package bitcoin;
 
 import bitcoin.transaction.Output;
-import bitcoin.transaction.ParseTransactionException;
+import bitcoin.transaction.Script;
 import bitcoin.transaction.Transaction;
 
 import java.security.InvalidParameterException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
-import static core.Utils.byteArrayToHex;
 
 /**
  * Created by fmontoto on 25-11-16.
@@ -32,37 +27,25 @@ public class Utils {
     }
 
     static public byte[] doubleSHA256(byte[] val) throws NoSuchAlgorithmException {
-        MessageDigest dig = null;
-        try {
-            dig = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            LOGGER.throwing("Utils", "doubleSHA256", e);
-            throw e;
-        }
-        byte [] first_digest = dig.digest(val);
-        dig.reset();
-        return dig.digest(first_digest);
+        return Hashes.doubleSHA256(val);
     }
 
     static private Set<String> getBlockOracles(BitcoindClient client, Block block) {
-        Collection<Transaction> transactions = new LinkedList<>();
+        Collection<Transaction> transactions = client.getBlockTransactions(block).values();
+        if(transactions.size() != block.getTxs().size())
+            throw new InvalidParameterException(
+                    "Could not fetch the transactions of the block " + block.getHeight());
         Set<String> oraclesAddress = new HashSet<>();
-        for(String txId: block.getTxs())
-            try {
-                transactions.add(client.getTransaction(txId));
-            } catch(ParseTransactionException e) {
-
-            }
         for(Transaction tx : transactions) {
             List<Output> outputs = tx.getOutputs();
             //TODO duplicated at Oracle
             for(int i = 0; i < outputs.size(); i++) {
                 Output out = outputs.get(i);
-                if(out.isPayToKey() || out.isPayToScript())
+                if(!out.isOpReturn())
                     continue;
-                List<String> parsedScript = out.getParsedScript();
-                if(parsedScript.size() == 3 && parsedScript.get(0).equals("OP_RETURN"))
-                    if(parsedScript.get(2).equals(byteArrayToHex(core.Constants.ORACLE_INSCRIPTION)))
+                Script script = out.getScriptPubKey();
+                if(script.isOpReturnData())
+                    if(script.getChunk(1).dataEquals(core.Constants.ORACLE_INSCRIPTION))
                         if(i + 1 < outputs.size() && outputs.get(i + 1).isPayToKey())
                             oraclesAddress.add(outputs.get(i + 1).getPayAddress());
             }
@@ -71,27 +54,41 @@ public class Utils {
         return oraclesAddress;
     }
 
-    static List<String> compileOracleList(BitcoindClient client, String fromBlockHash, String toBlockHash) throws ExecutionException, InterruptedException {
+    static List<String> compileOracleList(BitcoindClient client, String fromBlockHash, String toBlockHash) {
         Set<String> oracles = new HashSet<>();
-        Set<String> concurrentOracles = Collections.synchronizedSet(oracles);
         int fromBlockHeight = client.getBlock(fromBlockHash).getHeight();
         int toBlockHeight = client.getBlock(toBlockHash).getHeight();
         if(fromBlockHeight > toBlockHeight)
             throw new InvalidParameterException("fromBlock must be previous than toBlock");
 
-        IntStream intStream = IntStream.rangeClosed(fromBlockHeight, toBlockHeight).parallel();
-        ForkJoinPool forkJoinPool = new ForkJoinPool(8);
-        forkJoinPool.submit(() -> intStream.forEach(i -> concurrentOracles.addAll(getBlockOracles(client, client.getBlock(i))))).get();
-//        intStream.forEach(i -> concurrentOracles.addAll(getBlockOracles(client, client.getBlock(i))));
-        forkJoinPool.shutdown();
+        // Blocks and their transactions are fetched with batched calls, a block at a time keeps
+        // the transactions in memory bounded.
+        int step = client.getBatchSize();
+        for(int from = fromBlockHeight; from <= toBlockHeight; from += step) {
+            int to = Math.min(toBlockHeight, from + step - 1);
+            List<Block> blocks = client.getBlocks(from, to);
+            if(blocks.size() != to - from + 1)
+                throw new InvalidParameterException("Could not fetch the blocks " + from + " to "
+                                                    + to);
+            for(Block block : blocks)
+                oracles.addAll(getBlockOracles(client, block));
+        }
 
         return oracles.stream().sorted().collect(Collectors.toList());
     }
 
     static public List<String> getOracleList(boolean testnet, String fromBlock, String toBlock){
+        return getOracleList(new BitcoindClient(testnet), fromBlock, toBlock);
+    }
+
+    /**
+     * @param fromBlock Height or hash of the first block.
+     * @param toBlock Height or hash of the last block.
+     */
+    static public List<String> getOracleList(BitcoindClient client, String fromBlock,
+                                             String toBlock) {
         String fromBlockHash, toBlockHash;
         Integer blockHeigh;
-        BitcoindClient client = new BitcoindClient(testnet);
 
         if((blockHeigh = parseInt(fromBlock)) != null)
             fromBlockHash = client.getBlockHash(blockHeigh);
@@ -0,0 +1,706 @@
+package bitcoin;
+
+import bitcoin.transaction.AbsoluteOutput;
+import bitcoin.transaction.Input;
+import bitcoin.transaction.Output;
+import bitcoin.transaction.Transaction;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.logging.Logger;
+
+import static core.Utils.byteArrayToHex;
+import static core.Utils.hexToByteArray;
+
+/**
+ * Unspent outputs paying to a set of watched addresses (every output if there is no such set),
+ * maintained locally from the blocks and from our own transactions instead of asking bitcoind
+ * for them every time.
+ *
+ * Every output is an entry number into parallel primitive arrays (txid as 4 longs, vout, value,
+ * height and the bounds of its script in a shared byte array), the numbers of removed entries
+ * are reused. An open addressing table of entry numbers finds them by outpoint. The address
+ * index links the entries of each address in a list kept in two int arrays, with a balance per
+ * address; the value index is an int array of entry numbers sorted by value, so adding or
+ * spending an output moves part of it, which is cheap for wallet sized sets. Only the distinct
+ * addresses and the outputs returned to the caller are objects.
+ * The whole set can be saved to a snapshot file to be loaded on the next start.
+ *
+ * Reorganizations are not followed, a set built on a block that leaves the best chain must be
+ * rebuilt.
+ *
+ * Created by fmontoto on 16-05-17.
+ */
+public class UtxoSet {
+    private static final Logger LOGGER = Logger.getLogger(UtxoSet.class.getName());
+    static public final int UNCONFIRMED = -1;
+    static private final int NONE = -1;
+    static private final int TXID_LONGS = 4;
+    static private final int MIN_CAPACITY = 16;
+    static private final int SNAPSHOT_MAGIC = 0x5554584f;
+    // Version 2 added the outpoints spent by unconfirmed transactions.
+    static private final int SNAPSHOT_VERSION = 2;
+
+    // Addresses as returned by Output.getPayAddress, null to keep every output.
+    private final Set<String> watched;
+    // Entry number + 1 of the outpoint, 0 for an empty slot.
+    private int[] table;
+    private int mask;
+    private int size;
+
+    // By entry number, vout is NONE for the removed entries.
+    private long[] txids;
+    private int[] vouts;
+    private long[] values;
+    private int[] heights;
+    private int[] scriptStart;
+    private int[] scriptLength;
+    private int[] entryAddress;
+    private int[] nextByAddress;
+    private int[] prevByAddress;
+    // Entry numbers ever used and the removed ones, chained through nextByAddress.
+    private int entries;
+    private int freeEntry = NONE;
+
+    // The scripts of the entries, the ones of removed entries are dead until it gets compacted.
+    private byte[] scriptBytes = new byte[MIN_CAPACITY * 25];
+    private int scriptEnd;
+    private int deadScriptBytes;
+
+    // By address number.
+    private final Map<String, Integer> addressNumbers = new HashMap<>();
+    private int[] addressHead = new int[MIN_CAPACITY];
+    private int[] addressTail = new int[MIN_CAPACITY];
+    private long[] addressBalance = new long[MIN_CAPACITY];
+
+    // The first size positions have the entry numbers sorted by value, then by entry number.
+    private int[] byValue;
+
+    // Outpoints ("txid:vout") spent by our unconfirmed transactions, by spending txid. They
+    // must not come back when a block confirms the transaction that created them.
+    private final Map<String, List<String>> unconfirmedSpends = new HashMap<>();
+    private final Set<String> spentUnconfirmed = new HashSet<>();
+
+    private int height = UNCONFIRMED;
+    private String blockHash;
+
+    /**
+     * @param addresses Addresses to watch, in the format of {@link Output#getPayAddress()}.
+     *                  Null to keep every output.
+     */
+    public UtxoSet(Collection<String> addresses) {
+        watched = addresses == null ? null : new HashSet<>();
+        if(addresses != null)
+            for(String address : addresses)
+                watched.add(address.toUpperCase());
+        table = new int[MIN_CAPACITY];
+        mask = MIN_CAPACITY - 1;
+        txids = new long[MIN_CAPACITY * TXID_LONGS];
+        vouts = new int[MIN_CAPACITY];
+        values = new long[MIN_CAPACITY];
+        heights = new int[MIN_CAPACITY];
+        scriptStart = new int[MIN_CAPACITY];
+        scriptLength = new int[MIN_CAPACITY];
+        entryAddress = new int[MIN_CAPACITY];
+        nextByAddress = new int[MIN_CAPACITY];
+        prevByAddress = new int[MIN_CAPACITY];
+        byValue = new int[MIN_CAPACITY];
+    }
+
+    public UtxoSet() {
+        this(null);
+    }
+
+    public synchronized void watch(String address) {
+        if(watched != null)
+            watched.add(address.toUpperCase());
+    }
+
+    /**
+     * @return True if outputs paying like o are kept in the set.
+     */
+    public synchronized boolean isWatched(Output o) {
+        return watched == null || (o.isPayToKey() && watched.contains(o.getPayAddress()));
+    }
+
+    /**
+     * @param address In the format of {@link Output#getPayAddress()}.
+     */
+    public synchronized boolean isWatched(String address) {
+        return watched == null || watched.contains(address.toUpperCase());
+    }
+
+    static private long[] txidToLongs(String txid) {
+        if(txid.length() != 64)
+            throw new InvalidParameterException("Invalid txid " + txid);
+        return hashToLongs(hexToByteArray(txid));
+    }
+
+    static private long[] hashToLongs(byte[] hash) {
+        ByteBuffer b = ByteBuffer.wrap(hash);
+        return new long[] {b.getLong(), b.getLong(), b.getLong(), b.getLong()};
+    }
+
+    static private String outpoint(String txid, long vout) {
+        return txid.toLowerCase() + ":" + vout;
+    }
+
+    static private String longsToTxid(long[] keys, int pos) {
+        return String.format("%016x%016x%016x%016x",
+                             keys[pos], keys[pos + 1], keys[pos + 2], keys[pos + 3]);
+    }
+
+    private int home(long t0, long vout) {
+        // The txid is already a hash, mix it with the vout (murmur3 finalizer).
+        long h = t0 ^ (vout * 0x9E3779B97F4A7C15L);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private int home(int entry) {
+        return home(txids[entry * TXID_LONGS], vouts[entry]);
+    }
+
+    // Slot of the outpoint, or the empty slot where it would go.
+    private int find(long[] txid, long vout) {
+        int slot = home(txid[0], vout);
+        while(true) {
+            int entry = table[slot] - 1;
+            int pos = entry * TXID_LONGS;
+            if(entry == NONE || (vouts[entry] == vout && txids[pos] == txid[0]
+                    && txids[pos + 1] == txid[1] && txids[pos + 2] == txid[2]
+                    && txids[pos + 3] == txid[3]))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Entry of the outpoint, NONE if it is not in the set.
+    private int entry(String txid, long vout) {
+        return table[find(txidToLongs(txid), vout)] - 1;
+    }
+
+    private void grow() {
+        int capacity = table.length * 2;
+        txids = Arrays.copyOf(txids, capacity * TXID_LONGS);
+        vouts = Arrays.copyOf(vouts, capacity);
+        values = Arrays.copyOf(values, capacity);
+        heights = Arrays.copyOf(heights, capacity);
+        scriptStart = Arrays.copyOf(scriptStart, capacity);
+        scriptLength = Arrays.copyOf(scriptLength, capacity);
+        entryAddress = Arrays.copyOf(entryAddress, capacity);
+        nextByAddress = Arrays.copyOf(nextByAddress, capacity);
+        prevByAddress = Arrays.copyOf(prevByAddress, capacity);
+        byValue = Arrays.copyOf(byValue, capacity);
+        table = new int[capacity];
+        mask = capacity - 1;
+        for(int entry = 0; entry < entries; entry++) {
+            if(vouts[entry] == NONE)
+                continue;
+            int slot = home(entry);
+            while(table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = entry + 1;
+        }
+    }
+
+    // Copies the script to scriptBytes, compacting or growing it if there is no room.
+    private int storeScript(byte[] script) {
+        if(scriptEnd + script.length > scriptBytes.length) {
+            int live = scriptEnd - deadScriptBytes;
+            byte[] compacted = new byte[Math.max(scriptBytes.length, 2 * (live + script.length))];
+            scriptEnd = 0;
+            for(int entry = 0; entry < entries; entry++) {
+                if(vouts[entry] == NONE)
+                    continue;
+                System.arraycopy(scriptBytes, scriptStart[entry], compacted, scriptEnd,
+                                 scriptLength[entry]);
+                scriptStart[entry] = scriptEnd;
+                scriptEnd += scriptLength[entry];
+            }
+            scriptBytes = compacted;
+            deadScriptBytes = 0;
+        }
+        int start = scriptEnd;
+        System.arraycopy(script, 0, scriptBytes, start, script.length);
+        scriptEnd += script.length;
+        return start;
+    }
+
+    private String addressOf(byte[] script) {
+        Output o = new Output(0, script);
+        return o.isPayToKey() ? o.getPayAddress() : null;
+    }
+
+    private void indexAddress(int entry, String address) {
+        if(address == null) {
+            entryAddress[entry] = NONE;
+            return;
+        }
+        Integer number = addressNumbers.get(address);
+        if(number == null) {
+            number = addressNumbers.size();
+            addressNumbers.put(address, number);
+            if(number == addressHead.length) {
+                addressHead = Arrays.copyOf(addressHead, number * 2);
+                addressTail = Arrays.copyOf(addressTail, number * 2);
+                addressBalance = Arrays.copyOf(addressBalance, number * 2);
+            }
+            addressHead[number] = NONE;
+            addressTail[number] = NONE;
+        }
+        int tail = addressTail[number];
+        entryAddress[entry] = number;
+        prevByAddress[entry] = tail;
+        nextByAddress[entry] = NONE;
+        if(tail == NONE)
+            addressHead[number] = entry;
+        else
+            nextByAddress[tail] = entry;
+        addressTail[number] = entry;
+        addressBalance[number] += values[entry];
+    }
+
+    private void unindexAddress(int entry) {
+        int number = entryAddress[entry];
+        if(number == NONE)
+            return;
+        int prev = prevByAddress[entry];
+        int next = nextByAddress[entry];
+        if(prev == NONE)
+            addressHead[number] = next;
+        else
+            nextByAddress[prev] = next;
+        if(next == NONE)
+            addressTail[number] = prev;
+        else
+            prevByAddress[next] = prev;
+        addressBalance[number] -= values[entry];
+    }
+
+    // Position of the entry in byValue, -(insertion point) - 1 if it is not there.
+    private int searchByValue(int entry) {
+        int lo = 0, hi = size - 1;
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Long.compare(values[byValue[mid]], values[entry]);
+            if(cmp == 0)
+                cmp = Integer.compare(byValue[mid], entry);
+            if(cmp < 0)
+                lo = mid + 1;
+            else if(cmp > 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -(lo + 1);
+    }
+
+    // First position in byValue worth at least value.
+    private int firstAtLeast(long value) {
+        int lo = 0, hi = size;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(values[byValue[mid]] < value)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private void put(long[] txid, long vout, long value, byte[] script, int height) {
+        if((size + 1) * 4 > table.length * 3)
+            grow();
+        int slot = find(txid, vout);
+        if(table[slot] != 0) {
+            // Already known, only the height can change (our transaction got confirmed).
+            heights[table[slot] - 1] = height;
+            return;
+        }
+        int start = storeScript(script);
+        int entry;
+        if(freeEntry != NONE) {
+            entry = freeEntry;
+            freeEntry = nextByAddress[entry];
+        }
+        else {
+            entry = entries++;
+        }
+        System.arraycopy(txid, 0, txids, entry * TXID_LONGS, TXID_LONGS);
+        vouts[entry] = (int) vout;
+        values[entry] = value;
+        heights[entry] = height;
+        scriptStart[entry] = start;
+        scriptLength[entry] = script.length;
+        table[slot] = entry + 1;
+        indexAddress(entry, addressOf(script));
+        int pos = -searchByValue(entry) - 1;
+        System.arraycopy(byValue, pos, byValue, pos + 1, size - pos);
+        byValue[pos] = entry;
+        size++;
+    }
+
+    private boolean remove(long[] txid, long vout) {
+        int slot = find(txid, vout);
+        int entry = table[slot] - 1;
+        if(entry == NONE)
+            return false;
+        int pos = searchByValue(entry);
+        System.arraycopy(byValue, pos + 1, byValue, pos, size - pos - 1);
+        size--;
+        unindexAddress(entry);
+        deadScriptBytes += scriptLength[entry];
+        vouts[entry] = NONE;
+        nextByAddress[entry] = freeEntry;
+        freeEntry = entry;
+        // Backward shift deletion, move back the entries that can't be found past the hole.
+        int hole = slot;
+        int next = slot;
+        while(true) {
+            next = (next + 1) & mask;
+            if(table[next] == 0)
+                break;
+            int h = home(table[next] - 1);
+            boolean between = hole <= next ? hole < h && h <= next : hole < h || h <= next;
+            if(between)
+                continue;
+            table[hole] = table[next];
+            hole = next;
+        }
+        table[hole] = 0;
+        return true;
+    }
+
+    /**
+     * Add the output if it is watched.
+     *
+     * @param height Height of the block with the transaction, {@link #UNCONFIRMED} if it is not
+     *               in a block yet.
+     */
+    public synchronized void add(String txid, int vout, Output output, int height) {
+        if(isWatched(output) && (spentUnconfirmed.isEmpty()
+                                 || !spentUnconfirmed.contains(outpoint(txid, vout))))
+            put(txidToLongs(txid), vout, output.getValue(), output.getScript(), height);
+    }
+
+    /**
+     * @return True if the output was in the set.
+     */
+    public synchronized boolean spend(String txid, long vout) {
+        return remove(txidToLongs(txid), vout);
+    }
+
+    /**
+     * Spend the inputs of the transaction and add its watched outputs.
+     */
+    public synchronized void apply(String txid, Transaction tx, int height) {
+        String id = txid.toLowerCase();
+        if(height == UNCONFIRMED) {
+            List<String> spent = new ArrayList<>(tx.getInputs().size());
+            for(Input i : tx.getInputs())
+                spent.add(outpoint(byteArrayToHex(i.getPrevTxHash()), i.getPrevIdx()));
+            if(unconfirmedSpends.put(id, spent) == null)
+                spentUnconfirmed.addAll(spent);
+        }
+        else {
+            List<String> spent = unconfirmedSpends.remove(id);
+            if(spent != null)
+                spentUnconfirmed.removeAll(spent);
+        }
+        for(Input i : tx.getInputs())
+            remove(hashToLongs(i.getPrevTxHash()), i.getPrevIdx());
+        List<Output> outputs = tx.getOutputs();
+        for(int i = 0; i < outputs.size(); i++)
+            add(txid, i, outputs.get(i), height);
+    }
+
+    /**
+     * A transaction we broadcast, its outputs can be spent before it is confirmed. The outputs
+     * it spends are not added again by the block confirming the transactions that created them,
+     * until the block confirming this one.
+     */
+    public void apply(Transaction tx) throws NoSuchAlgorithmException {
+        apply(tx.txid(), tx, UNCONFIRMED);
+    }
+
+    /**
+     * Apply the transactions of the next block, in block order.
+     *
+     * @param transactions The transactions of the block by txid.
+     */
+    public synchronized void apply(Block block, Map<String, Transaction> transactions) {
+        if(height != UNCONFIRMED && block.getHeight() != height + 1)
+            throw new InvalidParameterException("Expected block " + (height + 1) + ", got "
+                                                + block.getHeight());
+        for(String txid : block.getTxs()) {
+            Transaction tx = transactions.get(txid);
+            if(tx == null)
+                throw new InvalidParameterException("Missing transaction " + txid + " of block "
+                                                    + block.getHash());
+            apply(txid, tx, block.getHeight());
+        }
+        height = block.getHeight();
+        blockHash = block.getHash();
+    }
+
+    /**
+     * Start from the unspent outputs reported by bitcoind's wallet, at the given block.
+     */
+    public synchronized void load(Collection<AbsoluteOutput> unspent, int height,
+                                  String blockHash) {
+        for(AbsoluteOutput o : unspent)
+            add(o.getTxId(), o.getVout(), o, height);
+        this.height = height;
+        this.blockHash = blockHash;
+    }
+
+    /**
+     * Start from the unspent outputs paying to the watched addresses in bitcoind's chainstate,
+     * at its tip. Unlike {@link #load(Collection, int, String)} from the wallet's unspent
+     * outputs, the keys of the addresses don't have to be in bitcoind's wallet.
+     */
+    public void scan(BitcoindClient client) {
+        List<String> descriptors = new ArrayList<>();
+        synchronized(this) {
+            if(watched == null)
+                throw new InvalidParameterException("Can't scan for every output.");
+            for(String address : watched)
+                descriptors.add("raw(76a914" + address.toLowerCase() + "88ac)");
+        }
+        TxOutSetScan scan = client.scanTxOutSet(descriptors);
+        synchronized(this) {
+            List<AbsoluteOutput> outputs = scan.getOutputs();
+            for(int i = 0; i < outputs.size(); i++) {
+                AbsoluteOutput o = outputs.get(i);
+                add(o.getTxId(), o.getVout(), o, scan.getHeight(i));
+            }
+            height = scan.getHeight();
+            blockHash = scan.getBestBlock();
+        }
+        LOGGER.fine("Scanned " + scan.getOutputs().size() + " outputs at block " + height);
+    }
+
+    /**
+     * Apply the blocks bitcoind has after the last applied one, fetched in batches.
+     *
+     * @return Number of applied blocks.
+     */
+    public int sync(BitcoindClient client) {
+        int tip = client.getBlockCount();
+        int from = getHeight() + 1;
+        int applied = 0;
+        int step = client.getBatchSize();
+        for(; from <= tip; from += step) {
+            int to = Math.min(tip, from + step - 1);
+            List<Block> blocks = client.getBlocks(from, to);
+            if(blocks.size() != to - from + 1)
+                throw new InvalidParameterException("Could not fetch the blocks " + from + " to "
+                                                    + to);
+            for(Block block : blocks) {
+                apply(block, client.getBlockTransactions(block));
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    private AbsoluteOutput output(int entry) {
+        int start = scriptStart[entry];
+        return new AbsoluteOutput(values[entry],
+                                  Arrays.copyOfRange(scriptBytes, start,
+                                                     start + scriptLength[entry]),
+                                  vouts[entry], longsToTxid(txids, entry * TXID_LONGS));
+    }
+
+    /**
+     * @return The unspent output or null if it is not in the set.
+     */
+    public synchronized AbsoluteOutput get(String txid, long vout) {
+        int entry = entry(txid, vout);
+        return entry == NONE ? null : output(entry);
+    }
+
+    public synchronized boolean contains(String txid, long vout) {
+        return entry(txid, vout) != NONE;
+    }
+
+    /**
+     * @return Height of the block the output was confirmed in, {@link #UNCONFIRMED} if it isn't.
+     */
+    public synchronized int getHeight(String txid, long vout) {
+        int entry = entry(txid, vout);
+        if(entry == NONE)
+            throw new InvalidParameterException("Unknown output " + txid + ":" + vout);
+        return heights[entry];
+    }
+
+    public synchronized List<AbsoluteOutput> getByAddress(String address) {
+        Integer number = addressNumbers.get(address.toUpperCase());
+        List<AbsoluteOutput> ret = new ArrayList<>();
+        if(number != null)
+            for(int entry = addressHead[number]; entry != NONE; entry = nextByAddress[entry])
+                ret.add(output(entry));
+        return ret;
+    }
+
+    public synchronized long getBalance(String address) {
+        Integer number = addressNumbers.get(address.toUpperCase());
+        return number == null ? 0 : addressBalance[number];
+    }
+
+    /**
+     * @return The outputs worth at least value, smaller first.
+     */
+    public synchronized List<AbsoluteOutput> getAtLeast(long value) {
+        List<AbsoluteOutput> ret = new ArrayList<>();
+        for(int pos = firstAtLeast(value); pos < size; pos++)
+            ret.add(output(byValue[pos]));
+        return ret;
+    }
+
+    /**
+     * Outputs to pay target: the smallest output covering it alone, otherwise the largest
+     * outputs until they add up to it.
+     *
+     * @return The selected outputs, empty if all of them are not enough.
+     */
+    public synchronized List<AbsoluteOutput> selectCoins(long target) {
+        int first = firstAtLeast(target);
+        if(first < size)
+            return Collections.singletonList(output(byValue[first]));
+        List<AbsoluteOutput> ret = new ArrayList<>();
+        long total = 0;
+        for(int pos = size - 1; pos >= 0; pos--) {
+            ret.add(output(byValue[pos]));
+            total += values[byValue[pos]];
+            if(total >= target)
+                return ret;
+        }
+        return Collections.emptyList();
+    }
+
+    public synchronized List<AbsoluteOutput> getAll() {
+        List<AbsoluteOutput> ret = new ArrayList<>(size);
+        for(int entry = 0; entry < entries; entry++)
+            if(vouts[entry] != NONE)
+                ret.add(output(entry));
+        return ret;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return Height of the last applied block, {@link #UNCONFIRMED} if there is none.
+     */
+    public synchronized int getHeight() {
+        return height;
+    }
+
+    public synchronized String getBlockHash() {
+        return blockHash;
+    }
+
+    /**
+     * Write the set to file, replacing it atomically once it is on disk.
+     */
+    public synchronized void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                                                   StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(height);
+            out.writeUTF(blockHash == null ? "" : blockHash);
+            out.writeInt(watched == null ? -1 : watched.size());
+            if(watched != null)
+                for(String address : watched)
+                    out.writeUTF(address);
+            out.writeInt(size);
+            for(int entry = 0; entry < entries; entry++) {
+                if(vouts[entry] == NONE)
+                    continue;
+                for(int i = 0; i < TXID_LONGS; i++)
+                    out.writeLong(txids[entry * TXID_LONGS + i]);
+                out.writeLong(vouts[entry] + 1L);
+                out.writeLong(values[entry]);
+                out.writeInt(heights[entry]);
+                out.writeInt(scriptLength[entry]);
+                out.write(scriptBytes, scriptStart[entry], scriptLength[entry]);
+            }
+            out.writeInt(unconfirmedSpends.size());
+            for(Map.Entry<String, List<String>> e : unconfirmedSpends.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().size());
+                for(String spent : e.getValue())
+                    out.writeUTF(spent);
+            }
+            out.flush();
+            // Otherwise a crash after the move could leave an empty or partial snapshot.
+            channel.force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static public UtxoSet load(Path file) throws IOException {
+        try(DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if(in.readInt() != SNAPSHOT_MAGIC)
+                throw new IOException(file + " is not a utxo snapshot");
+            int version = in.readInt();
+            if(version < 1 || version > SNAPSHOT_VERSION)
+                throw new IOException("Unknown utxo snapshot version " + version);
+            int height = in.readInt();
+            String blockHash = in.readUTF();
+            int watchedCount = in.readInt();
+            List<String> watched = null;
+            if(watchedCount >= 0) {
+                watched = new ArrayList<>(watchedCount);
+                for(int i = 0; i < watchedCount; i++)
+                    watched.add(in.readUTF());
+            }
+            UtxoSet ret = new UtxoSet(watched);
+            int count = in.readInt();
+            long[] txid = new long[TXID_LONGS];
+            for(int i = 0; i < count; i++) {
+                for(int j = 0; j < TXID_LONGS; j++)
+                    txid[j] = in.readLong();
+                long vout = in.readLong() - 1;
+                long value = in.readLong();
+                int outputHeight = in.readInt();
+                byte[] script = new byte[in.readInt()];
+                in.readFully(script);
+                ret.put(txid, vout, value, script, outputHeight);
+            }
+            int unconfirmed = version < 2 ? 0 : in.readInt();
+            for(int i = 0; i < unconfirmed; i++) {
+                String spendingTxid = in.readUTF();
+                List<String> spent = new ArrayList<>();
+                for(int j = in.readInt(); j > 0; j--)
+                    spent.add(in.readUTF());
+                ret.unconfirmedSpends.put(spendingTxid, spent);
+                ret.spentUnconfirmed.addAll(spent);
+            }
+            ret.height = height;
+            ret.blockHash = blockHash.isEmpty() ? null : blockHash;
+            LOGGER.fine("Loaded " + count + " outputs at block " + height);
+            return ret;
+        }
+    }
+}
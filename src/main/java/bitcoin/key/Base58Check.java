@@ -0,0 +1,89 @@
+package bitcoin.key;
+
+import java.nio.CharBuffer;
+import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static core.Utils.b58EncodedLength;
+import static core.Utils.b58ToByteArray;
+import static core.Utils.byteArrayToB58;
+
+/**
+ * Base58Check encoding (data followed by the first 4 bytes of its double SHA-256) without
+ * BigInteger. The buffers are kept between calls, so converting many addresses with the same
+ * instance only allocates the results. Not thread safe.
+ * Created by fmontoto on 23-04-17.
+ */
+class Base58Check {
+    static private final int CHECKSUM_SIZE = 4;
+
+    private final MessageDigest sha256;
+    private byte[] data;
+    private byte[] work;
+    private char[] chars;
+
+    Base58Check() throws NoSuchAlgorithmException {
+        sha256 = MessageDigest.getInstance("SHA-256");
+        data = new byte[0];
+        work = new byte[0];
+        chars = new char[0];
+    }
+
+    private void ensureCapacity(int bytes, int encodedChars) {
+        if(data.length < bytes) {
+            data = new byte[bytes];
+            work = new byte[bytes];
+        }
+        if(chars.length < encodedChars)
+            chars = new char[encodedChars];
+    }
+
+    // First bytes of the double SHA-256 of buffer[offset, offset + length), written at dst.
+    private void writeChecksum(byte[] buffer, int offset, int length, byte[] dst, int dstOffset) {
+        sha256.update(buffer, offset, length);
+        byte[] hash = sha256.digest(sha256.digest());
+        System.arraycopy(hash, 0, dst, dstOffset, CHECKSUM_SIZE);
+    }
+
+    String encode(byte[] versionedPayload) {
+        return encode(null, versionedPayload);
+    }
+
+    /**
+     * @param version Prepended to the payload, null to encode the payload as it is.
+     */
+    String encode(Byte version, byte[] payload) {
+        int prefix = version != null ? 1 : 0;
+        int length = prefix + payload.length + CHECKSUM_SIZE;
+        ensureCapacity(length, b58EncodedLength(length));
+        if(version != null)
+            data[0] = version;
+        System.arraycopy(payload, 0, data, prefix, payload.length);
+        writeChecksum(data, 0, prefix + payload.length, data, prefix + payload.length);
+        return byteArrayToB58(data, 0, length, work, chars);
+    }
+
+    /**
+     * @return The decoded data without the checksum.
+     */
+    byte[] decode(CharSequence encoded) throws InvalidParameterException {
+        ensureCapacity(encoded.length(), 0);
+        int decoded = b58ToByteArray(encoded, work, data);
+        if(decoded < CHECKSUM_SIZE)
+            throw new InvalidParameterException("Too short to have a checksum.");
+        int offset = data.length - decoded, length = decoded - CHECKSUM_SIZE;
+        byte[] checksum = new byte[CHECKSUM_SIZE];
+        writeChecksum(data, offset, length, checksum, 0);
+        for(int i = 0; i < CHECKSUM_SIZE; i++) {
+            if(checksum[i] != data[offset + length + i])
+                throw new InvalidParameterException("Checksum does not match.");
+        }
+        return Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    byte[] decode(char[] encoded) throws InvalidParameterException {
+        return decode(CharBuffer.wrap(encoded));
+    }
+}
@@ -0,0 +1,118 @@
+package bitcoin.key;
+
+import core.LruCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static bitcoin.key.ExtendedKey.hardened;
+
+/**
+ * Keys of every bet derived from a single BIP 32 master key, instead of asking the bitcoind
+ * wallet for them one by one.
+ *
+ * The keys of a bet are at m/7428'/a'/b'/n, a and b are the first and the second 4 bytes of the
+ * bet hash shifted right one bit, to fit in a hardened index, and n is the number of the key
+ * inside the bet. The identity key of the owner, the player's key the other party knows or the
+ * oracle's inscribed key, is the one of m/7428'. The xpub of
+ * m/7428'/a'/b' can be handed to a watcher: it derives every address of the bet but can't
+ * spend from them, and it says nothing about the keys of other bets.
+ *
+ * Created by fmontoto on 10-05-17.
+ */
+public class BetKeyChain {
+    static public final int PURPOSE = hardened(7428);
+
+    // Keys of each bet: the one whose outputs fund the bet promise or the oracle inscription,
+    // and the one getting their change.
+    static public final int FUNDING_KEY = 0;
+    static public final int CHANGE_KEY = 1;
+    static public final int KEYS_PER_BET = 2;
+
+    static private final int CACHED_BETS = 64;
+
+    private final ExtendedKey root;
+    private final LruCache<ByteBuffer, ExtendedKey> betKeys;
+
+    /**
+     * @param master Key at m, with its private part.
+     */
+    public BetKeyChain(ExtendedKey master) throws NoSuchAlgorithmException {
+        if(!master.hasPrivateKey() || master.getDepth() != 0)
+            throw new InvalidParameterException("Expected a private master key.");
+        root = master.derive(PURPOSE);
+        betKeys = new LruCache<>(CACHED_BETS);
+    }
+
+    /**
+     * @return The key identifying the player or the oracle, the one of m/7428'. The bet keys are
+     *         hardened children of it, so its public key says nothing about them.
+     */
+    public BitcoinPrivateKey getIdentityKey() throws NoSuchAlgorithmException,
+                                                   InvalidKeySpecException {
+        return root.getPrivateKey();
+    }
+
+    /**
+     * @param betHash Bet.getHash()
+     * @return The key of the bet, the parent of all its keys.
+     */
+    public ExtendedKey getBetKey(byte[] betHash) throws NoSuchAlgorithmException {
+        if(betHash.length < 8)
+            throw new InvalidParameterException("Expected a bet hash, got " + betHash.length + " bytes");
+        ByteBuffer k = ByteBuffer.wrap(betHash.clone());
+        ExtendedKey ret = betKeys.get(k);
+        if(ret == null) {
+            // Bits 0-30 and 32-62 of the hash, the lowest bit of each int is dropped.
+            ret = root.derive(hardened(k.getInt(0) >>> 1)).derive(hardened(k.getInt(4) >>> 1));
+            betKeys.put(k, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * @return The xpub (tpub) to watch the bet addresses.
+     */
+    public String getBetWatchKey(byte[] betHash) throws NoSuchAlgorithmException {
+        return getBetKey(betHash).serializePublic();
+    }
+
+    public BitcoinPrivateKey getPrivateKey(byte[] betHash, int n)
+            throws NoSuchAlgorithmException, InvalidKeySpecException {
+        return getBetKey(betHash).derive(n).getPrivateKey();
+    }
+
+    public BitcoinPublicKey getPublicKey(byte[] betHash, int n)
+            throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        return getBetKey(betHash).derive(n).getPublicKey();
+    }
+
+    /**
+     * Add the identity key and the first count keys of the bet to the ring, so the outputs
+     * paying to them are signed without asking bitcoind for the keys.
+     */
+    public void register(KeyRing keyRing, byte[] betHash, int count)
+            throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        keyRing.add(getIdentityKey());
+        keyRing.addDerived(getBetKey(betHash), 0, count);
+    }
+
+    /**
+     * @param betWatchKey The key of a bet, public only is enough.
+     * @return The addresses of the keys [from, from + count) of the bet.
+     */
+    static public List<String> getAddresses(ExtendedKey betWatchKey, int from, int count)
+            throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        if(from < 0 || count < 0 || ExtendedKey.isHardened(from + count))
+            throw new InvalidParameterException("Invalid range [" + from + ", " + (from + count) + ")");
+        List<String> ret = new ArrayList<>(count);
+        for(int i = from; i < from + count; i++)
+            ret.add(betWatchKey.derive(i).getPublicKey().toWIF());
+        return ret;
+    }
+}
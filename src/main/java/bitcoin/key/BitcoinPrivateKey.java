@@ -1,7 +1,5 @@
 package bitcoin.key;
 
-import org.bouncycastle.jce.ECNamedCurveTable;
-import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import javax.security.auth.DestroyFailedException;
@@ -33,6 +31,7 @@ public class BitcoinPrivateKey implements BitcoinKey, ECPrivateKey {
     private ECPrivateKey ecPrivateKey;
     private boolean testnet;
     private boolean compressed_pk;
+    private volatile BitcoinPublicKey publicKey;
 
     public BitcoinPrivateKey(ECPrivateKey pk, boolean compressed_pk, boolean testnet) {
         ecPrivateKey = pk;
@@ -40,17 +39,21 @@ public class BitcoinPrivateKey implements BitcoinKey, ECPrivateKey {
         this.compressed_pk = false;
     }
 
+    /**
+     * A new random key. Only the secret is generated, the public key is derived by
+     * {@link #getPublicKey()} with the secp256k1 engine the first time it is needed.
+     */
     public BitcoinPrivateKey(boolean compressed_pk, boolean testnet) throws InvalidAlgorithmParameterException, NoSuchAlgorithmException {
-        KeyPairGenerator keyPairGenerator;
         try {
-            keyPairGenerator = KeyPairGenerator.getInstance("EC");
-            keyPairGenerator.initialize(Secp256k1.spec);
-        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
+            ecPrivateKey = (ECPrivateKey) KeyFactory.getInstance("EC").generatePrivate(
+                    new ECPrivateKeySpec(Secp256k1.randomSecret(), Secp256k1.spec));
+        } catch (NoSuchAlgorithmException e) {
             LOGGER.throwing("BitcoinPrivateKey", "BitcoinPrivateKey", e);
             throw e;
+        } catch (InvalidKeySpecException e) {
+            LOGGER.throwing("BitcoinPrivateKey", "BitcoinPrivateKey", e);
+            throw new InvalidAlgorithmParameterException(e);
         }
-        KeyPair keyPair = keyPairGenerator.generateKeyPair();
-        ecPrivateKey = (ECPrivateKey) keyPair.getPrivate();
         this.compressed_pk = compressed_pk;
         this.testnet = testnet;
     }
@@ -95,13 +98,17 @@ public class BitcoinPrivateKey implements BitcoinKey, ECPrivateKey {
         this(hexToByteArray(privateKeyHex), compressed_pk, testnet);
     }
 
+    /**
+     * @return The public key, derived the first time it is requested and then reused.
+     */
     public BitcoinPublicKey getPublicKey() throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
-        // Currently there are not arithmetic operations in Java for ECPoints, would be nice to get rid of
-        // Bouncy Castle in the future.
-        ECNamedCurveParameterSpec spec = ECNamedCurveTable.getParameterSpec("secp256k1");
-        org.bouncycastle.math.ec.ECPoint q = spec.getG().multiply(getS()).normalize();
-        return new BitcoinPublicKey(q.getAffineXCoord().toBigInteger(),
-                                    q.getAffineYCoord().toBigInteger(), compressed_pk, testnet);
+        BitcoinPublicKey ret = publicKey;
+        if(ret == null) {
+            BigInteger[] q = Secp256k1.multiplyG(getS());
+            ret = new BitcoinPublicKey(q[0], q[1], compressed_pk, testnet);
+            publicKey = ret;
+        }
+        return ret;
     }
 
     @Override
@@ -187,11 +194,14 @@ public class BitcoinPrivateKey implements BitcoinKey, ECPrivateKey {
     }
 
     public byte[] sign(byte[] message) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
-        byte[] toSign = doubleSHA256(message);
-        Signature dsa = Signature.getInstance("NonewithECDSA");
+        return signDigest(doubleSHA256(message));
+    }
 
-        dsa.initSign(this);
-        dsa.update(toSign);
-        return dsa.sign();
+    /**
+     * Sign an already hashed message (as the signature hash of a transaction input).
+     * @return DER encoded signature, with a deterministic nonce and low S.
+     */
+    public byte[] signDigest(byte[] digest) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+        return Secp256k1Signer.sign(getS(), digest);
     }
 }
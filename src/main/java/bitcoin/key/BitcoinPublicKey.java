@@ -1,10 +1,12 @@
 package bitcoin.key;
 
+import core.LruCache;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
@@ -13,7 +15,10 @@ import java.security.spec.ECParameterSpec;
 import java.security.spec.ECPoint;
 import java.security.spec.ECPublicKeySpec;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.logging.Logger;
 
 import static bitcoin.key.Utils.*;
@@ -27,9 +32,22 @@ import static core.Utils.mergeArrays;
 public class BitcoinPublicKey implements BitcoinKey, ECPublicKey{
     private static final Logger LOGGER = Logger.getLogger(BitcoinPublicKey.class.getName());
 
-    private ECPublicKey ecPublicKey;
+    // Keys read back by fromSerialized and fromKey, the same players and oracles keys show up
+    // in every bet.
+    static private final int DECODED_KEYS = 256;
+    static private final LruCache<ByteBuffer, BitcoinPublicKey> decodedKeys =
+            new LruCache<>(DECODED_KEYS);
+
+    private final ECPoint w;
+    // Only built if the X.509 encoding is requested.
+    private volatile ECPublicKey ecPublicKey;
     boolean compressed;
     boolean testnet;
+    // Derived values, computed the first time they are requested. Arrays are copied on return.
+    private volatile byte[] compressedKey;
+    private volatile byte[] uncompressedKey;
+    private volatile byte[] address;
+    private volatile String WIF;
 
     public BitcoinPublicKey() {
         throw new NotImplementedException();
@@ -40,25 +58,24 @@ public class BitcoinPublicKey implements BitcoinKey, ECPublicKey{
      * @param publicKeyBytes byte representation of the elliptic curve public bitcoin.key.
      */
     public BitcoinPublicKey(byte[] publicKeyBytes, boolean compressed, boolean testnet) throws NoSuchAlgorithmException, InvalidKeySpecException, IOException {
-        KeyFactory keyFactory;
+        boolean onCurve = false;
         if(publicKeyBytes.length == 65 && publicKeyBytes[0] == (byte)0x04) // Remove the prefix (0x04)
             publicKeyBytes = Arrays.copyOfRange(publicKeyBytes, 1, publicKeyBytes.length);
-        if(publicKeyBytes.length == 33)
+        if(publicKeyBytes.length == 33) {
             publicKeyBytes = decompressPubKey(publicKeyBytes);
+            onCurve = true;
+        }
         if(publicKeyBytes.length != 64)
             throw new InvalidParameterException(
                     "Only 64byte keys accepted. " + publicKeyBytes.length + " bytes not supported");
-        try{
-            keyFactory = KeyFactory.getInstance("EC");
-            BigInteger x = bytesToBigInteger(Arrays.copyOf(publicKeyBytes, 32));
-            BigInteger y = bytesToBigInteger(Arrays.copyOfRange(publicKeyBytes, 32, 64));
-            ECPoint ecPoint = new ECPoint(x, y);
-            ECPublicKeySpec ecPublicKeySpec = new ECPublicKeySpec(ecPoint, Secp256k1.spec);
-            ecPublicKey= (ECPublicKey) keyFactory.generatePublic(ecPublicKeySpec);
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+        BigInteger x = bytesToBigInteger(Arrays.copyOf(publicKeyBytes, 32));
+        BigInteger y = bytesToBigInteger(Arrays.copyOfRange(publicKeyBytes, 32, 64));
+        if(!onCurve && !Secp256k1.isOnCurve(x, y)) {
+            InvalidKeySpecException e = new InvalidKeySpecException("Not a point of secp256k1");
             LOGGER.throwing("BitcoinPublicKey", "BitcoinPublicKey", e);
             throw e;
         }
+        w = new ECPoint(x, y);
         this.testnet = testnet;
         this.compressed = compressed;
     }
@@ -80,7 +97,12 @@ public class BitcoinPublicKey implements BitcoinKey, ECPublicKey{
     }
 
     public byte[] getAddress() throws IOException, NoSuchAlgorithmException {
-        return r160SHA256Hash(getKey());
+        byte[] ret = address;
+        if(ret == null) {
+            ret = r160SHA256Hash(getKey());
+            address = ret;
+        }
+        return ret.clone();
     }
 
     public static byte[] WIFToTxAddress(String WIFAddress) throws IOException, NoSuchAlgorithmException {
@@ -88,12 +110,52 @@ public class BitcoinPublicKey implements BitcoinKey, ECPublicKey{
         return Arrays.copyOfRange(addr_with_prefix, 1, addr_with_prefix.length);
     }
 
+    /**
+     * WIFToTxAddress for every address, the decoding buffers are shared between them.
+     */
+    public static List<byte[]> WIFToTxAddresses(Collection<String> WIFAddresses) throws NoSuchAlgorithmException {
+        Base58Check base58Check = new Base58Check();
+        List<byte[]> ret = new ArrayList<>(WIFAddresses.size());
+        for(String address : WIFAddresses) {
+            byte[] addr_with_prefix = base58Check.decode(address);
+            ret.add(Arrays.copyOfRange(addr_with_prefix, 1, addr_with_prefix.length));
+        }
+        return ret;
+    }
+
+    static private byte addressVersion(boolean testnet) {
+        return testnet ? (byte) 0x6f : 0x00;
+    }
+
     public static String txAddressToWIF(byte[] txAddr, boolean testnet) throws IOException, NoSuchAlgorithmException {
-        if(testnet)
-            return bitcoinB58Encode(core.Utils.mergeArrays(new byte[] {0x6f}, txAddr));
-        else
-            return bitcoinB58Encode(core.Utils.mergeArrays(new byte[] {0x00}, txAddr));
+        return new Base58Check().encode(addressVersion(testnet), txAddr);
+    }
+
+    /**
+     * txAddressToWIF for every address, the encoding buffers are shared between them.
+     */
+    public static List<String> txAddressesToWIF(Collection<byte[]> txAddrs, boolean testnet) throws NoSuchAlgorithmException {
+        Base58Check base58Check = new Base58Check();
+        List<String> ret = new ArrayList<>(txAddrs.size());
+        for(byte[] txAddr : txAddrs)
+            ret.add(base58Check.encode(addressVersion(testnet), txAddr));
+        return ret;
+    }
 
+    /**
+     * txAddressToWIF for every hex encoded address, the buffers are shared between them.
+     */
+    public static List<String> hexTxAddressesToWIF(Collection<String> hexTxAddrs, boolean testnet) throws NoSuchAlgorithmException {
+        Base58Check base58Check = new Base58Check();
+        List<String> ret = new ArrayList<>(hexTxAddrs.size());
+        byte[] txAddr = new byte[0];
+        for(String hexTxAddr : hexTxAddrs) {
+            if(txAddr.length != hexTxAddr.length() / 2)
+                txAddr = new byte[hexTxAddr.length() / 2];
+            hexToByteArray(hexTxAddr, 0, hexTxAddr.length(), txAddr, 0);
+            ret.add(base58Check.encode(addressVersion(testnet), txAddr));
+        }
+        return ret;
     }
 
     public static String txAddressToWIF(String hexTxAddr, boolean testnet) throws IOException, NoSuchAlgorithmException {
@@ -103,70 +165,60 @@ public class BitcoinPublicKey implements BitcoinKey, ECPublicKey{
     public static String txAddressToWIF(byte[] txAddr, boolean testnet, boolean scriptHashAddr) throws IOException, NoSuchAlgorithmException {
         if(!scriptHashAddr)
             return txAddressToWIF(txAddr, testnet);
-        if(testnet)
-            return bitcoinB58Encode(core.Utils.mergeArrays(new byte[] {(byte) 0xc4}, txAddr));
-        else return bitcoinB58Encode(core.Utils.mergeArrays(new byte[] {0x05}, txAddr));
+        return new Base58Check().encode(testnet ? (byte) 0xc4 : 0x05, txAddr);
     }
 
 
     /**
-     * Based in the implementation at:
-     * https://bitcointalk.org/index.php?topic=644919.msg7205689#msg7205689
+     * y is the square root of x^3 + 7 with the parity given by the prefix, computed with the
+     * fixed width arithmetic of Secp256k1Field.
      *
      * @param compressedKey A bitcoin 33bytes compressed public bitcoin.key
      * @return A 64bytes representation of the bitcoin.key. (to make it a bitcoin bitcoin.key you
      * need to prepend a 0x04
-     * @throws IOException Included because using ByteArrayOutputStream, however this should never happen.
+     * @throws IOException Kept for compatibility, it is not thrown anymore.
      */
     static public byte[] decompressPubKey(byte[] compressedKey) throws IOException {
         if(compressedKey.length != 33)
             throw new IllegalArgumentException("compressedKey must be 33bytes length");
         if(compressedKey[0] != (byte)0x02 && compressedKey[0] != (byte)0x03)
             throw new IllegalArgumentException("Unexpected first byte");
-
-        byte[] xBytes = Arrays.copyOfRange(compressedKey, 1, compressedKey.length);
-        BigInteger x = bytesToBigInteger(xBytes);
-        BigInteger a = x.modPow(BigInteger.valueOf(3), Secp256k1.p);
-        a = a.add(Secp256k1.b).mod(Secp256k1.p);
-        BigInteger exp = (Secp256k1.p.add(BigInteger.ONE)).divide(BigInteger.valueOf(4));
-        BigInteger y = a.modPow(exp, Secp256k1.p);
-        boolean yIsOdd = y.testBit(0);
-        boolean yShouldBeOdd = compressedKey[0] == 3;
-        if(yIsOdd != yShouldBeOdd)
-            y = y.negate().mod(Secp256k1.p);
-
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        byteArrayOutputStream.write(xBytes);
-
-        byte[] yBytes = y.toByteArray();
-        if(yBytes.length == 33 && yBytes[0] == 0x00)
-            yBytes = Arrays.copyOfRange(yBytes, 1, yBytes.length);
-
-        // If y is smaller than 32, we should fill with 0 to do the 32 bytes expected.
-        for(int i = 32; i > yBytes.length; i--)
-            byteArrayOutputStream.write(0x00);
-        byteArrayOutputStream.write(yBytes);
-        return byteArrayOutputStream.toByteArray();
+        byte[] ret = Secp256k1.decompress(compressedKey, 0);
+        if(ret == null)
+            throw new IllegalArgumentException("Not the x coordinate of a point of secp256k1");
+        return ret;
     }
 
     public byte[] getECDSAKey() {
-        return core.Utils.mergeArrays(get32ByteRepresentation(ecPublicKey.getW().getAffineX()),
-                           get32ByteRepresentation(ecPublicKey.getW().getAffineY()));
+        return core.Utils.mergeArrays(get32ByteRepresentation(w.getAffineX()),
+                           get32ByteRepresentation(w.getAffineY()));
     }
 
     public byte[] getKey(boolean compressed) throws IOException {
+        byte[] ret = compressed ? compressedKey : uncompressedKey;
+        if(ret == null) {
+            ret = encodeKey(compressed);
+            if(compressed)
+                compressedKey = ret;
+            else
+                uncompressedKey = ret;
+        }
+        return ret.clone();
+    }
+
+    private byte[] encodeKey(boolean compressed) throws IOException {
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
         if(!compressed)
             byteArrayOutputStream.write(0x04);
         if(compressed) {
-            if(ecPublicKey.getW().getAffineY().testBit(0) == false)
+            if(w.getAffineY().testBit(0) == false)
                 byteArrayOutputStream.write(0x02);
             else
                 byteArrayOutputStream.write(0x03);
         }
-        byteArrayOutputStream.write(get32ByteRepresentation(ecPublicKey.getW().getAffineX()));
+        byteArrayOutputStream.write(get32ByteRepresentation(w.getAffineX()));
         if(!compressed)
-            byteArrayOutputStream.write(get32ByteRepresentation(ecPublicKey.getW().getAffineY()));
+            byteArrayOutputStream.write(get32ByteRepresentation(w.getAffineY()));
         return byteArrayOutputStream.toByteArray();
     }
 
@@ -185,12 +237,33 @@ public class BitcoinPublicKey implements BitcoinKey, ECPublicKey{
         return serialize().length;
     }
 
+    /**
+     * The key serialized at buffer[offset], the instances are shared: recently decoded keys
+     * are taken from a cache.
+     */
     static public BitcoinPublicKey fromSerialized(byte[] buffer, int offset) throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
         boolean testnet = buffer[offset] == (byte) 0x01;
         int length = (int)readVarInt(buffer, offset +1);
         int ini = 1 + varIntByteSize(length);
-        byte[] key = Arrays.copyOfRange(buffer, offset + ini, offset + ini + length);
-        return new BitcoinPublicKey(key, testnet);
+        // The whole serialization identifies the key, look it up without copying it.
+        ByteBuffer serialized = ByteBuffer.wrap(buffer, offset, ini + length).slice();
+        BitcoinPublicKey ret = decodedKeys.get(serialized);
+        if(ret == null) {
+            byte[] key = Arrays.copyOfRange(buffer, offset + ini, offset + ini + length);
+            ret = new BitcoinPublicKey(key, testnet);
+            decodedKeys.put(ByteBuffer.wrap(Arrays.copyOfRange(buffer, offset, offset + ini + length)),
+                            ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Same than BitcoinPublicKey(key, testnet) but the instance might be shared, recently
+     * decoded keys are taken from a cache.
+     */
+    static public BitcoinPublicKey fromKey(byte[] key, boolean testnet) throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        return fromSerialized(mergeArrays(new byte[] {testnet ? (byte) 0x01 : (byte) 0x00},
+                                          serializeVarInt(key.length), key));
     }
 
     static public BitcoinPublicKey fromSerialized(byte[] buffer) throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
@@ -199,27 +272,47 @@ public class BitcoinPublicKey implements BitcoinKey, ECPublicKey{
 
     @Override
     public ECPoint getW() {
-        return ecPublicKey.getW();
+        return w;
     }
 
     @Override
     public String getAlgorithm() {
-        return ecPublicKey.getAlgorithm();
+        return "EC";
     }
 
     @Override
     public String getFormat() {
-        return ecPublicKey.getAlgorithm();
+        return getAlgorithm();
     }
 
+    /**
+     * @throws IllegalStateException If the JCA provider can't build the key, as it happens on
+     *                               JDKs without secp256k1.
+     */
     @Override
     public byte[] getEncoded() {
-        return ecPublicKey.getEncoded();
+        ECPublicKey key = ecPublicKey;
+        if(key == null) {
+            try {
+                key = (ECPublicKey) KeyFactory.getInstance("EC").generatePublic(
+                        new ECPublicKeySpec(w, Secp256k1.spec));
+            } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+                LOGGER.throwing("BitcoinPublicKey", "getEncoded", e);
+                throw new IllegalStateException("Unable to encode the key as X.509", e);
+            }
+            ecPublicKey = key;
+        }
+        return key.getEncoded();
     }
 
     @Override
     public String toWIF() throws IOException, NoSuchAlgorithmException {
-        return txAddressToWIF(getAddress(), testnet);
+        String ret = WIF;
+        if(ret == null) {
+            ret = txAddressToWIF(getAddress(), testnet);
+            WIF = ret;
+        }
+        return ret;
     }
 
     @Override
@@ -229,7 +322,7 @@ public class BitcoinPublicKey implements BitcoinKey, ECPublicKey{
 
     @Override
     public ECParameterSpec getParams() {
-        return ecPublicKey.getParams();
+        return Secp256k1.spec;
     }
 
     @Override
@@ -241,12 +334,12 @@ public class BitcoinPublicKey implements BitcoinKey, ECPublicKey{
 
         if (compressed != that.compressed) return false;
         if (testnet != that.testnet) return false;
-        return ecPublicKey != null ? ecPublicKey.equals(that.ecPublicKey) : that.ecPublicKey == null;
+        return w.equals(that.w);
     }
 
     @Override
     public int hashCode() {
-        int result = ecPublicKey != null ? ecPublicKey.hashCode() : 0;
+        int result = w.hashCode();
         result = 31 * result + (compressed ? 1 : 0);
         result = 31 * result + (testnet ? 1 : 0);
         return result;
@@ -0,0 +1,326 @@
+package bitcoin.key;
+
+import bitcoin.Hashes;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import static bitcoin.key.Utils.get32ByteRepresentation;
+
+/**
+ * BIP 32 hierarchical deterministic key: a secp256k1 key plus a chain code, from which child
+ * keys are derived without asking the wallet for them. Public only keys (xpub) derive the
+ * public keys of the non hardened children, so the addresses can be watched by whoever has it
+ * without being able to spend from them.
+ *
+ * Paths are written as in BIP 32, "m/0'/1/2'", an apostrophe (or h) marks a hardened index.
+ * Instances are immutable.
+ *
+ * Created by fmontoto on 10-05-17.
+ */
+public class ExtendedKey {
+    private static final Logger LOGGER = Logger.getLogger(ExtendedKey.class.getName());
+
+    static public final int HARDENED = 0x80000000;
+
+    static private final int XPRV = 0x0488ADE4;
+    static private final int XPUB = 0x0488B21E;
+    static private final int TPRV = 0x04358394;
+    static private final int TPUB = 0x043587CF;
+    static private final int SERIALIZED_SIZE = 78;
+    static private final byte[] SEED_KEY = "Bitcoin seed".getBytes();
+
+    private final BigInteger privateKey;
+    // Compressed encoding.
+    private final byte[] publicKey;
+    private final byte[] chainCode;
+    private final int depth;
+    private final int parentFingerprint;
+    private final int childNumber;
+    private final boolean testnet;
+
+    private ExtendedKey(BigInteger privateKey, byte[] publicKey, byte[] chainCode, int depth,
+                        int parentFingerprint, int childNumber, boolean testnet) {
+        this.privateKey = privateKey;
+        this.publicKey = publicKey;
+        this.chainCode = chainCode;
+        this.depth = depth;
+        this.parentFingerprint = parentFingerprint;
+        this.childNumber = childNumber;
+        this.testnet = testnet;
+    }
+
+    static private ExtendedKey fromPrivate(BigInteger privateKey, byte[] chainCode, int depth,
+                                           int parentFingerprint, int childNumber,
+                                           boolean testnet) {
+        return new ExtendedKey(privateKey, compress(Secp256k1.multiplyG(privateKey)), chainCode,
+                               depth, parentFingerprint, childNumber, testnet);
+    }
+
+    /**
+     * @param seed Between 16 and 64 random bytes.
+     * @return The master key, m.
+     */
+    static public ExtendedKey fromSeed(byte[] seed, boolean testnet) throws NoSuchAlgorithmException {
+        if(seed.length < 16 || seed.length > 64)
+            throw new InvalidParameterException("Seed must be 16 to 64 bytes long, not " + seed.length);
+        byte[] i = hmacSHA512(SEED_KEY, seed);
+        BigInteger key = new BigInteger(1, Arrays.copyOf(i, 32));
+        if(key.signum() == 0 || key.compareTo(Secp256k1.n) >= 0)
+            throw new InvalidParameterException("Invalid master key, use another seed.");
+        return fromPrivate(key, Arrays.copyOfRange(i, 32, 64), 0, 0, 0, testnet);
+    }
+
+    static public int hardened(int index) {
+        if(index < 0)
+            throw new InvalidParameterException("Index must be lower than 2^31, got " + index);
+        return index | HARDENED;
+    }
+
+    static public boolean isHardened(int index) {
+        return (index & HARDENED) != 0;
+    }
+
+    /**
+     * @param index Child number, hardened if its top bit is set, see {@link #hardened(int)}.
+     * @throws InvalidParameterException In the unlikely (less than 1 in 2^127) case the child
+     *         is not a valid key, BIP 32 says to go on with the next index.
+     */
+    public ExtendedKey derive(int index) throws NoSuchAlgorithmException {
+        if(isHardened(index) && privateKey == null)
+            throw new InvalidParameterException("Hardened children need the private key.");
+        if(depth == 255)
+            throw new InvalidParameterException("Maximum depth reached.");
+        ByteBuffer data = ByteBuffer.allocate(37);
+        if(isHardened(index))
+            data.put((byte) 0x00).put(get32ByteRepresentation(privateKey));
+        else
+            data.put(publicKey);
+        data.putInt(index);
+        byte[] i = hmacSHA512(chainCode, data.array());
+        BigInteger il = new BigInteger(1, Arrays.copyOf(i, 32));
+        byte[] childChainCode = Arrays.copyOfRange(i, 32, 64);
+        if(il.compareTo(Secp256k1.n) >= 0)
+            throw new InvalidParameterException("Invalid child " + index + ", use the next one.");
+
+        if(privateKey != null) {
+            BigInteger childKey = il.add(privateKey).mod(Secp256k1.n);
+            if(childKey.signum() == 0)
+                throw new InvalidParameterException("Invalid child " + index + ", use the next one.");
+            return fromPrivate(childKey, childChainCode, depth + 1, getFingerprint(), index,
+                               testnet);
+        }
+        // il * G + parent
+        BigInteger[] point = Secp256k1.multiplyAdd(il, BigInteger.ONE,
+                                                   Secp256k1Verifier.decodePoint(publicKey));
+        if(point == null)
+            throw new InvalidParameterException("Invalid child " + index + ", use the next one.");
+        return new ExtendedKey(null, compress(point), childChainCode, depth + 1, getFingerprint(),
+                               index, testnet);
+    }
+
+    /**
+     * @param path Absolute ("m/0'/1") when this is the master key, or relative to this key
+     *             ("0'/1").
+     */
+    public ExtendedKey derive(String path) throws NoSuchAlgorithmException {
+        String[] levels = path.trim().split("/");
+        int first = 0;
+        if(levels[0].equals("m") || levels[0].equals("M")) {
+            if(depth != 0)
+                throw new InvalidParameterException("Absolute path from a non master key.");
+            first = 1;
+        }
+        ExtendedKey ret = this;
+        for(int i = first; i < levels.length; i++)
+            ret = ret.derive(parseIndex(levels[i]));
+        return ret;
+    }
+
+    static private int parseIndex(String level) {
+        boolean hardened = level.endsWith("'") || level.endsWith("h") || level.endsWith("H");
+        String number = hardened ? level.substring(0, level.length() - 1) : level;
+        int index;
+        try {
+            index = Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            throw new InvalidParameterException("Invalid path level: " + level);
+        }
+        if(index < 0)
+            throw new InvalidParameterException("Invalid path level: " + level);
+        return hardened ? hardened(index) : index;
+    }
+
+    /**
+     * @return The same key without its private part.
+     */
+    public ExtendedKey neuter() {
+        if(privateKey == null)
+            return this;
+        return new ExtendedKey(null, publicKey, chainCode, depth, parentFingerprint, childNumber,
+                               testnet);
+    }
+
+    public boolean hasPrivateKey() {
+        return privateKey != null;
+    }
+
+    /**
+     * @return The key to sign with, its public key is compressed as BIP 32 keys always are.
+     */
+    public BitcoinPrivateKey getPrivateKey() throws NoSuchAlgorithmException, InvalidKeySpecException {
+        if(privateKey == null)
+            throw new InvalidParameterException("Public only extended key.");
+        return new BitcoinPrivateKey(get32ByteRepresentation(privateKey), true, testnet);
+    }
+
+    public BitcoinPublicKey getPublicKey() throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        return BitcoinPublicKey.fromKey(publicKey, testnet);
+    }
+
+    /**
+     * @return hash160 of the public key, also the address it is paid to.
+     */
+    public byte[] getIdentifier() {
+        return Hashes.hash160(publicKey);
+    }
+
+    public int getFingerprint() {
+        return ByteBuffer.wrap(getIdentifier()).getInt();
+    }
+
+    public int getParentFingerprint() {
+        return parentFingerprint;
+    }
+
+    public int getChildNumber() {
+        return childNumber;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public byte[] getChainCode() {
+        return chainCode.clone();
+    }
+
+    public boolean isTestnet() {
+        return testnet;
+    }
+
+    /**
+     * @return The Base58Check encoding, xprv/xpub (tprv/tpub in testnet).
+     */
+    public String serialize() throws NoSuchAlgorithmException {
+        return new Base58Check().encode(toBytes(privateKey != null));
+    }
+
+    /**
+     * @return The xpub (tpub) of the key, even if it has the private part.
+     */
+    public String serializePublic() throws NoSuchAlgorithmException {
+        return new Base58Check().encode(toBytes(false));
+    }
+
+    private byte[] toBytes(boolean includePrivate) {
+        ByteBuffer ret = ByteBuffer.allocate(SERIALIZED_SIZE);
+        if(includePrivate)
+            ret.putInt(testnet ? TPRV : XPRV);
+        else
+            ret.putInt(testnet ? TPUB : XPUB);
+        ret.put((byte) depth).putInt(parentFingerprint).putInt(childNumber).put(chainCode);
+        if(includePrivate)
+            ret.put((byte) 0x00).put(get32ByteRepresentation(privateKey));
+        else
+            ret.put(publicKey);
+        return ret.array();
+    }
+
+    static public ExtendedKey parse(String serialized) throws NoSuchAlgorithmException {
+        ByteBuffer data = ByteBuffer.wrap(new Base58Check().decode(serialized));
+        if(data.remaining() != SERIALIZED_SIZE)
+            throw new InvalidParameterException(
+                    "Expected " + SERIALIZED_SIZE + " bytes, got " + data.remaining());
+        int version = data.getInt();
+        boolean isPrivate = version == XPRV || version == TPRV;
+        if(!isPrivate && version != XPUB && version != TPUB)
+            throw new InvalidParameterException("Unknown version " + Integer.toHexString(version));
+        boolean testnet = version == TPRV || version == TPUB;
+        int depth = data.get() & 0xFF;
+        int parentFingerprint = data.getInt();
+        int childNumber = data.getInt();
+        if(depth == 0 && (parentFingerprint != 0 || childNumber != 0))
+            throw new InvalidParameterException("Master key with a parent.");
+        byte[] chainCode = new byte[32];
+        data.get(chainCode);
+        byte[] key = new byte[33];
+        data.get(key);
+
+        if(isPrivate) {
+            if(key[0] != 0x00)
+                throw new InvalidParameterException("Private key must be prefixed by 0x00.");
+            BigInteger privateKey = new BigInteger(1, Arrays.copyOfRange(key, 1, 33));
+            if(privateKey.signum() == 0 || privateKey.compareTo(Secp256k1.n) >= 0)
+                throw new InvalidParameterException("Private key out of range.");
+            return fromPrivate(privateKey, chainCode, depth, parentFingerprint, childNumber,
+                               testnet);
+        }
+        if(Secp256k1.decompress(key, 0) == null)
+            throw new InvalidParameterException("Not a valid public key.");
+        return new ExtendedKey(null, key, chainCode, depth, parentFingerprint, childNumber,
+                               testnet);
+    }
+
+    static private byte[] compress(BigInteger[] point) {
+        byte[] ret = new byte[33];
+        ret[0] = point[1].testBit(0) ? (byte) 0x03 : (byte) 0x02;
+        System.arraycopy(get32ByteRepresentation(point[0]), 0, ret, 1, 32);
+        return ret;
+    }
+
+    static private byte[] hmacSHA512(byte[] key, byte[] data) throws NoSuchAlgorithmException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA512");
+            mac.init(new SecretKeySpec(key, "HmacSHA512"));
+            return mac.doFinal(data);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            LOGGER.throwing("ExtendedKey", "hmacSHA512", e);
+            throw new NoSuchAlgorithmException(e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ExtendedKey that = (ExtendedKey) o;
+
+        if (depth != that.depth) return false;
+        if (parentFingerprint != that.parentFingerprint) return false;
+        if (childNumber != that.childNumber) return false;
+        if (testnet != that.testnet) return false;
+        if (privateKey != null ? !privateKey.equals(that.privateKey) : that.privateKey != null)
+            return false;
+        if (!Arrays.equals(publicKey, that.publicKey)) return false;
+        return Arrays.equals(chainCode, that.chainCode);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(publicKey);
+        result = 31 * result + Arrays.hashCode(chainCode);
+        result = 31 * result + (privateKey != null ? 1 : 0);
+        return result;
+    }
+}
@@ -0,0 +1,211 @@
+package bitcoin.key;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static bitcoin.key.Utils.get32ByteRepresentation;
+
+/**
+ * Fresh private keys and random secrets generated ahead of time, as the bitcoind keypool does.
+ * A background thread keeps up to a watermark of each ready, the keys with their public key and
+ * address already derived. Each kind has its own watermark, the pool of a caller only taking
+ * secrets does not generate keys. Taking one never blocks: the queues are lock free, the pool is
+ * topped up after each take and only when one is empty the key or secret is generated in the
+ * calling thread.
+ *
+ * Created by fmontoto on 11-05-17.
+ */
+public class KeyPool {
+    private static final Logger LOGGER = Logger.getLogger(KeyPool.class.getName());
+
+    static public final int DEFAULT_WATERMARK = 100;
+    // Random bytes of each pooled secret: 4 to pick its size and up to 60 of secret.
+    static private final int SECRET_BLOCK = 64;
+    static private final int MAX_SECRET_BYTES = SECRET_BLOCK - 4;
+
+    // One thread refills every pool, a daemon so it does not keep the program alive.
+    static private class Refiller {
+        static private final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "key-pool");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    static private final ConcurrentMap<Integer, KeyPool> instances = new ConcurrentHashMap<>();
+
+    private final boolean compressed;
+    private final boolean testnet;
+    private final int keyWatermark;
+    private final int secretWatermark;
+    private final SecureRandom random;
+    private final Queue<BitcoinPrivateKey> keys;
+    private final Queue<byte[]> secrets;
+    private final AtomicInteger availableKeys;
+    private final AtomicInteger availableSecrets;
+    private final AtomicBoolean refilling;
+
+    /**
+     * @param compressed Whether the public keys of the generated keys are compressed.
+     * @param keyWatermark Keys kept ready, 0 to generate them only when taken.
+     * @param secretWatermark Secrets kept ready, 0 to generate them only when taken.
+     */
+    public KeyPool(boolean compressed, boolean testnet, int keyWatermark, int secretWatermark) {
+        if(keyWatermark < 0 || secretWatermark < 0 || keyWatermark + secretWatermark == 0)
+            throw new InvalidParameterException("Invalid watermarks " + keyWatermark + ", "
+                                                + secretWatermark);
+        this.compressed = compressed;
+        this.testnet = testnet;
+        this.keyWatermark = keyWatermark;
+        this.secretWatermark = secretWatermark;
+        random = new SecureRandom();
+        keys = new ConcurrentLinkedQueue<>();
+        secrets = new ConcurrentLinkedQueue<>();
+        availableKeys = new AtomicInteger();
+        availableSecrets = new AtomicInteger();
+        refilling = new AtomicBoolean();
+        refill();
+    }
+
+    /**
+     * @param watermark Keys and secrets kept ready.
+     */
+    public KeyPool(boolean compressed, boolean testnet, int watermark) {
+        this(compressed, testnet, watermark, watermark);
+    }
+
+    // Secrets are the same for every network, so a single pool holds them.
+    static private class Secrets {
+        static private final KeyPool INSTANCE = new KeyPool(true, false, 0, DEFAULT_WATERMARK);
+    }
+
+    /**
+     * @return The pool shared by the whole process for keys of this kind. Secrets taken from it
+     *         are generated in the calling thread.
+     */
+    static public KeyPool getInstance(boolean compressed, boolean testnet) {
+        return instances.computeIfAbsent(
+                (compressed ? 2 : 0) + (testnet ? 1 : 0),
+                k -> new KeyPool(compressed, testnet, DEFAULT_WATERMARK, 0));
+    }
+
+    /**
+     * @return The pool of callers only taking secrets, it keeps no keys ready.
+     */
+    static public KeyPool getInstance() {
+        return Secrets.INSTANCE;
+    }
+
+    /**
+     * @return A key never handed out before, with its public key and address already derived.
+     */
+    public BitcoinPrivateKey takeKey()
+            throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        BitcoinPrivateKey ret = keys.poll();
+        if(ret != null)
+            availableKeys.decrementAndGet();
+        else
+            ret = generateKey();
+        refill();
+        return ret;
+    }
+
+    /**
+     * @return Random bytes, of a size also chosen at random in [minBytes, maxBytes).
+     */
+    public byte[] takeSecret(int minBytes, int maxBytes) {
+        if(minBytes < 0 || maxBytes <= minBytes || maxBytes - 1 > MAX_SECRET_BYTES)
+            throw new InvalidParameterException(
+                    "Invalid secret size [" + minBytes + ", " + maxBytes + ")");
+        byte[] block = secrets.poll();
+        if(block != null)
+            availableSecrets.decrementAndGet();
+        else
+            block = generateSecretBlock();
+        refill();
+        int size = minBytes + (int) ((ByteBuffer.wrap(block).getInt() & 0xFFFFFFFFL)
+                                     % (maxBytes - minBytes));
+        byte[] ret = Arrays.copyOfRange(block, 4, 4 + size);
+        Arrays.fill(block, (byte) 0);
+        return ret;
+    }
+
+    public int getAvailableKeys() {
+        return availableKeys.get();
+    }
+
+    public int getAvailableSecrets() {
+        return availableSecrets.get();
+    }
+
+    public int getKeyWatermark() {
+        return keyWatermark;
+    }
+
+    public int getSecretWatermark() {
+        return secretWatermark;
+    }
+
+    private BitcoinPrivateKey generateKey()
+            throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        BigInteger s;
+        do {
+            s = new BigInteger(256, random);
+        } while(s.signum() == 0 || s.compareTo(Secp256k1.n) >= 0);
+        BitcoinPrivateKey ret = new BitcoinPrivateKey(get32ByteRepresentation(s), compressed,
+                                                      testnet);
+        // Both are memoized by the key.
+        ret.getPublicKey().getAddress();
+        return ret;
+    }
+
+    private byte[] generateSecretBlock() {
+        byte[] ret = new byte[SECRET_BLOCK];
+        random.nextBytes(ret);
+        return ret;
+    }
+
+    // At most one refill of each pool is queued or running.
+    private void refill() {
+        if(!refilling.compareAndSet(false, true))
+            return;
+        Refiller.EXECUTOR.execute(() -> {
+            try {
+                while(availableKeys.get() < keyWatermark) {
+                    keys.add(generateKey());
+                    availableKeys.incrementAndGet();
+                }
+                while(availableSecrets.get() < secretWatermark) {
+                    secrets.add(generateSecretBlock());
+                    availableSecrets.incrementAndGet();
+                }
+            } catch (NoSuchAlgorithmException | IOException | InvalidKeySpecException e) {
+                LOGGER.log(Level.SEVERE, "Unable to refill the key pool", e);
+                return;
+            } finally {
+                // Even on an unexpected exception, or no refill would ever run again.
+                refilling.set(false);
+            }
+            // Something taken after the loops checked the sizes, but before clearing the flag,
+            // didn't start a refill.
+            if(availableKeys.get() < keyWatermark || availableSecrets.get() < secretWatermark)
+                refill();
+        });
+    }
+}
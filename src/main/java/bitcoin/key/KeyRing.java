@@ -0,0 +1,134 @@
+package bitcoin.key;
+
+import bitcoin.BitcoindClient;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import static bitcoin.key.Utils.get32ByteRepresentation;
+import static bitcoin.key.Utils.r160SHA256Hash;
+import static bitcoin.key.BitcoinPublicKey.WIFToTxAddress;
+import static bitcoin.key.BitcoinPublicKey.txAddressToWIF;
+
+/**
+ * Private keys loaded by this process, indexed by the hash160 of their public key (the address
+ * a pay to pub key hash output pays to). Each key is indexed by the hash of both of its
+ * encodings, so it is found whichever one was used to build the output. The key returned for an
+ * address signs with the public key encoding hashed by that address.
+ *
+ * Created by fmontoto on 05-05-17.
+ */
+public class KeyRing {
+    private static final Logger LOGGER = Logger.getLogger(KeyRing.class.getName());
+
+    static private final KeyRing instance = new KeyRing();
+
+    private final ConcurrentMap<ByteBuffer, BitcoinPrivateKey> keys;
+
+    public KeyRing() {
+        keys = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return The key ring shared by the whole process.
+     */
+    static public KeyRing getInstance() {
+        return instance;
+    }
+
+    static private ByteBuffer address(BitcoinPrivateKey privateKey)
+            throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        return ByteBuffer.wrap(r160SHA256Hash(privateKey.getPublicKey().getKey()));
+    }
+
+    // The same secret with the other public key encoding.
+    static private BitcoinPrivateKey otherEncoding(BitcoinPrivateKey privateKey)
+            throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        boolean compressed = privateKey.getPublicKey().getKey().length == 33;
+        return new BitcoinPrivateKey(get32ByteRepresentation(privateKey.getS()), !compressed,
+                                     privateKey.isTestnet());
+    }
+
+    public void add(BitcoinPrivateKey privateKey)
+            throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        keys.put(address(privateKey), privateKey);
+        BitcoinPrivateKey other = otherEncoding(privateKey);
+        keys.put(address(other), other);
+    }
+
+    /**
+     * Add the children [from, from + count) of the extended key, outputs paying to them are then
+     * signed without asking bitcoind for their keys.
+     */
+    public void addDerived(ExtendedKey parent, int from, int count)
+            throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        if(from < 0 || count < 0 || ExtendedKey.isHardened(from + count))
+            throw new InvalidParameterException("Invalid range [" + from + ", " + (from + count) + ")");
+        for(int i = from; i < from + count; i++)
+            add(parent.derive(i).getPrivateKey());
+    }
+
+    public void remove(BitcoinPrivateKey privateKey)
+            throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        BigInteger secret = privateKey.getS();
+        for(ByteBuffer address : new ByteBuffer[] {address(privateKey),
+                                                   address(otherEncoding(privateKey))})
+            keys.computeIfPresent(address, (k, v) -> v.getS().equals(secret) ? null : v);
+    }
+
+    /**
+     * @param txAddress hash160 of the public key, as it appears in the output script.
+     * @return The key paid by the address or null if it is not in the ring.
+     */
+    public BitcoinPrivateKey get(byte[] txAddress) {
+        if(txAddress.length != 20)
+            throw new InvalidParameterException("Expected a 20 bytes address, got " + txAddress.length);
+        return keys.get(ByteBuffer.wrap(txAddress));
+    }
+
+    /**
+     * @param WIFAddress Base58 representation of the address.
+     * @return The key paid by the address or null if it is not in the ring.
+     */
+    public BitcoinPrivateKey get(String WIFAddress) throws IOException, NoSuchAlgorithmException {
+        return get(WIFToTxAddress(WIFAddress));
+    }
+
+    public boolean contains(byte[] txAddress) {
+        return get(txAddress) != null;
+    }
+
+    /**
+     * Look up the key paid by the address, asking bitcoind for it (and adding it to the ring)
+     * when it is not already loaded.
+     */
+    public BitcoinPrivateKey getOrLoad(String WIFAddress, BitcoindClient client)
+            throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        BitcoinPrivateKey ret = get(WIFAddress);
+        if(ret == null) {
+            LOGGER.fine("Loading key for " + WIFAddress + " from bitcoind");
+            ret = BitcoinPrivateKey.fromWIF(client.getPrivateKey(WIFAddress));
+            add(ret);
+        }
+        return ret;
+    }
+
+    public BitcoinPrivateKey getOrLoad(byte[] txAddress, BitcoindClient client)
+            throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        BitcoinPrivateKey ret = get(txAddress);
+        if(ret == null)
+            ret = getOrLoad(txAddressToWIF(txAddress, client.isTestnet()), client);
+        return ret;
+    }
+
+    public void clear() {
+        keys.clear();
+    }
+}
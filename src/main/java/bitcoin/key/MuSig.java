@@ -0,0 +1,351 @@
+package bitcoin.key;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static bitcoin.Hashes.taggedHash;
+import static bitcoin.key.Utils.bytesToBigInteger;
+import static bitcoin.key.Utils.get32ByteRepresentation;
+
+/**
+ * BIP 327 (MuSig2) multi-signatures: the players aggregate their keys into a single BIP 340 key
+ * and sign together in two rounds, the result is an ordinary Schnorr signature. Public keys are
+ * handled as 33 bytes compressed keys and public nonces as 66 bytes, two compressed points.
+ *
+ * A round goes: every signer calls {@link #nonceGen} and sends its public nonce to the others,
+ * the aggregated nonce starts a {@link Session} in which each signer computes its partial
+ * signature with {@link #sign}, which are aggregated with {@link #partialSigAgg}.
+ *
+ * Created by fmontoto on 12-05-17.
+ */
+public final class MuSig {
+    static public final int PUBLIC_NONCE_LENGTH = 66;
+    static public final int PARTIAL_SIGNATURE_LENGTH = 32;
+
+    static private final SecureRandom random = new SecureRandom();
+    static private final BigInteger[] G = Secp256k1.multiplyG(BigInteger.ONE);
+
+    private MuSig() {}
+
+    /**
+     * Aggregated key of a list of keys with the tweaks applied to it.
+     */
+    static public final class KeyAggContext {
+        private final List<byte[]> keys;
+        private final byte[] keysHash;
+        private final byte[] secondKey;
+        private final BigInteger[] q;
+        private final BigInteger gacc;
+        private final BigInteger tacc;
+
+        private KeyAggContext(List<byte[]> keys, byte[] keysHash, byte[] secondKey,
+                              BigInteger[] q, BigInteger gacc, BigInteger tacc) {
+            this.keys = keys;
+            this.keysHash = keysHash;
+            this.secondKey = secondKey;
+            this.q = q;
+            this.gacc = gacc;
+            this.tacc = tacc;
+        }
+
+        /**
+         * @return The 32 bytes x only aggregated key, as used by BIP 340 and taproot.
+         */
+        public byte[] getXOnlyKey() {
+            return Schnorr.xOnly(q);
+        }
+
+        public boolean hasEvenY() {
+            return Schnorr.hasEvenY(q);
+        }
+
+        public List<byte[]> getKeys() {
+            return Collections.unmodifiableList(keys);
+        }
+
+        BigInteger coefficient(byte[] key) {
+            if(Arrays.equals(key, secondKey))
+                return BigInteger.ONE;
+            return bytesToBigInteger(taggedHash("KeyAgg coefficient", keysHash, key))
+                    .mod(Secp256k1.n);
+        }
+
+        /**
+         * @param tweak 32 bytes scalar t.
+         * @return Context of the key Q + t * G, with Q the x only key of this context.
+         */
+        public KeyAggContext applyXOnlyTweak(byte[] tweak) {
+            BigInteger t = bytesToBigInteger(tweak);
+            if(tweak.length != 32 || t.compareTo(Secp256k1.n) >= 0)
+                throw new InvalidParameterException("Invalid tweak.");
+            BigInteger g = hasEvenY() ? BigInteger.ONE : Secp256k1.n.subtract(BigInteger.ONE);
+            BigInteger[] tweaked = Secp256k1.add(Secp256k1.multiply(g, q),
+                                                 t.signum() == 0 ? null : Secp256k1.multiplyG(t));
+            if(tweaked == null)
+                throw new InvalidParameterException("The tweaked key is the point at infinity.");
+            return new KeyAggContext(keys, keysHash, secondKey, tweaked,
+                                     g.multiply(gacc).mod(Secp256k1.n),
+                                     t.add(g.multiply(tacc)).mod(Secp256k1.n));
+        }
+    }
+
+    /**
+     * Secret part of a nonce, it can be used once.
+     */
+    static public final class SecretNonce {
+        private BigInteger k1, k2;
+        private final byte[] publicKey;
+        private final byte[] publicNonce;
+
+        private SecretNonce(BigInteger k1, BigInteger k2, byte[] publicKey) {
+            this.k1 = k1;
+            this.k2 = k2;
+            this.publicKey = publicKey;
+            publicNonce = new byte[PUBLIC_NONCE_LENGTH];
+            System.arraycopy(compress(Secp256k1.multiplyG(k1)), 0, publicNonce, 0, 33);
+            System.arraycopy(compress(Secp256k1.multiplyG(k2)), 0, publicNonce, 33, 33);
+        }
+
+        /**
+         * @return The nonce to send to the other signers.
+         */
+        public byte[] getPublicNonce() {
+            return publicNonce.clone();
+        }
+    }
+
+    /**
+     * Values shared by every signer of a message once the nonces were aggregated.
+     */
+    static public final class Session {
+        private final KeyAggContext keyAggContext;
+        private final BigInteger b;
+        private final BigInteger[] r;
+        private final BigInteger e;
+
+        public Session(byte[] aggNonce, KeyAggContext keyAggContext, byte[] msg) {
+            if(aggNonce.length != PUBLIC_NONCE_LENGTH)
+                throw new InvalidParameterException("Expected a 66 bytes aggregated nonce.");
+            this.keyAggContext = keyAggContext;
+            byte[] qBytes = keyAggContext.getXOnlyKey();
+            b = bytesToBigInteger(taggedHash("MuSig/noncecoef", aggNonce, qBytes, msg))
+                    .mod(Secp256k1.n);
+            BigInteger[] r1 = decompressExt(aggNonce, 0);
+            BigInteger[] r2 = decompressExt(aggNonce, 33);
+            BigInteger[] rr = Secp256k1.add(r1, Secp256k1.multiply(b, r2));
+            r = rr == null ? G : rr;
+            e = Schnorr.challenge(Schnorr.xOnly(r), qBytes, msg);
+        }
+    }
+
+    static private byte[] compress(BigInteger[] point) {
+        byte[] ret = new byte[33];
+        ret[0] = (byte) (Schnorr.hasEvenY(point) ? 0x02 : 0x03);
+        System.arraycopy(get32ByteRepresentation(point[0]), 0, ret, 1, 32);
+        return ret;
+    }
+
+    static private BigInteger[] decompress(byte[] key, int offset) {
+        byte[] point = Secp256k1.decompress(key, offset);
+        if(point == null)
+            throw new InvalidParameterException("Not a valid compressed point.");
+        return new BigInteger[] {bytesToBigInteger(Arrays.copyOf(point, 32)),
+                                 bytesToBigInteger(Arrays.copyOfRange(point, 32, 64))};
+    }
+
+    // 33 zero bytes are the point at infinity (null).
+    static private BigInteger[] decompressExt(byte[] key, int offset) {
+        for(int i = offset; i < offset + 33; i++)
+            if(key[i] != 0)
+                return decompress(key, offset);
+        return null;
+    }
+
+    static private byte[] compressExt(BigInteger[] point) {
+        return point == null ? new byte[33] : compress(point);
+    }
+
+    /**
+     * @return The keys in lexicographical order, so every player aggregates them the same way.
+     */
+    static public List<byte[]> sortKeys(List<byte[]> keys) {
+        List<byte[]> ret = new ArrayList<>(keys);
+        ret.sort((a, b) -> {
+            for(int i = 0; i < Math.min(a.length, b.length); i++) {
+                int c = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+                if(c != 0)
+                    return c;
+            }
+            return Integer.compare(a.length, b.length);
+        });
+        return ret;
+    }
+
+    /**
+     * @param keys 33 bytes compressed public keys, the order matters.
+     */
+    static public KeyAggContext keyAgg(List<byte[]> keys) {
+        if(keys.isEmpty())
+            throw new InvalidParameterException("Keys' list can not be empty");
+        List<byte[]> copy = new ArrayList<>(keys.size());
+        ByteBuffer all = ByteBuffer.allocate(33 * keys.size());
+        for(byte[] k : keys) {
+            if(k.length != 33)
+                throw new InvalidParameterException("Expected 33 bytes compressed keys.");
+            copy.add(k.clone());
+            all.put(k);
+        }
+        byte[] secondKey = new byte[33];
+        for(byte[] k : copy) {
+            if(!Arrays.equals(k, copy.get(0))) {
+                secondKey = k;
+                break;
+            }
+        }
+        KeyAggContext ret = new KeyAggContext(copy, taggedHash("KeyAgg list", all.array()),
+                                              secondKey, null, BigInteger.ONE, BigInteger.ZERO);
+        BigInteger[] q = null;
+        for(byte[] k : copy)
+            q = Secp256k1.add(q, Secp256k1.multiply(ret.coefficient(k), decompress(k, 0)));
+        if(q == null)
+            throw new InvalidParameterException("The aggregated key is the point at infinity.");
+        return new KeyAggContext(copy, ret.keysHash, secondKey, q, BigInteger.ONE,
+                                 BigInteger.ZERO);
+    }
+
+    static public KeyAggContext keyAgg(BitcoinPublicKey... keys) throws IOException {
+        List<byte[]> serialized = new ArrayList<>(keys.length);
+        for(BitcoinPublicKey k : keys)
+            serialized.add(k.getKey(true));
+        return keyAgg(serialized);
+    }
+
+    /**
+     * @param msg Message to be signed, null if it is not known yet.
+     */
+    static public SecretNonce nonceGen(BitcoinPrivateKey key, KeyAggContext keyAggContext,
+                                       byte[] msg)
+            throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        byte[] publicKey = key.getPublicKey().getKey(true);
+        byte[] rand = new byte[32];
+        random.nextBytes(rand);
+        byte[] aux = taggedHash("MuSig/aux", rand);
+        rand = get32ByteRepresentation(key.getS());
+        for(int i = 0; i < rand.length; i++)
+            rand[i] ^= aux[i];
+
+        byte[] aggKey = keyAggContext.getXOnlyKey();
+        ByteBuffer prefixedMsg;
+        if(msg == null) {
+            prefixedMsg = ByteBuffer.allocate(1).put((byte) 0);
+        } else {
+            prefixedMsg = ByteBuffer.allocate(1 + 8 + msg.length);
+            prefixedMsg.put((byte) 1).putLong(msg.length).put(msg);
+        }
+        BigInteger[] k = new BigInteger[2];
+        for(int i = 0; i < 2; i++) {
+            k[i] = bytesToBigInteger(taggedHash(
+                    "MuSig/nonce", rand, new byte[] {(byte) publicKey.length}, publicKey,
+                    new byte[] {(byte) aggKey.length}, aggKey, prefixedMsg.array(),
+                    new byte[] {0, 0, 0, 0}, new byte[] {(byte) i})).mod(Secp256k1.n);
+            if(k[i].signum() == 0)
+                throw new IllegalStateException("Nonce is zero.");
+        }
+        Arrays.fill(rand, (byte) 0);
+        return new SecretNonce(k[0], k[1], publicKey);
+    }
+
+    static public byte[] nonceAgg(List<byte[]> publicNonces) {
+        BigInteger[] r1 = null, r2 = null;
+        for(byte[] nonce : publicNonces) {
+            if(nonce.length != PUBLIC_NONCE_LENGTH)
+                throw new InvalidParameterException("Expected 66 bytes public nonces.");
+            r1 = Secp256k1.add(r1, decompress(nonce, 0));
+            r2 = Secp256k1.add(r2, decompress(nonce, 33));
+        }
+        byte[] ret = new byte[PUBLIC_NONCE_LENGTH];
+        System.arraycopy(compressExt(r1), 0, ret, 0, 33);
+        System.arraycopy(compressExt(r2), 0, ret, 33, 33);
+        return ret;
+    }
+
+    /**
+     * The secret nonce is cleared, signing twice with it would leak the private key.
+     *
+     * @return 32 bytes partial signature.
+     */
+    static public byte[] sign(SecretNonce secretNonce, BitcoinPrivateKey key, Session session)
+            throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        if(secretNonce.k1 == null)
+            throw new InvalidParameterException("The nonce was already used.");
+        BigInteger k1 = secretNonce.k1, k2 = secretNonce.k2;
+        secretNonce.k1 = secretNonce.k2 = null;
+        if(!Arrays.equals(key.getPublicKey().getKey(true), secretNonce.publicKey))
+            throw new InvalidParameterException("The nonce was not generated for this key.");
+        if(!Schnorr.hasEvenY(session.r)) {
+            k1 = Secp256k1.n.subtract(k1);
+            k2 = Secp256k1.n.subtract(k2);
+        }
+        KeyAggContext ctx = session.keyAggContext;
+        if(ctx.keys.stream().noneMatch(k -> Arrays.equals(k, secretNonce.publicKey)))
+            throw new InvalidParameterException("The key is not one of the aggregated keys.");
+        BigInteger a = ctx.coefficient(secretNonce.publicKey);
+        BigInteger g = ctx.hasEvenY() ? BigInteger.ONE : Secp256k1.n.subtract(BigInteger.ONE);
+        BigInteger d = g.multiply(ctx.gacc).multiply(key.getS()).mod(Secp256k1.n);
+        BigInteger s = k1.add(session.b.multiply(k2)).add(session.e.multiply(a).multiply(d))
+                .mod(Secp256k1.n);
+        return get32ByteRepresentation(s);
+    }
+
+    /**
+     * Checks the partial signature of another signer, so a wrong one is blamed on it.
+     */
+    static public boolean partialSigVerify(byte[] partialSig, byte[] publicNonce,
+                                           byte[] publicKey, Session session) {
+        BigInteger s = bytesToBigInteger(partialSig);
+        if(partialSig.length != PARTIAL_SIGNATURE_LENGTH || s.compareTo(Secp256k1.n) >= 0)
+            return false;
+        KeyAggContext ctx = session.keyAggContext;
+        BigInteger[] re = Secp256k1.add(decompress(publicNonce, 0),
+                                        Secp256k1.multiply(session.b, decompress(publicNonce, 33)));
+        if(!Schnorr.hasEvenY(session.r))
+            re = Secp256k1.negate(re);
+        BigInteger g = ctx.hasEvenY() ? BigInteger.ONE : Secp256k1.n.subtract(BigInteger.ONE);
+        BigInteger[] p = Secp256k1.multiply(g.multiply(ctx.gacc), decompress(publicKey, 0));
+        BigInteger[] expected = Secp256k1.add(
+                re, Secp256k1.multiply(session.e.multiply(ctx.coefficient(publicKey)), p));
+        BigInteger[] actual = Secp256k1.multiplyG(s);
+        if(expected == null || actual == null)
+            return expected == actual;
+        return expected[0].equals(actual[0]) && expected[1].equals(actual[1]);
+    }
+
+    /**
+     * @return The 64 bytes BIP 340 signature of the message under the aggregated key.
+     */
+    static public byte[] partialSigAgg(List<byte[]> partialSigs, Session session) {
+        BigInteger s = BigInteger.ZERO;
+        for(byte[] partialSig : partialSigs) {
+            BigInteger si = bytesToBigInteger(partialSig);
+            if(partialSig.length != PARTIAL_SIGNATURE_LENGTH || si.compareTo(Secp256k1.n) >= 0)
+                throw new InvalidParameterException("Invalid partial signature.");
+            s = s.add(si);
+        }
+        KeyAggContext ctx = session.keyAggContext;
+        BigInteger g = ctx.hasEvenY() ? BigInteger.ONE : Secp256k1.n.subtract(BigInteger.ONE);
+        s = s.add(session.e.multiply(g).multiply(ctx.tacc)).mod(Secp256k1.n);
+        byte[] ret = new byte[Schnorr.SIGNATURE_LENGTH];
+        System.arraycopy(Schnorr.xOnly(session.r), 0, ret, 0, 32);
+        System.arraycopy(get32ByteRepresentation(s), 0, ret, 32, 32);
+        return ret;
+    }
+}
@@ -0,0 +1,108 @@
+package bitcoin.key;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.InvalidParameterException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static bitcoin.Hashes.taggedHash;
+import static bitcoin.key.Utils.bytesToBigInteger;
+import static bitcoin.key.Utils.get32ByteRepresentation;
+
+/**
+ * BIP 340 Schnorr signatures, used by taproot outputs. Public keys are the 32 bytes x
+ * coordinate of a point with an even y, signatures are 64 bytes: the x coordinate of R and s.
+ *
+ * Created by fmontoto on 12-05-17.
+ */
+public final class Schnorr {
+    static public final int PUBLIC_KEY_LENGTH = 32;
+    static public final int SIGNATURE_LENGTH = 64;
+
+    static private final SecureRandom random = new SecureRandom();
+
+    private Schnorr() {}
+
+    static boolean hasEvenY(BigInteger[] point) {
+        return !point[1].testBit(0);
+    }
+
+    /**
+     * @return The 32 bytes BIP 340 public key of the key, its x coordinate.
+     */
+    static public byte[] xOnly(BitcoinPublicKey key) throws IOException {
+        return Arrays.copyOfRange(key.getKey(true), 1, 33);
+    }
+
+    static byte[] xOnly(BigInteger[] point) {
+        return get32ByteRepresentation(point[0]);
+    }
+
+    static public byte[] sign(BitcoinPrivateKey key, byte[] msg) {
+        byte[] auxRand = new byte[32];
+        random.nextBytes(auxRand);
+        return sign(key.getS(), msg, auxRand);
+    }
+
+    static public byte[] sign(BitcoinPrivateKey key, byte[] msg, byte[] auxRand) {
+        return sign(key.getS(), msg, auxRand);
+    }
+
+    static byte[] sign(BigInteger secret, byte[] msg, byte[] auxRand) {
+        if(secret.signum() <= 0 || secret.compareTo(Secp256k1.n) >= 0)
+            throw new InvalidParameterException("Secret key out of range.");
+        if(auxRand.length != 32)
+            throw new InvalidParameterException("Expected 32 bytes of auxiliary randomness.");
+        BigInteger[] p = Secp256k1.multiplyG(secret);
+        BigInteger d = hasEvenY(p) ? secret : Secp256k1.n.subtract(secret);
+        byte[] pBytes = xOnly(p);
+
+        byte[] t = get32ByteRepresentation(d);
+        byte[] auxHash = taggedHash("BIP0340/aux", auxRand);
+        for(int i = 0; i < t.length; i++)
+            t[i] ^= auxHash[i];
+        BigInteger k = bytesToBigInteger(taggedHash("BIP0340/nonce", t, pBytes, msg))
+                .mod(Secp256k1.n);
+        Arrays.fill(t, (byte) 0);
+        if(k.signum() == 0)
+            throw new IllegalStateException("Nonce is zero.");
+        BigInteger[] r = Secp256k1.multiplyG(k);
+        if(!hasEvenY(r))
+            k = Secp256k1.n.subtract(k);
+        byte[] rBytes = xOnly(r);
+        BigInteger e = challenge(rBytes, pBytes, msg);
+
+        byte[] ret = new byte[SIGNATURE_LENGTH];
+        System.arraycopy(rBytes, 0, ret, 0, 32);
+        System.arraycopy(get32ByteRepresentation(k.add(e.multiply(d)).mod(Secp256k1.n)), 0,
+                         ret, 32, 32);
+        return ret;
+    }
+
+    static BigInteger challenge(byte[] rBytes, byte[] pBytes, byte[] msg) {
+        return bytesToBigInteger(taggedHash("BIP0340/challenge", rBytes, pBytes, msg))
+                .mod(Secp256k1.n);
+    }
+
+    /**
+     * @param publicKey 32 bytes x only public key.
+     * @param sig 64 bytes signature.
+     */
+    static public boolean verify(byte[] publicKey, byte[] msg, byte[] sig) {
+        if(publicKey.length != PUBLIC_KEY_LENGTH || sig.length != SIGNATURE_LENGTH)
+            return false;
+        BigInteger[] p = Secp256k1.liftX(bytesToBigInteger(publicKey));
+        if(p == null)
+            return false;
+        byte[] rBytes = Arrays.copyOf(sig, 32);
+        BigInteger r = bytesToBigInteger(rBytes);
+        BigInteger s = bytesToBigInteger(Arrays.copyOfRange(sig, 32, 64));
+        if(r.compareTo(Secp256k1.p) >= 0 || s.compareTo(Secp256k1.n) >= 0)
+            return false;
+        BigInteger e = challenge(rBytes, publicKey, msg);
+        // R = s * G - e * P
+        BigInteger[] point = Secp256k1.multiplyAdd(s, Secp256k1.n.subtract(e).mod(Secp256k1.n), p);
+        return point != null && hasEvenY(point) && point[0].equals(r);
+    }
+}
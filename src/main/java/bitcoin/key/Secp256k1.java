@@ -1,10 +1,12 @@
 package bitcoin.key;
 
 import java.math.BigInteger;
+import java.security.KeyFactory;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.security.spec.*;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 
@@ -22,22 +24,329 @@ public class Secp256k1 {
             new BigInteger("79BE667EF9DCBBAC55A06295CE870B07029BFCDB2DCE28D959F2815B16F81798", 16);
     static private final BigInteger y =
             new BigInteger("483ADA7726A3C4655DA4FBFC0E1108A8FD17B448A68554199C47D08FFB10D4B8", 16);
-    static private final BigInteger n =
+    static final BigInteger n =
             new BigInteger("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEBAAEDCE6AF48A03BBFD25E8CD0364141", 16);
     static private final int h = 1;
     static private final ECField ec_field = new ECFieldFp(p);
     static private final EllipticCurve elliptic_curve = new EllipticCurve(ec_field, a, b);
     static public final ECParameterSpec spec = new ECParameterSpec(elliptic_curve, new ECPoint(x, y), n, h);
+    static private final SecureRandom random = new SecureRandom();
 
 
+    // Built once, the first time a multiplication needs it. 33 mixed additions and a single
+    // inversion per multiplication, the table takes ~0.8MB.
+    static private class GTable {
+        static private final PointTable TABLE = new PointTable(new BigInteger[] {x, y}, 8);
+    }
+
+    /**
+     * Precomputed multiples of a point for fixed base multiplications. k is split in signed w
+     * bits digits d_i in [-2^(w-1) + 1, 2^(w-1)] and k * P is the sum of d_i * 2^(w*i) * P, read
+     * from rows[i][|d_i|] and negated if d_i < 0, so there are no doublings.
+     *
+     * With 4 bits windows (65 additions per multiplication) a table takes ~66KB, with 8 bits
+     * windows (33 additions) ~0.8MB.
+     */
+    static final class PointTable {
+        private final int windowBits;
+        private final long[][][][] rows;
+
+        /**
+         * @param point Affine coordinates {x, y} of a point in the curve.
+         * @param windowBits 1, 2, 4 or 8.
+         */
+        PointTable(BigInteger[] point, int windowBits) {
+            if(windowBits <= 0 || 8 % windowBits != 0)
+                throw new IllegalArgumentException("Window bits must divide 8, got " + windowBits);
+            this.windowBits = windowBits;
+            int windows = 256 / windowBits + 1;  // The last one takes the carry.
+            int rowSize = (1 << (windowBits - 1)) + 1;
+            rows = new long[windows][][][];
+            long[][] base = {Secp256k1Field.fromBigInteger(point[0]),
+                             Secp256k1Field.fromBigInteger(point[1])};
+            JacobianPoint[] multiples = new JacobianPoint[rowSize];
+            for(int i = 0; i < windows; i++) {
+                JacobianPoint acc = JacobianPoint.INFINITY;
+                for(int j = 1; j < rowSize; j++) {
+                    acc = acc.add(base, false);
+                    multiples[j] = acc;
+                }
+                rows[i] = JacobianPoint.toAffine(multiples);
+                // 2^w * base = 2 * (2^(w-1) * base)
+                base = JacobianPoint.toAffine(new JacobianPoint[] {null, acc.twice()})[1];
+            }
+        }
+
+        // acc + k * P
+        JacobianPoint addMultiple(JacobianPoint acc, BigInteger k) {
+            byte[] bytes = k.toByteArray();
+            int digitsPerByte = 8 / windowBits;
+            int mask = (1 << windowBits) - 1;
+            int half = 1 << (windowBits - 1);
+            int carry = 0;
+            for(int i = 0; i < rows.length; i++) {
+                int byteIdx = i / digitsPerByte;
+                int b = byteIdx < bytes.length ? bytes[bytes.length - 1 - byteIdx] & 0xFF : 0;
+                int digit = carry + ((b >>> (windowBits * (i % digitsPerByte))) & mask);
+                carry = 0;
+                if(digit > half) {
+                    digit -= 1 << windowBits;
+                    carry = 1;
+                }
+                if(digit != 0)
+                    acc = acc.add(rows[i][Math.abs(digit)], digit < 0);
+            }
+            return acc;
+        }
+    }
+
+    // Jacobian coordinates (X, Y, Z) represent the affine point (X / Z^2, Y / Z^3), adding
+    // points does not need inversions. z == 0 is the point at infinity.
+    static private final class JacobianPoint {
+        static final JacobianPoint INFINITY =
+                new JacobianPoint(new long[] {1, 0, 0, 0, 0, 0, 0, 0},
+                                  new long[] {1, 0, 0, 0, 0, 0, 0, 0}, new long[8]);
+
+        final long[] x, y, z;
+
+        JacobianPoint(long[] x, long[] y, long[] z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        boolean isInfinity() {
+            return Secp256k1Field.isZero(z);
+        }
+
+        // a = 0 doubling: M = 3X^2, S = 4XY^2, X' = M^2 - 2S, Y' = M(S - X') - 8Y^4, Z' = 2YZ
+        JacobianPoint twice() {
+            if(isInfinity() || Secp256k1Field.isZero(y))
+                return INFINITY;
+            long[] yy = Secp256k1Field.sqr(y);
+            long[] s = Secp256k1Field.twice(Secp256k1Field.twice(Secp256k1Field.mul(x, yy)));
+            long[] xx = Secp256k1Field.sqr(x);
+            long[] m = Secp256k1Field.add(Secp256k1Field.twice(xx), xx);
+            long[] x3 = Secp256k1Field.sub(Secp256k1Field.sqr(m), Secp256k1Field.twice(s));
+            long[] yyyy8 = Secp256k1Field.twice(Secp256k1Field.twice(Secp256k1Field.twice(
+                    Secp256k1Field.sqr(yy))));
+            long[] y3 = Secp256k1Field.sub(Secp256k1Field.mul(m, Secp256k1Field.sub(s, x3)), yyyy8);
+            long[] z3 = Secp256k1Field.twice(Secp256k1Field.mul(y, z));
+            return new JacobianPoint(x3, y3, z3);
+        }
+
+        // Mixed addition with an affine point {x, y}, or with {x, -y} if negate.
+        JacobianPoint add(long[][] point, boolean negate) {
+            long[] pointY = negate ? Secp256k1Field.negate(point[1]) : point[1];
+            if(isInfinity())
+                return new JacobianPoint(point[0], pointY, new long[] {1, 0, 0, 0, 0, 0, 0, 0});
+            long[] zz = Secp256k1Field.sqr(z);
+            long[] u2 = Secp256k1Field.mul(point[0], zz);
+            long[] s2 = Secp256k1Field.mul(pointY, Secp256k1Field.mul(zz, z));
+            long[] h = Secp256k1Field.sub(u2, x);
+            long[] r = Secp256k1Field.sub(s2, y);
+            if(Secp256k1Field.isZero(h))
+                return Secp256k1Field.isZero(r) ? twice() : INFINITY;
+            long[] hh = Secp256k1Field.sqr(h);
+            long[] hhh = Secp256k1Field.mul(hh, h);
+            long[] v = Secp256k1Field.mul(x, hh);
+            long[] x3 = Secp256k1Field.sub(Secp256k1Field.sub(Secp256k1Field.sqr(r), hhh),
+                                           Secp256k1Field.twice(v));
+            long[] y3 = Secp256k1Field.sub(Secp256k1Field.mul(r, Secp256k1Field.sub(v, x3)),
+                                           Secp256k1Field.mul(y, hhh));
+            long[] z3 = Secp256k1Field.mul(z, h);
+            return new JacobianPoint(x3, y3, z3);
+        }
+
+        // null for the point at infinity.
+        BigInteger[] toAffine() {
+            if(isInfinity())
+                return null;
+            long[] zInv = Secp256k1Field.inv(z);
+            long[] zInv2 = Secp256k1Field.sqr(zInv);
+            return new BigInteger[] {
+                    Secp256k1Field.toBigInteger(Secp256k1Field.mul(x, zInv2)),
+                    Secp256k1Field.toBigInteger(Secp256k1Field.mul(y, Secp256k1Field.mul(zInv2, zInv)))};
+        }
+
+        // Converts points[1..] (none at infinity) with a single inversion (Montgomery's trick).
+        static long[][][] toAffine(JacobianPoint[] points) {
+            long[][] prefix = new long[points.length][];
+            prefix[1] = points[1].z;
+            for(int i = 2; i < points.length; i++)
+                prefix[i] = Secp256k1Field.mul(prefix[i - 1], points[i].z);
+            long[] inv = Secp256k1Field.inv(prefix[points.length - 1]);
+            long[][][] ret = new long[points.length][][];
+            for(int i = points.length - 1; i >= 1; i--) {
+                long[] zInv = i > 1 ? Secp256k1Field.mul(inv, prefix[i - 1]) : inv;
+                inv = Secp256k1Field.mul(inv, points[i].z);
+                long[] zInv2 = Secp256k1Field.sqr(zInv);
+                ret[i] = new long[][] {Secp256k1Field.mul(points[i].x, zInv2),
+                                       Secp256k1Field.mul(points[i].y,
+                                                          Secp256k1Field.mul(zInv2, zInv))};
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * @param k Scalar in [1, n - 1].
+     * @return Affine coordinates {x, y} of k * G, null if k is a multiple of n.
+     */
+    static BigInteger[] multiplyG(BigInteger k) {
+        return GTable.TABLE.addMultiple(JacobianPoint.INFINITY, k).toAffine();
+    }
+
+    /**
+     * u1 * G + u2 * Q, the point checked by ECDSA verification. u2 * Q is computed with 4 bits
+     * fixed windows over a table of Q, 2Q, ..., 15Q built with a single inversion.
+     *
+     * @param u1 Scalar in [0, n - 1].
+     * @param u2 Scalar in [0, n - 1].
+     * @param q Affine coordinates {x, y} of a point in the curve.
+     * @return Affine coordinates {x, y} of the result, null for the point at infinity.
+     */
+    static BigInteger[] multiplyAdd(BigInteger u1, BigInteger u2, BigInteger[] q) {
+        JacobianPoint[] multiples = new JacobianPoint[16];
+        long[][] base = {Secp256k1Field.fromBigInteger(q[0]), Secp256k1Field.fromBigInteger(q[1])};
+        JacobianPoint acc = JacobianPoint.INFINITY;
+        for(int i = 1; i < multiples.length; i++) {
+            acc = acc.add(base, false);
+            multiples[i] = acc;
+        }
+        long[][][] table = JacobianPoint.toAffine(multiples);
+
+        acc = JacobianPoint.INFINITY;
+        for(int i = (u2.bitLength() + 3) / 4 - 1; i >= 0; i--) {
+            acc = acc.twice().twice().twice().twice();
+            int nibble = 0;
+            for(int j = 3; j >= 0; j--)
+                nibble = (nibble << 1) | (u2.testBit(4 * i + j) ? 1 : 0);
+            if(nibble != 0)
+                acc = acc.add(table[nibble], false);
+        }
+        return GTable.TABLE.addMultiple(acc, u1).toAffine();
+    }
+
+    /**
+     * u1 * G + u2 * Q with a table precomputed for Q, cheaper than
+     * {@link #multiplyAdd(BigInteger, BigInteger, BigInteger[])} when Q is used repeatedly.
+     *
+     * @return Affine coordinates {x, y} of the result, null for the point at infinity.
+     */
+    static BigInteger[] multiplyAdd(BigInteger u1, BigInteger u2, PointTable q) {
+        return GTable.TABLE.addMultiple(q.addMultiple(JacobianPoint.INFINITY, u2), u1).toAffine();
+    }
+
+    /**
+     * @param x Affine x coordinate.
+     * @param y Affine y coordinate.
+     * @return Whether (x, y) satisfies y^2 = x^3 + 7 (mod p).
+     */
+    static boolean isOnCurve(BigInteger x, BigInteger y) {
+        if(x.signum() < 0 || x.compareTo(p) >= 0 || y.signum() < 0 || y.compareTo(p) >= 0)
+            return false;
+        long[] fx = Secp256k1Field.fromBigInteger(x);
+        long[] fy = Secp256k1Field.fromBigInteger(y);
+        return Secp256k1Field.equals(Secp256k1Field.sqr(fy), Secp256k1Field.curveRightSide(fx));
+    }
+
+    /**
+     * @param compressedKey Holds a 33 bytes compressed point at offset, 0x02 or 0x03 and x.
+     * @return x and y, 32 bytes each, or null if it is not a point of the curve.
+     */
+    static byte[] decompress(byte[] compressedKey, int offset) {
+        byte prefix = compressedKey[offset];
+        if(prefix != 0x02 && prefix != 0x03)
+            return null;
+        long[] x = Secp256k1Field.fromBytes(compressedKey, offset + 1);
+        if(x == null)
+            return null;
+        long[] y = Secp256k1Field.sqrt(Secp256k1Field.curveRightSide(x), prefix == 0x03);
+        if(y == null)
+            return null;
+        byte[] ret = new byte[64];
+        System.arraycopy(compressedKey, offset + 1, ret, 0, 32);
+        Secp256k1Field.toBytes(y, ret, 32);
+        return ret;
+    }
+
+    /**
+     * @return The point with the given x coordinate and an even y (BIP 340 lift_x), null if
+     *         there is none.
+     */
+    static BigInteger[] liftX(BigInteger x) {
+        if(x.signum() < 0 || x.compareTo(p) >= 0)
+            return null;
+        byte[] compressed = new byte[33];
+        compressed[0] = 0x02;
+        System.arraycopy(Utils.get32ByteRepresentation(x), 0, compressed, 1, 32);
+        byte[] point = decompress(compressed, 0);
+        if(point == null)
+            return null;
+        return new BigInteger[] {x, new BigInteger(1, Arrays.copyOfRange(point, 32, 64))};
+    }
+
+    /**
+     * @param a Affine coordinates {x, y}, null for the point at infinity.
+     * @param b Affine coordinates {x, y}, null for the point at infinity.
+     * @return a + b, null for the point at infinity.
+     */
+    static BigInteger[] add(BigInteger[] a, BigInteger[] b) {
+        if(a == null)
+            return b;
+        if(b == null)
+            return a;
+        JacobianPoint ja = new JacobianPoint(Secp256k1Field.fromBigInteger(a[0]),
+                                             Secp256k1Field.fromBigInteger(a[1]),
+                                             new long[] {1, 0, 0, 0, 0, 0, 0, 0});
+        return ja.add(new long[][] {Secp256k1Field.fromBigInteger(b[0]),
+                                    Secp256k1Field.fromBigInteger(b[1])}, false).toAffine();
+    }
+
+    /**
+     * @return k * q, null for the point at infinity.
+     */
+    static BigInteger[] multiply(BigInteger k, BigInteger[] q) {
+        if(q == null)
+            return null;
+        return multiplyAdd(BigInteger.ZERO, k.mod(n), q);
+    }
+
+    static BigInteger[] negate(BigInteger[] q) {
+        if(q == null || q[1].signum() == 0)
+            return q;
+        return new BigInteger[] {q[0], p.subtract(q[1])};
+    }
+
+    /**
+     * @return A uniformly random secret in [1, n - 1].
+     */
+    static BigInteger randomSecret() {
+        BigInteger ret;
+        do {
+            ret = new BigInteger(256, random);
+        } while(ret.signum() == 0 || ret.compareTo(n) >= 0);
+        return ret;
+    }
+
+    /**
+     * A random key pair, the public point is computed with {@link #multiplyG(BigInteger)}.
+     */
     static public KeyPair generatePair() throws NoSuchAlgorithmException {
-        KeyPairGenerator keyPairGenerator = null;
+        BigInteger secret = randomSecret();
+        BigInteger[] q = multiplyG(secret);
         try {
-            keyPairGenerator = KeyPairGenerator.getInstance("EC");
-            return keyPairGenerator.generateKeyPair();
+            KeyFactory keyFactory = KeyFactory.getInstance("EC");
+            return new KeyPair(
+                    keyFactory.generatePublic(new ECPublicKeySpec(new ECPoint(q[0], q[1]), spec)),
+                    keyFactory.generatePrivate(new ECPrivateKeySpec(secret, spec)));
         } catch (NoSuchAlgorithmException e) {
             LOGGER.throwing("Secp256k1", "generatePair", e);
             throw e;
+        } catch (InvalidKeySpecException e) {
+            LOGGER.throwing("Secp256k1", "generatePair", e);
+            throw new NoSuchAlgorithmException("EC keys over secp256k1 are not supported", e);
         }
     }
 }
@@ -0,0 +1,421 @@
+package bitcoin.key;
+
+import java.math.BigInteger;
+
+/**
+ * Arithmetic modulo the secp256k1 prime p = 2^256 - 2^32 - 977, used by the point operations of
+ * {@link Secp256k1}. BigInteger needs a long division for every reduction, here elements are
+ * eight 32 bits limbs (little endian, stored in longs) and reducing a product only needs to fold
+ * the high half back: 2^256 = 2^32 + 977 (mod p).
+ *
+ * Every method returns a new fully reduced element, arguments are never modified.
+ *
+ * Created by fmontoto on 04-05-17.
+ */
+final class Secp256k1Field {
+    static private final long M = 0xFFFFFFFFL;
+    static private final long R = 977;  // 2^256 - p = 2^32 + R
+    static private final long[] P = {0xFFFFFC2FL, 0xFFFFFFFEL, M, M, M, M, M, M};
+
+    private Secp256k1Field() {}
+
+    static long[] fromBigInteger(BigInteger val) {
+        long[] ret = new long[8];
+        for(int i = 0; i < 8; i++)
+            ret[i] = val.shiftRight(32 * i).longValue() & M;
+        return ret;
+    }
+
+    static BigInteger toBigInteger(long[] a) {
+        byte[] bytes = new byte[32];
+        for(int i = 0; i < 8; i++)
+            for(int j = 0; j < 4; j++)
+                bytes[31 - 4 * i - j] = (byte) (a[i] >>> (8 * j));
+        return new BigInteger(1, bytes);
+    }
+
+    /**
+     * @return The 32 big endian bytes at buffer[offset], null if they are not lower than p.
+     */
+    static long[] fromBytes(byte[] buffer, int offset) {
+        long[] ret = new long[8];
+        for(int i = 0; i < 8; i++) {
+            int pos = offset + 28 - 4 * i;
+            ret[i] = (buffer[pos] & 0xFFL) << 24 | (buffer[pos + 1] & 0xFF) << 16
+                    | (buffer[pos + 2] & 0xFF) << 8 | (buffer[pos + 3] & 0xFF);
+        }
+        return geP(ret) ? null : ret;
+    }
+
+    static void toBytes(long[] a, byte[] out, int offset) {
+        for(int i = 0; i < 8; i++)
+            for(int j = 0; j < 4; j++)
+                out[offset + 31 - 4 * i - j] = (byte) (a[i] >>> (8 * j));
+    }
+
+    static boolean isOdd(long[] a) {
+        return (a[0] & 1) != 0;
+    }
+
+    static boolean equals(long[] a, long[] b) {
+        long acc = 0;
+        for(int i = 0; i < 8; i++)
+            acc |= a[i] ^ b[i];
+        return acc == 0;
+    }
+
+    static boolean isZero(long[] a) {
+        long acc = 0;
+        for(int i = 0; i < 8; i++)
+            acc |= a[i];
+        return acc == 0;
+    }
+
+    // r >= p, only possible when the six top limbs are all ones.
+    static private boolean geP(long[] r) {
+        for(int i = 7; i >= 2; i--)
+            if(r[i] != M)
+                return false;
+        return r[1] > P[1] || (r[1] == P[1] && r[0] >= P[0]);
+    }
+
+    // r - p when r >= p, in place (subtracting p is adding 2^32 + R and dropping bit 256).
+    static private void normalize(long[] r) {
+        if(geP(r))
+            addReduction(r, 1);
+    }
+
+    // r += times * (2^32 + R), in place, dropping the bit 256 carry. Returns that carry.
+    static private long addReduction(long[] r, long times) {
+        long c = r[0] + times * R;
+        r[0] = c & M;
+        c = (c >>> 32) + r[1] + times;
+        r[1] = c & M;
+        c >>>= 32;
+        for(int i = 2; i < 8 && c != 0; i++) {
+            c += r[i];
+            r[i] = c & M;
+            c >>>= 32;
+        }
+        return c;
+    }
+
+    static long[] add(long[] a, long[] b) {
+        long[] r = new long[8];
+        long c = 0;
+        for(int i = 0; i < 8; i++) {
+            c += a[i] + b[i];
+            r[i] = c & M;
+            c >>>= 32;
+        }
+        // a + b < 2p, so at most one reduction is needed.
+        if(c != 0)
+            addReduction(r, 1);
+        else
+            normalize(r);
+        return r;
+    }
+
+    static long[] sub(long[] a, long[] b) {
+        long[] r = new long[8];
+        long borrow = 0;
+        for(int i = 0; i < 8; i++) {
+            long d = a[i] - b[i] - borrow;
+            r[i] = d & M;
+            borrow = d < 0 ? 1 : 0;
+        }
+        if(borrow != 0) {
+            // Wrapped around 2^256, add p back.
+            long c = 0;
+            for(int i = 0; i < 8; i++) {
+                c += r[i] + P[i];
+                r[i] = c & M;
+                c >>>= 32;
+            }
+        }
+        return r;
+    }
+
+    static long[] negate(long[] a) {
+        return sub(new long[8], a);
+    }
+
+    static long[] twice(long[] a) {
+        return add(a, a);
+    }
+
+    static long[] mul(long[] a, long[] b) {
+        long a0 = a[0], a1 = a[1], a2 = a[2], a3 = a[3], a4 = a[4], a5 = a[5], a6 = a[6], a7 = a[7];
+        long b0 = b[0], b1 = b[1], b2 = b[2], b3 = b[3], b4 = b[4], b5 = b[5], b6 = b[6], b7 = b[7];
+        // Column k of the product, the 64 bits partial products are unsigned so they are
+        // split in halves before adding them.
+        long p, low, high, carry;
+        low = 0; high = 0;
+        p = a0 * b0; low += p & M; high += p >>> 32;
+        long t0 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * b1; low += p & M; high += p >>> 32;
+        p = a1 * b0; low += p & M; high += p >>> 32;
+        long t1 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * b2; low += p & M; high += p >>> 32;
+        p = a1 * b1; low += p & M; high += p >>> 32;
+        p = a2 * b0; low += p & M; high += p >>> 32;
+        long t2 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * b3; low += p & M; high += p >>> 32;
+        p = a1 * b2; low += p & M; high += p >>> 32;
+        p = a2 * b1; low += p & M; high += p >>> 32;
+        p = a3 * b0; low += p & M; high += p >>> 32;
+        long t3 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * b4; low += p & M; high += p >>> 32;
+        p = a1 * b3; low += p & M; high += p >>> 32;
+        p = a2 * b2; low += p & M; high += p >>> 32;
+        p = a3 * b1; low += p & M; high += p >>> 32;
+        p = a4 * b0; low += p & M; high += p >>> 32;
+        long t4 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * b5; low += p & M; high += p >>> 32;
+        p = a1 * b4; low += p & M; high += p >>> 32;
+        p = a2 * b3; low += p & M; high += p >>> 32;
+        p = a3 * b2; low += p & M; high += p >>> 32;
+        p = a4 * b1; low += p & M; high += p >>> 32;
+        p = a5 * b0; low += p & M; high += p >>> 32;
+        long t5 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * b6; low += p & M; high += p >>> 32;
+        p = a1 * b5; low += p & M; high += p >>> 32;
+        p = a2 * b4; low += p & M; high += p >>> 32;
+        p = a3 * b3; low += p & M; high += p >>> 32;
+        p = a4 * b2; low += p & M; high += p >>> 32;
+        p = a5 * b1; low += p & M; high += p >>> 32;
+        p = a6 * b0; low += p & M; high += p >>> 32;
+        long t6 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * b7; low += p & M; high += p >>> 32;
+        p = a1 * b6; low += p & M; high += p >>> 32;
+        p = a2 * b5; low += p & M; high += p >>> 32;
+        p = a3 * b4; low += p & M; high += p >>> 32;
+        p = a4 * b3; low += p & M; high += p >>> 32;
+        p = a5 * b2; low += p & M; high += p >>> 32;
+        p = a6 * b1; low += p & M; high += p >>> 32;
+        p = a7 * b0; low += p & M; high += p >>> 32;
+        long t7 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a1 * b7; low += p & M; high += p >>> 32;
+        p = a2 * b6; low += p & M; high += p >>> 32;
+        p = a3 * b5; low += p & M; high += p >>> 32;
+        p = a4 * b4; low += p & M; high += p >>> 32;
+        p = a5 * b3; low += p & M; high += p >>> 32;
+        p = a6 * b2; low += p & M; high += p >>> 32;
+        p = a7 * b1; low += p & M; high += p >>> 32;
+        long t8 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a2 * b7; low += p & M; high += p >>> 32;
+        p = a3 * b6; low += p & M; high += p >>> 32;
+        p = a4 * b5; low += p & M; high += p >>> 32;
+        p = a5 * b4; low += p & M; high += p >>> 32;
+        p = a6 * b3; low += p & M; high += p >>> 32;
+        p = a7 * b2; low += p & M; high += p >>> 32;
+        long t9 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a3 * b7; low += p & M; high += p >>> 32;
+        p = a4 * b6; low += p & M; high += p >>> 32;
+        p = a5 * b5; low += p & M; high += p >>> 32;
+        p = a6 * b4; low += p & M; high += p >>> 32;
+        p = a7 * b3; low += p & M; high += p >>> 32;
+        long t10 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a4 * b7; low += p & M; high += p >>> 32;
+        p = a5 * b6; low += p & M; high += p >>> 32;
+        p = a6 * b5; low += p & M; high += p >>> 32;
+        p = a7 * b4; low += p & M; high += p >>> 32;
+        long t11 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a5 * b7; low += p & M; high += p >>> 32;
+        p = a6 * b6; low += p & M; high += p >>> 32;
+        p = a7 * b5; low += p & M; high += p >>> 32;
+        long t12 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a6 * b7; low += p & M; high += p >>> 32;
+        p = a7 * b6; low += p & M; high += p >>> 32;
+        long t13 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a7 * b7; low += p & M; high += p >>> 32;
+        long t14 = low & M; carry = (low >>> 32) + high;
+        long t15 = carry;
+        return reduce(t0, t1, t2, t3, t4, t5, t6, t7, t8, t9, t10, t11, t12, t13, t14, t15);
+    }
+
+    static long[] sqr(long[] a) {
+        long a0 = a[0], a1 = a[1], a2 = a[2], a3 = a[3], a4 = a[4], a5 = a[5], a6 = a[6], a7 = a[7];
+        // Same than mul, but the cross products a_i * a_j (i != j) are computed once and
+        // added twice.
+        long p, low, high, carry;
+        low = 0; high = 0;
+        p = a0 * a0; low += p & M; high += p >>> 32;
+        long t0 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * a1; low += (p & M) << 1; high += (p >>> 32) << 1;
+        long t1 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * a2; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a1 * a1; low += p & M; high += p >>> 32;
+        long t2 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * a3; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a1 * a2; low += (p & M) << 1; high += (p >>> 32) << 1;
+        long t3 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * a4; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a1 * a3; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a2 * a2; low += p & M; high += p >>> 32;
+        long t4 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * a5; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a1 * a4; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a2 * a3; low += (p & M) << 1; high += (p >>> 32) << 1;
+        long t5 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * a6; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a1 * a5; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a2 * a4; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a3 * a3; low += p & M; high += p >>> 32;
+        long t6 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a0 * a7; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a1 * a6; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a2 * a5; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a3 * a4; low += (p & M) << 1; high += (p >>> 32) << 1;
+        long t7 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a1 * a7; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a2 * a6; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a3 * a5; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a4 * a4; low += p & M; high += p >>> 32;
+        long t8 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a2 * a7; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a3 * a6; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a4 * a5; low += (p & M) << 1; high += (p >>> 32) << 1;
+        long t9 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a3 * a7; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a4 * a6; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a5 * a5; low += p & M; high += p >>> 32;
+        long t10 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a4 * a7; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a5 * a6; low += (p & M) << 1; high += (p >>> 32) << 1;
+        long t11 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a5 * a7; low += (p & M) << 1; high += (p >>> 32) << 1;
+        p = a6 * a6; low += p & M; high += p >>> 32;
+        long t12 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a6 * a7; low += (p & M) << 1; high += (p >>> 32) << 1;
+        long t13 = low & M; carry = (low >>> 32) + high;
+        low = carry; high = 0;
+        p = a7 * a7; low += p & M; high += p >>> 32;
+        long t14 = low & M; carry = (low >>> 32) + high;
+        long t15 = carry;
+        return reduce(t0, t1, t2, t3, t4, t5, t6, t7, t8, t9, t10, t11, t12, t13, t14, t15);
+    }
+
+    // t = H * 2^256 + L = L + H * (2^32 + R) (mod p).
+    static private long[] reduce(long t0, long t1, long t2, long t3, long t4, long t5, long t6,
+                                 long t7, long t8, long t9, long t10, long t11, long t12, long t13,
+                                 long t14, long t15) {
+        long[] r = new long[8];
+        long c = t0 + t8 * R;
+        r[0] = c & M;
+        c = (c >>> 32) + t1 + t9 * R + t8;
+        r[1] = c & M;
+        c = (c >>> 32) + t2 + t10 * R + t9;
+        r[2] = c & M;
+        c = (c >>> 32) + t3 + t11 * R + t10;
+        r[3] = c & M;
+        c = (c >>> 32) + t4 + t12 * R + t11;
+        r[4] = c & M;
+        c = (c >>> 32) + t5 + t13 * R + t12;
+        r[5] = c & M;
+        c = (c >>> 32) + t6 + t14 * R + t13;
+        r[6] = c & M;
+        c = (c >>> 32) + t7 + t15 * R + t14;
+        r[7] = c & M;
+        c = (c >>> 32) + t15;
+        // The remaining carry is small, fold it again. A new carry out of bit 256 can only
+        // happen once more, and then the result is tiny.
+        while(c != 0)
+            c = addReduction(r, c);
+        normalize(r);
+        return r;
+    }
+
+    static private long[] sqrTimes(long[] a, int times) {
+        long[] r = a;
+        for(int i = 0; i < times; i++)
+            r = sqr(r);
+        return r;
+    }
+
+    /**
+     * @return x^3 + 7, y^2 for the points with abscissa x.
+     */
+    static long[] curveRightSide(long[] x) {
+        long[] seven = new long[8];
+        seven[0] = 7;
+        return add(mul(sqr(x), x), seven);
+    }
+
+    /**
+     * The square root with the given parity, a^((p + 1) / 4) as p = 3 (mod 4). Same addition
+     * chain than libsecp256k1, the exponent is ones in blocks of 223, 22 and 2 bits: 253
+     * squarings and 13 multiplications.
+     *
+     * @return null if a is not a square.
+     */
+    static long[] sqrt(long[] a, boolean odd) {
+        long[] x2 = mul(sqr(a), a);
+        long[] x3 = mul(sqr(x2), a);
+        long[] x6 = mul(sqrTimes(x3, 3), x3);
+        long[] x9 = mul(sqrTimes(x6, 3), x3);
+        long[] x11 = mul(sqrTimes(x9, 2), x2);
+        long[] x22 = mul(sqrTimes(x11, 11), x11);
+        long[] x44 = mul(sqrTimes(x22, 22), x22);
+        long[] x88 = mul(sqrTimes(x44, 44), x44);
+        long[] x176 = mul(sqrTimes(x88, 88), x88);
+        long[] x220 = mul(sqrTimes(x176, 44), x44);
+        long[] x223 = mul(sqrTimes(x220, 3), x3);
+
+        long[] t = mul(sqrTimes(x223, 23), x22);
+        t = mul(sqrTimes(t, 6), x2);
+        t = sqrTimes(t, 2);
+        if(!equals(sqr(t), a))
+            return null;
+        return isOdd(t) == odd ? t : negate(t);
+    }
+
+    /**
+     * a^(p - 2), the same addition chain than libsecp256k1: 255 squarings and 15 multiplications.
+     */
+    static long[] inv(long[] a) {
+        long[] x2 = mul(sqr(a), a);
+        long[] x3 = mul(sqr(x2), a);
+        long[] x6 = mul(sqrTimes(x3, 3), x3);
+        long[] x9 = mul(sqrTimes(x6, 3), x3);
+        long[] x11 = mul(sqrTimes(x9, 2), x2);
+        long[] x22 = mul(sqrTimes(x11, 11), x11);
+        long[] x44 = mul(sqrTimes(x22, 22), x22);
+        long[] x88 = mul(sqrTimes(x44, 44), x44);
+        long[] x176 = mul(sqrTimes(x88, 88), x88);
+        long[] x220 = mul(sqrTimes(x176, 44), x44);
+        long[] x223 = mul(sqrTimes(x220, 3), x3);
+
+        long[] t = mul(sqrTimes(x223, 23), x22);
+        t = mul(sqrTimes(t, 5), a);
+        t = mul(sqrTimes(t, 3), x2);
+        return mul(sqrTimes(t, 2), a);
+    }
+}
@@ -0,0 +1,130 @@
+package bitcoin.key;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import static bitcoin.key.Utils.get32ByteRepresentation;
+
+/**
+ * ECDSA over secp256k1 without going through the JCA providers. Nonces are deterministic
+ * (RFC 6979 with HMAC-SHA256), k * G uses the precomputed tables of {@link Secp256k1} and the
+ * signature is emitted as canonical DER with low S (BIP 62/66), as nodes expect it.
+ *
+ * The output is the same than bitcoinj's ECKey.sign(...).encodeToDER().
+ *
+ * Created by fmontoto on 04-05-17.
+ */
+public final class Secp256k1Signer {
+    private static final Logger LOGGER = Logger.getLogger(Secp256k1Signer.class.getName());
+
+    static private final BigInteger HALF_N = Secp256k1.n.shiftRight(1);
+
+    // Looked up once per thread, Mac instances are not thread safe.
+    static private final ThreadLocal<Mac> hmac = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.throwing("Secp256k1Signer", "hmac", e);
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    });
+
+    private Secp256k1Signer() {}
+
+    /**
+     * @param privateKey Secret scalar, in [1, n - 1].
+     * @param digest 32 bytes hash of the message (for transactions, the signature hash).
+     * @return DER encoded signature with S in the lower half of the order.
+     */
+    static public byte[] sign(BigInteger privateKey, byte[] digest) throws InvalidKeyException {
+        if(privateKey.signum() <= 0 || privateKey.compareTo(Secp256k1.n) >= 0)
+            throw new InvalidKeyException("Private key out of range");
+        if(digest.length != 32)
+            throw new InvalidParameterException("Expected a 32 bytes digest, got " + digest.length);
+
+        BigInteger z = new BigInteger(1, digest);
+        NonceGenerator nonces = new NonceGenerator(get32ByteRepresentation(privateKey),
+                                                   get32ByteRepresentation(z.mod(Secp256k1.n)));
+        while(true) {
+            BigInteger k = nonces.next();
+            BigInteger r = Secp256k1.multiplyG(k)[0].mod(Secp256k1.n);
+            if(r.signum() == 0)
+                continue;
+            BigInteger s = k.modInverse(Secp256k1.n)
+                            .multiply(z.add(r.multiply(privateKey))).mod(Secp256k1.n);
+            if(s.signum() == 0)
+                continue;
+            if(s.compareTo(HALF_N) > 0)
+                s = Secp256k1.n.subtract(s);
+            return encodeDER(r, s);
+        }
+    }
+
+    // SEQUENCE { INTEGER r, INTEGER s }, toByteArray already gives the minimal two's complement.
+    static private byte[] encodeDER(BigInteger r, BigInteger s) {
+        byte[] rBytes = r.toByteArray();
+        byte[] sBytes = s.toByteArray();
+        byte[] ret = new byte[6 + rBytes.length + sBytes.length];
+        ret[0] = 0x30;
+        ret[1] = (byte) (4 + rBytes.length + sBytes.length);
+        ret[2] = 0x02;
+        ret[3] = (byte) rBytes.length;
+        System.arraycopy(rBytes, 0, ret, 4, rBytes.length);
+        ret[4 + rBytes.length] = 0x02;
+        ret[5 + rBytes.length] = (byte) sBytes.length;
+        System.arraycopy(sBytes, 0, ret, 6 + rBytes.length, sBytes.length);
+        return ret;
+    }
+
+    // RFC 6979 section 3.2, qlen = hlen = 256 so bits2int is just reading V.
+    static private final class NonceGenerator {
+        private final Mac mac;
+        private byte[] k;
+        private byte[] v;
+        private boolean first;
+
+        NonceGenerator(byte[] privateKey, byte[] hash) {
+            mac = hmac.get();
+            v = new byte[32];
+            Arrays.fill(v, (byte) 0x01);
+            k = new byte[32];
+            k = hmac(k, v, new byte[] {0x00}, privateKey, hash);
+            v = hmac(k, v);
+            k = hmac(k, v, new byte[] {0x01}, privateKey, hash);
+            v = hmac(k, v);
+            first = true;
+        }
+
+        BigInteger next() {
+            while(true) {
+                if(!first) {
+                    k = hmac(k, v, new byte[] {0x00});
+                    v = hmac(k, v);
+                }
+                first = false;
+                v = hmac(k, v);
+                BigInteger candidate = new BigInteger(1, v);
+                if(candidate.signum() > 0 && candidate.compareTo(Secp256k1.n) < 0)
+                    return candidate;
+            }
+        }
+
+        private byte[] hmac(byte[] key, byte[]... data) {
+            try {
+                mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            } catch (InvalidKeyException e) {
+                LOGGER.throwing("NonceGenerator", "hmac", e);
+                throw new IllegalStateException(e);
+            }
+            for(byte[] d : data)
+                mac.update(d);
+            return mac.doFinal();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package bitcoin.key;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * ECDSA verification over secp256k1 without going through the JCA providers, the counterpart
+ * of {@link Secp256k1Signer}. Public keys are taken as serialized in scripts (33 bytes
+ * compressed or 65 bytes uncompressed) and signatures must be strict DER (BIP 66).
+ *
+ * Created by fmontoto on 06-05-17.
+ */
+public final class Secp256k1Verifier {
+    private static final Logger LOGGER = Logger.getLogger(Secp256k1Verifier.class.getName());
+
+    private Secp256k1Verifier() {}
+
+    /**
+     * @param publicKey Serialized public key, compressed or not.
+     * @param digest 32 bytes hash of the signed message.
+     * @param derSignature DER encoded signature, without the hash type byte.
+     * @return true if the signature is valid, false if it is not or any of the parameters is
+     *         malformed.
+     */
+    static public boolean verify(byte[] publicKey, byte[] digest, byte[] derSignature) {
+        BigInteger[] q = decodePoint(publicKey);
+        if(q == null)
+            return false;
+        return verify(q, null, digest, derSignature);
+    }
+
+    /**
+     * @param q Affine coordinates of the public key, already checked to be in the curve.
+     * @param table Precomputed multiples of q, or null to compute them on the fly.
+     */
+    static boolean verify(BigInteger[] q, Secp256k1.PointTable table, byte[] digest,
+                          byte[] derSignature) {
+        BigInteger[] rs = decodeDER(derSignature);
+        if(rs == null)
+            return false;
+        BigInteger r = rs[0], s = rs[1];
+        if(r.signum() <= 0 || r.compareTo(Secp256k1.n) >= 0
+                || s.signum() <= 0 || s.compareTo(Secp256k1.n) >= 0)
+            return false;
+
+        BigInteger z = new BigInteger(1, digest);
+        BigInteger w = s.modInverse(Secp256k1.n);
+        BigInteger u1 = z.multiply(w).mod(Secp256k1.n);
+        BigInteger u2 = r.multiply(w).mod(Secp256k1.n);
+        BigInteger[] point = table != null ? Secp256k1.multiplyAdd(u1, u2, table)
+                                           : Secp256k1.multiplyAdd(u1, u2, q);
+        return point != null && point[0].mod(Secp256k1.n).equals(r);
+    }
+
+    /**
+     * @return Affine coordinates {x, y} of the serialized point, null if it is not a valid
+     *         point of the curve.
+     */
+    static BigInteger[] decodePoint(byte[] publicKey) {
+        if(publicKey == null || publicKey.length == 0)
+            return null;
+        if(publicKey.length == 65 && publicKey[0] == 0x04) {
+            BigInteger x = new BigInteger(1, Arrays.copyOfRange(publicKey, 1, 33));
+            BigInteger y = new BigInteger(1, Arrays.copyOfRange(publicKey, 33, 65));
+            return Secp256k1.isOnCurve(x, y) ? new BigInteger[] {x, y} : null;
+        }
+        if(publicKey.length == 33) {
+            byte[] point = Secp256k1.decompress(publicKey, 0);
+            if(point == null)
+                return null;
+            return new BigInteger[] {new BigInteger(1, Arrays.copyOf(point, 32)),
+                                     new BigInteger(1, Arrays.copyOfRange(point, 32, 64))};
+        }
+        return null;
+    }
+
+    /**
+     * Strict DER, as required by BIP 66: 0x30 [len] 0x02 [len R] [R] 0x02 [len S] [S] with
+     * minimally encoded positive integers.
+     *
+     * @return {r, s} or null if the encoding is not valid.
+     */
+    static BigInteger[] decodeDER(byte[] sig) {
+        if(sig == null || sig.length < 8 || sig.length > 72)
+            return null;
+        if(sig[0] != 0x30 || (sig[1] & 0xFF) != sig.length - 2)
+            return null;
+        int rLength = sig[3] & 0xFF;
+        if(sig[2] != 0x02 || rLength == 0 || 5 + rLength >= sig.length)
+            return null;
+        int sLength = sig[5 + rLength] & 0xFF;
+        if(sig[4 + rLength] != 0x02 || sLength == 0 || rLength + sLength + 6 != sig.length)
+            return null;
+        if(!isMinimalPositive(sig, 4, rLength) || !isMinimalPositive(sig, 6 + rLength, sLength))
+            return null;
+        return new BigInteger[] {
+                new BigInteger(1, Arrays.copyOfRange(sig, 4, 4 + rLength)),
+                new BigInteger(1, Arrays.copyOfRange(sig, 6 + rLength, 6 + rLength + sLength))};
+    }
+
+    static private boolean isMinimalPositive(byte[] sig, int offset, int length) {
+        if((sig[offset] & 0x80) != 0)
+            return false;
+        return length == 1 || sig[offset] != 0x00 || (sig[offset + 1] & 0x80) != 0;
+    }
+}
@@ -0,0 +1,216 @@
+package bitcoin.key;
+
+import bitcoin.Hashes;
+import core.LruCache;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Verifies secp256k1 ECDSA signatures, alone or in batches spread across the cores.
+ *
+ * Valid (public key, digest, signature) triples are remembered in a bounded LRU cache, so a
+ * signature seen again (the same transaction checked by several parts of the protocol) is not
+ * verified twice. Invalid ones are not cached. Public keys are decoded once, and keys used
+ * repeatedly (the oracles of a bet, the other player) get a table of precomputed multiples
+ * which makes their verifications cheaper. Those tables are also kept in a bounded LRU cache.
+ *
+ * Created by fmontoto on 07-05-17.
+ */
+public class SignatureVerifier {
+    private static final Logger LOGGER = Logger.getLogger(SignatureVerifier.class.getName());
+
+    static public final int DEFAULT_CACHE_SIZE = 50000;
+    static public final int DEFAULT_KEY_TABLES = 64;
+    // Verifications with a key before building its table, ~66KB and the cost of ~15 checks.
+    static private final int TABLE_THRESHOLD = 3;
+    static private final int TABLE_WINDOW_BITS = 4;
+
+    /**
+     * A signature to check: the DER signature (without hash type) of digest by publicKey.
+     */
+    static public final class SignatureCheck {
+        private final byte[] publicKey;
+        private final byte[] digest;
+        private final byte[] signature;
+
+        public SignatureCheck(byte[] publicKey, byte[] digest, byte[] signature) {
+            this.publicKey = publicKey;
+            this.digest = digest;
+            this.signature = signature;
+        }
+
+        public byte[] getPublicKey() {
+            return publicKey;
+        }
+
+        public byte[] getDigest() {
+            return digest;
+        }
+
+        public byte[] getSignature() {
+            return signature;
+        }
+    }
+
+    static private final class KeyEntry {
+        // null if the encoding is not a point of the curve.
+        final BigInteger[] point;
+        final AtomicInteger uses = new AtomicInteger();
+        volatile Secp256k1.PointTable table;
+
+        KeyEntry(BigInteger[] point) {
+            this.point = point;
+        }
+
+        Secp256k1.PointTable table() {
+            Secp256k1.PointTable ret = table;
+            if(ret == null && point != null && uses.incrementAndGet() >= TABLE_THRESHOLD) {
+                synchronized (this) {
+                    ret = table;
+                    if(ret == null) {
+                        ret = new Secp256k1.PointTable(point, TABLE_WINDOW_BITS);
+                        table = ret;
+                    }
+                }
+            }
+            return ret;
+        }
+    }
+
+    // Created the first time the shared verifier needs it, one thread per core. Daemon threads
+    // so they do not keep the program alive.
+    static private class VerifierPool {
+        static private final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread t = new Thread(r, "signature-verifier");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    static private class Shared {
+        static private final SignatureVerifier INSTANCE = new SignatureVerifier(
+                DEFAULT_CACHE_SIZE, DEFAULT_KEY_TABLES, VerifierPool.EXECUTOR);
+    }
+
+    private final LruCache<ByteBuffer, Boolean> verified;
+    private final LruCache<ByteBuffer, KeyEntry> keys;
+    private final ExecutorService executor;
+
+    /**
+     * @param cacheSize Valid signatures remembered.
+     * @param keyTables Public keys remembered, with their precomputed tables.
+     * @param executor Where the batches are verified.
+     */
+    public SignatureVerifier(int cacheSize, int keyTables, ExecutorService executor) {
+        verified = new LruCache<>(cacheSize);
+        keys = new LruCache<>(keyTables);
+        this.executor = executor;
+    }
+
+    /**
+     * @return The verifier shared by the whole process, so every component benefits from the
+     *         signatures and keys already seen by the others.
+     */
+    static public SignatureVerifier getInstance() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * @param publicKey Serialized public key, compressed or not.
+     * @param digest 32 bytes hash of the signed message.
+     * @param signature DER encoded signature, without the hash type byte.
+     * @return true if the signature is valid, false if it is not or any parameter is malformed.
+     */
+    public boolean verify(byte[] publicKey, byte[] digest, byte[] signature) {
+        if(digest.length != 32)
+            throw new InvalidParameterException("Expected a 32 bytes digest, got " + digest.length);
+        ByteBuffer cacheKey = cacheKey(publicKey, digest, signature);
+        if(verified.get(cacheKey) != null)
+            return true;
+
+        KeyEntry key = keyEntry(publicKey);
+        if(key.point == null)
+            return false;
+        boolean valid = Secp256k1Verifier.verify(key.point, key.table(), digest, signature);
+        if(valid)
+            verified.put(cacheKey, Boolean.TRUE);
+        return valid;
+    }
+
+    public boolean verify(SignatureCheck check) {
+        return verify(check.publicKey, check.digest, check.signature);
+    }
+
+    /**
+     * Verify the signatures in parallel, the batch is split in as many consecutive ranges as
+     * processors.
+     *
+     * @return The result of each check, in the same order.
+     */
+    public boolean[] verify(List<SignatureCheck> checks) {
+        boolean[] ret = new boolean[checks.size()];
+        int tasks = Math.min(checks.size(), Runtime.getRuntime().availableProcessors());
+        if(tasks <= 1) {
+            for(int i = 0; i < ret.length; i++)
+                ret[i] = verify(checks.get(i));
+            return ret;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(tasks);
+        for(int t = 0; t < tasks; t++) {
+            int from = t * ret.length / tasks;
+            int to = (t + 1) * ret.length / tasks;
+            futures.add(executor.submit(() -> {
+                for(int i = from; i < to; i++)
+                    ret[i] = verify(checks.get(i));
+            }));
+        }
+        for(Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new IllegalStateException("Interrupted while verifying signatures", e);
+            } catch (ExecutionException e) {
+                LOGGER.throwing("SignatureVerifier", "verify", e.getCause());
+                if(e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return Number of valid signatures remembered.
+     */
+    public int getCachedSignatures() {
+        return verified.size();
+    }
+
+    private KeyEntry keyEntry(byte[] publicKey) {
+        return keys.computeIfAbsent(ByteBuffer.wrap(publicKey.clone()),
+                                    b -> new KeyEntry(Secp256k1Verifier.decodePoint(publicKey)));
+    }
+
+    // SHA-256 of the length prefixed fields, so different triples can't collide.
+    static private ByteBuffer cacheKey(byte[] publicKey, byte[] digest, byte[] signature) {
+        ByteBuffer fields = ByteBuffer.allocate(
+                2 + publicKey.length + digest.length + signature.length);
+        fields.put((byte) publicKey.length).put(publicKey).put(digest)
+              .put((byte) signature.length).put(signature);
+        return ByteBuffer.wrap(Hashes.sha256(fields.array()));
+    }
+}
@@ -0,0 +1,100 @@
+package bitcoin.key;
+
+import java.math.BigInteger;
+import java.security.InvalidParameterException;
+import java.util.List;
+
+import static bitcoin.Hashes.taggedHash;
+import static bitcoin.key.Utils.bytesToBigInteger;
+import static bitcoin.transaction.Utils.serializeVarInt;
+
+/**
+ * BIP 341 taproot keys: the output key commits to an internal key, spent with a single
+ * signature (key path), and to the merkle root of a tree of scripts (script path).
+ *
+ * Created by fmontoto on 12-05-17.
+ */
+public final class Taproot {
+    static public final byte LEAF_VERSION = (byte) 0xc0;
+
+    private Taproot() {}
+
+    /**
+     * Output key and the parity of its y coordinate, needed by the control blocks.
+     */
+    static public final class OutputKey {
+        private final byte[] key;
+        private final boolean oddY;
+
+        private OutputKey(byte[] key, boolean oddY) {
+            this.key = key;
+            this.oddY = oddY;
+        }
+
+        /**
+         * @return The 32 bytes x only key, pushed by the output script.
+         */
+        public byte[] getKey() {
+            return key.clone();
+        }
+
+        public boolean hasOddY() {
+            return oddY;
+        }
+    }
+
+    static public byte[] leafHash(byte[] script) {
+        return taggedHash("TapLeaf", new byte[] {LEAF_VERSION}, serializeVarInt(script.length),
+                          script);
+    }
+
+    static public byte[] branchHash(byte[] a, byte[] b) {
+        for(int i = 0; i < a.length; i++) {
+            if(a[i] != b[i]) {
+                if((a[i] & 0xFF) > (b[i] & 0xFF))
+                    return taggedHash("TapBranch", b, a);
+                break;
+            }
+        }
+        return taggedHash("TapBranch", a, b);
+    }
+
+    /**
+     * @param internalKey 32 bytes x only key.
+     * @param merkleRoot Root of the script tree, null if there are no scripts.
+     * @return The scalar t, the output key is P + t * G.
+     */
+    static public byte[] tweak(byte[] internalKey, byte[] merkleRoot) {
+        if(internalKey.length != Schnorr.PUBLIC_KEY_LENGTH)
+            throw new InvalidParameterException("Expected a 32 bytes x only key.");
+        byte[] ret = merkleRoot == null ? taggedHash("TapTweak", internalKey)
+                                        : taggedHash("TapTweak", internalKey, merkleRoot);
+        if(bytesToBigInteger(ret).compareTo(Secp256k1.n) >= 0)
+            throw new InvalidParameterException("Tweak out of range.");
+        return ret;
+    }
+
+    static public OutputKey outputKey(byte[] internalKey, byte[] merkleRoot) {
+        BigInteger[] p = Secp256k1.liftX(bytesToBigInteger(internalKey));
+        if(p == null)
+            throw new InvalidParameterException("The internal key is not a point of the curve.");
+        BigInteger t = bytesToBigInteger(tweak(internalKey, merkleRoot));
+        BigInteger[] q = Secp256k1.add(p, t.signum() == 0 ? null : Secp256k1.multiplyG(t));
+        if(q == null)
+            throw new InvalidParameterException("The output key is the point at infinity.");
+        return new OutputKey(Schnorr.xOnly(q), !Schnorr.hasEvenY(q));
+    }
+
+    /**
+     * @param path Hashes from the leaf to the root, the sibling of each node.
+     * @return Last witness element of a script path spend.
+     */
+    static public byte[] controlBlock(byte[] internalKey, OutputKey outputKey, List<byte[]> path) {
+        byte[] ret = new byte[1 + 32 + 32 * path.size()];
+        ret[0] = (byte) (LEAF_VERSION | (outputKey.hasOddY() ? 1 : 0));
+        System.arraycopy(internalKey, 0, ret, 1, 32);
+        for(int i = 0; i < path.size(); i++)
+            System.arraycopy(path.get(i), 0, ret, 33 + 32 * i, 32);
+        return ret;
+    }
+}
@@ -0,0 +1,26 @@
+package bitcoin.transaction;
+
+/**
+ * A record of a transaction stream could not be decoded.
+ * Created by fmontoto on 20-04-17.
+ */
+public class CorruptTransactionException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private final long offset;
+
+    public CorruptTransactionException(String message, long offset, Throwable cause) {
+        super(message + " (record at byte " + offset + ")", cause);
+        this.offset = offset;
+    }
+
+    public CorruptTransactionException(String message, long offset) {
+        this(message, offset, null);
+    }
+
+    /**
+     * @return Position in the stream, in bytes, where the corrupt record starts.
+     */
+    public long getOffset() {
+        return offset;
+    }
+}
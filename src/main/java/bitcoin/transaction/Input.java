@@ -1,9 +1,8 @@
 package bitcoin.transaction;
 
 
-import java.util.Arrays;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.*;
 
 import static bitcoin.transaction.Utils.*;
 import static core.Utils.*;
@@ -16,14 +15,22 @@ public class Input {
     private long prevIdx;
     private byte[] script;
     private long sequenceNo;
-    private int byte_size;
+    // BIP144 witness stack, empty if the input does not have witness data.
+    private List<byte[]> witness;
+    // Incremented on every change but the witness, lets the transactions holding this input
+    // invalidate their txid.
+    private int modifications;
+    // Modifications of the script, which is not covered by the signature hash.
+    private int scriptModifications;
+    // Modifications of the witness, only the wtxid depends on it.
+    private int witnessModifications;
 
     public Input() {
-        byte_size = 0;
         sequenceNo = 0xFFFFFFFF;
         prevIdx = 0;
         script = null;
         prevTxHash = null;
+        witness = Collections.emptyList();
     }
 
     public Input(int prevIdx, byte[] prevTxHash, byte[] script) {
@@ -42,19 +49,21 @@ public class Input {
         this(ao.getVout(), hexToByteArray(ao.getTxId()), script);
     }
 
-    public Input(byte[] rawInput, int offset) {
-        int original_offset = offset;
+    public Input(ByteBuffer rawInput, int offset) {
         prevTxHash = arrayReverse(rawInput, offset, offset + 32);
         offset += 32;
         prevIdx = readUint32(rawInput, offset);
         offset += 4;
         long script_length = readVarInt(rawInput, offset);
         offset += varIntByteSize(script_length);
-        script = Arrays.copyOfRange(rawInput, offset, offset + (int)script_length);
+        script = copyOfRange(rawInput, offset, (int)script_length);
         offset += script_length;
         sequenceNo = readUint32(rawInput, offset);
-        offset += 4;
-        byte_size = offset - original_offset;
+        witness = Collections.emptyList();
+    }
+
+    public Input(byte[] rawInput, int offset) {
+        this(ByteBuffer.wrap(rawInput), offset);
     }
 
     public Input(byte[] rawInput) {
@@ -74,33 +83,117 @@ public class Input {
     }
 
     public int getByteSize() {
-        if(byte_size == 0)
-            byte_size = serialize().length;
-        return byte_size;
+        return serializedSize();
     }
 
     public void setScript(byte[] newScript) {
         script = newScript;
+        modifications++;
+        scriptModifications++;
     }
 
     public byte[] getScript() {
         return script;
     }
 
+    /**
+     * @return The script split in chunks, built on every call as the script can be replaced.
+     */
+    public Script getScriptSig() {
+        return new Script(script != null ? script : new byte[0]);
+    }
+
     public long getSequenceNo() {
         return sequenceNo;
     }
 
     public void setSequenceNo(int sequenceNo) {
         this.sequenceNo = 0xffffffffL & sequenceNo;
+        modifications++;
+    }
+
+    public List<byte[]> getWitness() {
+        return witness;
+    }
+
+    public void setWitness(List<byte[]> witness) {
+        this.witness = witness.isEmpty() ? Collections.emptyList()
+                                         : Collections.unmodifiableList(new ArrayList<>(witness));
+        witnessModifications++;
+    }
+
+    public boolean hasWitness() {
+        return !witness.isEmpty();
+    }
+
+    int getModifications() {
+        return modifications;
+    }
+
+    int getWitnessModifications() {
+        return witnessModifications;
+    }
+
+    int getSighashModifications() {
+        return modifications - scriptModifications;
+    }
+
+    /**
+     * @return Size in bytes of the serialized input, computed without serializing it.
+     */
+    public int serializedSize() {
+        int scriptLength = script != null ? script.length : 0;
+        return 32 + 4 + varIntByteSize(scriptLength) + scriptLength + 4;
+    }
+
+    /**
+     * Write the serialized input at the current position of the buffer.
+     */
+    public void serializeTo(ByteBuffer buffer) {
+        serializeOutpointTo(buffer);
+        writeVarInt(buffer, script != null ? script.length : 0);
+        if(script != null)
+            buffer.put(script);
+        writeUint32(buffer, sequenceNo);
+    }
+
+    // Previous tx hash and index, the 36 bytes identifying the spent output.
+    void serializeOutpointTo(ByteBuffer buffer) {
+        if(prevTxHash != null) {
+            for(int i = prevTxHash.length - 1; i >= 0; i--)
+                buffer.put(prevTxHash[i]);
+        }
+        else {
+            buffer.put(new byte[32]);
+        }
+        writeUint32(buffer, prevIdx);
+    }
+
+    /**
+     * @return Size in bytes of the serialized witness stack (zero items take one byte).
+     */
+    public int witnessSerializedSize() {
+        int size = varIntByteSize(witness.size());
+        for(byte[] item : witness)
+            size += varIntByteSize(item.length) + item.length;
+        return size;
+    }
+
+    /**
+     * Write the serialized witness stack at the current position of the buffer.
+     */
+    public void serializeWitnessTo(ByteBuffer buffer) {
+        writeVarInt(buffer, witness.size());
+        for(byte[] item : witness) {
+            writeVarInt(buffer, item.length);
+            buffer.put(item);
+        }
     }
 
     public byte[] serialize() {
-        return mergeArrays(arrayReverse(prevTxHash != null ? prevTxHash: new byte[32]),
-                           serializeUint32(prevIdx),
-                           serializeVarInt(script != null ? script.length : 0),
-                           script != null ? script : new byte[0],
-                           serializeUint32(sequenceNo));
+        ByteBuffer buffer = ByteBuffer.allocate(serializedSize());
+        serializeTo(buffer);
+        return buffer.array();
     }
 
     public String hexify() {
@@ -117,7 +210,8 @@ public class Input {
         if (prevIdx != input.prevIdx) return false;
         if (sequenceNo != input.sequenceNo) return false;
         if (!Arrays.equals(prevTxHash, input.prevTxHash)) return false;
-        return Arrays.equals(script, input.script);
+        if (!Arrays.equals(script, input.script)) return false;
+        return Arrays.deepEquals(witness.toArray(), input.witness.toArray());
     }
 
     @Override
@@ -126,6 +220,7 @@ public class Input {
         result = 31 * result + (int) (prevIdx ^ (prevIdx >>> 32));
         result = 31 * result + Arrays.hashCode(script);
         result = 31 * result + (int) (sequenceNo ^ (sequenceNo >>> 32));
+        result = 31 * result + Arrays.deepHashCode(witness.toArray());
         return result;
     }
 
@@ -137,6 +232,12 @@ public class Input {
         ret.put("script_length", String.valueOf(script != null ? script.length : 0));
         ret.put("script", byteArrayToHex(script));
         ret.put("sequence_no", Long.toUnsignedString(sequenceNo));
+        if(hasWitness()) {
+            StringJoiner items = new StringJoiner(", ", "[", "]");
+            for(byte[] item : witness)
+                items.add(byteArrayToHex(item));
+            ret.put("witness", items.toString());
+        }
         return ret;
     }
 }
@@ -1,5 +1,6 @@
 package bitcoin.transaction;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 import java.util.*;
 
@@ -12,17 +13,14 @@ import static core.Utils.*;
 public class Output {
     private long value;
     private byte[] script;
+    // Incremented on every change, lets the transactions holding this output invalidate its txid.
+    private int modifications;
 
-    private int byte_size;
-    private boolean isPayToKey;
-    private boolean isPayToScript;
-
+    // Built the first time they are requested, most outputs are only classified.
     private List<String> parsedScript;
+    private Script scriptPubKey;
 
     public Output() {
-        byte_size = 0;
-        isPayToKey = false;
-
         value = 0;
         script = null;
     }
@@ -30,42 +28,18 @@ public class Output {
     public Output(long value, byte[] script){
         this.value = value;
         this.script = script;
-        try {
-            parseScript();
-        } catch (IndexOutOfBoundsException e) {
-            parsedScript = new LinkedList<>(Arrays.asList("ERROR. Non standard"));
-            isPayToKey = false;
-            isPayToScript = false;
-        }
     }
 
-    public Output(byte[] rawOutput, int offset) {
-        int original_offset = offset;
+    public Output(ByteBuffer rawOutput, int offset) {
         value = readUint64(rawOutput, offset);
         offset += 8;
         long script_length = readVarInt(rawOutput, offset);
         offset += varIntByteSize(script_length);
-        script = Arrays.copyOfRange(rawOutput, offset, offset + (int)script_length);
-        offset += script_length;
-        byte_size = offset - original_offset;
-        try {
-            parseScript();
-        } catch (IndexOutOfBoundsException e) {
-            parsedScript = new LinkedList<>(Arrays.asList("ERROR. Non standard"));
-            isPayToKey = false;
-            isPayToScript = false;
-        }
+        script = copyOfRange(rawOutput, offset, (int)script_length);
     }
 
-    private void parseScript() {
-        parsedScript = Utils.parseScript(script, false);
-        isPayToKey = parsedScript.size() == 6 && parsedScript.get(0).equals("OP_DUP")
-                && parsedScript.get(1).equals("OP_HASH160")
-                && parsedScript.get(2).equals("OP_PUSH_20_bytes")
-                && parsedScript.get(4).equals("OP_EQUALVERIFY")
-                && parsedScript.get(5).equals("OP_CHECKSIG");
-        isPayToScript = parsedScript.size() == 3 && parsedScript.get(0).equals("OP_HASH160")
-                && parsedScript.get(2).equals("OP_EQUAL");
+    public Output(byte[] rawOutput, int offset) {
+        this(ByteBuffer.wrap(rawOutput), offset);
     }
 
     public Output(byte[] rawOutput) {
@@ -77,9 +51,7 @@ public class Output {
     }
 
     public int getByteSize() {
-        if(byte_size == 0)
-            byte_size = serialize().length;
-        return byte_size;
+        return serializedSize();
     }
 
     public long getValue() {
@@ -90,11 +62,28 @@ public class Output {
         return script;
     }
 
-    public byte[] serialize() {
-        return mergeArrays(serializeUint64(value),
-                           serializeVarInt(script != null ? script.length : 0),
-                           script != null ? script : new byte[0]);
+    /**
+     * @return Size in bytes of the serialized output, computed without serializing it.
+     */
+    public int serializedSize() {
+        int scriptLength = script != null ? script.length : 0;
+        return 8 + varIntByteSize(scriptLength) + scriptLength;
+    }
+
+    /**
+     * Write the serialized output at the current position of the buffer.
+     */
+    public void serializeTo(ByteBuffer buffer) {
+        writeUint64(buffer, value);
+        writeVarInt(buffer, script != null ? script.length : 0);
+        if(script != null)
+            buffer.put(script);
+    }
 
+    public byte[] serialize() {
+        ByteBuffer buffer = ByteBuffer.allocate(serializedSize());
+        serializeTo(buffer);
+        return buffer.array();
     }
 
     public String hexlify() {
@@ -107,16 +96,28 @@ public class Output {
         ret.put("value", String.valueOf(Long.toUnsignedString(value)));
         ret.put("script_length", String.valueOf(script != null ? script.length : 0));
         //ret.put("script", byteArrayToHex(script != null ? script : new byte[0]));
-        ret.put("script", parsedScript.toString());
+        ret.put("script", getParsedScript().toString());
         return ret;
     }
 
     public boolean isPayToKey() {
-        return isPayToKey;
+        return isPayToPubKeyHashScript(script);
     }
 
     public boolean isPayToScript() {
-        return isPayToScript;
+        return isPayToScriptHashScript(script);
+    }
+
+    public boolean isPayToTaproot() {
+        return isPayToTaprootScript(script);
+    }
+
+    public boolean isOpReturn() {
+        return isOpReturnScript(script);
+    }
+
+    public boolean isMultisig() {
+        return isMultisigScript(script);
     }
 
     /**
@@ -126,10 +127,33 @@ public class Output {
     public String getPayAddress() {
         if(!isPayToKey())
             throw new InvalidParameterException("It must be a pay to key output to in order to get an address");
-        return parsedScript.get(3);
+        return byteArrayToHex(script, 3, 23);
+    }
+
+    /**
+     *
+     * @return Hash of the redeem script, as it appears in the transaction.
+     */
+    public byte[] getPayToScriptHash() {
+        if(!isPayToScript())
+            throw new InvalidParameterException("It must be a pay to script output in order to get the script hash");
+        return getScriptPubKey().getChunk(1).getData();
+    }
+
+    public Script getScriptPubKey() {
+        if(scriptPubKey == null)
+            scriptPubKey = new Script(script != null ? script : new byte[0]);
+        return scriptPubKey;
     }
 
     public List<String> getParsedScript() {
+        if(parsedScript == null) {
+            try {
+                parsedScript = Utils.parseScript(script != null ? script : new byte[0], false);
+            } catch (IndexOutOfBoundsException e) {
+                parsedScript = new LinkedList<>(Arrays.asList("ERROR. Non standard"));
+            }
+        }
         return parsedScript;
     }
 
@@ -141,23 +165,22 @@ public class Output {
         Output output = (Output) o;
 
         if (value != output.value) return false;
-        if (isPayToKey != output.isPayToKey) return false;
-        if (isPayToScript != output.isPayToScript) return false;
-        if (!Arrays.equals(script, output.script)) return false;
-        return parsedScript != null ? parsedScript.equals(output.parsedScript) : output.parsedScript == null;
+        return Arrays.equals(script, output.script);
     }
 
     @Override
     public int hashCode() {
         int result = (int) (value ^ (value >>> 32));
         result = 31 * result + Arrays.hashCode(script);
-        result = 31 * result + (isPayToKey ? 1 : 0);
-        result = 31 * result + (isPayToScript ? 1 : 0);
-        result = 31 * result + (parsedScript != null ? parsedScript.hashCode() : 0);
         return result;
     }
 
     public void setValue(long value) {
         this.value = value;
+        modifications++;
+    }
+
+    int getModifications() {
+        return modifications;
     }
 }
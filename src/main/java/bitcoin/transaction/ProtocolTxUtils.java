@@ -14,7 +14,6 @@ import java.util.List;
 
 import static bitcoin.transaction.Utils.*;
 import static bitcoin.transaction.builder.OutputBuilder.multisigScript;
-import static core.Utils.hexToByteArray;
 
 /**
  * Created by fmontoto on 26-01-17.
@@ -23,8 +22,10 @@ public class ProtocolTxUtils {
     static public int getOracleNumber(Transaction betPromiseTx, String oracleWifAddress, Bet bet) throws IOException, NoSuchAlgorithmException {
         byte[] expectedRedeemScript = multisigScript(bet.getPlayersPubKey(),
                 bet.getPlayersPubKey().length);
+        // OP_RETURN [serialized bet], read in place.
+        Script betScript = betPromiseTx.getOutputs().get(0).getScriptPubKey();
         BetTxForm betTxForm = BetTxForm.fromSerialized(
-                hexToByteArray(betPromiseTx.getOutputs().get(0).getParsedScript().get(3)));
+                betScript.getProgram(), betScript.getChunk(1).getDataOffset());
         return betTxForm.getOracles().indexOf(oracleWifAddress);
     }
 
@@ -0,0 +1,103 @@
+package bitcoin.transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static bitcoin.transaction.Utils.readUint16;
+import static bitcoin.transaction.Utils.readUint32;
+
+/**
+ * Script split in its operations. Chunks only keep offsets into the script bytes, which are not
+ * copied, so the script must not be modified while this object is in use.
+ *
+ * Parsing stops at a push running past the end of the script, the chunks before it are kept
+ * and {@link #isComplete()} returns false.
+ * Created by fmontoto on 21-04-17.
+ */
+public class Script {
+    private final byte[] program;
+    private final List<ScriptChunk> chunks;
+    private final boolean complete;
+
+    public Script(byte[] program) {
+        this.program = program;
+        List<ScriptChunk> parsed = new ArrayList<>();
+        int idx = 0;
+        boolean truncated = false;
+        while(idx < program.length) {
+            int opcode = program[idx] & 0xff;
+            int dataOffset, dataLength;
+            if(opcode > 0 && opcode < 0x4c) {
+                dataOffset = idx + 1;
+                dataLength = opcode;
+            }
+            else if(opcode == 0x4c && idx + 1 < program.length) {
+                dataOffset = idx + 2;
+                dataLength = program[idx + 1] & 0xff;
+            }
+            else if(opcode == 0x4d && idx + 2 < program.length) {
+                dataOffset = idx + 3;
+                dataLength = readUint16(program, idx + 1);
+            }
+            else if(opcode == 0x4e && idx + 4 < program.length) {
+                dataOffset = idx + 5;
+                long length = readUint32(program, idx + 1);
+                dataLength = length > program.length ? program.length : (int) length;
+            }
+            else if(opcode >= 0x4c && opcode <= 0x4e) {
+                truncated = true;
+                break;
+            }
+            else {
+                parsed.add(new ScriptChunk(program, idx, -1, 0));
+                idx++;
+                continue;
+            }
+            if(dataLength > program.length - dataOffset) {
+                truncated = true;
+                break;
+            }
+            parsed.add(new ScriptChunk(program, idx, dataOffset, dataLength));
+            idx = dataOffset + dataLength;
+        }
+        chunks = Collections.unmodifiableList(parsed);
+        complete = !truncated;
+    }
+
+    /**
+     * @return The bytes of the script, not a copy.
+     */
+    public byte[] getProgram() {
+        return program;
+    }
+
+    public List<ScriptChunk> getChunks() {
+        return chunks;
+    }
+
+    public ScriptChunk getChunk(int pos) {
+        return chunks.get(pos);
+    }
+
+    public int size() {
+        return chunks.size();
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return true if the script is OP_RETURN followed by a single push of data.
+     */
+    public boolean isOpReturnData() {
+        return complete && chunks.size() == 2 && chunks.get(0).isOpcode((byte) 0x6a)
+                && chunks.get(1).isPushData();
+    }
+
+    @Override
+    public String toString() {
+        return chunks.toString();
+    }
+}
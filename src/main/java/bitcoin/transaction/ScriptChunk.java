@@ -0,0 +1,96 @@
+package bitcoin.transaction;
+
+import java.util.Arrays;
+
+import static bitcoin.Constants.getOpcodeName;
+import static core.Utils.byteArrayToHex;
+
+/**
+ * One operation of a {@link Script}: an opcode and, for push operations, where the pushed data
+ * is in the script. Nothing is copied unless {@link #getData()} is called.
+ * Created by fmontoto on 21-04-17.
+ */
+public class ScriptChunk {
+    private final byte[] program;
+    private final int offset;
+    private final int dataOffset;
+    private final int dataLength;
+
+    ScriptChunk(byte[] program, int offset, int dataOffset, int dataLength) {
+        this.program = program;
+        this.offset = offset;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+    }
+
+    public byte getOpcode() {
+        return program[offset];
+    }
+
+    /**
+     * @return Position of the opcode in the script.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return Bytes taken by the chunk in the script, opcode included.
+     */
+    public int getByteSize() {
+        return isPushData() ? dataOffset + dataLength - offset : 1;
+    }
+
+    /**
+     * OP_0 is not considered a push data, it has no data.
+     */
+    public boolean isPushData() {
+        return dataOffset >= 0;
+    }
+
+    public boolean isOpcode(byte opcode) {
+        return !isPushData() && getOpcode() == opcode;
+    }
+
+    /**
+     * @return Position of the pushed data in the script, -1 if it is not a push.
+     */
+    public int getDataOffset() {
+        return dataOffset;
+    }
+
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * @return A copy of the pushed data, null if it is not a push.
+     */
+    public byte[] getData() {
+        if(!isPushData())
+            return null;
+        return Arrays.copyOfRange(program, dataOffset, dataOffset + dataLength);
+    }
+
+    public boolean dataEquals(byte[] expected) {
+        return isPushData() && dataLength == expected.length && dataStartsWith(expected);
+    }
+
+    public boolean dataStartsWith(byte[] prefix) {
+        if(!isPushData() || dataLength < prefix.length)
+            return false;
+        for(int i = 0; i < prefix.length; i++) {
+            if(program[dataOffset + i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        if(isPushData())
+            return "OP_PUSH_" + dataLength + "_bytes "
+                    + byteArrayToHex(program, dataOffset, dataOffset + dataLength);
+        return getOpcodeName(getOpcode());
+    }
+}
@@ -0,0 +1,23 @@
+package bitcoin.transaction;
+
+/**
+ * An input failed the verification of its scripts.
+ * Created by fmontoto on 06-05-17.
+ */
+public class ScriptException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int inputNo;
+
+    public ScriptException(String message, int inputNo) {
+        super("Input " + inputNo + ": " + message);
+        this.inputNo = inputNo;
+    }
+
+    /**
+     * @return Position in the transaction of the input which failed.
+     */
+    public int getInputNo() {
+        return inputNo;
+    }
+}
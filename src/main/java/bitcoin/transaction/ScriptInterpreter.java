@@ -0,0 +1,691 @@
+package bitcoin.transaction;
+
+import bitcoin.Hashes;
+import bitcoin.key.SignatureVerifier;
+
+import java.io.ByteArrayOutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import static bitcoin.Constants.getOpcodeName;
+import static bitcoin.transaction.Utils.isPayToScriptHashScript;
+
+/**
+ * Verifies the inputs of a transaction running their scripts locally, instead of sending the
+ * transaction to bitcoind. Follows the consensus rules for pre segwit scripts, with P2SH
+ * (BIP 16), strict DER signatures (BIP 66), OP_CHECKLOCKTIMEVERIFY (BIP 65) and
+ * OP_CHECKSEQUENCEVERIFY (BIP 112). Standardness policies of the nodes (low S, minimal pushes,
+ * clean stack...) are not checked.
+ *
+ * Only the opcodes a script of this project might use are implemented, the arithmetic ones
+ * limited to the four bytes numbers of the consensus rules. Signatures must be SIGHASH_ALL,
+ * the only hash type {@link SighashCalculator} supports. Any other opcode or hash type makes
+ * the verification fail.
+ *
+ * An interpreter reuses the signature hash state between inputs, so it is not thread safe. Use
+ * {@link #verify(Transaction, List, ExecutorService)} to check the inputs in parallel.
+ *
+ * Created by fmontoto on 06-05-17.
+ */
+public class ScriptInterpreter {
+    private static final Logger LOGGER = Logger.getLogger(ScriptInterpreter.class.getName());
+
+    static private final int MAX_SCRIPT_SIZE = 10000;
+    static private final int MAX_SCRIPT_ELEMENT_SIZE = 520;
+    static private final int MAX_OPS_PER_SCRIPT = 201;
+    static private final int MAX_STACK_SIZE = 1000;
+    static private final int MAX_PUBKEYS_PER_MULTISIG = 20;
+    static private final long LOCKTIME_THRESHOLD = 500000000L;
+    static private final long SEQUENCE_FINAL = 0xffffffffL;
+    static private final long SEQUENCE_LOCKTIME_DISABLE_FLAG = 1L << 31;
+    static private final long SEQUENCE_LOCKTIME_TYPE_FLAG = 1L << 22;
+    static private final long SEQUENCE_LOCKTIME_MASK = 0x0000ffffL;
+    static private final byte SIGHASH_ALL = 0x01;
+
+    static private final int OP_0 = 0x00;
+    static private final int OP_PUSHDATA4 = 0x4e;
+    static private final int OP_1NEGATE = 0x4f;
+    static private final int OP_1 = 0x51;
+    static private final int OP_16 = 0x60;
+    static private final int OP_NOP = 0x61;
+    static private final int OP_IF = 0x63;
+    static private final int OP_NOTIF = 0x64;
+    static private final int OP_ELSE = 0x67;
+    static private final int OP_ENDIF = 0x68;
+    static private final int OP_VERIFY = 0x69;
+    static private final int OP_TOALTSTACK = 0x6b;
+    static private final int OP_FROMALTSTACK = 0x6c;
+    static private final int OP_2DROP = 0x6d;
+    static private final int OP_2DUP = 0x6e;
+    static private final int OP_IFDUP = 0x73;
+    static private final int OP_DEPTH = 0x74;
+    static private final int OP_DROP = 0x75;
+    static private final int OP_DUP = 0x76;
+    static private final int OP_NIP = 0x77;
+    static private final int OP_OVER = 0x78;
+    static private final int OP_SWAP = 0x7c;
+    static private final int OP_TUCK = 0x7d;
+    static private final int OP_SIZE = 0x82;
+    static private final int OP_EQUAL = 0x87;
+    static private final int OP_EQUALVERIFY = 0x88;
+    static private final int OP_1ADD = 0x8b;
+    static private final int OP_1SUB = 0x8c;
+    static private final int OP_NEGATE = 0x8f;
+    static private final int OP_ABS = 0x90;
+    static private final int OP_NOT = 0x91;
+    static private final int OP_0NOTEQUAL = 0x92;
+    static private final int OP_ADD = 0x93;
+    static private final int OP_SUB = 0x94;
+    static private final int OP_BOOLAND = 0x9a;
+    static private final int OP_BOOLOR = 0x9b;
+    static private final int OP_NUMEQUAL = 0x9c;
+    static private final int OP_NUMEQUALVERIFY = 0x9d;
+    static private final int OP_NUMNOTEQUAL = 0x9e;
+    static private final int OP_LESSTHAN = 0x9f;
+    static private final int OP_GREATERTHAN = 0xa0;
+    static private final int OP_LESSTHANOREQUAL = 0xa1;
+    static private final int OP_GREATERTHANOREQUAL = 0xa2;
+    static private final int OP_MIN = 0xa3;
+    static private final int OP_MAX = 0xa4;
+    static private final int OP_WITHIN = 0xa5;
+    static private final int OP_RIPEMD160 = 0xa6;
+    static private final int OP_SHA256 = 0xa8;
+    static private final int OP_HASH160 = 0xa9;
+    static private final int OP_HASH256 = 0xaa;
+    static private final int OP_CODESEPARATOR = 0xab;
+    static private final int OP_CHECKSIG = 0xac;
+    static private final int OP_CHECKSIGVERIFY = 0xad;
+    static private final int OP_CHECKMULTISIG = 0xae;
+    static private final int OP_CHECKMULTISIGVERIFY = 0xaf;
+    static private final int OP_NOP1 = 0xb0;
+    static private final int OP_CHECKLOCKTIMEVERIFY = 0xb1;
+    static private final int OP_CHECKSEQUENCEVERIFY = 0xb2;
+    static private final int OP_NOP10 = 0xb9;
+
+    private final Transaction tx;
+    private SighashCalculator sighashCalculator;
+
+    public ScriptInterpreter(Transaction tx) {
+        this.tx = tx;
+    }
+
+    /**
+     * Verify every input of the transaction, in order.
+     *
+     * @param prevOutScripts Script of the output spent by each input, in the inputs order.
+     * @throws ScriptException At the first input failing the verification.
+     */
+    public void verify(List<byte[]> prevOutScripts) throws ScriptException {
+        checkScriptsCount(tx, prevOutScripts);
+        for(int i = 0; i < prevOutScripts.size(); i++)
+            verifyInput(i, prevOutScripts.get(i));
+    }
+
+    /**
+     * Verify every input of the transaction. The inputs are split in as many consecutive ranges
+     * as processors, each range verified by a task in the executor with its own interpreter.
+     *
+     * @param prevOutScripts Script of the output spent by each input, in the inputs order.
+     * @throws ScriptException With the first failing input, if any.
+     */
+    static public void verify(Transaction tx, List<byte[]> prevOutScripts,
+                              ExecutorService executor) throws ScriptException {
+        checkScriptsCount(tx, prevOutScripts);
+        int inputs = prevOutScripts.size();
+        int tasks = Math.min(inputs, Runtime.getRuntime().availableProcessors());
+        if(tasks <= 1) {
+            new ScriptInterpreter(tx).verify(prevOutScripts);
+            return;
+        }
+
+        List<Future<ScriptException>> futures = new ArrayList<>(tasks);
+        for(int t = 0; t < tasks; t++) {
+            int from = t * inputs / tasks;
+            int to = (t + 1) * inputs / tasks;
+            futures.add(executor.submit(() -> {
+                ScriptInterpreter interpreter = new ScriptInterpreter(tx);
+                try {
+                    for(int i = from; i < to; i++)
+                        interpreter.verifyInput(i, prevOutScripts.get(i));
+                } catch (ScriptException e) {
+                    return e;
+                }
+                return null;
+            }));
+        }
+
+        ScriptException failure = null;
+        for(Future<ScriptException> future : futures) {
+            try {
+                ScriptException e = future.get();
+                if(failure == null && e != null)
+                    failure = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new ScriptException("Interrupted while verifying", -1);
+            } catch (ExecutionException e) {
+                LOGGER.throwing("ScriptInterpreter", "verify", e.getCause());
+                if(e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        if(failure != null)
+            throw failure;
+    }
+
+    // Not shared with Transaction.SigningPool, a verification started from a signing task (or
+    // the other way around) would wait for a thread of its own full pool.
+    static class VerifyingPool {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread t = new Thread(r, "script-verifier");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Same as {@link #verify(Transaction, List, ExecutorService)}, in a pool of daemon threads
+     * used only to verify scripts.
+     */
+    static public void verify(Transaction tx, List<byte[]> prevOutScripts)
+            throws ScriptException {
+        verify(tx, prevOutScripts, VerifyingPool.EXECUTOR);
+    }
+
+    static private void checkScriptsCount(Transaction tx, List<byte[]> prevOutScripts) {
+        if(prevOutScripts.size() != tx.getInputs().size())
+            throw new IllegalArgumentException("Expected " + tx.getInputs().size()
+                    + " scripts, one per input, got " + prevOutScripts.size());
+    }
+
+    /**
+     * Run the input script followed by the script of the output it spends and, when that one is
+     * pay to script hash, the redeem script at the top of the input script stack.
+     *
+     * @param inputNo Input to verify.
+     * @param prevOutScript Script of the output spent by the input.
+     * @throws ScriptException If the input does not satisfy the output.
+     */
+    public void verifyInput(int inputNo, byte[] prevOutScript) throws ScriptException {
+        byte[] scriptSig = tx.getInput(inputNo).getScript();
+        List<byte[]> stack = new ArrayList<>();
+        execute(scriptSig, stack, inputNo);
+        List<byte[]> scriptSigStack = new ArrayList<>(stack);
+        execute(prevOutScript, stack, inputNo);
+        if(stack.isEmpty() || !castToBool(stack.get(stack.size() - 1)))
+            throw new ScriptException("Script evaluated to false", inputNo);
+
+        if(isPayToScriptHashScript(prevOutScript)) {
+            if(!isPushOnly(scriptSig))
+                throw new ScriptException("P2SH input script must only push data", inputNo);
+            stack = scriptSigStack;
+            byte[] redeemScript = stack.remove(stack.size() - 1);
+            execute(redeemScript, stack, inputNo);
+            if(stack.isEmpty() || !castToBool(stack.get(stack.size() - 1)))
+                throw new ScriptException("Redeem script evaluated to false", inputNo);
+        }
+    }
+
+    static private boolean isPushOnly(byte[] script) {
+        Script parsed = new Script(script);
+        if(!parsed.isComplete())
+            return false;
+        for(ScriptChunk chunk : parsed.getChunks())
+            if((chunk.getOpcode() & 0xFF) > OP_16)
+                return false;
+        return true;
+    }
+
+    private void execute(byte[] program, List<byte[]> stack, int inputNo)
+            throws ScriptException {
+        if(program.length > MAX_SCRIPT_SIZE)
+            throw new ScriptException("Script size exceeds " + MAX_SCRIPT_SIZE, inputNo);
+        Script script = new Script(program);
+        if(!script.isComplete())
+            throw new ScriptException("Push past the end of the script", inputNo);
+
+        List<byte[]> altStack = new ArrayList<>();
+        // One entry per open OP_IF, whether its branch being run is executed.
+        List<Boolean> conditions = new ArrayList<>();
+        int falseConditions = 0;
+        int opCount = 0;
+        int codeSeparatorOffset = 0;
+
+        for(ScriptChunk chunk : script.getChunks()) {
+            int opcode = chunk.getOpcode() & 0xFF;
+            boolean executing = falseConditions == 0;
+            if(chunk.getDataLength() > MAX_SCRIPT_ELEMENT_SIZE)
+                throw new ScriptException("Push exceeds " + MAX_SCRIPT_ELEMENT_SIZE + " bytes", inputNo);
+            if(opcode > OP_16 && ++opCount > MAX_OPS_PER_SCRIPT)
+                throw new ScriptException("Too many operations", inputNo);
+            if(isDisabled(opcode))
+                throw new ScriptException("Disabled opcode " + getOpcodeName((byte) opcode), inputNo);
+
+            if(opcode <= OP_PUSHDATA4) {
+                if(executing)
+                    stack.add(opcode == OP_0 ? new byte[0] : chunk.getData());
+            }
+            else if(executing || (opcode >= OP_IF && opcode <= OP_ENDIF)) {
+                switch(opcode) {
+                    case OP_IF:
+                    case OP_NOTIF: {
+                        boolean value = false;
+                        if(executing) {
+                            value = castToBool(pop(stack, inputNo));
+                            if(opcode == OP_NOTIF)
+                                value = !value;
+                        }
+                        conditions.add(value);
+                        if(!value)
+                            falseConditions++;
+                        break;
+                    }
+                    case OP_ELSE: {
+                        if(conditions.isEmpty())
+                            throw new ScriptException("OP_ELSE without OP_IF", inputNo);
+                        int last = conditions.size() - 1;
+                        boolean value = !conditions.get(last);
+                        falseConditions += value ? -1 : 1;
+                        conditions.set(last, value);
+                        break;
+                    }
+                    case OP_ENDIF: {
+                        if(conditions.isEmpty())
+                            throw new ScriptException("OP_ENDIF without OP_IF", inputNo);
+                        if(!conditions.remove(conditions.size() - 1))
+                            falseConditions--;
+                        break;
+                    }
+                    case OP_1NEGATE:
+                        stack.add(serializeNum(-1));
+                        break;
+                    case OP_NOP:
+                        break;
+                    case OP_VERIFY:
+                        verifyTop(stack, inputNo, "OP_VERIFY");
+                        break;
+                    case OP_TOALTSTACK:
+                        altStack.add(pop(stack, inputNo));
+                        break;
+                    case OP_FROMALTSTACK:
+                        if(altStack.isEmpty())
+                            throw new ScriptException("OP_FROMALTSTACK with an empty alt stack", inputNo);
+                        stack.add(altStack.remove(altStack.size() - 1));
+                        break;
+                    case OP_2DROP:
+                        pop(stack, inputNo);
+                        pop(stack, inputNo);
+                        break;
+                    case OP_2DUP:
+                        stack.add(top(stack, 2, inputNo));
+                        stack.add(top(stack, 2, inputNo));
+                        break;
+                    case OP_IFDUP:
+                        if(castToBool(top(stack, 1, inputNo)))
+                            stack.add(top(stack, 1, inputNo));
+                        break;
+                    case OP_DEPTH:
+                        stack.add(serializeNum(stack.size()));
+                        break;
+                    case OP_DROP:
+                        pop(stack, inputNo);
+                        break;
+                    case OP_DUP:
+                        stack.add(top(stack, 1, inputNo));
+                        break;
+                    case OP_NIP:
+                        top(stack, 2, inputNo);
+                        stack.remove(stack.size() - 2);
+                        break;
+                    case OP_OVER:
+                        stack.add(top(stack, 2, inputNo));
+                        break;
+                    case OP_SWAP: {
+                        byte[] first = pop(stack, inputNo);
+                        byte[] second = pop(stack, inputNo);
+                        stack.add(first);
+                        stack.add(second);
+                        break;
+                    }
+                    case OP_TUCK: {
+                        byte[] first = pop(stack, inputNo);
+                        byte[] second = pop(stack, inputNo);
+                        stack.add(first);
+                        stack.add(second);
+                        stack.add(first);
+                        break;
+                    }
+                    case OP_SIZE:
+                        stack.add(serializeNum(top(stack, 1, inputNo).length));
+                        break;
+                    case OP_EQUAL:
+                    case OP_EQUALVERIFY: {
+                        boolean equal = Arrays.equals(pop(stack, inputNo), pop(stack, inputNo));
+                        stack.add(serializeBool(equal));
+                        if(opcode == OP_EQUALVERIFY)
+                            verifyTop(stack, inputNo, "OP_EQUALVERIFY");
+                        break;
+                    }
+                    case OP_1ADD:
+                    case OP_1SUB:
+                    case OP_NEGATE:
+                    case OP_ABS:
+                    case OP_NOT:
+                    case OP_0NOTEQUAL:
+                        stack.add(serializeNum(unaryOperation(
+                                opcode, readNum(pop(stack, inputNo), 4, inputNo))));
+                        break;
+                    case OP_ADD:
+                    case OP_SUB:
+                    case OP_BOOLAND:
+                    case OP_BOOLOR:
+                    case OP_NUMEQUAL:
+                    case OP_NUMEQUALVERIFY:
+                    case OP_NUMNOTEQUAL:
+                    case OP_LESSTHAN:
+                    case OP_GREATERTHAN:
+                    case OP_LESSTHANOREQUAL:
+                    case OP_GREATERTHANOREQUAL:
+                    case OP_MIN:
+                    case OP_MAX: {
+                        long b = readNum(pop(stack, inputNo), 4, inputNo);
+                        long a = readNum(pop(stack, inputNo), 4, inputNo);
+                        stack.add(serializeNum(binaryOperation(opcode, a, b)));
+                        if(opcode == OP_NUMEQUALVERIFY)
+                            verifyTop(stack, inputNo, "OP_NUMEQUALVERIFY");
+                        break;
+                    }
+                    case OP_WITHIN: {
+                        long max = readNum(pop(stack, inputNo), 4, inputNo);
+                        long min = readNum(pop(stack, inputNo), 4, inputNo);
+                        long x = readNum(pop(stack, inputNo), 4, inputNo);
+                        stack.add(serializeBool(min <= x && x < max));
+                        break;
+                    }
+                    case OP_RIPEMD160:
+                        stack.add(Hashes.ripemd160(pop(stack, inputNo)));
+                        break;
+                    case OP_SHA256:
+                        stack.add(Hashes.sha256(pop(stack, inputNo)));
+                        break;
+                    case OP_HASH160:
+                        stack.add(Hashes.hash160(pop(stack, inputNo)));
+                        break;
+                    case OP_HASH256:
+                        stack.add(Hashes.doubleSHA256(pop(stack, inputNo)));
+                        break;
+                    case OP_CODESEPARATOR:
+                        codeSeparatorOffset = chunk.getOffset() + 1;
+                        break;
+                    case OP_CHECKSIG:
+                    case OP_CHECKSIGVERIFY: {
+                        byte[] publicKey = pop(stack, inputNo);
+                        byte[] signature = pop(stack, inputNo);
+                        byte[] subscript = findAndDelete(
+                                Arrays.copyOfRange(program, codeSeparatorOffset, program.length),
+                                signature);
+                        stack.add(serializeBool(
+                                checkSignature(signature, publicKey, subscript, inputNo)));
+                        if(opcode == OP_CHECKSIGVERIFY)
+                            verifyTop(stack, inputNo, "OP_CHECKSIGVERIFY");
+                        break;
+                    }
+                    case OP_CHECKMULTISIG:
+                    case OP_CHECKMULTISIGVERIFY: {
+                        long keysCount = readNum(pop(stack, inputNo), 4, inputNo);
+                        if(keysCount < 0 || keysCount > MAX_PUBKEYS_PER_MULTISIG)
+                            throw new ScriptException("Invalid public keys count", inputNo);
+                        opCount += keysCount;
+                        if(opCount > MAX_OPS_PER_SCRIPT)
+                            throw new ScriptException("Too many operations", inputNo);
+                        List<byte[]> keys = new ArrayList<>();
+                        for(int i = 0; i < keysCount; i++)
+                            keys.add(pop(stack, inputNo));
+                        long sigsCount = readNum(pop(stack, inputNo), 4, inputNo);
+                        if(sigsCount < 0 || sigsCount > keysCount)
+                            throw new ScriptException("Invalid signatures count", inputNo);
+                        List<byte[]> signatures = new ArrayList<>();
+                        for(int i = 0; i < sigsCount; i++)
+                            signatures.add(pop(stack, inputNo));
+                        // An extra element is consumed, a bug kept by the consensus rules.
+                        pop(stack, inputNo);
+
+                        byte[] subscript =
+                                Arrays.copyOfRange(program, codeSeparatorOffset, program.length);
+                        for(byte[] signature : signatures)
+                            subscript = findAndDelete(subscript, signature);
+
+                        // Keys and signatures are popped in reverse order, both lists start with
+                        // the last ones. Each signature must match a key after the previous one.
+                        boolean success = true;
+                        int key = 0, sig = 0;
+                        while(success && sig < signatures.size()) {
+                            if(checkSignature(signatures.get(sig), keys.get(key), subscript, inputNo))
+                                sig++;
+                            key++;
+                            if(signatures.size() - sig > keys.size() - key)
+                                success = false;
+                        }
+                        stack.add(serializeBool(success));
+                        if(opcode == OP_CHECKMULTISIGVERIFY)
+                            verifyTop(stack, inputNo, "OP_CHECKMULTISIGVERIFY");
+                        break;
+                    }
+                    case OP_CHECKLOCKTIMEVERIFY:
+                        checkLockTime(readNum(top(stack, 1, inputNo), 5, inputNo), inputNo);
+                        break;
+                    case OP_CHECKSEQUENCEVERIFY:
+                        checkSequence(readNum(top(stack, 1, inputNo), 5, inputNo), inputNo);
+                        break;
+                    default:
+                        if(opcode == OP_NOP1 || (opcode > OP_CHECKSEQUENCEVERIFY && opcode <= OP_NOP10))
+                            break;
+                        if(opcode >= OP_1 && opcode <= OP_16) {
+                            stack.add(serializeNum(opcode - OP_1 + 1));
+                            break;
+                        }
+                        throw new ScriptException("Unsupported opcode " + opcodeName(opcode), inputNo);
+                }
+            }
+            if(stack.size() + altStack.size() > MAX_STACK_SIZE)
+                throw new ScriptException("Stack size exceeds " + MAX_STACK_SIZE, inputNo);
+        }
+        if(!conditions.isEmpty())
+            throw new ScriptException("OP_IF without OP_ENDIF", inputNo);
+    }
+
+    // OP_CAT, OP_SUBSTR, OP_LEFT, OP_RIGHT, OP_INVERT, OP_AND, OP_OR, OP_XOR, OP_2MUL, OP_2DIV,
+    // OP_MUL, OP_DIV, OP_MOD, OP_LSHIFT and OP_RSHIFT fail even in a non executed branch.
+    static private boolean isDisabled(int opcode) {
+        return (opcode >= 0x7e && opcode <= 0x81) || (opcode >= 0x83 && opcode <= 0x86)
+                || opcode == 0x8d || opcode == 0x8e || (opcode >= 0x95 && opcode <= 0x99);
+    }
+
+    static private String opcodeName(int opcode) {
+        String name = getOpcodeName((byte) opcode);
+        return name != null ? name : String.format("0x%02x", opcode);
+    }
+
+    static private long unaryOperation(int opcode, long a) {
+        switch(opcode) {
+            case OP_1ADD: return a + 1;
+            case OP_1SUB: return a - 1;
+            case OP_NEGATE: return -a;
+            case OP_ABS: return Math.abs(a);
+            case OP_NOT: return a == 0 ? 1 : 0;
+            default: return a != 0 ? 1 : 0;  // OP_0NOTEQUAL
+        }
+    }
+
+    static private long binaryOperation(int opcode, long a, long b) {
+        switch(opcode) {
+            case OP_ADD: return a + b;
+            case OP_SUB: return a - b;
+            case OP_BOOLAND: return a != 0 && b != 0 ? 1 : 0;
+            case OP_BOOLOR: return a != 0 || b != 0 ? 1 : 0;
+            case OP_NUMEQUAL:
+            case OP_NUMEQUALVERIFY: return a == b ? 1 : 0;
+            case OP_NUMNOTEQUAL: return a != b ? 1 : 0;
+            case OP_LESSTHAN: return a < b ? 1 : 0;
+            case OP_GREATERTHAN: return a > b ? 1 : 0;
+            case OP_LESSTHANOREQUAL: return a <= b ? 1 : 0;
+            case OP_GREATERTHANOREQUAL: return a >= b ? 1 : 0;
+            case OP_MIN: return Math.min(a, b);
+            default: return Math.max(a, b);  // OP_MAX
+        }
+    }
+
+    private boolean checkSignature(byte[] signature, byte[] publicKey, byte[] subscript,
+                                   int inputNo) throws ScriptException {
+        if(signature.length == 0)
+            return false;
+        byte hashType = signature[signature.length - 1];
+        if(hashType != SIGHASH_ALL)
+            throw new ScriptException("Unsupported hash type " + hashType, inputNo);
+        byte[] digest = sighashCalculator().legacyDigest(inputNo, subscript, hashType);
+        return SignatureVerifier.getInstance().verify(
+                publicKey, digest, Arrays.copyOf(signature, signature.length - 1));
+    }
+
+    private SighashCalculator sighashCalculator() {
+        if(sighashCalculator == null) {
+            try {
+                sighashCalculator = new SighashCalculator(tx);
+            } catch (NoSuchAlgorithmException e) {
+                LOGGER.throwing("ScriptInterpreter", "sighashCalculator", e);
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+        }
+        return sighashCalculator;
+    }
+
+    // BIP 65
+    private void checkLockTime(long lockTime, int inputNo) throws ScriptException {
+        if(lockTime < 0)
+            throw new ScriptException("Negative lock time", inputNo);
+        long txLockTime = tx.getLockTime();
+        if((txLockTime < LOCKTIME_THRESHOLD) != (lockTime < LOCKTIME_THRESHOLD))
+            throw new ScriptException("Lock time type mismatch", inputNo);
+        if(lockTime > txLockTime)
+            throw new ScriptException("Lock time not reached", inputNo);
+        if(tx.getInput(inputNo).getSequenceNo() == SEQUENCE_FINAL)
+            throw new ScriptException("Lock time disabled by the input sequence number", inputNo);
+    }
+
+    // BIP 112
+    private void checkSequence(long sequence, int inputNo) throws ScriptException {
+        if(sequence < 0)
+            throw new ScriptException("Negative sequence", inputNo);
+        if((sequence & SEQUENCE_LOCKTIME_DISABLE_FLAG) != 0)
+            return;
+        if(tx.getVersion() < 2)
+            throw new ScriptException("OP_CHECKSEQUENCEVERIFY needs a version 2 tx", inputNo);
+        long txSequence = tx.getInput(inputNo).getSequenceNo();
+        if((txSequence & SEQUENCE_LOCKTIME_DISABLE_FLAG) != 0)
+            throw new ScriptException("Relative lock time disabled by the input", inputNo);
+        if((txSequence & SEQUENCE_LOCKTIME_TYPE_FLAG) != (sequence & SEQUENCE_LOCKTIME_TYPE_FLAG))
+            throw new ScriptException("Relative lock time type mismatch", inputNo);
+        if((sequence & SEQUENCE_LOCKTIME_MASK) > (txSequence & SEQUENCE_LOCKTIME_MASK))
+            throw new ScriptException("Relative lock time not reached", inputNo);
+    }
+
+    // Removes every push of data from the script, as the signature can't sign itself.
+    static private byte[] findAndDelete(byte[] script, byte[] data) {
+        if(data.length == 0)
+            return script;
+        Script parsed = new Script(script);
+        ByteArrayOutputStream ret = null;
+        int copied = 0;
+        for(ScriptChunk chunk : parsed.getChunks()) {
+            if(chunk.getByteSize() == data.length + 1 && chunk.dataEquals(data)) {
+                if(ret == null)
+                    ret = new ByteArrayOutputStream(script.length);
+                ret.write(script, copied, chunk.getOffset() - copied);
+                copied = chunk.getOffset() + chunk.getByteSize();
+            }
+        }
+        if(ret == null)
+            return script;
+        ret.write(script, copied, script.length - copied);
+        return ret.toByteArray();
+    }
+
+    static private byte[] pop(List<byte[]> stack, int inputNo) throws ScriptException {
+        if(stack.isEmpty())
+            throw new ScriptException("Pop from an empty stack", inputNo);
+        return stack.remove(stack.size() - 1);
+    }
+
+    // pos 1 is the top.
+    static private byte[] top(List<byte[]> stack, int pos, int inputNo) throws ScriptException {
+        if(stack.size() < pos)
+            throw new ScriptException("Not enough elements in the stack", inputNo);
+        return stack.get(stack.size() - pos);
+    }
+
+    static private void verifyTop(List<byte[]> stack, int inputNo, String opcode)
+            throws ScriptException {
+        if(!castToBool(pop(stack, inputNo)))
+            throw new ScriptException(opcode + " failed", inputNo);
+    }
+
+    static boolean castToBool(byte[] val) {
+        for(int i = 0; i < val.length; i++) {
+            if(val[i] != 0)
+                // Negative zero is false.
+                return !(i == val.length - 1 && val[i] == (byte) 0x80);
+        }
+        return false;
+    }
+
+    static private byte[] serializeBool(boolean val) {
+        return val ? new byte[] {1} : new byte[0];
+    }
+
+    /**
+     * Script numbers are little endian with the sign in the most significant bit.
+     */
+    static long readNum(byte[] val, int maxSize, int inputNo) throws ScriptException {
+        if(val.length > maxSize)
+            throw new ScriptException("Number of " + val.length + " bytes overflows", inputNo);
+        if(val.length == 0)
+            return 0;
+        long result = 0;
+        for(int i = 0; i < val.length; i++)
+            result |= (long) (val[i] & 0xFF) << (8 * i);
+        if((val[val.length - 1] & 0x80) != 0)
+            return -(result & ~(0x80L << (8 * (val.length - 1))));
+        return result;
+    }
+
+    static byte[] serializeNum(long val) {
+        if(val == 0)
+            return new byte[0];
+        boolean negative = val < 0;
+        long abs = Math.abs(val);
+        ByteArrayOutputStream ret = new ByteArrayOutputStream(9);
+        while(abs != 0) {
+            ret.write((int) (abs & 0xFF));
+            abs >>>= 8;
+        }
+        byte[] bytes = ret.toByteArray();
+        if((bytes[bytes.length - 1] & 0x80) != 0) {
+            bytes = Arrays.copyOf(bytes, bytes.length + 1);
+            bytes[bytes.length - 1] = (byte) (negative ? 0x80 : 0x00);
+        }
+        else if(negative) {
+            bytes[bytes.length - 1] |= 0x80;
+        }
+        return bytes;
+    }
+}
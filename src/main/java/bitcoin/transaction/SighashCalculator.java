@@ -0,0 +1,251 @@
+package bitcoin.transaction;
+
+import bitcoin.Constants;
+import bitcoin.Hashes;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static bitcoin.transaction.Utils.*;
+
+/**
+ * Computes the digests signed by each input of a transaction. The parts of the serialized
+ * transaction which are the same for every input (version, outpoints and sequence numbers of the
+ * inputs with their scripts removed, outputs and lock time) are serialized once when the
+ * calculator is built, the transaction is never modified.
+ *
+ * Consecutive calls reuse the SHA-256 state of the common prefix, so signing the inputs in order
+ * hashes the bytes before each input only once. Not thread safe.
+ *
+ * Created by fmontoto on 02-05-17.
+ */
+public class SighashCalculator {
+    private static final Logger LOGGER = Logger.getLogger(SighashCalculator.class.getName());
+
+    // Outpoint, empty script and sequence number.
+    static private final int BLANK_INPUT_SIZE = 36 + 1 + 4;
+
+    /**
+     * BIP 341 hash type, signs the same as SIGHASH_ALL but is left out of the signature.
+     */
+    static public final byte SIGHASH_DEFAULT = 0x00;
+
+    private final int inputsCount;
+    // Version and inputs count.
+    private final byte[] prefix;
+    // All the inputs with an empty script, BLANK_INPUT_SIZE bytes each.
+    private final byte[] blankInputs;
+    // Outputs count, outputs and lock time.
+    private final byte[] suffix;
+
+    // State after hashing the prefix, null if the SHA-256 implementation can't be cloned.
+    private final MessageDigest prefixDigest;
+    // State after hashing the prefix and the first digestInput blank inputs. Without
+    // prefixDigest it's the only digest, reset and fed from the start for every input.
+    private MessageDigest digest;
+    private int digestInput;
+
+    // BIP 341 hashes of the transaction fields, built by the first taproot digest.
+    private byte[] shaPrevouts, shaSequences, shaOutputs;
+    // And of the spent outputs, kept while their values and scripts don't change.
+    private long[] spentValues;
+    private byte[][] spentScripts;
+    private byte[] shaAmounts, shaScriptPubKeys;
+
+    public SighashCalculator(Transaction tx) throws NoSuchAlgorithmException {
+        this(tx, true);
+    }
+
+    // reuseDigests false behaves as if the SHA-256 implementation were not cloneable.
+    SighashCalculator(Transaction tx, boolean reuseDigests) throws NoSuchAlgorithmException {
+        List<Input> inputs = tx.getInputs();
+        List<Output> outputs = tx.getOutputs();
+        inputsCount = inputs.size();
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + varIntByteSize(inputsCount));
+        writeUint32(buffer, tx.getVersion());
+        writeVarInt(buffer, inputsCount);
+        prefix = buffer.array();
+
+        buffer = ByteBuffer.allocate(inputsCount * BLANK_INPUT_SIZE);
+        for(Input i : inputs) {
+            i.serializeOutpointTo(buffer);
+            writeVarInt(buffer, 0);
+            writeUint32(buffer, i.getSequenceNo());
+        }
+        blankInputs = buffer.array();
+
+        int suffixSize = varIntByteSize(outputs.size()) + 4;
+        for(Output o : outputs)
+            suffixSize += o.serializedSize();
+        buffer = ByteBuffer.allocate(suffixSize);
+        writeVarInt(buffer, outputs.size());
+        for(Output o : outputs)
+            o.serializeTo(buffer);
+        writeUint32(buffer, tx.getLockTime());
+        suffix = buffer.array();
+
+        digest = MessageDigest.getInstance("SHA-256");
+        digest.update(prefix);
+        digestInput = 0;
+        MessageDigest copy = null;
+        if(reuseDigests) {
+            try {
+                copy = (MessageDigest) digest.clone();
+            } catch (CloneNotSupportedException e) {
+                LOGGER.fine("SHA-256 is not cloneable, the prefix will be hashed for every input");
+            }
+        }
+        prefixDigest = copy;
+    }
+
+    // Only called when prefixDigest could be cloned, so the implementation supports it.
+    static private MessageDigest cloneDigest(MessageDigest md) {
+        try {
+            return (MessageDigest) md.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getInputsCount() {
+        return inputsCount;
+    }
+
+    /**
+     * Pre segwit signature hash: double SHA-256 of the transaction with every input script
+     * removed except the one being signed, which is replaced by subscript, followed by the hash
+     * type as a four bytes integer.
+     *
+     * @param inputNo Input being signed.
+     * @param subscript Script in place of the input script, the scriptPubKey of the spent output
+     *                  for P2PKH or the redeem script for P2SH.
+     * @param hashType Only SIGHASH_ALL is supported.
+     */
+    public byte[] legacyDigest(int inputNo, byte[] subscript, byte hashType) {
+        if(hashType != Constants.getHashType("ALL"))
+            throw new InvalidParameterException("Unsupported hash type " + hashType);
+        if(inputNo < 0 || inputNo >= inputsCount)
+            throw new InvalidParameterException(
+                    "Input " + inputNo + " out of range, the tx has " + inputsCount + " inputs.");
+        if(subscript == null)
+            subscript = new byte[0];
+
+        int inputOffset = inputNo * BLANK_INPUT_SIZE;
+        MessageDigest md;
+        if(prefixDigest == null) {
+            md = digest;
+            md.reset();
+            md.update(prefix);
+            md.update(blankInputs, 0, inputOffset);
+        }
+        else {
+            // Move the shared state to the beginning of the input, it can only go forward.
+            if(inputNo < digestInput) {
+                digest = cloneDigest(prefixDigest);
+                digestInput = 0;
+            }
+            digest.update(blankInputs, digestInput * BLANK_INPUT_SIZE,
+                          (inputNo - digestInput) * BLANK_INPUT_SIZE);
+            digestInput = inputNo;
+            md = cloneDigest(digest);
+        }
+        md.update(blankInputs, inputOffset, 36);
+        md.update(serializeVarInt(subscript.length));
+        md.update(subscript);
+        md.update(blankInputs, inputOffset + 37, 4);
+        md.update(blankInputs, inputOffset + BLANK_INPUT_SIZE,
+                  blankInputs.length - inputOffset - BLANK_INPUT_SIZE);
+        md.update(suffix);
+        md.update(serializeUint32(hashType & 0xFF));
+        byte[] firstHash = md.digest();
+        md.reset();
+        return md.digest(firstHash);
+    }
+
+    /**
+     * BIP 341 signature hash, signed by the Schnorr signatures of taproot inputs.
+     *
+     * @param inputNo Input being signed.
+     * @param spentOutputs The outputs spent by every input of the transaction, in order.
+     * @param hashType Only SIGHASH_DEFAULT and SIGHASH_ALL are supported.
+     * @param leafHash Hash of the script for script path spends, null for key path spends.
+     */
+    public byte[] taprootDigest(int inputNo, List<Output> spentOutputs, byte hashType,
+                                byte[] leafHash) {
+        if(hashType != SIGHASH_DEFAULT && hashType != Constants.getHashType("ALL"))
+            throw new InvalidParameterException("Unsupported hash type " + hashType);
+        if(inputNo < 0 || inputNo >= inputsCount)
+            throw new InvalidParameterException(
+                    "Input " + inputNo + " out of range, the tx has " + inputsCount + " inputs.");
+        if(spentOutputs.size() != inputsCount)
+            throw new InvalidParameterException(
+                    "Expected " + inputsCount + " spent outputs, got " + spentOutputs.size());
+
+        if(shaPrevouts == null) {
+            ByteBuffer prevouts = ByteBuffer.allocate(36 * inputsCount);
+            ByteBuffer sequences = ByteBuffer.allocate(4 * inputsCount);
+            for(int i = 0; i < inputsCount; i++) {
+                prevouts.put(blankInputs, i * BLANK_INPUT_SIZE, 36);
+                sequences.put(blankInputs, i * BLANK_INPUT_SIZE + 37, 4);
+            }
+            shaPrevouts = Hashes.sha256(prevouts.array());
+            shaSequences = Hashes.sha256(sequences.array());
+            int outputsOffset = varIntByteSize(readVarInt(suffix));
+            shaOutputs = Hashes.sha256(suffix, outputsOffset, suffix.length - outputsOffset - 4);
+        }
+        if(!sameSpentOutputs(spentOutputs)) {
+            ByteBuffer amounts = ByteBuffer.allocate(8 * inputsCount);
+            int scriptsSize = 0;
+            for(Output o : spentOutputs) {
+                writeUint64(amounts, o.getValue());
+                scriptsSize += varIntByteSize(o.getScript().length) + o.getScript().length;
+            }
+            ByteBuffer scripts = ByteBuffer.allocate(scriptsSize);
+            spentValues = new long[inputsCount];
+            spentScripts = new byte[inputsCount][];
+            for(int i = 0; i < inputsCount; i++) {
+                Output o = spentOutputs.get(i);
+                writeVarInt(scripts, o.getScript().length);
+                scripts.put(o.getScript());
+                spentValues[i] = o.getValue();
+                spentScripts[i] = o.getScript().clone();
+            }
+            shaAmounts = Hashes.sha256(amounts.array());
+            shaScriptPubKeys = Hashes.sha256(scripts.array());
+        }
+
+        ByteBuffer msg = ByteBuffer.allocate(1 + 1 + 4 + 4 + 5 * 32 + 1 + 4
+                                             + (leafHash == null ? 0 : 32 + 1 + 4));
+        msg.put((byte) 0);  // Epoch
+        msg.put(hashType);
+        msg.put(prefix, 0, 4);
+        msg.put(suffix, suffix.length - 4, 4);
+        msg.put(shaPrevouts).put(shaAmounts).put(shaScriptPubKeys).put(shaSequences)
+           .put(shaOutputs);
+        msg.put((byte) (leafHash == null ? 0 : 2));  // Spend type, without annex.
+        writeUint32(msg, inputNo);
+        if(leafHash != null) {
+            msg.put(leafHash);
+            msg.put((byte) 0);  // Key version
+            writeUint32(msg, 0xFFFFFFFFL);  // No OP_CODESEPARATOR executed.
+        }
+        return Hashes.taggedHash("TapSighash", msg.array());
+    }
+
+    private boolean sameSpentOutputs(List<Output> spentOutputs) {
+        if(spentValues == null)
+            return false;
+        for(int i = 0; i < inputsCount; i++) {
+            Output o = spentOutputs.get(i);
+            if(o.getValue() != spentValues[i] || !Arrays.equals(o.getScript(), spentScripts[i]))
+                return false;
+        }
+        return true;
+    }
+}
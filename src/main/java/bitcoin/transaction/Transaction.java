@@ -2,17 +2,22 @@ package bitcoin.transaction;
 
 import bitcoin.Constants;
 import bitcoin.key.BitcoinPrivateKey;
-import bitcoin.key.BitcoinPublicKey;
-import org.bitcoinj.core.ECKey;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import java.util.logging.Logger;
 
 import static bitcoin.Utils.doubleSHA256;
@@ -25,64 +30,82 @@ import static core.Utils.*;
 public class Transaction {
     private static final Logger LOGGER = Logger.getLogger(Transaction.class.getName());
 
+    // Hex transactions are decoded here before parsing them, the parsed transaction copies
+    // what it needs. Bigger transactions get a buffer of their own instead of growing this one.
+    static private final int HEX_SCRATCH_SIZE = 1 << 16;
+    static private final ThreadLocal<ByteBuffer> hexScratch =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(HEX_SCRATCH_SIZE));
+
+    static private final byte SEGWIT_MARKER = 0x00;
+    static private final byte SEGWIT_FLAG = 0x01;
+
     private long version;
     private ArrayList<Input> inputs;
     private ArrayList<Output> outputs;
     private long lockTime;
-    private byte[] witnessScript;
-    private Byte marker;
-    private Byte flag;
 
     private boolean isSigned;
 
+    // Hashes are memoized, they are dropped when the inputs/outputs lists change (dirty) or when
+    // one of their elements is modified (the sum of their modification counters changes). Witness
+    // changes are counted apart, they only drop the wtxid.
+    private boolean dirty;
+    private long cachedModifications;
+    private long cachedWitnessModifications;
+    private byte[] txidHash;
+    private String txidHex;
+    private byte[] wtxidHash;
+
+    // Same idea for the sighash calculator, but it does not depend on the input scripts.
+    private SighashCalculator sighashCalculator;
+    private boolean sighashDirty;
+    private long sighashModifications;
+
     public Transaction() {
         isSigned = false;
         version = 1;
         lockTime = 0xFFFFFFFFL;
-        inputs = new ArrayList<Input>();
-        outputs = new ArrayList<Output>();
-        witnessScript = null;
-        marker = null;
-        flag = null;
+        inputs = new TrackedList<Input>(this);
+        outputs = new TrackedList<Output>(this);
+        dirty = true;
     }
 
     public Transaction(int version, int lockTime){
         this();
         this.version = version;
         this.lockTime = lockTime;
-        if(version == 2) {
-            marker = 0x00;
-            flag = 0x01;
-        }
     }
 
-    public Transaction(byte[] rawTransaction) throws ParseTransactionException {
+    /**
+     * Materialize all the inputs and outputs of the view.
+     */
+    public Transaction(TransactionView view) {
         this();
-        version = readUint32(rawTransaction, 0);
-        try {
-            if (version == 2) {
-                if (rawTransaction[4] == 0x00)
-                    v2TxParser(rawTransaction);
-                else
-                    v1TxParser(rawTransaction);
-            } else if (version == 1) {
-                v1TxParser(rawTransaction);
-            } else {
-                LOGGER.warning("unexpected Tx version:" + version);
-                v1TxParser(rawTransaction);
-            }
-        }catch (IndexOutOfBoundsException e) {
-            LOGGER.throwing("Transaction", "constructor", e);
-            try {
-                throw new ParseTransactionException(e.getMessage(), txid(rawTransaction));
-            } catch (NoSuchAlgorithmException e1) {
-                throw new ParseTransactionException(e.getMessage(), "");
-            }
-        }
+        version = view.getVersion();
+        inputs.ensureCapacity(view.getInputsCount());
+        for(int i = 0; i < view.getInputsCount(); i++)
+            inputs.add(view.newInput(i));
+        outputs.ensureCapacity(view.getOutputsCount());
+        for(int i = 0; i < view.getOutputsCount(); i++)
+            outputs.add(view.newOutput(i));
+        lockTime = view.getLockTime();
     }
 
-    public Transaction(String rawTransactionHex) throws ParseTransactionException {
-        this(hexToByteArray(rawTransactionHex));
+    public Transaction(byte[] rawTransaction) throws ParseTransactionException {
+        this(new TransactionView(rawTransaction));
+    }
+
+    public Transaction(CharSequence rawTransactionHex) throws ParseTransactionException {
+        this(new TransactionView(decodeHex(rawTransactionHex)));
+    }
+
+    static private ByteBuffer decodeHex(CharSequence rawTransactionHex) {
+        int size = rawTransactionHex.length() / 2;
+        ByteBuffer buffer = size <= HEX_SCRATCH_SIZE ? hexScratch.get() : ByteBuffer.allocate(size);
+        buffer.clear();
+        hexToByteBuffer(rawTransactionHex, buffer);
+        buffer.flip();
+        return buffer;
     }
 
     public Transaction(Transaction tx) throws ParseTransactionException {
@@ -91,62 +114,27 @@ public class Transaction {
         this(tx.serialize());
     }
 
+    public long getVersion() {
+        return version;
+    }
 
-    private void v1TxParser (byte[] rawTransaction) {
-        long inputs_num, outputs_num;
-        int offset = 4;
-        inputs_num = readVarInt(rawTransaction, offset);
-        offset += varIntByteSize(inputs_num);
-        for(int i = 0; i < inputs_num; i++) {
-            inputs.add(new Input(rawTransaction, offset));
-            offset += inputs.get(i).getByteSize();
-        }
-        outputs_num = readVarInt(rawTransaction, offset);
-        offset += varIntByteSize(outputs_num);
-        for(int i = 0; i < outputs_num; i++) {
-            outputs.add(new Output(rawTransaction, offset));
-            offset += outputs.get(i).getByteSize();
-        }
-        lockTime = readUint32(rawTransaction, offset);
-    }
-    private void v2TxParser (byte[] rawTransaction) {
-        long inputs_num, outputs_num;
-        int offset = 4;
-        marker = rawTransaction[offset++];
-        flag = rawTransaction[offset++];
-        inputs_num = readVarInt(rawTransaction, offset);
-        offset += varIntByteSize(inputs_num);
-        for(int i = 0; i < inputs_num; i++) {
-            inputs.add(new Input(rawTransaction, offset));
-            offset += inputs.get(i).getByteSize();
-        }
-        outputs_num = readVarInt(rawTransaction, offset);
-        offset += varIntByteSize(outputs_num);
-        for(int i = 0; i < outputs_num; i++) {
-            outputs.add(new Output(rawTransaction, offset));
-            offset += outputs.get(i).getByteSize();
-        }
-        witnessScript = Arrays.copyOfRange(rawTransaction, offset, rawTransaction.length - 4);
-        offset += witnessScript.length;
-        lockTime = readUint32(rawTransaction, offset);
-}
-
-    private Queue<byte []> removeOtherInputsScript(int leftInput) {
-        Queue<byte[]> removedScripts = new LinkedList<>();
-        for (int i = 0; i < inputs.size(); i++) {
-            if(i != leftInput) {
-                removedScripts.add(inputs.get(i).getScript());
-                inputs.get(i).setScript(new byte[] {});
-            }
-        }
-        return removedScripts;
+    public long getLockTime() {
+        return lockTime;
     }
 
-    private void retrieveRemovedInputs(int leftInput, Queue<byte[]> removedScripts) {
-        for(int i = 0; i < inputs.size(); i++) {
-            if(i != leftInput)
-                inputs.get(i).setScript(removedScripts.remove());
+    /**
+     * @return Calculator of the signature hashes of this transaction. It is reused until an
+     *         input or output is added, removed or modified (changing input scripts or witnesses
+     *         does not count, they are not covered by the signature).
+     */
+    public SighashCalculator sighashCalculator() throws NoSuchAlgorithmException {
+        long modifications = sighashModificationsSum();
+        if(sighashCalculator == null || sighashDirty || modifications != sighashModifications) {
+            sighashCalculator = new SighashCalculator(this);
+            sighashModifications = modifications;
+            sighashDirty = false;
         }
+        return sighashCalculator;
     }
 
     //For a P2PKH, this temporary scriptSig is the scriptPubKey of the input transaction.
@@ -157,55 +145,41 @@ public class Transaction {
         getInputs().get(inputNo).setScript(script);
     }
 
-    private byte[] signTransaction(BitcoinPrivateKey privateKey, byte[] hashTypeCode) throws NoSuchAlgorithmException,
-                                                                                             InvalidKeyException,
-                                                                                             SignatureException {
-        byte[] toSign = mergeArrays(serialize(), hashTypeCode);
-        byte[] nonCanonicalisedSig = privateKey.sign(toSign);
-        // Nodes will not accept non canonical signatures (since BIP66).
-        return ECKey.ECDSASignature.decodeFromDER(nonCanonicalisedSig).toCanonicalised().encodeToDER();
+    private byte[] signTransaction(BitcoinPrivateKey privateKey, byte hashType, int inputNo) throws NoSuchAlgorithmException,
+                                                                                                   InvalidKeyException,
+                                                                                                   SignatureException {
+        byte[] toSign = sighashCalculator().legacyDigest(inputNo, inputs.get(inputNo).getScript(),
+                                                         hashType);
+        return privateKey.signDigest(toSign);
     }
 
-    private byte[] getPayToScriptSignature(BitcoinPrivateKey privateKey, byte[] hashTypeCode, int inputNo) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
-        Queue<byte[]> removedScripts = removeOtherInputsScript(inputNo);
-
-        byte[] signature = signTransaction(privateKey, hashTypeCode);
-
-        retrieveRemovedInputs(inputNo, removedScripts);
-
-        return mergeArrays( signature
-                          , new byte[] {hashTypeCode[0]}
+    // P2PKH scriptSig: <signature + hash type> <public key>
+    static private byte[] payToPubKeyScriptSig(BitcoinPrivateKey privateKey, byte[] digest, byte hashType) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, IOException, InvalidKeySpecException {
+        byte[] signature = privateKey.signDigest(digest);
+        byte[] pubKey = privateKey.getPublicKey().getKey();
+        return mergeArrays( Constants.pushDataOpcode(signature.length + 1)
+                          , signature
+                          , new byte[] {hashType}
+                          , Constants.pushDataOpcode(pubKey.length)
+                          , pubKey
                           );
     }
 
     public byte[] getPayToScriptSignature(BitcoinPrivateKey privKey, byte hashType, int inputNo) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
         if(hashType != Constants.getHashType("ALL"))
             throw new NotImplementedException();
-        return this.getPayToScriptSignature(privKey, new byte[]{hashType, 0x00, 0x00, 0x00}, inputNo);
-    }
-
-    private void sign(BitcoinPrivateKey privateKey, byte[] hashtypeCode, int inputNo) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, IOException, InvalidKeySpecException {
-        Queue<byte[]> removedScripts = removeOtherInputsScript(inputNo);
-
-        byte[] signature = signTransaction(privateKey, hashtypeCode);
-        BitcoinPublicKey publicKey = privateKey.getPublicKey();
-        byte[] pubKey = publicKey.getKey();
-
-        byte[] scriptSig = mergeArrays( Constants.pushDataOpcode(signature.length + 1)
-                                      , signature
-                                      , new byte[] {hashtypeCode[0]}
-                                      , Constants.pushDataOpcode(pubKey.length)
-                                      , pubKey
-                                      );
-
-        getInputs().get(inputNo).setScript(scriptSig);
-        retrieveRemovedInputs(inputNo, removedScripts);
+        return mergeArrays( signTransaction(privKey, hashType, inputNo)
+                          , new byte[] {hashType}
+                          );
     }
 
-    public void sign(BitcoinPrivateKey privKey, byte hash, int inputNo) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, IOException, InvalidKeySpecException {
-        if(hash != Constants.getHashType("ALL"))
+    public void sign(BitcoinPrivateKey privateKey, byte hashType, int inputNo) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, IOException, InvalidKeySpecException {
+        if(hashType != Constants.getHashType("ALL"))
             throw new NotImplementedException();
-        this.sign(privKey, new byte[]{hash, 0x00, 0x00, 0x00}, inputNo);
+
+        byte[] toSign = sighashCalculator().legacyDigest(inputNo, inputs.get(inputNo).getScript(),
+                                                         hashType);
+        getInputs().get(inputNo).setScript(payToPubKeyScriptSig(privateKey, toSign, hashType));
     }
 
     public void sign(BitcoinPrivateKey privKey, int inputNo) throws InvalidKeySpecException, IOException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
@@ -216,12 +190,97 @@ public class Transaction {
         this.sign(privKey, Constants.getHashType("ALL"), 0);
     }
 
+    /**
+     * Same than calling {@link #sign(BitcoinPrivateKey, int)} for every entry, but the ECDSA
+     * operations run in parallel. The digests are computed from the transaction as it is when
+     * called (so the scripts to sign must be already set, as for sign) and the scriptSigs are
+     * installed once every signature is ready, if any fails the transaction is not modified.
+     *
+     * @param keys Key to sign each input with, by input position.
+     * @param executor Where the signatures are computed.
+     */
+    public void signAll(Map<Integer, BitcoinPrivateKey> keys, ExecutorService executor) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, IOException, InvalidKeySpecException {
+        byte hashType = Constants.getHashType("ALL");
+        SighashCalculator calculator = sighashCalculator();
+        Map<Integer, byte[]> digests = new TreeMap<>();
+        for(Integer inputNo : new TreeSet<>(keys.keySet())) {
+            if(inputNo < 0 || inputNo >= inputs.size())
+                throw new InvalidParameterException(
+                        "Input " + inputNo + " out of range, the tx has " + inputs.size() + " inputs.");
+            digests.put(inputNo, calculator.legacyDigest(inputNo, getInput(inputNo).getScript(),
+                                                         hashType));
+        }
+
+        Map<Integer, Future<byte[]>> scriptSigs = new TreeMap<>();
+        Map<Integer, byte[]> signed = new TreeMap<>();
+        try {
+            for(Map.Entry<Integer, byte[]> entry : digests.entrySet()) {
+                BitcoinPrivateKey key = keys.get(entry.getKey());
+                byte[] digest = entry.getValue();
+                scriptSigs.put(entry.getKey(), executor.submit(
+                        () -> payToPubKeyScriptSig(key, digest, hashType)));
+            }
+            for(Map.Entry<Integer, Future<byte[]>> entry : scriptSigs.entrySet())
+                signed.put(entry.getKey(), entry.getValue().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SignatureException("Interrupted while signing", e);
+        } catch (ExecutionException e) {
+            LOGGER.throwing("Transaction", "signAll", e.getCause());
+            rethrowSigningException(e.getCause());
+        } finally {
+            for(Future<byte[]> f : scriptSigs.values())
+                f.cancel(false);
+        }
+
+        for(Map.Entry<Integer, byte[]> entry : signed.entrySet())
+            getInput(entry.getKey()).setScript(entry.getValue());
+    }
+
+    public void signAll(Map<Integer, BitcoinPrivateKey> keys) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, IOException, InvalidKeySpecException {
+        if(keys.size() == 1) {
+            Map.Entry<Integer, BitcoinPrivateKey> entry = keys.entrySet().iterator().next();
+            sign(entry.getValue(), entry.getKey());
+            return;
+        }
+        signAll(keys, SigningPool.EXECUTOR);
+    }
+
+    static private void rethrowSigningException(Throwable t) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, IOException, InvalidKeySpecException {
+        if(t instanceof NoSuchAlgorithmException) throw (NoSuchAlgorithmException) t;
+        if(t instanceof InvalidKeyException) throw (InvalidKeyException) t;
+        if(t instanceof SignatureException) throw (SignatureException) t;
+        if(t instanceof IOException) throw (IOException) t;
+        if(t instanceof InvalidKeySpecException) throw (InvalidKeySpecException) t;
+        if(t instanceof RuntimeException) throw (RuntimeException) t;
+        if(t instanceof Error) throw (Error) t;
+        throw new SignatureException(t);
+    }
+
+    // Created the first time signAll or the ScriptInterpreter needs it, one thread per core.
+    // Daemon threads so they do not keep the program alive.
+    static class SigningPool {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread t = new Thread(r, "transaction-signer");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
     public void appendInput(Input i) {
         inputs.add(i);
+        markDirty();
     }
 
     public void appendOutput(Output o) {
         outputs.add(o);
+        markDirty();
+    }
+
+    private void markDirty() {
+        dirty = true;
+        sighashDirty = true;
     }
 
     public ArrayList<Output> getOutputs() {
@@ -232,31 +291,75 @@ public class Transaction {
         return inputs;
     }
 
-    private byte[] serialize(boolean complete) {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        try {
-            byteArrayOutputStream.write(serializeUint32(version));
-            if(version == 2 && complete && witnessScript != null) {
-                if(marker != null)
-                    byteArrayOutputStream.write(marker);
-                if(flag != null)
-                    byteArrayOutputStream.write(flag);
-            }
-            byteArrayOutputStream.write(serializeVarInt(inputs.size()));
-            for(Input i: inputs)
-                byteArrayOutputStream.write(i.serialize());
-            byteArrayOutputStream.write(serializeVarInt(outputs.size()));
-            for(Output o: outputs)
-                byteArrayOutputStream.write(o.serialize());
-            if(version == 2 && complete && witnessScript != null)
-                byteArrayOutputStream.write(witnessScript);
-            byteArrayOutputStream.write(serializeUint32(lockTime));
-        } catch (IOException e) {
-            // This shouldn't happen
-            e.printStackTrace();
-            return null;
+    /**
+     * @return Whether any of the inputs has a witness stack, if so the transaction is serialized
+     *         with the BIP144 marker and flag.
+     */
+    public boolean hasWitness() {
+        for(Input i: inputs)
+            if(i.hasWitness())
+                return true;
+        return false;
+    }
+
+    private boolean serializeWitness(boolean complete) {
+        return complete && hasWitness();
+    }
+
+    /**
+     * @param complete If false, the witness data is not included (as used to get the txid).
+     * @return Size in bytes of the serialized transaction, computed without serializing it.
+     */
+    public int serializedSize(boolean complete) {
+        int size = 4 + varIntByteSize(inputs.size()) + varIntByteSize(outputs.size()) + 4;
+        boolean witness = serializeWitness(complete);
+        if(witness)
+            size += 2;
+        for(Input i: inputs) {
+            size += i.serializedSize();
+            if(witness)
+                size += i.witnessSerializedSize();
         }
-        return byteArrayOutputStream.toByteArray();
+        for(Output o: outputs)
+            size += o.serializedSize();
+        return size;
+    }
+
+    public int serializedSize() {
+        return serializedSize(true);
+    }
+
+    /**
+     * Write the serialized transaction at the current position of the buffer, it must have at
+     * least {@link #serializedSize(boolean)} bytes remaining.
+     */
+    public void serializeTo(ByteBuffer buffer, boolean complete) {
+        boolean witness = serializeWitness(complete);
+        writeUint32(buffer, version);
+        if(witness) {
+            buffer.put(SEGWIT_MARKER);
+            buffer.put(SEGWIT_FLAG);
+        }
+        writeVarInt(buffer, inputs.size());
+        for(Input i: inputs)
+            i.serializeTo(buffer);
+        writeVarInt(buffer, outputs.size());
+        for(Output o: outputs)
+            o.serializeTo(buffer);
+        if(witness)
+            for(Input i: inputs)
+                i.serializeWitnessTo(buffer);
+        writeUint32(buffer, lockTime);
+    }
+
+    public void serializeTo(ByteBuffer buffer) {
+        serializeTo(buffer, true);
+    }
+
+    private byte[] serialize(boolean complete) {
+        ByteBuffer buffer = ByteBuffer.allocate(serializedSize(complete));
+        serializeTo(buffer, complete);
+        return buffer.array();
     }
 
     public byte[] serialize() {
@@ -279,14 +382,78 @@ public class Transaction {
         return ret;
     }
 
-    static private String txid(byte[] rawTx) throws NoSuchAlgorithmException {
-        return byteArrayToHex(arrayReverse(doubleSHA256(rawTx)));
+    private long modificationsSum() {
+        long ret = 0;
+        for(Input i: inputs)
+            ret += i.getModifications();
+        for(Output o: outputs)
+            ret += o.getModifications();
+        return ret;
+    }
+
+    private long witnessModificationsSum() {
+        long ret = 0;
+        for(Input i: inputs)
+            ret += i.getWitnessModifications();
+        return ret;
+    }
+
+    private long sighashModificationsSum() {
+        long ret = 0;
+        for(Input i: inputs)
+            ret += i.getSighashModifications();
+        for(Output o: outputs)
+            ret += o.getModifications();
+        return ret;
+    }
+
+    private void invalidateCacheIfModified() {
+        long modifications = modificationsSum();
+        if(dirty || modifications != cachedModifications) {
+            txidHash = null;
+            txidHex = null;
+            wtxidHash = null;
+            cachedModifications = modifications;
+            dirty = false;
+        }
+        long witnessModifications = witnessModificationsSum();
+        if(witnessModifications != cachedWitnessModifications) {
+            wtxidHash = null;
+            cachedWitnessModifications = witnessModifications;
+        }
+    }
+
+    private byte[] txidHash() throws NoSuchAlgorithmException {
+        invalidateCacheIfModified();
+        if(txidHash == null)
+            txidHash = doubleSHA256(serialize(false));
+        return txidHash;
     }
 
     public String txid(boolean rpc_order) throws NoSuchAlgorithmException {
-        if(rpc_order)
-            return byteArrayToHex(arrayReverse(doubleSHA256(serialize(false))));
-        return byteArrayToHex(doubleSHA256(serialize(false)));
+        byte[] hash = txidHash();
+        if(!rpc_order)
+            return byteArrayToHex(hash);
+        if(txidHex == null)
+            txidHex = byteArrayToHex(arrayReverse(hash));
+        return txidHex;
+    }
+
+    /**
+     * Hash of the transaction including its witness data, it's the same than the txid if the
+     * transaction does not have witness data.
+     */
+    public String wtxid(boolean rpc_order) throws NoSuchAlgorithmException {
+        if(!serializeWitness(true))
+            return txid(rpc_order);
+        invalidateCacheIfModified();
+        if(wtxidHash == null)
+            wtxidHash = doubleSHA256(serialize(true));
+        return rpc_order ? byteArrayToHex(arrayReverse(wtxidHash)) : byteArrayToHex(wtxidHash);
+    }
+
+    public String wtxid() throws NoSuchAlgorithmException {
+        return wtxid(true);
     }
 
     static private String toString(Map<String, String> m, int ident) {
@@ -303,7 +470,21 @@ public class Transaction {
 
     // Size in byte of the transaction when serialized
     public long wireSize() {
-        return serialize().length;
+        return serializedSize();
+    }
+
+    /**
+     * BIP141 weight, the witness data is discounted: base size * 3 + total size.
+     */
+    public long weight() {
+        return 3L * serializedSize(false) + serializedSize(true);
+    }
+
+    /**
+     * Virtual size (weight / 4 rounded up), the size used to compute fees.
+     */
+    public long vsize() {
+        return (weight() + 3) / 4;
     }
 
     public Output getOutput(int pos) {
@@ -330,4 +511,148 @@ public class Transaction {
         sb.append("}\n");
         return sb.toString();
     }
+
+    // Keep at the end
+    // Flags the transaction as dirty when the list returned by getInputs/getOutputs is modified.
+    static private class TrackedList<E> extends ArrayList<E> {
+        private static final long serialVersionUID = 1L;
+        private final Transaction tx;
+
+        TrackedList(Transaction tx) {
+            this.tx = tx;
+        }
+
+        @Override
+        public boolean add(E e) {
+            tx.markDirty();
+            return super.add(e);
+        }
+
+        @Override
+        public void add(int index, E element) {
+            tx.markDirty();
+            super.add(index, element);
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends E> c) {
+            tx.markDirty();
+            return super.addAll(c);
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends E> c) {
+            tx.markDirty();
+            return super.addAll(index, c);
+        }
+
+        @Override
+        public E set(int index, E element) {
+            tx.markDirty();
+            return super.set(index, element);
+        }
+
+        @Override
+        public E remove(int index) {
+            tx.markDirty();
+            return super.remove(index);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            tx.markDirty();
+            return super.remove(o);
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            tx.markDirty();
+            return super.removeAll(c);
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            tx.markDirty();
+            return super.retainAll(c);
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super E> filter) {
+            tx.markDirty();
+            return super.removeIf(filter);
+        }
+
+        @Override
+        public void replaceAll(UnaryOperator<E> operator) {
+            tx.markDirty();
+            super.replaceAll(operator);
+        }
+
+        @Override
+        public void sort(Comparator<? super E> c) {
+            tx.markDirty();
+            super.sort(c);
+        }
+
+        @Override
+        public void clear() {
+            tx.markDirty();
+            super.clear();
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            tx.markDirty();
+            super.removeRange(fromIndex, toIndex);
+        }
+
+        @Override
+        public List<E> subList(int fromIndex, int toIndex) {
+            return new TrackedSubList<>(tx, super.subList(fromIndex, toIndex));
+        }
+    }
+
+    // ArrayList's sub lists write to its array directly, this view goes through tx.markDirty.
+    static private class TrackedSubList<E> extends AbstractList<E> {
+        private final Transaction tx;
+        private final List<E> view;
+
+        TrackedSubList(Transaction tx, List<E> view) {
+            this.tx = tx;
+            this.view = view;
+        }
+
+        @Override
+        public E get(int index) {
+            return view.get(index);
+        }
+
+        @Override
+        public int size() {
+            return view.size();
+        }
+
+        @Override
+        public E set(int index, E element) {
+            tx.markDirty();
+            return view.set(index, element);
+        }
+
+        @Override
+        public void add(int index, E element) {
+            tx.markDirty();
+            view.add(index, element);
+        }
+
+        @Override
+        public E remove(int index) {
+            tx.markDirty();
+            return view.remove(index);
+        }
+
+        @Override
+        public List<E> subList(int fromIndex, int toIndex) {
+            return new TrackedSubList<>(tx, view.subList(fromIndex, toIndex));
+        }
+    }
 }
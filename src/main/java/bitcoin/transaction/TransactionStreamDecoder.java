@@ -0,0 +1,237 @@
+package bitcoin.transaction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.InvalidParameterException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static core.Utils.hexToByteArray;
+
+/**
+ * Decodes the transactions of a stream one at a time, the stream can be a concatenation of
+ * serialized transactions or a file with one hex encoded transaction per line.
+ *
+ * Only one reusable buffer is kept, it grows when a transaction does not fit in it but never
+ * above maxBufferSize, so the memory used does not depend on the size of the stream.
+ *
+ * A record that can not be decoded throws a {@link CorruptTransactionException} with its
+ * offset. In a hex stream the bad line is skipped and the iteration can continue, in a binary
+ * stream there is no way to know where the next transaction starts so the iteration ends.
+ * Created by fmontoto on 20-04-17.
+ */
+public class TransactionStreamDecoder implements Iterator<Transaction>, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(TransactionStreamDecoder.class.getName());
+
+    static public final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    // The biggest possible transaction hex encoded, plus a CRLF line ending.
+    static public final int DEFAULT_MAX_BUFFER_SIZE = 2 * TransactionView.MAX_TRANSACTION_SIZE + 2;
+
+    public enum Format {
+        BINARY,
+        HEX_LINES
+    }
+
+    private final ReadableByteChannel channel;
+    private final Format format;
+    private final int maxBufferSize;
+
+    // Bytes in [position, limit) are read from the channel but not decoded yet.
+    private ByteBuffer buffer;
+    // Position in the stream of the first byte of the buffer.
+    private long bufferOffset;
+    // Scratch space for the decoded hex lines.
+    private byte[] decoded;
+    private boolean eof;
+    private boolean done;
+    private Transaction next;
+
+    public TransactionStreamDecoder(ReadableByteChannel channel, Format format, int bufferSize,
+                                    int maxBufferSize) {
+        if(bufferSize <= 0 || maxBufferSize < bufferSize)
+            throw new InvalidParameterException(
+                    "Invalid buffer sizes: " + bufferSize + ", " + maxBufferSize);
+        this.channel = channel;
+        this.format = format;
+        this.maxBufferSize = maxBufferSize;
+        buffer = ByteBuffer.allocate(bufferSize);
+        buffer.flip();
+        bufferOffset = 0;
+        decoded = new byte[0];
+        eof = false;
+        done = false;
+    }
+
+    public TransactionStreamDecoder(ReadableByteChannel channel, Format format) {
+        this(channel, format, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_BUFFER_SIZE);
+    }
+
+    public TransactionStreamDecoder(InputStream inputStream, Format format) {
+        this(Channels.newChannel(inputStream), format);
+    }
+
+    /**
+     * @return Position in the stream of the next byte to decode.
+     */
+    public long getOffset() {
+        return bufferOffset + buffer.position();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(next != null)
+            return true;
+        if(done)
+            return false;
+        try {
+            next = format == Format.BINARY ? decodeBinary() : decodeHexLine();
+        } catch (IOException e) {
+            done = true;
+            throw new UncheckedIOException(e);
+        }
+        if(next == null)
+            done = true;
+        return next != null;
+    }
+
+    @Override
+    public Transaction next() {
+        if(!hasNext())
+            throw new NoSuchElementException();
+        Transaction ret = next;
+        next = null;
+        return ret;
+    }
+
+    public Spliterator<Transaction> spliterator() {
+        return Spliterators.spliteratorUnknownSize(
+                this, Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    public Stream<Transaction> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        channel.close();
+    }
+
+    /**
+     * Read more bytes from the channel, keeping the ones not decoded yet. The buffer is grown if
+     * it is full.
+     * @return false if the channel has no more bytes.
+     */
+    private boolean fill() throws IOException {
+        if(eof)
+            return false;
+        if(buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+            if(buffer.capacity() >= maxBufferSize) {
+                done = true;
+                throw new CorruptTransactionException(
+                        "Record does not fit in " + maxBufferSize + " bytes", getOffset());
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(
+                    (int) Math.min(2L * buffer.capacity(), maxBufferSize));
+            LOGGER.fine("Growing buffer to " + bigger.capacity() + " bytes");
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+        else {
+            bufferOffset += buffer.position();
+            buffer.compact();
+        }
+        int read = channel.read(buffer);
+        buffer.flip();
+        if(read < 0)
+            eof = true;
+        return !eof;
+    }
+
+    private Transaction decodeBinary() throws IOException {
+        while(!buffer.hasRemaining()) {
+            if(!fill())
+                return null;
+        }
+        while(true) {
+            try {
+                TransactionView view = new TransactionView(buffer);
+                buffer.position(buffer.position() + view.getByteSize());
+                return view.toTransaction();
+            } catch (TransactionView.TruncatedTransactionException e) {
+                // The transaction continues in the bytes not read yet.
+                if(!fill()) {
+                    done = true;
+                    throw new CorruptTransactionException(e.getMessage(), getOffset(), e);
+                }
+            } catch (ParseTransactionException e) {
+                // No more bytes can fix it, e.g. a counter bigger than any transaction.
+                done = true;
+                throw new CorruptTransactionException(e.getMessage(), getOffset(), e);
+            }
+        }
+    }
+
+    private Transaction decodeHexLine() throws IOException {
+        int scanned = 0;
+        while(true) {
+            int end = buffer.position() + scanned;
+            while(end < buffer.limit() && buffer.get(end) != '\n')
+                end++;
+            if(end == buffer.limit()) {
+                scanned = end - buffer.position();
+                if(fill())
+                    continue;
+                if(!buffer.hasRemaining())
+                    return null;
+            }
+            long offset = getOffset();
+            int start = buffer.position();
+            buffer.position(end < buffer.limit() ? end + 1 : end);
+            scanned = 0;
+            while(start < end && Character.isWhitespace(buffer.get(start)))
+                start++;
+            while(end > start && Character.isWhitespace(buffer.get(end - 1)))
+                end--;
+            if(start == end)
+                continue;
+            return parseHex(start, end, offset);
+        }
+    }
+
+    private Transaction parseHex(int start, int end, long offset) {
+        if((end - start) % 2 != 0)
+            throw new CorruptTransactionException("Odd number of hex characters", offset);
+        int length = (end - start) / 2;
+        if(decoded.length < length)
+            decoded = new byte[Math.max(length, 2 * decoded.length)];
+        try {
+            hexToByteArray(buffer.array(), buffer.arrayOffset() + start,
+                           buffer.arrayOffset() + end, decoded, 0);
+        } catch (InvalidParameterException e) {
+            throw new CorruptTransactionException(e.getMessage(), offset, e);
+        }
+        TransactionView view;
+        try {
+            view = new TransactionView(ByteBuffer.wrap(decoded, 0, length));
+        } catch (ParseTransactionException e) {
+            throw new CorruptTransactionException(e.getMessage(), offset, e);
+        }
+        if(view.getByteSize() != length)
+            throw new CorruptTransactionException(
+                    (length - view.getByteSize()) + " unexpected bytes after the transaction",
+                    offset);
+        return view.toTransaction();
+    }
+}
@@ -0,0 +1,316 @@
+package bitcoin.transaction;
+
+import bitcoin.Hashes;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static bitcoin.transaction.Utils.*;
+import static core.Utils.byteArrayToHex;
+
+/**
+ * Read only view of a serialized transaction. Parsing only records where each input and output
+ * starts, Input and Output objects are created (and their scripts copied) the first time they
+ * are requested. Useful when scanning a lot of transactions where most of them are discarded
+ * after looking at a couple of outputs.
+ *
+ * The view does not copy the provided buffer, it must not be modified while the view is in use.
+ */
+public class TransactionView {
+    private static final Logger LOGGER = Logger.getLogger(TransactionView.class.getName());
+
+    // Smallest possible serialized input (32 prev hash + 4 prev idx + 1 script len + 4 seq no)
+    // and output (8 value + 1 script len), used to reject absurd counters before allocating.
+    static private final int MIN_INPUT_SIZE = 41;
+    static private final int MIN_OUTPUT_SIZE = 9;
+    // A transaction can't weight more than a block, and its size is at most its weight.
+    static final int MAX_TRANSACTION_SIZE = 4000000;
+
+    /**
+     * The bytes end before the transaction does, it might still be complete with more bytes.
+     */
+    static final class TruncatedTransactionException extends ParseTransactionException {
+        private static final long serialVersionUID = 1L;
+
+        TruncatedTransactionException(String message, String txId) {
+            super(message, txId);
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final long version;
+    private final long lockTime;
+    private final Byte marker;
+    private final Byte flag;
+    private final int[] inputOffsets;
+    private final int[] outputOffsets;
+    private final int witnessOffset;
+    // Where the witness stack of each input starts, null without witness data.
+    private final int[] witnessOffsets;
+    private final int lockTimeOffset;
+
+    private final Input[] inputs;
+    private final Output[] outputs;
+
+    /**
+     * Parse the transaction starting at the current position of rawTransaction. The position of
+     * the provided buffer is not modified, use {@link #getByteSize()} to know how many bytes
+     * the transaction takes.
+     */
+    public TransactionView(ByteBuffer rawTransaction) throws ParseTransactionException {
+        ByteBuffer slice = rawTransaction.slice();
+        int offset = 0;
+        long inputsNum, outputsNum;
+        try {
+            version = readUint32(slice, offset);
+            offset += 4;
+            if(version != 1 && version != 2)
+                LOGGER.warning("unexpected Tx version:" + version);
+            // BIP144, a transaction can't have zero inputs so a 0x00 there is the marker.
+            if(slice.get(offset) == 0x00 && slice.get(offset + 1) != 0x00) {
+                if(slice.get(offset + 1) != 0x01)
+                    throw new ParseTransactionException(
+                            "Unknown segwit flag " + slice.get(offset + 1), "");
+                marker = slice.get(offset++);
+                flag = slice.get(offset++);
+            }
+            else {
+                marker = null;
+                flag = null;
+            }
+
+            inputsNum = readVarInt(slice, offset);
+            offset += varIntByteSize(inputsNum);
+            checkCounter(inputsNum, MIN_INPUT_SIZE, slice.limit() - offset);
+            inputOffsets = new int[(int) inputsNum];
+            for(int i = 0; i < inputsNum; i++) {
+                inputOffsets[i] = offset;
+                offset += 36;
+                offset = skipScript(slice, offset);
+                offset += 4;
+            }
+
+            outputsNum = readVarInt(slice, offset);
+            offset += varIntByteSize(outputsNum);
+            checkCounter(outputsNum, MIN_OUTPUT_SIZE, slice.limit() - offset);
+            outputOffsets = new int[(int) outputsNum];
+            for(int i = 0; i < outputsNum; i++) {
+                outputOffsets[i] = offset;
+                offset += 8;
+                offset = skipScript(slice, offset);
+            }
+
+            witnessOffset = offset;
+            witnessOffsets = marker != null ? new int[(int) inputsNum] : null;
+            if(marker != null) {
+                for(int i = 0; i < inputsNum; i++) {
+                    witnessOffsets[i] = offset;
+                    long items = readVarInt(slice, offset);
+                    offset += varIntByteSize(items);
+                    checkCounter(items, 1, slice.limit() - offset);
+                    for(long j = 0; j < items; j++)
+                        offset = skipScript(slice, offset);
+                }
+            }
+            lockTimeOffset = offset;
+            lockTime = readUint32(slice, offset);
+            offset += 4;
+        } catch (IndexOutOfBoundsException e) {
+            LOGGER.throwing("TransactionView", "constructor", e);
+            throw new TruncatedTransactionException(e.getMessage(), txidOrEmpty(slice));
+        }
+
+        slice.limit(offset);
+        buffer = slice.slice();
+        inputs = new Input[inputOffsets.length];
+        outputs = new Output[outputOffsets.length];
+    }
+
+    public TransactionView(byte[] rawTransaction) throws ParseTransactionException {
+        this(ByteBuffer.wrap(rawTransaction));
+    }
+
+    // A counter that can't fit in any transaction is corrupt, one that only exceeds the bytes
+    // available means the transaction is truncated.
+    static private void checkCounter(long counter, int minElementSize, int available)
+            throws ParseTransactionException {
+        if(counter < 0 || counter > MAX_TRANSACTION_SIZE / minElementSize)
+            throw new ParseTransactionException(
+                    "Counter " + counter + " does not fit in a transaction", "");
+        if(counter > available / minElementSize)
+            throw new IndexOutOfBoundsException(
+                    "Counter " + counter + " does not fit in the " + available + " bytes left");
+    }
+
+    // Skip a var int prefixed byte string, returns the offset after it.
+    static private int skipScript(ByteBuffer buffer, int offset) throws ParseTransactionException {
+        long length = readVarInt(buffer, offset);
+        offset += varIntByteSize(length);
+        if(length < 0 || length > MAX_TRANSACTION_SIZE)
+            throw new ParseTransactionException(
+                    "Script of " + length + " bytes does not fit in a transaction", "");
+        if(length > buffer.limit() - offset)
+            throw new IndexOutOfBoundsException(
+                    "Script of " + length + " bytes at " + offset + " exceeds the buffer");
+        return offset + (int) length;
+    }
+
+    static private String txidOrEmpty(ByteBuffer rawTransaction) {
+        ByteBuffer view = rawTransaction.duplicate();
+        view.position(0);
+        return byteArrayToHex(arrayReverse(Hashes.doubleSHA256(view)));
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getLockTime() {
+        return lockTime;
+    }
+
+    public Byte getMarker() {
+        return marker;
+    }
+
+    public Byte getFlag() {
+        return flag;
+    }
+
+    public boolean hasWitness() {
+        return marker != null;
+    }
+
+    public int getInputsCount() {
+        return inputOffsets.length;
+    }
+
+    public int getOutputsCount() {
+        return outputOffsets.length;
+    }
+
+    /**
+     * @return Size in bytes of the serialized transaction.
+     */
+    public int getByteSize() {
+        return buffer.limit();
+    }
+
+    public Input getInput(int pos) {
+        if(inputs[pos] == null)
+            inputs[pos] = newInput(pos);
+        return inputs[pos];
+    }
+
+    public Output getOutput(int pos) {
+        if(outputs[pos] == null)
+            outputs[pos] = newOutput(pos);
+        return outputs[pos];
+    }
+
+    // Not cached, used by Transaction so modifying it does not affect the view.
+    Input newInput(int pos) {
+        Input input = new Input(buffer, inputOffsets[pos]);
+        if(hasWitness())
+            input.setWitness(getWitness(pos));
+        return input;
+    }
+
+    Output newOutput(int pos) {
+        return new Output(buffer, outputOffsets[pos]);
+    }
+
+    /**
+     * Value of the output, read directly from the buffer without creating the Output.
+     */
+    public long getOutputValue(int pos) {
+        return readUint64(buffer, outputOffsets[pos]);
+    }
+
+    /**
+     * @return A read only buffer with the script of the output. It shares the content with this
+     *         view, nothing is copied.
+     */
+    public ByteBuffer getOutputScript(int pos) {
+        return scriptSlice(outputOffsets[pos] + 8);
+    }
+
+    /**
+     * @return A read only buffer with the script of the input. It shares the content with this
+     *         view, nothing is copied.
+     */
+    public ByteBuffer getInputScript(int pos) {
+        return scriptSlice(inputOffsets[pos] + 36);
+    }
+
+    private ByteBuffer scriptSlice(int offset) {
+        int length = (int) readVarInt(buffer, offset);
+        offset += varIntByteSize(length);
+        ByteBuffer ret = buffer.asReadOnlyBuffer();
+        ret.position(offset);
+        ret.limit(offset + length);
+        return ret.slice();
+    }
+
+    /**
+     * @return A copy of the witness stack items of the input, empty if the transaction does not
+     *         have witness data.
+     */
+    public List<byte[]> getWitness(int pos) {
+        if(!hasWitness())
+            return Collections.emptyList();
+        int offset = witnessOffsets[pos];
+        long items = readVarInt(buffer, offset);
+        offset += varIntByteSize(items);
+        List<byte[]> ret = new ArrayList<>((int) items);
+        for(long i = 0; i < items; i++) {
+            long length = readVarInt(buffer, offset);
+            offset += varIntByteSize(length);
+            ret.add(copyOfRange(buffer, offset, (int) length));
+            offset += length;
+        }
+        return ret;
+    }
+
+    /**
+     * @return A copy of the bytes between the outputs and the lock time, null if the transaction
+     *         does not have witness data.
+     */
+    public byte[] getWitnessScript() {
+        if(!hasWitness())
+            return null;
+        return copyOfRange(buffer, witnessOffset, lockTimeOffset - witnessOffset);
+    }
+
+    public ArrayList<Input> getInputs() {
+        ArrayList<Input> ret = new ArrayList<>(inputs.length);
+        for(int i = 0; i < inputs.length; i++)
+            ret.add(getInput(i));
+        return ret;
+    }
+
+    public ArrayList<Output> getOutputs() {
+        ArrayList<Output> ret = new ArrayList<>(outputs.length);
+        for(int i = 0; i < outputs.length; i++)
+            ret.add(getOutput(i));
+        return ret;
+    }
+
+    /**
+     * @return A read only buffer with the serialized transaction.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    public byte[] serialize() {
+        return copyOfRange(buffer, 0, buffer.limit());
+    }
+
+    public Transaction toTransaction() {
+        return new Transaction(this);
+    }
+}
@@ -1,5 +1,6 @@
 package bitcoin.transaction;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 import java.util.LinkedList;
 import java.util.List;
@@ -34,6 +35,21 @@ public class Utils {
         return readUint64(val, 0);
     }
 
+    /**
+     * Same as {@link #readUint64(byte[], int)} but reading from an absolute position of the
+     * buffer, its position is not modified.
+     */
+    static public long readUint64(ByteBuffer val, int offset) {
+        return (val.get(offset) & 0xFFL)
+                | ((val.get(offset + 1) & 0xFFL) << 8)
+                | ((val.get(offset + 2) & 0xFFL) << 16)
+                | ((val.get(offset + 3) & 0xFFL) << 24)
+                | ((val.get(offset + 4) & 0xFFL) << 32)
+                | ((val.get(offset + 5) & 0xFFL) << 40)
+                | ((val.get(offset + 6) & 0xFFL) << 48)
+                | ((val.get(offset + 7) & 0xFFL) << 56);
+    }
+
     static public byte[] serializeUint64(long val) {
         return new byte[]{ (byte) (0xFF & val)
                          , (byte) (0xFF & (val >> 8))
@@ -77,6 +93,13 @@ public class Utils {
         return readUint32(val, 0);
     }
 
+    static public long readUint32(ByteBuffer val, int offset) {
+        return (0xFFL & val.get(offset))
+                | ((0xFFL & val.get(offset + 1)) << 8)
+                | ((0xFFL & val.get(offset + 2)) << 16)
+                | ((0xFFL & val.get(offset + 3)) << 24);
+    }
+
     static public int readUint16(byte[] val, int offset) {
         return (val[offset] & 0xFF)
                 | ((val[offset + 1] & 0xFF) << 8);
@@ -126,6 +149,17 @@ public class Utils {
                 | ((0xFFL & val[offset + 8]) << 56);
     }
 
+    static public long readVarInt(ByteBuffer val, int offset) {
+        int first = 0xFF & val.get(offset);
+        if(first < 253)
+            return first;
+        if(first == 253)
+            return (0xFF & val.get(offset + 1)) | ((0xFF & val.get(offset + 2)) << 8);
+        if(first == 254)
+            return readUint32(val, offset + 1);
+        return readUint64(val, offset + 1);
+    }
+
     static public byte[] serializeVarInt(long val) {
         if(val < 0 || val > 0xFFFFFFFFL)
             return new byte[]{(byte) 255,
@@ -149,12 +183,44 @@ public class Utils {
                           (byte) (val >> 24)};
     }
 
+    /**
+     * Write val at the current position of the buffer as a little endian uint32, advancing it.
+     */
+    static public void writeUint32(ByteBuffer buffer, long val) {
+        buffer.put((byte) val)
+              .put((byte) (val >> 8))
+              .put((byte) (val >> 16))
+              .put((byte) (val >> 24));
+    }
+
+    static public void writeUint64(ByteBuffer buffer, long val) {
+        writeUint32(buffer, val);
+        writeUint32(buffer, val >> 32);
+    }
+
+    static public void writeVarInt(ByteBuffer buffer, long val) {
+        if(val < 0 || val > 0xFFFFFFFFL) {
+            buffer.put((byte) 255);
+            writeUint64(buffer, val);
+        }
+        else if(val < 253) {
+            buffer.put((byte) val);
+        }
+        else if(val <= 0xFFFFL) {
+            buffer.put((byte) 253).put((byte) val).put((byte) (val >> 8));
+        }
+        else {
+            buffer.put((byte) 254);
+            writeUint32(buffer, val);
+        }
+    }
+
     static public int varIntByteSize(long val) {
         if(val < 0 || val > 0xFFFFFFFFL)
             return 9;
         if(val < 253)
             return 1;
-        if(val < 0xFFFFL)
+        if(val <= 0xFFFFL)
             return 3;
         return 5;
 
@@ -171,6 +237,86 @@ public class Utils {
         return arrayReverse(val, 0, val.length);
     }
 
+    static public byte[] arrayReverse(ByteBuffer val, int from, int to) {
+        byte[] ret = new byte[to - from];
+        for(int i = from; i < to; i++)
+            ret[i - from] = val.get(to - 1 - (i - from));
+        return ret;
+    }
+
+    /**
+     * Copy length bytes starting at the absolute position offset of the buffer, its position is
+     * not modified.
+     */
+    static public byte[] copyOfRange(ByteBuffer val, int offset, int length) {
+        if(offset < 0 || length < 0 || offset + length > val.limit())
+            throw new IndexOutOfBoundsException(
+                    "Range [" + offset + ", " + (offset + length) + ") out of bounds " + val.limit());
+        byte[] ret = new byte[length];
+        ByteBuffer view = val.duplicate();
+        view.position(offset);
+        view.get(ret);
+        return ret;
+    }
+
+    // Standard scripts recognized by looking at the raw bytes, without parsing them.
+
+    /**
+     * OP_DUP OP_HASH160 OP_PUSH_20_bytes [20 bytes] OP_EQUALVERIFY OP_CHECKSIG
+     */
+    static public boolean isPayToPubKeyHashScript(byte[] script) {
+        return script != null && script.length == 25
+                && script[0] == (byte) 0x76 && script[1] == (byte) 0xa9 && script[2] == 0x14
+                && script[23] == (byte) 0x88 && script[24] == (byte) 0xac;
+    }
+
+    /**
+     * OP_HASH160 OP_PUSH_20_bytes [20 bytes] OP_EQUAL
+     */
+    static public boolean isPayToScriptHashScript(byte[] script) {
+        return script != null && script.length == 23
+                && script[0] == (byte) 0xa9 && script[1] == 0x14 && script[22] == (byte) 0x87;
+    }
+
+    /**
+     * OP_1 OP_PUSH_32_bytes [32 bytes x only output key]
+     */
+    static public boolean isPayToTaprootScript(byte[] script) {
+        return script != null && script.length == 34 && script[0] == (byte) 0x51
+                && script[1] == 0x20;
+    }
+
+    static public boolean isOpReturnScript(byte[] script) {
+        return script != null && script.length > 0 && script[0] == (byte) 0x6a;
+    }
+
+    /**
+     * OP_m [n pushes of 33 or 65 bytes public keys] OP_n OP_CHECKMULTISIG
+     */
+    static public boolean isMultisigScript(byte[] script) {
+        if(script == null || script.length < 3 || script[script.length - 1] != (byte) 0xae)
+            return false;
+        int m = smallNumberOpcodeValue(script[0]);
+        int n = smallNumberOpcodeValue(script[script.length - 2]);
+        if(m < 1 || n < m)
+            return false;
+        int idx = 1, keys = 0;
+        while(idx < script.length - 2) {
+            if(script[idx] != 33 && script[idx] != 65)
+                return false;
+            idx += 1 + script[idx];
+            keys++;
+        }
+        return idx == script.length - 2 && keys == n;
+    }
+
+    // Value pushed by OP_1 .. OP_16, -1 for any other opcode.
+    static private int smallNumberOpcodeValue(byte opcode) {
+        if(opcode >= 0x51 && opcode <= 0x60)
+            return opcode - 0x50;
+        return -1;
+    }
+
     public static List<String> parseScript(byte[] script, boolean isScriptSig) {
         List<String> ret = new LinkedList<String>();
         int idx = 0;
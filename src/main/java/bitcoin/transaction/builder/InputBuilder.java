@@ -271,12 +271,11 @@ public class InputBuilder {
     static public Input redeemBetPromiseOraclePayment(List<BitcoinPublicKey> playerPublicKeys,
                                                        Transaction betPromise, int num_oracle) throws IOException, NoSuchAlgorithmException {
         byte[] redeemScript = multisigScript(playerPublicKeys, 2, false);
-        String redeemScriptHex = byteArrayToHex(redeemScript);
         int num_oracle_output = 0;
 
         for(int num_output = 0; num_output < betPromise.getOutputs().size(); ++num_output) {
             Output out = betPromise.getOutputs().get(num_output);
-            if(out.isPayToScript() && redeemScriptHex.equals(out.getParsedScript().get(2))) {
+            if(out.isPayToScript() && out.getScriptPubKey().getChunk(1).dataEquals(redeemScript)) {
                 if(num_oracle_output == num_oracle)
                     return new Input();
                     //return new AbsoluteOutput()
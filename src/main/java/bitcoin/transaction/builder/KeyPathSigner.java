@@ -0,0 +1,100 @@
+package bitcoin.transaction.builder;
+
+import bitcoin.key.BitcoinPrivateKey;
+import bitcoin.key.BitcoinPublicKey;
+import bitcoin.key.MuSig;
+import bitcoin.key.Taproot;
+import bitcoin.transaction.Output;
+import bitcoin.transaction.SighashCalculator;
+import bitcoin.transaction.Transaction;
+
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static bitcoin.transaction.builder.OutputBuilder.aggregateKeys;
+import static bitcoin.transaction.builder.OutputBuilder.createPayToTaprootScript;
+
+/**
+ * One player's side of the MuSig2 signature spending a taproot output of both players through
+ * its key path. Each player sends its public nonce, then its partial signature; the one getting
+ * the other's partial signature completes the witness of the input.
+ * Created by fmontoto on 18-05-17.
+ */
+public class KeyPathSigner {
+    private static final Logger LOGGER = Logger.getLogger(KeyPathSigner.class.getName());
+
+    private final Transaction tx;
+    private final int inputNo;
+    private final BitcoinPrivateKey key;
+    private final MuSig.KeyAggContext keyAggContext;
+    private final byte[] digest;
+    private final MuSig.SecretNonce secretNonce;
+    private MuSig.Session session;
+
+    /**
+     * @param spentOutputs The outputs spent by every input of tx, in order.
+     * @param merkleRoot Root of the script tree of the spent output, null if it has none.
+     */
+    public KeyPathSigner(Transaction tx, int inputNo, List<? extends Output> spentOutputs,
+                         BitcoinPrivateKey key, BitcoinPublicKey[] playersPubKey,
+                         byte[] merkleRoot)
+            throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        MuSig.KeyAggContext ctx = aggregateKeys(playersPubKey);
+        keyAggContext = ctx.applyXOnlyTweak(Taproot.tweak(ctx.getXOnlyKey(), merkleRoot));
+        if(!Arrays.equals(createPayToTaprootScript(keyAggContext.getXOnlyKey()),
+                          spentOutputs.get(inputNo).getScript()))
+            throw new InvalidParameterException(
+                    "Input " + inputNo + " does not spend a taproot output of the players.");
+        this.tx = tx;
+        this.inputNo = inputNo;
+        this.key = key;
+        digest = tx.sighashCalculator().taprootDigest(
+                inputNo, Collections.<Output>unmodifiableList(spentOutputs),
+                SighashCalculator.SIGHASH_DEFAULT, null);
+        secretNonce = MuSig.nonceGen(key, keyAggContext, digest);
+    }
+
+    /**
+     * @return The nonce to send to the other player.
+     */
+    public byte[] getPublicNonce() {
+        return secretNonce.getPublicNonce();
+    }
+
+    /**
+     * Can be called only once, the nonce is not valid after it.
+     *
+     * @return The partial signature to send to the other player.
+     */
+    public byte[] sign(byte[] otherPublicNonce)
+            throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        session = new MuSig.Session(
+                MuSig.nonceAgg(Arrays.asList(getPublicNonce(), otherPublicNonce)),
+                keyAggContext, digest);
+        return MuSig.sign(secretNonce, key, session);
+    }
+
+    /**
+     * Aggregates both partial signatures and sets the signature as the witness of the input.
+     * Must be called after sign.
+     */
+    public void complete(byte[] mySignature, byte[] otherSignature, byte[] otherPublicNonce,
+                         BitcoinPublicKey otherPubKey) throws IOException {
+        if(session == null)
+            throw new InvalidParameterException("The input was not signed yet.");
+        if(!MuSig.partialSigVerify(otherSignature, otherPublicNonce, otherPubKey.getKey(true),
+                                   session))
+            throw new InvalidParameterException(
+                    "Invalid partial signature from the other player.");
+        byte[] signature = MuSig.partialSigAgg(Arrays.asList(mySignature, otherSignature),
+                                               session);
+        LOGGER.fine("Key path of input " + inputNo + " signed.");
+        tx.getInput(inputNo).setWitness(Collections.singletonList(signature));
+    }
+}
@@ -1,6 +1,9 @@
 package bitcoin.transaction.builder;
 
 import bitcoin.key.BitcoinPublicKey;
+import bitcoin.key.MuSig;
+import bitcoin.key.Schnorr;
+import bitcoin.key.Taproot;
 import bitcoin.transaction.Output;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
@@ -8,6 +11,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.InvalidParameterException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -135,6 +139,77 @@ public class OutputBuilder {
         return createPayToScriptHashOutput(amount, redeemScriptHash);
     }
 
+    /**
+     * Tapscript leaf of oneSignatureOnTimeoutOrMuSig: after the timeout a BIP 340 signature of
+     * the key is enough.
+     */
+    static public byte[] oneSignatureOnTimeoutLeaf(BitcoinPublicKey key, TimeUnit timeUnit,
+                                                   long timeoutVal) throws IOException {
+        byte[] xOnlyKey = Schnorr.xOnly(key);
+        return mergeArrays(checkTimeoutScript(timeUnit, timeoutVal),
+                           pushDataOpcode(xOnlyKey.length),
+                           xOnlyKey,
+                           getOpcodeAsArray("OP_CHECKSIG"));
+    }
+
+    /**
+     * MuSig2 aggregation of the keys, sorted so every player gets the same one.
+     */
+    static public MuSig.KeyAggContext aggregateKeys(BitcoinPublicKey... keys)
+            throws IOException {
+        List<byte[]> serialized = new ArrayList<>(keys.length);
+        for(BitcoinPublicKey key : keys)
+            serialized.add(key.getKey(true));
+        return MuSig.keyAgg(MuSig.sortKeys(serialized));
+    }
+
+    /**
+     * Taproot version of oneSignatureOnTimeoutOrMultiSig. Both players spend with a single
+     * MuSig2 signature through the key path, alwaysNeededPubKey alone after the timeout through
+     * the only script of the tree.
+     */
+    static public Output oneSignatureOnTimeoutOrMuSig(BitcoinPublicKey alwaysNeededPubKey,
+                                                      BitcoinPublicKey secondOptionalPubKey,
+                                                      long amount, TimeUnit timeoutTimeUnit,
+                                                      long timeoutVal) throws IOException {
+        byte[] internalKey = aggregateKeys(alwaysNeededPubKey, secondOptionalPubKey)
+                .getXOnlyKey();
+        byte[] merkleRoot = oneSignatureOnTimeoutMerkleRoot(alwaysNeededPubKey, timeoutTimeUnit,
+                                                            timeoutVal);
+        return createPayToTaprootOutput(
+                amount, Taproot.outputKey(internalKey, merkleRoot).getKey());
+    }
+
+    /**
+     * Merkle root of the script tree of oneSignatureOnTimeoutOrMuSig, needed to tweak the
+     * aggregated key when spending it through the key path.
+     */
+    static public byte[] oneSignatureOnTimeoutMerkleRoot(BitcoinPublicKey alwaysNeededPubKey,
+                                                         TimeUnit timeoutTimeUnit,
+                                                         long timeoutVal) throws IOException {
+        return Taproot.leafHash(
+                oneSignatureOnTimeoutLeaf(alwaysNeededPubKey, timeoutTimeUnit, timeoutVal));
+    }
+
+    /**
+     * Taproot output spent only through the key path, with a MuSig2 signature of all the keys.
+     */
+    static public Output createMuSigOutput(long amount, BitcoinPublicKey[] keys)
+            throws IOException {
+        byte[] internalKey = aggregateKeys(keys).getXOnlyKey();
+        return createPayToTaprootOutput(amount, Taproot.outputKey(internalKey, null).getKey());
+    }
+
+    static public byte[] createPayToTaprootScript(byte[] outputKey) {
+        if(outputKey.length != Schnorr.PUBLIC_KEY_LENGTH)
+            throw new InvalidParameterException("Expected a 32 bytes x only key.");
+        return mergeArrays(getOpcodeAsArray("OP_1"), pushDataOpcode(outputKey.length), outputKey);
+    }
+
+    static public Output createPayToTaprootOutput(long amount, byte[] outputKey) {
+        return new Output(amount, createPayToTaprootScript(outputKey));
+    }
+
     static public byte[] createPayToPubKeyScriptNoVerify(String wifDstAddr)
             throws IOException, NoSuchAlgorithmException {
         byte[] addr = BitcoinPublicKey.WIFToTxAddress(wifDstAddr);
@@ -1,8 +1,11 @@
 package bitcoin.transaction.builder;
 
 import bitcoin.BitcoindClient;
+import bitcoin.key.BetKeyChain;
 import bitcoin.key.BitcoinPrivateKey;
 import bitcoin.key.BitcoinPublicKey;
+import bitcoin.key.KeyRing;
+import bitcoin.key.Taproot;
 import bitcoin.transaction.*;
 import core.Bet;
 import core.Constants;
@@ -30,6 +33,8 @@ import static core.Utils.hexToByteArray;
 public class TransactionBuilder {
     // Granularity is 512 seconds as defined by BIP 68
     static public final long TIMEOUT_GRANULARITY = 512;
+    // Items count, length and the 64 bytes signature at the witness of a key path spend.
+    static public final long TAPROOT_KEY_PATH_WITNESS_WEIGHT = 66;
 
 
     static Output multisigOrTimeoutOutput(long amount, List<String> wifMultisigAddresses,
@@ -39,6 +44,16 @@ public class TransactionBuilder {
         throw new NotImplementedException();
     }
 
+    /**
+     * Virtual size the transaction grows when keyPathInputs of its inputs get their taproot key
+     * path witness: those witnesses, the segwit marker and flag (2 weight units) and the empty
+     * witness (1 weight unit, its items count) of each of the otherInputs.
+     */
+    static public long taprootKeyPathRedeemVsize(int keyPathInputs, int otherInputs) {
+        long weight = 2 + keyPathInputs * TAPROOT_KEY_PATH_WITNESS_WEIGHT + otherInputs;
+        return (weight + 3) / 4;
+    }
+
     static public void setFeeFailIfNotEnough(Transaction tx, int outputToGetFeeFrom,
                                              int feePerByte) {
         setFeeFailIfNotEnough(tx, outputToGetFeeFrom, feePerByte, 0);
@@ -46,13 +61,19 @@ public class TransactionBuilder {
 
     static public void setFeeFailIfNotEnough(Transaction tx, int outputToGetFeeFrom,
         long feePerByte, int signaturesMissing) {
+        setFeeFailIfNotEnough(tx, outputToGetFeeFrom, feePerByte, signaturesMissing, 0);
+    }
 
-
+    /**
+     * @param missingVsize Virtual size of the data still missing besides the signatures.
+     */
+    static public void setFeeFailIfNotEnough(Transaction tx, int outputToGetFeeFrom,
+        long feePerByte, int signaturesMissing, long missingVsize) {
         long newOutputValue = tx.getOutput(outputToGetFeeFrom).getValue()
-                - feePerByte * (tx.wireSize() + 71 * signaturesMissing);
+                - feePerByte * (tx.vsize() + 71 * signaturesMissing + missingVsize);
         if (newOutputValue < 0)
             throw new InvalidParameterException("Not enough at the output to get the fee ("
-                    + Math.abs(newOutputValue) + ") missing. Tx size:" + tx.wireSize());
+                    + Math.abs(newOutputValue) + ") missing. Tx vsize:" + tx.vsize());
         tx.getOutput(outputToGetFeeFrom).setValue(newOutputValue);
     }
 
@@ -152,15 +173,36 @@ public class TransactionBuilder {
         return payToScriptHash(absOutput, scriptRedeem, amount, 1, 0, 0xffffffff);
     }
 
+    static public Transaction betPromise(
+            List<AbsoluteOutput> srcOutputs, String wifChangeAddress, Bet bet, boolean iAmPlayerOne)
+            throws IOException, NoSuchAlgorithmException {
+        return betPromise(srcOutputs, wifChangeAddress, bet, iAmPlayerOne, false);
+    }
+
     /**
      *
      * @param srcOutputs The first will be used as bet address.
      * @param wifChangeAddress
      * @param bet
+     * @param taproot Whether the outputs shared by the players are taproot outputs, spent with
+     *                a single MuSig2 signature, instead of multisig scripts.
      * @return
      */
     static public Transaction betPromise(
-            List<AbsoluteOutput> srcOutputs, String wifChangeAddress, Bet bet, boolean iAmPlayerOne)
+            List<AbsoluteOutput> srcOutputs, String wifChangeAddress, Bet bet, boolean iAmPlayerOne,
+            boolean taproot)
+            throws IOException, NoSuchAlgorithmException {
+        return betPromise(srcOutputs, wifChangeAddress, bet, iAmPlayerOne, taproot,
+                          bet.getRelativeBetResolutionSecs());
+    }
+
+    /**
+     * @param timeoutSecs Relative timeout of the prizes, it must be kept to get the merkle root
+     *                    of a taproot prize later, see betPromisePrizeMerkleRoot.
+     */
+    static public Transaction betPromise(
+            List<AbsoluteOutput> srcOutputs, String wifChangeAddress, Bet bet, boolean iAmPlayerOne,
+            boolean taproot, long timeoutSecs)
             throws IOException, NoSuchAlgorithmException {
 
         final int locktime = 0;
@@ -181,14 +223,23 @@ public class TransactionBuilder {
 
         Output data = OutputBuilder.createOpReturnOutput(bet.getWireRepresentation());
 
-        // Freeze timeout, so both outputs have the same one.
-        long timeoutSecs = bet.getRelativeBetResolutionSecs();
-        Output prizePlayerA = OutputBuilder.oneSignatureOnTimeoutOrMultiSig(
-                bet.getPlayersPubKey()[0].getKey(), bet.getPlayersPubKey()[1].getKey(),
-                bet.getAmount(), TimeUnit.SECONDS, timeoutSecs);
-        Output prizePlayerB = OutputBuilder.oneSignatureOnTimeoutOrMultiSig(
-                bet.getPlayersPubKey()[1].getKey(), bet.getPlayersPubKey()[0].getKey(),
-                bet.getAmount(), TimeUnit.SECONDS, timeoutSecs);
+        Output prizePlayerA, prizePlayerB;
+        if(taproot) {
+            prizePlayerA = OutputBuilder.oneSignatureOnTimeoutOrMuSig(
+                    playersPubKey[0], playersPubKey[1], bet.getAmount(), TimeUnit.SECONDS,
+                    timeoutSecs);
+            prizePlayerB = OutputBuilder.oneSignatureOnTimeoutOrMuSig(
+                    playersPubKey[1], playersPubKey[0], bet.getAmount(), TimeUnit.SECONDS,
+                    timeoutSecs);
+        }
+        else {
+            prizePlayerA = OutputBuilder.oneSignatureOnTimeoutOrMultiSig(
+                    bet.getPlayersPubKey()[0].getKey(), bet.getPlayersPubKey()[1].getKey(),
+                    bet.getAmount(), TimeUnit.SECONDS, timeoutSecs);
+            prizePlayerB = OutputBuilder.oneSignatureOnTimeoutOrMultiSig(
+                    bet.getPlayersPubKey()[1].getKey(), bet.getPlayersPubKey()[0].getKey(),
+                    bet.getAmount(), TimeUnit.SECONDS, timeoutSecs);
+        }
 
         outputs.add(data);
         outputs.add(prizePlayerA);
@@ -196,8 +247,11 @@ public class TransactionBuilder {
         int numOracles = bet.getMaxOracles();
 
         for(int i = 0; i < numOracles; i++) {
-            outputs.add(createMultisigOutput(bet.getFirstPaymentAmount(), playersPubKey,
-                                             playersPubKey.length));
+            if(taproot)
+                outputs.add(createMuSigOutput(bet.getFirstPaymentAmount(), playersPubKey));
+            else
+                outputs.add(createMultisigOutput(bet.getFirstPaymentAmount(), playersPubKey,
+                                                 playersPubKey.length));
         }
 
         long outputTotal = 0;
@@ -272,10 +326,14 @@ public class TransactionBuilder {
         Transaction tx = buildTx(version, locktime, inputs, outputs);
         {
             long eachOracleRedeemSize = 4 * 20 + 3 * 71 + 10;
-            long playerBetPromiseRedeemSize = 3 * 20 + 2 * 71 + 10;
-            long txFee = bet.getFee() * (tx.wireSize()
+            // A taproot prize is spent through the key path, with a single 64 bytes signature
+            // at the witness, discounted to a quarter.
+            long playersBetPromiseRedeemSize = betPromise.getOutput(1).isPayToTaproot()
+                    ? taprootKeyPathRedeemVsize(2, oracleInscriptions.size())
+                    : 2 * (3 * 20 + 2 * 71 + 10);
+            long txFee = bet.getFee() * (tx.vsize()
                                        + oracleInscriptions.size() * eachOracleRedeemSize
-                                       + 2 * playerBetPromiseRedeemSize);
+                                       + playersBetPromiseRedeemSize);
             long output0 = tx.getOutput(0).getValue() - txFee / 2;
             long output1 = tx.getOutput(1).getValue() - txFee / 2;
             if(output0 < 0 || output1 < 0)
@@ -287,6 +345,30 @@ public class TransactionBuilder {
         return tx;
     }
 
+    /**
+     * Merkle root of a taproot prize (output 1 or 2) of the bet promise, needed to sign it
+     * through the key path.
+     * @param timeoutSecs Timeout the promise was built with, the merkle root commits to it.
+     */
+    static public byte[] betPromisePrizeMerkleRoot(Transaction betPromise, int outputNo, Bet bet,
+                                                   long timeoutSecs) throws IOException {
+        if(outputNo != 1 && outputNo != 2)
+            throw new InvalidParameterException("The prizes are the outputs 1 and 2.");
+        Output prize = betPromise.getOutput(outputNo);
+        if(!prize.isPayToTaproot())
+            throw new InvalidParameterException("Output " + outputNo + " is not taproot.");
+        BitcoinPublicKey[] playersPubKey = bet.getPlayersPubKey();
+        byte[] merkleRoot = oneSignatureOnTimeoutMerkleRoot(
+                playersPubKey[outputNo - 1], TimeUnit.SECONDS, timeoutSecs);
+        byte[] outputKey = Taproot.outputKey(
+                aggregateKeys(playersPubKey).getXOnlyKey(), merkleRoot).getKey();
+        if(!Arrays.equals(createPayToTaprootScript(outputKey), prize.getScript()))
+            throw new InvalidParameterException(
+                    "Output " + outputNo + " is not a prize of the bet with a timeout of "
+                    + timeoutSecs + " seconds.");
+        return merkleRoot;
+    }
+
     static public void playerSignsBet(BitcoinPrivateKey playerKey, Transaction bet,
                                       BitcoinPublicKey[] playersPubKey) {
 
@@ -318,9 +400,24 @@ public class TransactionBuilder {
                                               Transaction completedTx, boolean allowModification)
             throws IOException, NoSuchAlgorithmException, ParseTransactionException,
             InvalidKeySpecException, SignatureException, InvalidKeyException {
+        checkBetPromiseAndSign(client, agreedBet, myIncompletedTx, completedTx, allowModification,
+                               null);
+    }
+
+    /**
+     * @param keyChain If not null, the player key and the keys of the bet are derived from it
+     *                 and registered in the {@link KeyRing}, so my inputs paying to them are
+     *                 signed without asking bitcoind for the keys.
+     */
+    static public void checkBetPromiseAndSign(BitcoindClient client, Bet agreedBet,
+                                              Transaction myIncompletedTx,
+                                              Transaction completedTx, boolean allowModification,
+                                              BetKeyChain keyChain)
+            throws IOException, NoSuchAlgorithmException, ParseTransactionException,
+            InvalidKeySpecException, SignatureException, InvalidKeyException {
 
         long txFee =
-                (71 * completedTx.getInputs().size() + completedTx.wireSize()) * agreedBet.getFee();
+                (71 * completedTx.getInputs().size() + completedTx.vsize()) * agreedBet.getFee();
         HashMap<Integer, AbsoluteOutput> srcOutputs = new HashMap<>();
 
         if(allowModification) {
@@ -349,11 +446,19 @@ public class TransactionBuilder {
             idx++;
         }
 
-        for(Map.Entry<Integer, AbsoluteOutput> entry : srcOutputs.entrySet()) {
-            String WIF = BitcoinPublicKey.txAddressToWIF(
-                    hexToByteArray(entry.getValue().getPayAddress()), client.isTestnet());
-            BitcoinPrivateKey privKey = BitcoinPrivateKey.fromWIF(client.getPrivateKey(WIF));
-            completedTx.sign(privKey, entry.getKey());
+        Map<Integer, BitcoinPrivateKey> keys = new HashMap<>();
+        KeyRing keyRing = KeyRing.getInstance();
+        if(keyChain != null)
+            keyChain.register(keyRing, agreedBet.getHash(), BetKeyChain.KEYS_PER_BET);
+        for(Map.Entry<Integer, AbsoluteOutput> entry : srcOutputs.entrySet())
+            keys.put(entry.getKey(), keyRing.getOrLoad(
+                    hexToByteArray(entry.getValue().getPayAddress()), client));
+        completedTx.signAll(keys);
+        try {
+            client.verifyInputsLocally(completedTx, srcOutputs);
+        } catch (BitcoindClient.BitcoindClientException e) {
+            throw new InvalidParameterException(
+                    "The signed bet promise does not verify: " + e.getMessage());
         }
     }
 
@@ -434,10 +539,14 @@ public class TransactionBuilder {
         for(AbsoluteOutput srcOutput : srcOutputs)
             inputs.add(InputBuilder.payToPublicKeyHashCreateInput(srcOutput));
 
+        // A taproot bet promise pays the first payments to the players' aggregated key.
+        boolean taproot = betPromise.getOutput(1).isPayToTaproot();
         byte[] promiseBetRedeemScript = multisigScript(
                 bet.getPlayersPubKey(), bet.getPlayersPubKey().length);
-        Output expectedOutput = createPayToScriptHashOutputFromScript(bet.getFirstPaymentAmount(),
-                                                                      promiseBetRedeemScript);
+        Output expectedOutput = taproot
+                ? createMuSigOutput(bet.getFirstPaymentAmount(), bet.getPlayersPubKey())
+                : createPayToScriptHashOutputFromScript(bet.getFirstPaymentAmount(),
+                                                        promiseBetRedeemScript);
 
         for (idx = 0; idx < betPromise.getOutputs().size(); idx++) {
             if (betPromise.getOutputs().get(idx).equals(expectedOutput)) {
@@ -449,10 +558,15 @@ public class TransactionBuilder {
                     "The provided promiseBet transaction does not contains the expected output.");
 
         int oraclePos = bet.getOraclePos(oraclePublicKey.toWIF());
-        PayToScriptAbsoluteOutput betPromiseOutput = new PayToScriptAbsoluteOutput(
-                betPromise, idx + oraclePos, promiseBetRedeemScript);
-
-        inputs.add(InputBuilder.redeemScriptHash(betPromiseOutput));
+        if(taproot) {
+            // The players sign it through the key path, see KeyPathSigner.
+            inputs.add(new Input(new AbsoluteOutput(betPromise, idx + oraclePos), new byte[0]));
+        }
+        else {
+            PayToScriptAbsoluteOutput betPromiseOutput = new PayToScriptAbsoluteOutput(
+                    betPromise, idx + oraclePos, promiseBetRedeemScript);
+            inputs.add(InputBuilder.redeemScriptHash(betPromiseOutput));
+        }
 
         // Inscription Output
         List<BitcoinPublicKey> playersPubKey = Arrays.asList(bet.getPlayersPubKey());
@@ -491,10 +605,16 @@ public class TransactionBuilder {
             tx.appendOutput(createPayToPubKeyOutput(change, oraclePublicKey.toWIF()));
         }
 
-        setFeeFailIfNotEnough(tx, 0, bet.getFee(), srcKeys.size() + 2);
+        if(taproot)
+            setFeeFailIfNotEnough(tx, 0, bet.getFee(), srcKeys.size(),
+                                  taprootKeyPathRedeemVsize(1, srcOutputs.size()));
+        else
+            setFeeFailIfNotEnough(tx, 0, bet.getFee(), srcKeys.size() + 2);
 
+        Map<Integer, BitcoinPrivateKey> keys = new HashMap<>();
         for(int i = 0; i < srcKeys.size(); i++)
-            tx.sign(srcKeys.get(i), i);
+            keys.put(i, srcKeys.get(i));
+        tx.signAll(keys);
 
         return tx;
     }
@@ -2,6 +2,8 @@ package bitcoin.transaction.redeem;
 
 import bitcoin.key.BitcoinPrivateKey;
 import bitcoin.key.BitcoinPublicKey;
+import bitcoin.key.SignatureVerifier;
+import bitcoin.key.SignatureVerifier.SignatureCheck;
 import bitcoin.transaction.*;
 import core.Bet;
 
@@ -17,13 +19,11 @@ import java.util.concurrent.TimeUnit;
 
 import static bitcoin.Constants.getHashType;
 import static bitcoin.key.Utils.r160SHA256Hash;
-import static bitcoin.transaction.Utils.parseScript;
 import static bitcoin.transaction.Utils.readScriptNum;
 import static bitcoin.transaction.builder.InputBuilder.redeemBetOraclePaymentScript;
 import static bitcoin.transaction.builder.OutputBuilder.betOraclePaymentScript;
 import static bitcoin.transaction.builder.OutputBuilder.createPayToPubKeyOutput;
 import static bitcoin.transaction.builder.TransactionBuilder.*;
-import static core.Utils.hexToByteArray;
 
 /**
  * Created by fmontoto on 3/22/17.
@@ -81,6 +81,27 @@ public class OracleAnswer {
         return winnerHashPreImage;
     }
 
+    // null if the signature is not a SIGHASH_ALL one.
+    private SignatureCheck signatureCheck() throws NoSuchAlgorithmException, IOException {
+        // [winner pre image] [if selector] [oracle signature] OP_1 [redeem script]
+        byte[] signature = answer.getInputs().get(0).getScriptSig().getChunk(2).getData();
+        byte hashType = getHashType("ALL");
+        if(signature.length == 0 || signature[signature.length - 1] != hashType)
+            return null;
+        byte[] digest = answer.sighashCalculator().legacyDigest(0, redeemScript, hashType);
+        return new SignatureCheck(oraclePublicKey.getKey(), digest,
+                                  Arrays.copyOf(signature, signature.length - 1));
+    }
+
+    /**
+     * Check the oracle signature of the answer against the public key in the redeem script,
+     * without asking bitcoind.
+     */
+    public boolean isOracleSignatureValid() throws NoSuchAlgorithmException, IOException {
+        SignatureCheck check = signatureCheck();
+        return check != null && SignatureVerifier.getInstance().verify(check);
+    }
+
     static public OracleAnswer build(
             Transaction betTransaction, Bet bet, int oraclePosition, byte[] winnerHashPreImage,
             BitcoinPrivateKey oracleKey, String dstWIFAddress, List<byte[]> playersWinHash)
@@ -97,8 +118,8 @@ public class OracleAnswer {
         int toRedeemOutputPos = 2 + 2 * oraclePosition;
         long available = betTransaction.getOutput(toRedeemOutputPos).getValue();
 
-        byte[] expectedRedeeemHash = hexToByteArray(betTransaction.getOutputs()
-                .get(toRedeemOutputPos).getParsedScript().get(2));
+        byte[] expectedRedeeemHash = betTransaction.getOutputs()
+                .get(toRedeemOutputPos).getPayToScriptHash();
         RedeemOutput redeemOutput = new RedeemOutput(playersWinHash.get(0), playersWinHash.get(1),
                 oracleKey.getPublicKey(), bet.getPlayersPubKey()[0], bet.getPlayersPubKey()[1],
                 bet.getRelativeBetResolutionSecs(), bet.getRelativeReplyUntilTimeoutSeconds(),
@@ -128,18 +149,20 @@ public class OracleAnswer {
             throws ParseTransactionException, NoSuchAlgorithmException, IOException,
                    InvalidKeySpecException {
         Input redeemInput = transaction.getInputs().get(0);
-        List<String> parsedScript = parseScript(redeemInput.getScript(), true);
-        if (parsedScript.size() != 8) {
+        // [winner pre image] [if selector] [oracle signature] OP_1 [redeem script]
+        Script scriptSig = redeemInput.getScriptSig();
+        if (scriptSig.size() != 5 || !scriptSig.isComplete()) {
             throw new InvalidParameterException(
-                    "Expected script with 8 elements, got " + parsedScript.size() + " elements");
+                    "Expected script with 5 chunks, got " + scriptSig.size() + " chunks");
         }
 
-        byte[] redeemScript = hexToByteArray(parsedScript.get(8 - 1));
+        byte[] redeemScript = scriptSig.getChunk(5 - 1).getData();
 
-        List<String> parsedRedeemScript = parseScript(redeemScript, false);
-        BitcoinPublicKey oraclePublicKey = new BitcoinPublicKey(
-                hexToByteArray(parsedRedeemScript.get(2)), testnet);
-        byte[] winnerPreImage = hexToByteArray(parsedScript.get(1));
+        // OP_IF [oracle public key] OP_CHECKSIGVERIFY ...
+        Script parsedRedeemScript = new Script(redeemScript);
+        BitcoinPublicKey oraclePublicKey = BitcoinPublicKey.fromKey(
+                parsedRedeemScript.getChunk(1).getData(), testnet);
+        byte[] winnerPreImage = scriptSig.getChunk(0).getData();
         //TODO check agains the expected hashes.
 
         return new OracleAnswer(redeemScript, transaction, winnerPreImage, oraclePublicKey);
@@ -26,7 +26,6 @@ import static bitcoin.transaction.builder.InputBuilder.redeemPaymentOracleDidntP
 import static bitcoin.transaction.builder.OutputBuilder.createPayToPubKeyOutput;
 import static bitcoin.transaction.builder.TransactionBuilder.buildTx;
 import static bitcoin.transaction.builder.TransactionBuilder.createSequenceNumber;
-import static core.Utils.hexToByteArray;
 
 /**
  * Created by fmontoto on 3/23/17.
@@ -74,8 +73,7 @@ public class OracleDoesntAnswer {
             throw new InvalidParameterException("Priv key must be from one of the players");
 
         int outputPos = RedeemOutputPosition(oraclePosition);
-        byte[] expectedHash = hexToByteArray(
-                betTransaction.getOutputs().get(outputPos).getParsedScript().get(2));
+        byte[] expectedHash = betTransaction.getOutputs().get(outputPos).getPayToScriptHash();
         long available = betTransaction.getOutputs().get(outputPos).getValue();
         long eachOutput =  available / wifOutputs.size();
 
@@ -96,7 +94,7 @@ public class OracleDoesntAnswer {
         int txVersion = 2, txLockTime = 0;
         Transaction tx = buildTx(txVersion, txLockTime, input, outputs);
 
-        long perOutputFee = ((tx.wireSize() + 2 * 71) * bet.getFee()) / wifOutputs.size();
+        long perOutputFee = ((tx.vsize() + 2 * 71) * bet.getFee()) / wifOutputs.size();
         for(Output o : tx.getOutputs()) {
             o.setValue(o.getValue() - perOutputFee);
             if(o.getValue() < 0)
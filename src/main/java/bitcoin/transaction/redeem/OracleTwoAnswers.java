@@ -24,7 +24,6 @@ import static bitcoin.transaction.builder.InputBuilder.redeemTwoAnswersTimeout;
 import static bitcoin.transaction.builder.OutputBuilder.createPayToPubKeyOutput;
 import static bitcoin.transaction.builder.OutputBuilder.oracleTwoAnswersInsuranceRedeemScript;
 import static bitcoin.transaction.builder.TransactionBuilder.*;
-import static core.Utils.hexToByteArray;
 
 /**
  * Created by fmontoto on 4/11/17.
@@ -70,8 +69,7 @@ public class OracleTwoAnswers {
         int outputNo = 1;
         OracleTwoAnswers oracleTwoAnswers = new OracleTwoAnswers(bet.getPlayersPubKey(),
                 bet.getRelativeTwoAnswersTimeoutSeconds(), 1);
-        byte[] expectedHash = hexToByteArray(
-                oracleInscriptionTx.getOutput(outputNo).getParsedScript().get(2));
+        byte[] expectedHash = oracleInscriptionTx.getOutput(outputNo).getPayToScriptHash();
         oracleTwoAnswers.findRedeemScript(expectedHash, playerAWinHash, playerBWinHash,
                                           oracleKey.getPublicKey());
 
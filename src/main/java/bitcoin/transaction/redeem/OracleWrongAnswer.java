@@ -28,7 +28,6 @@ import static bitcoin.transaction.builder.TransactionBuilder.buildTx;
 import static bitcoin.transaction.builder.TransactionBuilder.setFeeFailIfNotEnough;
 import static bitcoin.transaction.redeem.Utils.formatPreimages;
 import static bitcoin.transaction.redeem.Utils.playerNoFromPrivateKey;
-import static core.Utils.hexToByteArray;
 
 /**
  * Created by fmontoto on 3/30/17.
@@ -113,8 +112,7 @@ public class OracleWrongAnswer {
         List<byte[]> formattedPreImages = formatPreimages(playerAWinHashes, playerBWinHashes,
                                                           winnerPreImages);
         Output output1 = betTransaction.getOutputs().get(srcOutputNo);
-        byte[] expectedHash =  hexToByteArray(
-                output1.getParsedScript().get(2));
+        byte[] expectedHash =  output1.getPayToScriptHash();
 
         OracleWrongAnswer oracleWrongAnswer = new OracleWrongAnswer(
                 bet, oraclePos, playerAWinHashes, playerBWinHashes, srcOutputNo);
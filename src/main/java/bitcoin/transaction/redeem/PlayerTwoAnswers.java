@@ -25,7 +25,6 @@ import static bitcoin.transaction.builder.OutputBuilder.oracleTwoAnswersInsuranc
 import static bitcoin.transaction.builder.TransactionBuilder.TIMEOUT_GRANULARITY;
 import static bitcoin.transaction.builder.TransactionBuilder.buildTx;
 import static bitcoin.transaction.builder.TransactionBuilder.setFeeFailIfNotEnough;
-import static core.Utils.hexToByteArray;
 
 /**
  * Created by fmontoto on 4/11/17.
@@ -72,8 +71,7 @@ public class PlayerTwoAnswers {
 
         PlayerTwoAnswers playerTwoAnswers = new PlayerTwoAnswers(bet.getPlayersPubKey(),
                 bet.getRelativeTwoAnswersTimeoutSeconds());
-        byte[] expectedHash = hexToByteArray(
-                oracleSinscriptionTx.getOutput(1).getParsedScript().get(2));
+        byte[] expectedHash = oracleSinscriptionTx.getOutput(1).getPayToScriptHash();
         playerTwoAnswers.findRedeemScript(expectedHash, r160SHA256Hash(playerAAnswer),
                 r160SHA256Hash(playerBAnswer), oracleKey);
 
@@ -25,7 +25,6 @@ import static bitcoin.transaction.builder.InputBuilder.redeemUnduePayment;
 import static bitcoin.transaction.builder.OutputBuilder.createPayToPubKeyOutput;
 import static bitcoin.transaction.builder.OutputBuilder.undueChargePaymentScript;
 import static bitcoin.transaction.builder.TransactionBuilder.*;
-import static core.Utils.hexToByteArray;
 
 /**
  * Created by fmontoto on 3/22/17.
@@ -92,8 +91,8 @@ public class UnduePayment {
         int toRedeemOutputPos = 3 + 2 * oraclePosition;
         long available = betTransaction.getOutput(toRedeemOutputPos).getValue();
 
-        byte[] expectedRedeeemHash = hexToByteArray(betTransaction.getOutputs()
-                .get(toRedeemOutputPos).getParsedScript().get(2));
+        byte[] expectedRedeeemHash = betTransaction.getOutputs()
+                .get(toRedeemOutputPos).getPayToScriptHash();
         RedeemOutput redeemOutput = new RedeemOutput(expectedRedeeemHash,bet.getPlayersPubKey(),
                 oracleKey.getPublicKey(), playerAWinHash.get(oraclePosition),
                 playerBWinHash.get(oraclePosition), playerAWinHash, playerBWinHash,
@@ -22,8 +22,9 @@ public class Utils {
     static public int playerNoFromPrivateKey(BitcoinPublicKey[] playerPublicKeys,
                                              BitcoinPrivateKey playerPrivKey)
             throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        byte[] playerKey = playerPrivKey.getPublicKey().getKey();
         for (int i = 0; i < playerPublicKeys.length; i++) {
-            if (Arrays.equals(playerPublicKeys[i].getKey(), playerPrivKey.getPublicKey().getKey()))
+            if (Arrays.equals(playerPublicKeys[i].getKey(), playerKey))
                 return i;
         }
         throw new InvalidParameterException("Unknown winnerKey.");
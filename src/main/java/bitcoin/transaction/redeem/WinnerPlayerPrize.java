@@ -26,7 +26,6 @@ import static bitcoin.transaction.builder.OutputBuilder.betPrizeResolutionRedeem
 import static bitcoin.transaction.builder.OutputBuilder.createPayToPubKeyOutput;
 import static bitcoin.transaction.builder.TransactionBuilder.*;
 import static bitcoin.transaction.redeem.Utils.playerNoFromPrivateKey;
-import static core.Utils.hexToByteArray;
 
 /**
  * Created by fmontoto on 3/25/17.
@@ -99,10 +98,8 @@ public class WinnerPlayerPrize {
 
         WinnerPlayerPrize winnerPlayerPrize = new WinnerPlayerPrize(bet, playerAWinsHashes,
                 playerBWinsHashes);
-        byte[] firstExpectedHash = hexToByteArray(
-                betTransaction.getOutputs().get(0).getParsedScript().get(2));
-        byte[] secondExpectedHash = hexToByteArray(
-                betTransaction.getOutputs().get(1).getParsedScript().get(2));
+        byte[] firstExpectedHash = betTransaction.getOutputs().get(0).getPayToScriptHash();
+        byte[] secondExpectedHash = betTransaction.getOutputs().get(1).getPayToScriptHash();
 
         long available = betTransaction.getOutputs().get(0).getValue()
                 + betTransaction.getOutputs().get(1).getValue();
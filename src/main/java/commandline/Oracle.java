@@ -2,21 +2,30 @@ package commandline;
 
 import bitcoin.BitcoindClient;
 import bitcoin.Block;
+import bitcoin.ClientUtils;
+import bitcoin.TransactionStore;
+import bitcoin.UtxoSet;
+import bitcoin.key.BetKeyChain;
 import bitcoin.key.BitcoinPrivateKey;
 import bitcoin.key.BitcoinPublicKey;
+import bitcoin.key.ExtendedKey;
+import bitcoin.key.KeyRing;
 import bitcoin.transaction.AbsoluteOutput;
 import bitcoin.transaction.Output;
 import bitcoin.transaction.ParseTransactionException;
+import bitcoin.transaction.Script;
 import bitcoin.transaction.Transaction;
 import bitcoin.transaction.builder.TransactionBuilder;
 import core.BetTxForm;
 import core.Constants;
 import org.apache.commons.cli.*;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
-import wf.bitcoin.javabitcoindrpcclient.BitcoinRPCException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.InvalidKeyException;
 import java.security.InvalidParameterException;
 import java.security.NoSuchAlgorithmException;
@@ -31,7 +40,8 @@ import java.util.stream.IntStream;
 
 import static bitcoin.key.BitcoinPublicKey.WIFToTxAddress;
 import static core.Utils.byteArrayToHex;
-import static core.Utils.hexToByteArray;
+import static bitcoin.transaction.Utils.serializeVarInt;
+import static core.Utils.mergeArrays;
 import static java.util.stream.Collectors.toList;
 
 /**
@@ -46,9 +56,16 @@ public class Oracle {
     private List<AbsoluteOutput> unspentOutputs;
 
     private BitcoindClient bitcoindClient;
+    private final Path dataDir;
+    private final String txStoreMB;
+    // Unspent outputs of the address, loaded by startConfiguration.
+    private UtxoSet utxoSet;
+    // null if no master key was given, the address and its key come from bitcoind then.
+    private BetKeyChain betKeyChain;
 
 
-    public Oracle(String[] args) throws ParseException {
+    public Oracle(String[] args) throws ParseException, NoSuchAlgorithmException, IOException,
+                                        InvalidKeySpecException {
         Options options = new Options();
         // Boolean
         options.addOption(new Option("h", "help", false, "Print this message"));
@@ -68,6 +85,14 @@ public class Oracle {
                         .type(String.class)
                         .numberOfArgs(1)
                         .build());
+        options.addOption(
+                Option.builder("m").longOpt("master-key")
+                        .desc("My BIP 32 master private key (xprv/tprv). The oracle key and the "
+                              + "keys of each bet are derived from it instead of asking bitcoind.")
+                        .type(String.class)
+                        .numberOfArgs(1)
+                        .build());
+        Utils.addTransactionStoreOptions(options);
 
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
@@ -88,11 +113,39 @@ public class Oracle {
         this.testnet = cl.hasOption("testnet");
         this.account = cl.getOptionValue("account", "oracle");
         this.address = cl.getOptionValue("address", "");
+        if(cl.hasOption("master-key")) {
+            betKeyChain = new BetKeyChain(ExtendedKey.parse(cl.getOptionValue("master-key")));
+            BitcoinPrivateKey oracleKey = betKeyChain.getIdentityKey();
+            if(oracleKey.isTestnet() != testnet)
+                throw new InvalidParameterException("The master key is not from the "
+                                                    + (testnet ? "testnet" : "mainnet"));
+            if(!address.isEmpty() && !address.equals(oracleKey.getPublicKey().toWIF()))
+                throw new InvalidParameterException(
+                        "The address is not the one of the master key");
+            address = oracleKey.getPublicKey().toWIF();
+            KeyRing.getInstance().add(oracleKey);
+        }
         bitcoindClient = new BitcoindClient(this.testnet);
+        dataDir = Utils.dataDir(cl.getOptionValue("data-dir"), "oracle", testnet);
+        txStoreMB = cl.getOptionValue("tx-store-mb");
     }
 
     private void startConfiguration() throws IOException, NoSuchAlgorithmException, ParseTransactionException {
         System.out.println("Starting, please wait...");
+        Utils.openTransactionStore(bitcoindClient, dataDir, txStoreMB);
+        // The key derived from the master key doesn't have to be in bitcoind's wallet, its
+        // outputs come from the utxo set.
+        if(betKeyChain == null)
+            chooseAccountAddress();
+
+        addrTxForm = byteArrayToHex(WIFToTxAddress(address));
+
+        utxoSet = Utils.openUtxoSet(bitcoindClient, dataDir, Collections.singleton(addrTxForm));
+        unspentOutputs = ClientUtils.getUnspentOutputs(utxoSet, Collections.singleton(addrTxForm));
+    }
+
+    private void chooseAccountAddress()
+            throws IOException, NoSuchAlgorithmException, ParseTransactionException {
         double accountBalance = bitcoindClient.getAccountBalance(account);
         if(accountBalance < 0) {
             throw new InvalidParameterException("The account does not have money");
@@ -103,16 +156,12 @@ public class Oracle {
 
         Set<String> txFormAddresses = new HashSet<String>(availableOutputs.stream().map(
                 o -> o.getPayAddress()).collect(toList()));
-        String []addrList = new String[txFormAddresses.size()];
-        int i = 0;
-        for(String txFormAddr: txFormAddresses) {
-            addrList[i] = BitcoinPublicKey.txAddressToWIF(hexToByteArray(txFormAddr), testnet);
-            i++;
-        }
+        String []addrList = BitcoinPublicKey.hexTxAddressesToWIF(txFormAddresses, testnet)
+                .toArray(new String[txFormAddresses.size()]);
 
         if(address.isEmpty()) {
             System.out.println("You didn't chose an address, select one from the followings:");
-            for(i = 0; i < addrList.length; i++) {
+            for(int i = 0; i < addrList.length; i++) {
                 System.out.println("\t" + i + ": " + addrList[i]);
             }
 
@@ -131,17 +180,18 @@ public class Oracle {
             throw new InvalidParameterException(
                     "The address specified is not in the account/does not have spendable outputs.");
         }
-
-        addrTxForm = byteArrayToHex(WIFToTxAddress(address));
-
-        unspentOutputs = availableOutputs.stream().filter(
-                u -> u.getPayAddress().equals(addrTxForm)).collect(toList());
     }
 
     String inscribeOracle() throws IOException, NoSuchAlgorithmException, InvalidKeySpecException, SignatureException, InvalidKeyException {
         Transaction inscriptionTx = TransactionBuilder.registerAsOracle(unspentOutputs.get(0), bitcoindClient.isTestnet());
-        inscriptionTx.sign(BitcoinPrivateKey.fromWIF(bitcoindClient.getPrivateKey(address)));
-        return bitcoindClient.sendTransaction(inscriptionTx);
+        inscriptionTx.sign(KeyRing.getInstance().getOrLoad(address, bitcoindClient));
+        try {
+            bitcoindClient.verifyTransactionLocally(inscriptionTx, unspentOutputs);
+        } catch (BitcoindClient.BitcoindClientException e) {
+            throw new InvalidParameterException(
+                    "The inscription transaction does not verify: " + e.getMessage());
+        }
+        return Utils.broadcast(bitcoindClient, utxoSet, dataDir, inscriptionTx);
     }
 
     private void notifierInputEvent(String msg) {
@@ -262,24 +312,20 @@ class BlockChainDaemon extends Thread{
         }
     }
 
-    private void notifyIfNeeded(String txId) {
-        Transaction transaction = null;
-        try {
-            transaction = client.getTransaction(txId);
-        } catch (ParseTransactionException e) {
-            return;
-        }
+    private void notifyIfNeeded(String txId, Transaction transaction) {
         ArrayList<Output> outputs = transaction.getOutputs();
-        String expectedDescription = byteArrayToHex(Constants.BET_DESCRIPTION);
+        byte[] expectedPrefix = mergeArrays(serializeVarInt(Constants.BET_DESCRIPTION.length),
+                                            Constants.BET_DESCRIPTION);
         for(int i = 0; i < outputs.size(); i++) {
             Output o = outputs.get(i);
-            if(o.isPayToKey() || o.isPayToScript())
+            if(!o.isOpReturn())
                 continue;
-            List<String> parsedScript = o.getParsedScript();
-            if(parsedScript.size() == 3 && parsedScript.get(0).equals("OP_RETURN")) {
-                if(parsedScript.get(3).equals(expectedDescription)) {
+            Script script = o.getScriptPubKey();
+            if(script.isOpReturnData()) {
+                if(script.getChunk(1).dataStartsWith(expectedPrefix)) {
                     try {
-                        BetTxForm betTxForm = BetTxForm.fromSerialized(hexToByteArray(parsedScript.get(3)));
+                        BetTxForm betTxForm = BetTxForm.fromSerialized(
+                                script.getProgram(), script.getChunk(1).getDataOffset());
                         Set<String> presentOracles = betTxForm.getPresentOracles(wifOracleAddresses);
                         if(!presentOracles.isEmpty()) {
                             for(String address : presentOracles) {
@@ -300,25 +346,20 @@ class BlockChainDaemon extends Thread{
     }
 
     private Block getBlockOrWait(int height) {
-        while(true) {
+        while(client.getBlockCount() < height) {
             try {
-                return client.getBlock(height);
-            }
-            catch (BitcoinRPCException e){
-                if(e.getResponseCode() != 500)
-                    throw e;
-                try {
-                    TimeUnit.MINUTES.sleep(2);
-                } catch (InterruptedException e1) {
-                    LOGGER.throwing("Notifier", "getBlockOrWait", e);
-                }
+                TimeUnit.MINUTES.sleep(2);
+            } catch (InterruptedException e) {
+                LOGGER.throwing("Notifier", "getBlockOrWait", e);
             }
         }
+        return client.getBlock(height);
     }
 
     private void checkBlock(Block block) {
-        for(String txId : block.getTxs())
-            notifyIfNeeded(txId);
+        // All the transactions of the block are requested at once and pipelined to bitcoind.
+        for(Map.Entry<String, Transaction> e : client.getBlockTransactions(block).entrySet())
+            notifyIfNeeded(e.getKey(), e.getValue());
     }
 
     public void run() {
@@ -356,6 +397,114 @@ class BlockChainDaemon extends Thread{
 }
 
 class Utils {
+    private static final Logger LOGGER = Logger.getLogger(Utils.class.getName());
+
+    static void addTransactionStoreOptions(Options options) {
+        options.addOption(
+                Option.builder().longOpt("data-dir")
+                        .desc("Directory to keep the data between runs. Default: "
+                              + "~/.bitcoin-bet/<program>-<testnet|mainnet>")
+                        .type(String.class)
+                        .numberOfArgs(1)
+                        .build());
+        options.addOption(
+                Option.builder().longOpt("tx-store-mb")
+                        .desc("Max size, in MB, of the transactions fetched from bitcoind kept "
+                              + "in the data dir. 0 disables it. Default: "
+                              + TransactionStore.DEFAULT_MAX_BYTES / (1024 * 1024))
+                        .type(Number.class)
+                        .numberOfArgs(1)
+                        .build());
+    }
+
+    /**
+     * @param dataDir The --data-dir option, null to use the default one of the program.
+     */
+    static Path dataDir(String dataDir, String program, boolean testnet) {
+        if(dataDir != null)
+            return Paths.get(dataDir);
+        return Paths.get(System.getProperty("user.home"), ".bitcoin-bet",
+                         program + "-" + (testnet ? "testnet" : "mainnet"));
+    }
+
+    /**
+     * Opens the transaction store in dataDir and makes client use it. The store is closed when
+     * the program exits.
+     * @param maxMB The --tx-store-mb option, null to use the default size.
+     * @return null if the store is disabled or could not be opened, the client works without it.
+     */
+    static TransactionStore openTransactionStore(BitcoindClient client, Path dataDir,
+                                                 String maxMB) {
+        long maxBytes = maxMB == null ? TransactionStore.DEFAULT_MAX_BYTES
+                                      : Long.parseLong(maxMB) * 1024 * 1024;
+        if(maxBytes <= 0)
+            return null;
+        TransactionStore store;
+        try {
+            store = new TransactionStore(dataDir.resolve("transactions"), maxBytes);
+        } catch (IOException e) {
+            LOGGER.warning("Running without transaction store: " + e.getMessage());
+            return null;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                store.close();
+            } catch (IOException e) {
+                LOGGER.warning("Could not close the transaction store: " + e.getMessage());
+            }
+        }));
+        client.setTransactionStore(store);
+        return store;
+    }
+
+    static private Path utxoSetFile(Path dataDir) {
+        return dataDir.resolve("utxo");
+    }
+
+    /**
+     * The unspent outputs of addresses, from the snapshot in dataDir synced up to bitcoind's
+     * tip. If there is no snapshot, or it does not watch every address, the set starts from a
+     * scan of bitcoind's unspent outputs, so the keys don't need to be in bitcoind's wallet. The
+     * snapshot is saved once the set is filled.
+     * @param addresses In the format of {@link Output#getPayAddress()}.
+     */
+    static UtxoSet openUtxoSet(BitcoindClient client, Path dataDir, Collection<String> addresses)
+            throws IOException {
+        Path file = utxoSetFile(dataDir);
+        UtxoSet utxoSet = null;
+        if(Files.exists(file)) {
+            try {
+                utxoSet = UtxoSet.load(file);
+            } catch (IOException e) {
+                LOGGER.warning("Discarding the utxo snapshot: " + e.getMessage());
+            }
+        }
+        if(utxoSet == null || !addresses.stream().allMatch(utxoSet::isWatched)) {
+            System.out.println("Scanning the unspent outputs of bitcoind, it can take a while...");
+            utxoSet = new UtxoSet(addresses);
+            utxoSet.scan(client);
+        }
+        int applied = utxoSet.sync(client);
+        LOGGER.info("Utxo set at block " + utxoSet.getHeight() + ", " + applied
+                    + " blocks applied.");
+        Files.createDirectories(dataDir);
+        utxoSet.save(file);
+        return utxoSet;
+    }
+
+    /**
+     * Send the transaction and apply it to utxoSet, so its outputs can be spent before it is
+     * confirmed.
+     * @return The txid.
+     */
+    static String broadcast(BitcoindClient client, UtxoSet utxoSet, Path dataDir,
+                            Transaction tx) throws IOException, NoSuchAlgorithmException {
+        String txid = client.sendTransaction(tx);
+        utxoSet.apply(tx);
+        utxoSet.save(utxoSetFile(dataDir));
+        return txid;
+    }
+
     /**
      * Check if the provided address is inscribed in the provided transactions.
      * @param client
@@ -372,11 +521,11 @@ class Utils {
             ArrayList<Output> outputs = tx.getOutputs();
             for(int i = 0; i < outputs.size(); i++) {
                 Output out = outputs.get(i);
-                if(out.isPayToKey() || out.isPayToScript())
+                if(!out.isOpReturn())
                     continue;
-                List<String> parsedScript = out.getParsedScript();
-                if(parsedScript.size() == 3 && parsedScript.get(0).equals("OP_RETURN")) {
-                    if(parsedScript.get(2).equals(byteArrayToHex(Constants.ORACLE_INSCRIPTION))) {
+                Script script = out.getScriptPubKey();
+                if(script.isOpReturnData()) {
+                    if(script.getChunk(1).dataEquals(Constants.ORACLE_INSCRIPTION)) {
                         if(i + 1 < outputs.size()
                                     && outputs.get(i + 1).isPayToKey()
                                     && outputs.get(i + 1).getPayAddress().equals(addrTxForm)) {
@@ -1,8 +1,14 @@
 package commandline;
 
+import bitcoin.BitcoindClient;
+import bitcoin.UtxoSet;
+import bitcoin.key.BetKeyChain;
 import bitcoin.key.BitcoinPrivateKey;
 import bitcoin.key.BitcoinPublicKey;
+import bitcoin.key.ExtendedKey;
+import bitcoin.key.KeyRing;
 import bitcoin.key.Secp256k1;
+import bitcoin.transaction.Transaction;
 import communication.*;
 import core.Bet;
 import core.ConsistencyException;
@@ -19,6 +25,7 @@ import java.io.InputStream;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidParameterException;
 import java.security.NoSuchAlgorithmException;
@@ -32,6 +39,7 @@ import static bitcoin.Utils.getOracleList;
 import static bitcoin.key.Utils.r160SHA256Hash;
 import static communication.MultipartyComputation.choseRandomlyFromList;
 import static communication.Utils.checkDataConsistencyOtherParty;
+import static core.Utils.byteArrayToHex;
 
 /**
  * Created by fmontoto on 01-09-16.
@@ -55,6 +63,14 @@ public class Player {
     private String otherPartyBitcoinAddress;
     private BitcoinPrivateKey myPrivateKey;
     private String myBitcoinAddress;
+    // null if no master key was given, the keys are asked to the user (or bitcoind) then.
+    private BetKeyChain betKeyChain;
+    // On the network of my key, created once the key is known.
+    private BitcoindClient bitcoindClient;
+    private String dataDir;
+    private String txStoreMB;
+    // Unspent outputs of my key.
+    private UtxoSet utxoSet;
 
     BitcoinPublicKey otherPartyPublicBitcoinKey;
 
@@ -77,6 +93,11 @@ public class Player {
         otherPartyPort = 0;
         myBitcoinAddress = null;
         myPrivateKey = null;
+        betKeyChain = null;
+        bitcoindClient = null;
+        utxoSet = null;
+        dataDir = null;
+        txStoreMB = null;
     }
 
     public Player(String[] args) throws ParseException, InvalidKeySpecException, NoSuchAlgorithmException, IOException, InvalidAlgorithmParameterException {
@@ -109,12 +130,20 @@ public class Player {
                         .type(String.class)
                         .numberOfArgs(1)
                         .build());
+        options.addOption(
+                Option.builder("m").longOpt("master-key")
+                        .desc("My BIP 32 master private key (xprv/tprv). My key and the keys of "
+                              + "each bet are derived from it.")
+                        .type(String.class)
+                        .numberOfArgs(1)
+                        .build());
         options.addOption(
                 Option.builder("a").longOpt("address")
                         .desc("Other party's bitcoin address. (WIF)")
                         .type(String.class)
                         .numberOfArgs(1)
                         .build());
+        Utils.addTransactionStoreOptions(options);
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
         CommandLine cl;
@@ -137,10 +166,16 @@ public class Player {
             otherPartyPort = Integer.parseInt(cl.getOptionValue("connect-port"));
         if(cl.hasOption("location"))
             otherPartyLocation = cl.getOptionValue("location");
+        if(cl.hasOption("master-key"))
+            betKeyChain = new BetKeyChain(ExtendedKey.parse(cl.getOptionValue("master-key")));
         if(cl.hasOption("bitcoin/key"))
             myPrivateKey = BitcoinPrivateKey.fromWIF(cl.getOptionValue("bitcoin/key"));
+        else if(betKeyChain != null)
+            myPrivateKey = betKeyChain.getIdentityKey();
         if(cl.hasOption("address"))
             otherPartyBitcoinAddress = cl.getOptionValue("address");
+        dataDir = cl.getOptionValue("data-dir");
+        txStoreMB = cl.getOptionValue("tx-store-mb");
 
         myBitcoinAddress = myPrivateKey.getPublicKey().toWIF();
     }
@@ -214,6 +249,17 @@ public class Player {
                     getUserInput("Insert other party bitcoin b58 encoded address",
                                  (String input) -> input.length() > 26 && input.length() < 35, 3);
         otherPartyAddr = "tcp://" + otherPartyLocation + ":" + otherPartyPort;
+        // The outputs paying to my key are signed without asking bitcoind for it.
+        KeyRing.getInstance().add(myPrivateKey);
+        boolean testnet = myPrivateKey.isTestnet();
+        Path playerDataDir = Utils.dataDir(dataDir, "player", testnet);
+        bitcoindClient = new BitcoindClient(testnet);
+        Utils.openTransactionStore(bitcoindClient, playerDataDir, txStoreMB);
+        String myTxAddress = byteArrayToHex(myPrivateKey.getPublicKey().getAddress());
+        utxoSet = Utils.openUtxoSet(bitcoindClient, playerDataDir,
+                                    Collections.singleton(myTxAddress));
+        System.out.println("Your balance: " + utxoSet.getBalance(myTxAddress) + " satoshis in "
+                           + utxoSet.getByAddress(myTxAddress).size() + " outputs.");
     }
 
     public SecureChannelManager openSecureChannel() throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, ExecutionException, InterruptedException, InvalidKeySpecException, IOException {
@@ -403,7 +449,7 @@ public class Player {
             channel = channelManager.subscribe("lastBlock");
             //TODO it would be nice to let the user chose by default the last block in the blockchain as lastBlock.
             String lastBlock = negotiateParameter(channel, "last block of the interval");
-            oraclesList = getOracleList(myPrivateKey.isTestnet(), firstBlock, lastBlock);
+            oraclesList = getOracleList(bitcoindClient, firstBlock, lastBlock);
             if(oraclesList.size() <= i) {
                 throw new InvalidParameterException("There are only " + oraclesList.size() + " in the specified" +
                                                     "interval. Not enough to chose " + i + " oracles randomly");
@@ -465,6 +511,15 @@ public class Player {
         }
     }
 
+    /**
+     * Send a transaction of the bet, its outputs paying to me can be spent right away.
+     * @return The txid.
+     */
+    String broadcast(Transaction tx) throws IOException, NoSuchAlgorithmException {
+        return Utils.broadcast(bitcoindClient, utxoSet,
+                               Utils.dataDir(dataDir, "player", myPrivateKey.isTestnet()), tx);
+    }
+
     private  boolean amIPartyOne() {
         int cmp = myBitcoinAddress.compareTo(otherPartyBitcoinAddress);
         if(cmp == 0)
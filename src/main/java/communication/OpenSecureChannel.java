@@ -2,6 +2,7 @@ package communication;
 
 import bitcoin.key.BitcoinPrivateKey;
 import bitcoin.key.BitcoinPublicKey;
+import bitcoin.key.SignatureVerifier;
 import org.zeromq.ZAuth;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMsg;
@@ -157,24 +158,25 @@ public class OpenSecureChannel implements Callable<SecureChannelManager> {
         byte[] rcvdRandomness = exchangeData("randomBytes", generateRandomness, 0,
                                               incoming_socket, outgoing_socket);
 
-        Signature signer = Signature.getInstance("SHA256withECDSA");
-        signer.initSign(myBitcoinPrivateKey);
-        signer.update(mergeArrays(rcvdRandomness,
-                                  ZMQ.Curve.z85Decode(myCurveKeyPair.publicKey),
-                                  ZMQ.Curve.z85Decode(otherPartyPublicKey),
-                                  otherPartyBitcoinAddr.getBytes(utf8)));
-        byte[] signature= signer.sign();
+        // Same message and encoding (DER over a single SHA-256) than SHA256withECDSA, signed
+        // and verified by our own secp256k1 code, the JCA providers might not have the curve.
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] signature = myBitcoinPrivateKey.signDigest(md.digest(mergeArrays(
+                rcvdRandomness,
+                ZMQ.Curve.z85Decode(myCurveKeyPair.publicKey),
+                ZMQ.Curve.z85Decode(otherPartyPublicKey),
+                otherPartyBitcoinAddr.getBytes(utf8))));
 
         byte[] rcvdSignature = exchangeData("authenticationSignature", signature, 0,
                                             incoming_socket, outgoing_socket);
 
-        Signature verifier = Signature.getInstance("SHA256withECDSA");
-        verifier.initVerify(bitcoinPublicKey);
-        verifier.update(generateRandomness);
-        verifier.update(ZMQ.Curve.z85Decode(otherPartyPublicKey));
-        verifier.update(ZMQ.Curve.z85Decode(myCurveKeyPair.publicKey));
-        verifier.update(myBitcoinPrivateKey.getPublicKey().toWIF().getBytes(utf8));
-        return verifier.verify(rcvdSignature);
+        byte[] expectedDigest = md.digest(mergeArrays(
+                generateRandomness,
+                ZMQ.Curve.z85Decode(otherPartyPublicKey),
+                ZMQ.Curve.z85Decode(myCurveKeyPair.publicKey),
+                myBitcoinPrivateKey.getPublicKey().toWIF().getBytes(utf8)));
+        return SignatureVerifier.getInstance().verify(bitcoinPublicKey.getKey(), expectedDigest,
+                                                      rcvdSignature);
     }
 
     private boolean authenticateConnectedPeer() throws NoSuchAlgorithmException, IOException, InvalidKeySpecException, SignatureException, InvalidKeyException {
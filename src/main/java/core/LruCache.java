@@ -0,0 +1,188 @@
+package core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Bounded map evicting the least recently used entries when full. All the operations are
+ * synchronized on the cache, values should be cheap to compare and keys immutable.
+ *
+ * The bound is on the total weight of the values, every value weights 1 unless a weigher is
+ * provided (e.g. its size in bytes). Eviction is by weight only: while the cache is over its
+ * capacity the least recently accessed entries are removed, expired or not.
+ *
+ * Entries can also be added with a time to live. Expiry is lazy, an expired entry is dropped
+ * when get finds it and counts towards the weight until then.
+ *
+ * Created by fmontoto on 07-05-17.
+ */
+public class LruCache<K, V> {
+    private final long capacity;
+    private final ToLongFunction<? super V> weigher;
+    private final LinkedHashMap<K, Entry<V>> map;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    static private class Entry<V> {
+        private final V value;
+        private final long weight;
+        // System.nanoTime() deadline, 0 if the entry doesn't expire.
+        private final long expiresAt;
+
+        private Entry(V value, long weight, long expiresAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return expiresAt != 0 && now - expiresAt >= 0;
+        }
+    }
+
+    /**
+     * @param capacity Max total weight of the values.
+     * @param weigher Weight of a value, it must not change while the value is in the cache.
+     */
+    public LruCache(long capacity, ToLongFunction<? super V> weigher) {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        this.capacity = capacity;
+        this.weigher = weigher;
+        // Access order, the eldest entry is the least recently used.
+        this.map = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public LruCache(int capacity) {
+        this(capacity, v -> 1);
+    }
+
+    /**
+     * @return The value or null if the key is not in the cache.
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = map.get(key);
+        if(entry != null && entry.isExpired(System.nanoTime())) {
+            drop(key, entry);
+            entry = null;
+        }
+        if(entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        put(key, value, 0);
+    }
+
+    /**
+     * @param ttlMillis Time to live of the entry in milliseconds, 0 if it never expires.
+     */
+    public synchronized void put(K key, V value, long ttlMillis) {
+        if(ttlMillis < 0)
+            throw new IllegalArgumentException("ttl must not be negative, got " + ttlMillis);
+        long w = weigher.applyAsLong(value);
+        if(w < 0)
+            throw new IllegalArgumentException("Negative weight " + w);
+        Entry<V> old = map.remove(key);
+        if(old != null)
+            weight -= old.weight;
+        // A value heavier than the whole cache would evict everything else, don't keep it.
+        if(w > capacity) {
+            evictions++;
+            return;
+        }
+        long expiresAt = 0;
+        if(ttlMillis > 0)
+            expiresAt = (System.nanoTime() + ttlMillis * 1000000L) | 1;
+        map.put(key, new Entry<>(value, w, expiresAt));
+        weight += w;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Entry<V>> it = map.values().iterator();
+        while(weight > capacity && it.hasNext()) {
+            Entry<V> eldest = it.next();
+            it.remove();
+            weight -= eldest.weight;
+            evictions++;
+        }
+    }
+
+    private void drop(K key, Entry<V> entry) {
+        map.remove(key);
+        weight -= entry.weight;
+        evictions++;
+    }
+
+    /**
+     * The value for the key, computed and added if it is not in the cache. The computation
+     * runs outside the lock, concurrent misses of the same key might compute it more than once.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> compute) {
+        V ret = get(key);
+        if(ret == null) {
+            ret = compute.apply(key);
+            if(ret != null)
+                put(key, ret);
+        }
+        return ret;
+    }
+
+    public synchronized boolean containsKey(K key) {
+        Entry<V> entry = map.get(key);
+        return entry != null && !entry.isExpired(System.nanoTime());
+    }
+
+    public synchronized V remove(K key) {
+        Entry<V> entry = map.remove(key);
+        if(entry == null)
+            return null;
+        weight -= entry.weight;
+        return entry.value;
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * @return Max total weight, the max number of entries if there is no weigher.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Entries dropped to make room or because they expired.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
@@ -1,24 +1,30 @@
 package core;
 
 import bitcoin.BitcoindClient;
+import bitcoin.key.BetKeyChain;
 import bitcoin.key.BitcoinPrivateKey;
 import bitcoin.key.BitcoinPublicKey;
+import bitcoin.key.KeyPool;
+import bitcoin.key.KeyRing;
 import bitcoin.transaction.AbsoluteOutput;
 import bitcoin.transaction.ParseTransactionException;
 import bitcoin.transaction.Transaction;
 
 import java.io.IOException;
 import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import static bitcoin.ClientUtils.getUnspentOutputs;
 import static bitcoin.key.Utils.r160SHA256Hash;
 import static bitcoin.transaction.builder.TransactionBuilder.oracleInscription;
+import static java.util.stream.Collectors.toList;
 
 /**
  * Created by fmontoto on 3/4/17.
@@ -35,13 +41,9 @@ public class ParticipatingOracle extends Oracle {
         this.betPromise = betPromise;
 
         // Generate secrets.
-        SecureRandom random = new SecureRandom();
-        int size = MIN_SECRET_BYTES + random.nextInt(MAX_SECRET_BYTES - MIN_SECRET_BYTES);
-        playerAWins = new byte[size];
-        random.nextBytes(playerAWins);
-        size = MIN_SECRET_BYTES + random.nextInt(MAX_SECRET_BYTES - MIN_SECRET_BYTES);
-        playerBWins = new byte[size];
-        random.nextBytes(playerBWins);
+        KeyPool pool = KeyPool.getInstance();
+        playerAWins = pool.takeSecret(MIN_SECRET_BYTES, MAX_SECRET_BYTES);
+        playerBWins = pool.takeSecret(MIN_SECRET_BYTES, MAX_SECRET_BYTES);
 
         this.playerAWinsHash = r160SHA256Hash(playerAWins);
         this.playerBWinsHash = r160SHA256Hash(playerBWins);
@@ -55,22 +57,50 @@ public class ParticipatingOracle extends Oracle {
     public Transaction generateInscriptionTransaction(BitcoindClient client, Bet bet)
             throws ParseTransactionException, IOException, NoSuchAlgorithmException,
                    InvalidKeySpecException, SignatureException, InvalidKeyException {
-
         String account = client.getAccount(getAddress());
-        List<AbsoluteOutput> unspentOutputs = getUnspentOutputs(client, account);
+        return generateInscriptionTransaction(client, bet, getUnspentOutputs(client, account),
+                                              null);
+    }
+
+    /**
+     * @param unspentOutputs Outputs paying the inscription.
+     * @param keyChain If not null, the oracle key and the keys of the bet are derived from it
+     *                 and registered in the {@link KeyRing}, so the outputs paying to them are
+     *                 signed without asking bitcoind for the keys.
+     */
+    public Transaction generateInscriptionTransaction(BitcoindClient client, Bet bet,
+                                                      List<AbsoluteOutput> unspentOutputs,
+                                                      BetKeyChain keyChain)
+            throws IOException, NoSuchAlgorithmException, InvalidKeySpecException,
+                   SignatureException, InvalidKeyException {
+        KeyRing keyRing = KeyRing.getInstance();
+        if(keyChain != null)
+            keyChain.register(keyRing, bet.getHash(), BetKeyChain.KEYS_PER_BET);
         List<BitcoinPrivateKey> outputKeys = new LinkedList<>();
-        for(AbsoluteOutput ao : unspentOutputs) {
-            outputKeys.add(BitcoinPrivateKey.fromWIF(client.getPrivateKey(
-                    BitcoinPublicKey.txAddressToWIF(ao.getPayAddress(), client.isTestnet()))));
-        }
+        List<String> outputAddresses = BitcoinPublicKey.hexTxAddressesToWIF(
+                unspentOutputs.stream().map(AbsoluteOutput::getPayAddress).collect(toList()),
+                client.isTestnet());
+        for(String address : outputAddresses)
+            outputKeys.add(keyRing.getOrLoad(address, client));
 
-        BitcoinPublicKey pubKey = BitcoinPrivateKey.fromWIF(
-                client.getPrivateKey(getAddress())).getPublicKey();
+        BitcoinPublicKey pubKey = keyRing.getOrLoad(getAddress(), client).getPublicKey();
         List<byte[]> expectedAnswersHashes = new LinkedList<>();
         expectedAnswersHashes.add(getPlayerAWinsHash());
         expectedAnswersHashes.add(getPlayerBWinsHash());
-        return oracleInscription(
+        Transaction inscription = oracleInscription(
                 unspentOutputs, outputKeys, pubKey, expectedAnswersHashes, bet, betPromise);
+
+        // Only the oracle inputs are signed, the bet promise one waits for the players.
+        Map<Integer, AbsoluteOutput> signedInputs = new HashMap<>();
+        for(int i = 0; i < unspentOutputs.size(); i++)
+            signedInputs.put(i, unspentOutputs.get(i));
+        try {
+            client.verifyInputsLocally(inscription, signedInputs);
+        } catch (BitcoindClient.BitcoindClientException e) {
+            throw new InvalidParameterException(
+                    "The signed inscription does not verify: " + e.getMessage());
+        }
+        return inscription;
     }
 
     public byte[] getPlayerAWins() {
@@ -1,7 +1,10 @@
 package core;
 
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
+import java.util.Arrays;
 
 /**
  * Created by fmontoto on 09-11-16.
@@ -9,38 +12,236 @@ import java.security.InvalidParameterException;
 public class Utils {
 
     static private final String alphabet = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+    static private final char[] B58_DIGITS = alphabet.toCharArray();
+    // Value of each ascii base 58 digit, -1 for the other characters.
+    static private final byte[] B58_VALUES = new byte[128];
+    static {
+        Arrays.fill(B58_VALUES, (byte) -1);
+        for(int i = 0; i < B58_DIGITS.length; i++)
+            B58_VALUES[B58_DIGITS[i]] = (byte) i;
+    }
 
-    private static int digit(char c, int radix) throws InvalidParameterException {
-        int ret = Character.digit(c, radix);
-        if (ret == -1)
-            throw new InvalidParameterException("Not an hex digit:" + c);
-        return ret;
+    static private final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    // Value of each ascii hex digit, -1 for the other characters.
+    static private final byte[] HEX_VALUES = new byte[128];
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for(int i = 0; i < 16; i++) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toLowerCase(HEX_DIGITS[i])] = (byte) i;
+        }
+    }
+
+    /**
+     * @return Value of the hex digit, -1 if c is not an hex digit.
+     */
+    public static int hexDigitValue(int c) {
+        return (c & ~0x7F) == 0 ? HEX_VALUES[c] : -1;
+    }
+
+    // Byte encoded by the two hex digits. Invalid digits are -1 in the table, so any of them
+    // makes the result negative.
+    private static byte hexByte(char high, char low) throws InvalidParameterException {
+        int ret = ((high | low) & ~0x7F) == 0 ? (HEX_VALUES[high] << 4) | HEX_VALUES[low] : -1;
+        if (ret < 0)
+            throw new InvalidParameterException(
+                    "Not an hex digit:" + (hexDigitValue(high) < 0 ? high : low));
+        return (byte) ret;
     }
 
-    public static byte[] hexToByteArray(String s) throws InvalidParameterException {
-        int len = s.length();
+    private static int checkHexLength(int len) throws InvalidParameterException {
         if (len % 2 != 0)
             throw new InvalidParameterException("String must be an even number of characters");
-        byte[] data = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((digit(s.charAt(i), 16) << 4)
-                    + digit(s.charAt(i + 1), 16));
+        return len / 2;
+    }
+
+    /**
+     * Decode the hex characters in [from, to) into dst starting at offset.
+     * @return Number of bytes written.
+     */
+    public static int hexToByteArray(CharSequence s, int from, int to, byte[] dst, int offset)
+            throws InvalidParameterException {
+        int len = checkHexLength(to - from);
+        for (int i = 0; i < len; i++) {
+            dst[offset + i] = hexByte(s.charAt(from + 2 * i), s.charAt(from + 2 * i + 1));
+        }
+        return len;
+    }
+
+    public static int hexToByteArray(char[] s, int from, int to, byte[] dst, int offset)
+            throws InvalidParameterException {
+        int len = checkHexLength(to - from);
+        for (int i = 0; i < len; i++) {
+            dst[offset + i] = hexByte(s[from + 2 * i], s[from + 2 * i + 1]);
         }
+        return len;
+    }
+
+    /**
+     * Decode the ascii hex characters in s[from, to) into dst starting at offset.
+     * @return Number of bytes written.
+     */
+    public static int hexToByteArray(byte[] s, int from, int to, byte[] dst, int offset)
+            throws InvalidParameterException {
+        int len = checkHexLength(to - from);
+        for (int i = 0; i < len; i++) {
+            dst[offset + i] = hexByte((char) (s[from + 2 * i] & 0xFF),
+                                      (char) (s[from + 2 * i + 1] & 0xFF));
+        }
+        return len;
+    }
+
+    /**
+     * Decode the hex string at the current position of dst, the position is moved after the
+     * written bytes.
+     */
+    public static void hexToByteBuffer(CharSequence s, ByteBuffer dst)
+            throws InvalidParameterException {
+        int len = checkHexLength(s.length());
+        // Checked up front, the array path would write past the limit and the other one would
+        // fail halfway.
+        if (dst.remaining() < len)
+            throw new BufferOverflowException();
+        if (dst.hasArray()) {
+            hexToByteArray(s, 0, s.length(), dst.array(), dst.arrayOffset() + dst.position());
+            dst.position(dst.position() + len);
+            return;
+        }
+        for (int i = 0; i < len; i++)
+            dst.put(hexByte(s.charAt(2 * i), s.charAt(2 * i + 1)));
+    }
+
+    public static byte[] hexToByteArray(CharSequence s) throws InvalidParameterException {
+        byte[] data = new byte[checkHexLength(s.length())];
+        hexToByteArray(s, 0, s.length(), data, 0);
         return data;
     }
 
-    public static String byteArrayToHex(byte[] bytes, int from, int to) {
-        StringBuilder sb = new StringBuilder();
+    public static byte[] hexToByteArray(char[] s) throws InvalidParameterException {
+        byte[] data = new byte[checkHexLength(s.length)];
+        hexToByteArray(s, 0, s.length, data, 0);
+        return data;
+    }
+
+    /**
+     * Write the upper case hex representation of bytes[from, to) into dst starting at offset.
+     */
+    public static void byteArrayToHex(byte[] bytes, int from, int to, char[] dst, int offset) {
         for(int i = from; i < to; i++) {
-            sb.append(String.format("%02X", bytes[i]));
+            dst[offset++] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+            dst[offset++] = HEX_DIGITS[bytes[i] & 0x0F];
         }
-        return sb.toString();
+    }
+
+    public static String byteArrayToHex(byte[] bytes, int from, int to) {
+        char[] hex = new char[2 * (to - from)];
+        byteArrayToHex(bytes, from, to, hex, 0);
+        return new String(hex);
     }
 
     public static String byteArrayToHex(byte[] bytes) {
         return byteArrayToHex(bytes, 0, bytes.length);
     }
 
+    /**
+     * @return Hex representation of the remaining bytes of the buffer, its position is not
+     *         modified.
+     */
+    public static String byteBufferToHex(ByteBuffer buffer) {
+        char[] hex = new char[2 * buffer.remaining()];
+        for(int i = 0; i < buffer.remaining(); i++) {
+            byte b = buffer.get(buffer.position() + i);
+            hex[2 * i] = HEX_DIGITS[(b >> 4) & 0x0F];
+            hex[2 * i + 1] = HEX_DIGITS[b & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * @return Maximum number of base 58 digits needed to encode length bytes.
+     */
+    public static int b58EncodedLength(int length) {
+        // log(256) / log(58) < 1.37
+        return length * 137 / 100 + 1;
+    }
+
+    /**
+     * Base 58 encoding of bytes[from, to), every leading zero byte is encoded as a '1'.
+     * @param work Scratch space of at least to - from bytes, it is overwritten.
+     * @param out Scratch space of at least b58EncodedLength(to - from) chars.
+     */
+    public static String byteArrayToB58(byte[] bytes, int from, int to, byte[] work, char[] out) {
+        int length = to - from;
+        System.arraycopy(bytes, from, work, 0, length);
+        int zeros = 0;
+        while(zeros < length && work[zeros] == 0)
+            zeros++;
+        int pos = out.length;
+        // Long division of the number by 58, the remainder is the next digit (from the right).
+        for(int start = zeros; start < length;) {
+            int remainder = 0;
+            for(int i = start; i < length; i++) {
+                int tmp = (remainder << 8) | (work[i] & 0xFF);
+                work[i] = (byte) (tmp / 58);
+                remainder = tmp % 58;
+            }
+            out[--pos] = B58_DIGITS[remainder];
+            while(start < length && work[start] == 0)
+                start++;
+        }
+        for(int i = 0; i < zeros; i++)
+            out[--pos] = B58_DIGITS[0];
+        return new String(out, pos, out.length - pos);
+    }
+
+    public static String byteArrayToB58(byte[] bytes) {
+        return byteArrayToB58(bytes, 0, bytes.length, new byte[bytes.length],
+                              new char[b58EncodedLength(bytes.length)]);
+    }
+
+    /**
+     * Decode a base 58 string, every leading '1' is decoded as a zero byte.
+     * @param work Scratch space of at least s.length() bytes, it is overwritten.
+     * @param out At least s.length() bytes.
+     * @return Number of bytes decoded, they are the last ones of out.
+     */
+    public static int b58ToByteArray(CharSequence s, byte[] work, byte[] out)
+            throws InvalidParameterException {
+        int length = s.length();
+        for(int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            int digit = (c & ~0x7F) == 0 ? B58_VALUES[c] : -1;
+            if(digit < 0)
+                throw new InvalidParameterException("Not a base 58 digit:" + c);
+            work[i] = (byte) digit;
+        }
+        int zeros = 0;
+        while(zeros < length && work[zeros] == 0)
+            zeros++;
+        int pos = out.length;
+        // Long division of the number by 256, the remainder is the next byte (from the right).
+        for(int start = zeros; start < length;) {
+            int remainder = 0;
+            for(int i = start; i < length; i++) {
+                int tmp = remainder * 58 + work[i];
+                work[i] = (byte) (tmp >> 8);
+                remainder = tmp & 0xFF;
+            }
+            out[--pos] = (byte) remainder;
+            while(start < length && work[start] == 0)
+                start++;
+        }
+        for(int i = 0; i < zeros; i++)
+            out[--pos] = 0;
+        return out.length - pos;
+    }
+
+    public static byte[] b58ToByteArray(CharSequence s) throws InvalidParameterException {
+        byte[] out = new byte[s.length()];
+        int decoded = b58ToByteArray(s, new byte[s.length()], out);
+        return Arrays.copyOfRange(out, out.length - decoded, out.length);
+    }
+
     public static String encodeB58(BigInteger value) {
         BigInteger divisor = BigInteger.valueOf(58);
         StringBuilder sb = new StringBuilder();
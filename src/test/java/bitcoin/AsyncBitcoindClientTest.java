@@ -0,0 +1,204 @@
+package bitcoin;
+
+import bitcoin.transaction.ParseTransactionException;
+import bitcoin.transaction.Transaction;
+import core.LruCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import wf.bitcoin.javabitcoindrpcclient.BitcoinRpcException;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 14-05-17.
+ */
+public class AsyncBitcoindClientTest {
+    static private final String TX_ID =
+            "0ba1b5c9a2eddd4ac3a1b6a7e8d4f1e5bc4d8b2c5b0a1e4e7c1fa4a5d0d3b7c9";
+    static private final String TX_HEX = "010000000128c0eff6d775c632bfb2c1394e640024f68ec5d2dec583f0439b2cb9fc29a503010000006a473044022050aede226dd257ba1f61b7417513cd22169d15a55c0bb2f34d49d9c5496a73d60220517abdb4c6627144c05f5b43d61f93b9ac1c27219e31419638483b54105eeb0c0121033973aecf7992fa84486dc2422b592eb0479933a39abd7af94af6c68bafb3681fffffffff0200000000000000002a6a28444f4350524f4f46ebb8f3b9828e2dc82b180958e0f1e6f8ecbc2f948d2ee16740ad2f0e0c6874f3107a0700000000001976a91460e533e1aae7fe238cda3683619fc5d22d85716c88ac00000000";
+
+    private RpcStub stub;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new RpcStub();
+        stub.on("getblockcount", Collections.emptyList(), 1234L);
+        stub.onTransaction(TX_ID, TX_HEX, true);
+        stub.onTransaction("beef", "not a transaction", true);
+    }
+
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    public void pipeliningTest() throws Exception {
+        stub.setDelay(200);
+        try(AsyncBitcoindClient client = new AsyncBitcoindClient(stub.getUrl(), 100, 1)) {
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for(int i = 0; i < 50; i++)
+                futures.add(client.getBlockCount());
+            for(CompletableFuture<Integer> f : futures)
+                assertEquals(1234, (int) f.get());
+            // The first call leaves alone, the rest wait for it and leave together.
+            assertEquals(50, stub.getCalls());
+            assertEquals(2, stub.getPosts());
+        }
+    }
+
+    @Test
+    public void windowTest() throws Exception {
+        stub.setDelay(50);
+        try(AsyncBitcoindClient client = new AsyncBitcoindClient(stub.getUrl(), 1, 2)) {
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for(int i = 0; i < 10; i++)
+                futures.add(client.getBlockCount());
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+            assertEquals(10, stub.getPosts());
+            assertTrue(stub.getMaxConcurrent() <= 2);
+        }
+    }
+
+    static private Throwable failure(CompletableFuture<?> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            return e.getCause();
+        }
+        fail("Expected a failure");
+        return null;
+    }
+
+    @Test
+    public void errorsTest() throws Exception {
+        stub.setDelay(100);
+        try(AsyncBitcoindClient client = new AsyncBitcoindClient(stub.getUrl())) {
+            CompletableFuture<Transaction> known = client.getTransaction(TX_ID);
+            CompletableFuture<Transaction> unknown = client.getTransaction("dead");
+            CompletableFuture<Transaction> invalid = client.getTransaction("beef");
+            assertEquals(TX_HEX, known.get().hexlify().toLowerCase());
+            assertTrue(failure(unknown) instanceof BitcoinRpcException);
+            assertTrue(failure(invalid) instanceof ParseTransactionException);
+        }
+
+        BitcoindClient client = new BitcoindClient(stub.getUrl(), false);
+        assertEquals(1234, client.getBlockCount());
+        assertEquals(TX_HEX, client.getTransaction(TX_ID).hexlify().toLowerCase());
+        try {
+            client.getTransaction("dead");
+            fail("Unknown transaction");
+        } catch (BitcoinRpcException e) {
+            // Expected.
+        }
+        try {
+            client.getTransaction("beef");
+            fail("Invalid transaction");
+        } catch (ParseTransactionException e) {
+            assertEquals("beef", e.getTxId());
+        }
+    }
+
+    @Test
+    public void transactionCacheTest() throws Exception {
+        String mempoolTx = "1ba1b5c9a2eddd4ac3a1b6a7e8d4f1e5bc4d8b2c5b0a1e4e7c1fa4a5d0d3b7c9";
+        stub.onTransaction(mempoolTx, TX_HEX, false);
+        try(AsyncBitcoindClient client = new AsyncBitcoindClient(stub.getUrl(), 10, 1,
+                                                                  1024 * 1024, 100)) {
+            LruCache<String, byte[]> cache = client.getTransactionCache();
+            Transaction first = client.getTransaction(TX_ID).get();
+            Transaction second = client.getTransaction(TX_ID.toUpperCase()).get();
+            assertEquals(1, stub.getCalls());
+            assertNotSame(first, second);
+            assertEquals(first.hexlify(), second.hexlify());
+            // Modifying a transaction doesn't change the cached one.
+            first.getOutputs().clear();
+            assertEquals(TX_HEX, client.getTransaction(TX_ID).get().hexlify().toLowerCase());
+            assertEquals(2, cache.getHits());
+
+            client.getTransaction(mempoolTx).get();
+            client.getTransaction(mempoolTx).get();
+            assertEquals(2, stub.getCalls());
+            Thread.sleep(150);
+            client.getTransaction(mempoolTx).get();
+            assertEquals(3, stub.getCalls());
+            client.getTransaction(TX_ID).get();
+            assertEquals(3, stub.getCalls());
+            assertEquals(2, cache.size());
+            assertEquals(2 * (TX_HEX.length() / 2 + 256), cache.getWeight());
+            assertEquals(1, cache.getEvictions());
+        }
+
+        // A cache too small for a single transaction.
+        try(AsyncBitcoindClient client = new AsyncBitcoindClient(stub.getUrl(), 10, 1, 64, 100)) {
+            client.getTransaction(TX_ID).get();
+            client.getTransaction(TX_ID).get();
+            assertEquals(5, stub.getCalls());
+            assertEquals(0, client.getTransactionCache().size());
+        }
+    }
+
+    @Test
+    public void blockTransactionsTest() throws Exception {
+        // Only known through the non verbose call.
+        String otherTx = "1ba1b5c9a2eddd4ac3a1b6a7e8d4f1e5bc4d8b2c5b0a1e4e7c1fa4a5d0d3b7c9";
+        stub.on("getrawtransaction", Arrays.asList(otherTx, 0L), TX_HEX);
+        Block block = new Block("hash", Arrays.asList(TX_ID, otherTx), null, 1, new Date());
+        try(AsyncBitcoindClient client = new AsyncBitcoindClient(stub.getUrl())) {
+            Map<String, Transaction> txs = client.getBlockTransactions(block).get();
+            assertEquals(Arrays.asList(TX_ID, otherTx), new ArrayList<>(txs.keySet()));
+            assertEquals(TX_HEX, txs.get(otherTx).hexlify().toLowerCase());
+            assertEquals(2, stub.getCalls());
+            // A scan doesn't fill the cache, but uses it.
+            assertEquals(0, client.getTransactionCache().size());
+            client.getTransaction(TX_ID).get();
+            assertEquals(1, client.getTransactionCache().size());
+            assertEquals(2, client.getBlockTransactions(block).get().size());
+            assertEquals(4, stub.getCalls());
+            assertEquals(1, client.getTransactionCache().size());
+        }
+    }
+
+    @Test
+    public void transactionStoreTest() throws Exception {
+        String mempoolTx = "1ba1b5c9a2eddd4ac3a1b6a7e8d4f1e5bc4d8b2c5b0a1e4e7c1fa4a5d0d3b7c9";
+        stub.onTransaction(mempoolTx, TX_HEX, false);
+        Path dir = folder.getRoot().toPath();
+        try(AsyncBitcoindClient client = new AsyncBitcoindClient(stub.getUrl());
+            TransactionStore store = new TransactionStore(dir, 1 << 20)) {
+            client.setTransactionStore(store);
+            client.getTransaction(TX_ID).get();
+            client.getTransaction(mempoolTx).get();
+            assertTrue(store.contains(TX_ID));
+            assertFalse(store.contains(mempoolTx));
+        }
+        // A new process, only the store is warm.
+        try(AsyncBitcoindClient client = new AsyncBitcoindClient(stub.getUrl());
+            TransactionStore store = new TransactionStore(dir, 1 << 20)) {
+            client.setTransactionStore(store);
+            assertEquals(TX_HEX, client.getTransaction(TX_ID).get().hexlify().toLowerCase());
+            assertEquals(2, stub.getCalls());
+        }
+    }
+
+    @Test
+    public void unreachableTest() throws Exception {
+        AsyncBitcoindClient client = new AsyncBitcoindClient(stub.getUrl());
+        stub.close();
+        assertTrue(failure(client.getBlockCount()) instanceof UncheckedIOException);
+        client.close();
+        assertTrue(failure(client.getBlockCount()) instanceof IllegalStateException);
+    }
+}
@@ -0,0 +1,104 @@
+package bitcoin;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static core.Utils.byteArrayToHex;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 08-05-17.
+ */
+public class HashesTest {
+
+    @Test
+    public void knownValuesTest() {
+        byte[] abc = "abc".getBytes();
+        assertEquals("BA7816BF8F01CFEA414140DE5DAE2223B00361A396177A9CB410FF61F20015AD",
+                     byteArrayToHex(Hashes.sha256(abc)));
+        assertEquals("8EB208F7E05D987A9B044A8E98C6B087F15A0BFC",
+                     byteArrayToHex(Hashes.ripemd160(abc)));
+        assertEquals("4F8B42C22DD3729B519BA6F68D2DA7CC5B2D606D05DAED5AD5128CC03E6C6358",
+                     byteArrayToHex(Hashes.doubleSHA256(abc)));
+    }
+
+    @Test
+    public void sameAsBitcoinjTest() {
+        Random random = new Random(5);
+        for(int size : new int[] {0, 1, 33, 64, 300, 2000}) {
+            byte[] val = new byte[size];
+            random.nextBytes(val);
+            assertArrayEquals(Utils.sha256hash160(val), Hashes.hash160(val));
+            assertArrayEquals(Sha256Hash.hashTwice(val), Hashes.doubleSHA256(val));
+            assertArrayEquals(Sha256Hash.hash(val), Hashes.sha256(val));
+        }
+    }
+
+    @Test
+    public void overloadsTest() {
+        byte[] val = new byte[100];
+        new Random(6).nextBytes(val);
+        byte[] slice = Arrays.copyOfRange(val, 10, 60);
+
+        assertArrayEquals(Hashes.hash160(slice), Hashes.hash160(val, 10, 50));
+        assertArrayEquals(Hashes.doubleSHA256(slice), Hashes.doubleSHA256(val, 10, 50));
+        assertArrayEquals(Hashes.sha256(slice), Hashes.sha256(val, 10, 50));
+        assertArrayEquals(Hashes.ripemd160(slice), Hashes.ripemd160(val, 10, 50));
+
+        ByteBuffer buffer = ByteBuffer.wrap(val, 10, 50);
+        assertArrayEquals(Hashes.doubleSHA256(slice), Hashes.doubleSHA256(buffer));
+        assertFalse(buffer.hasRemaining());
+        assertArrayEquals(Hashes.hash160(slice), Hashes.hash160(ByteBuffer.wrap(val, 10, 50)));
+        ByteBuffer direct = ByteBuffer.allocateDirect(50);
+        direct.put(slice);
+        direct.flip();
+        assertArrayEquals(Hashes.sha256(slice), Hashes.sha256(direct));
+
+        byte[] out = new byte[40];
+        Hashes.doubleSHA256(val, 10, 50, out, 8);
+        assertArrayEquals(Hashes.doubleSHA256(slice), Arrays.copyOfRange(out, 8, 40));
+        Hashes.hash160(val, 10, 50, out, 1);
+        assertArrayEquals(Hashes.hash160(slice), Arrays.copyOfRange(out, 1, 21));
+        try {
+            Hashes.sha256(val, 0, 10, out, 20);
+            fail("Not enough room.");
+        } catch (IndexOutOfBoundsException e) {
+            // The digest must be usable after the failure.
+            assertArrayEquals(Hashes.sha256(slice), Hashes.sha256(val, 10, 50));
+        }
+    }
+
+    @Test
+    public void threadsTest() throws Exception {
+        List<byte[]> values = new ArrayList<>();
+        Random random = new Random(7);
+        for(int i = 0; i < 64; i++) {
+            byte[] val = new byte[random.nextInt(500)];
+            random.nextBytes(val);
+            values.add(val);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for(int i = 0; i < 200; i++) {
+                byte[] val = values.get(i % values.size());
+                futures.add(executor.submit(() -> Arrays.equals(
+                        Utils.sha256hash160(val), Hashes.hash160(val))));
+            }
+            for(Future<Boolean> future : futures)
+                assertTrue(future.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
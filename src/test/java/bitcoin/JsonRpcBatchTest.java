@@ -0,0 +1,122 @@
+package bitcoin;
+
+import bitcoin.transaction.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.InvalidParameterException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 13-05-17.
+ */
+public class JsonRpcBatchTest {
+    static private final String TX_ID =
+            "0ba1b5c9a2eddd4ac3a1b6a7e8d4f1e5bc4d8b2c5b0a1e4e7c1fa4a5d0d3b7c9";
+    static private final String TX_HEX = "010000000128c0eff6d775c632bfb2c1394e640024f68ec5d2dec583f0439b2cb9fc29a503010000006a473044022050aede226dd257ba1f61b7417513cd22169d15a55c0bb2f34d49d9c5496a73d60220517abdb4c6627144c05f5b43d61f93b9ac1c27219e31419638483b54105eeb0c0121033973aecf7992fa84486dc2422b592eb0479933a39abd7af94af6c68bafb3681fffffffff0200000000000000002a6a28444f4350524f4f46ebb8f3b9828e2dc82b180958e0f1e6f8ecbc2f948d2ee16740ad2f0e0c6874f3107a0700000000001976a91460e533e1aae7fe238cda3683619fc5d22d85716c88ac00000000";
+
+    private RpcStub stub;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new RpcStub();
+    }
+
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    public void batchTest() throws Exception {
+        stub.on("echo", Collections.singletonList(1L), "one");
+        stub.on("echo", Collections.singletonList(2L), "two");
+        JsonRpcBatch batch = new JsonRpcBatch(stub.getUrl(), 2);
+
+        List<JsonRpcBatch.Response> responses = batch.call(Arrays.asList(
+                new JsonRpcBatch.Request("echo", 1), new JsonRpcBatch.Request("echo", 3),
+                new JsonRpcBatch.Request("echo", 2), new JsonRpcBatch.Request("echo", 1),
+                new JsonRpcBatch.Request("echo", 2)));
+        assertEquals(3, stub.getPosts());
+        assertEquals(5, stub.getCalls());
+        assertEquals(5, responses.size());
+        assertEquals("one", responses.get(0).getResult());
+        assertTrue(responses.get(1).isError());
+        assertTrue(responses.get(1).getError().startsWith("-5"));
+        assertEquals("two", responses.get(2).getResult());
+        assertEquals("one", responses.get(3).getResult());
+        assertEquals("two", responses.get(4).getResult());
+        assertTrue(batch.call(Collections.emptyList()).isEmpty());
+        assertEquals(3, stub.getPosts());
+    }
+
+    @Test
+    public void getTransactionsTest() throws Exception {
+        stub.onTransaction(TX_ID, TX_HEX, true);
+        stub.onTransaction("beef", "not a transaction", true);
+        BitcoindClient client = new BitcoindClient(stub.getUrl(), false);
+
+        Map<String, Transaction> txs = client.getTransactions(
+                Arrays.asList("dead", TX_ID, "beef", TX_ID));
+        // The three of them in a single request.
+        assertEquals(1, stub.getPosts());
+        assertEquals(3, stub.getCalls());
+        assertEquals(Collections.singleton(TX_ID), txs.keySet());
+        assertEquals(TX_HEX, txs.get(TX_ID).hexlify().toLowerCase());
+    }
+
+    static private Map<String, Object> block(int height, String... txs) {
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("hash", "hash" + height);
+        ret.put("height", (long) height);
+        ret.put("time", 1494633600L + height);
+        ret.put("tx", Arrays.asList(txs));
+        ret.put("nextblockhash", "hash" + (height + 1));
+        return ret;
+    }
+
+    @Test
+    public void getBlocksTest() throws Exception {
+        for(int height = 10; height < 15; height++) {
+            stub.on("getblockhash", Collections.singletonList((long) height), "hash" + height);
+            if(height != 12)
+                stub.on("getblock", Collections.singletonList("hash" + height),
+                        block(height, "tx" + height, TX_ID));
+        }
+        BitcoindClient client = new BitcoindClient(stub.getUrl(), false);
+        client.setBatchSize(3);
+
+        List<Block> blocks = client.getBlocks(10, 15);
+        // 6 getblockhash in 2 batches and 5 getblock in 2 batches.
+        assertEquals(4, stub.getPosts());
+        assertEquals(11, stub.getCalls());
+        assertEquals(4, blocks.size());
+        int[] heights = {10, 11, 13, 14};
+        for(int i = 0; i < heights.length; i++) {
+            Block block = blocks.get(i);
+            assertEquals(heights[i], block.getHeight());
+            assertEquals("hash" + heights[i], block.getHash());
+            assertEquals("hash" + (heights[i] + 1), block.getNextHash());
+            assertEquals(Arrays.asList("tx" + heights[i], TX_ID), block.getTxs());
+        }
+    }
+
+    @Test
+    public void compileOracleListMissingBlockTest() throws Exception {
+        for(int height = 10; height <= 12; height++) {
+            stub.on("getblockhash", Collections.singletonList((long) height), "hash" + height);
+            if(height != 11)
+                stub.on("getblock", Collections.singletonList("hash" + height), block(height));
+        }
+        BitcoindClient client = new BitcoindClient(stub.getUrl(), false);
+        try {
+            Utils.compileOracleList(client, "hash10", "hash12");
+            fail("The block 11 is missing");
+        } catch (InvalidParameterException e) {
+            assertTrue(e.getMessage().contains("10 to 12"));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package bitcoin;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static core.Utils.hexToByteArray;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 15-05-17.
+ */
+public class TransactionStoreTest {
+    static private final String TX_HEX = "010000000128c0eff6d775c632bfb2c1394e640024f68ec5d2dec583f0439b2cb9fc29a503010000006a473044022050aede226dd257ba1f61b7417513cd22169d15a55c0bb2f34d49d9c5496a73d60220517abdb4c6627144c05f5b43d61f93b9ac1c27219e31419638483b54105eeb0c0121033973aecf7992fa84486dc2422b592eb0479933a39abd7af94af6c68bafb3681fffffffff0200000000000000002a6a28444f4350524f4f46ebb8f3b9828e2dc82b180958e0f1e6f8ecbc2f948d2ee16740ad2f0e0c6874f3107a0700000000001976a91460e533e1aae7fe238cda3683619fc5d22d85716c88ac00000000";
+    static private final byte[] RAW = hexToByteArray(TX_HEX);
+    // Header plus transaction.
+    static private final int RECORD = 41 + RAW.length;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static private String txid(int i) {
+        return String.format("ab%062x", i);
+    }
+
+    static private byte[] bytes(ByteBuffer buffer) {
+        byte[] ret = new byte[buffer.remaining()];
+        buffer.duplicate().get(ret);
+        return ret;
+    }
+
+    @Test
+    public void putGetTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        try(TransactionStore store = new TransactionStore(dir, 1 << 20)) {
+            assertNull(store.get(txid(1)));
+            store.put(txid(1), RAW);
+            store.put(txid(2).toUpperCase(), RAW);
+            assertArrayEquals(RAW, bytes(store.get(txid(1))));
+            assertTrue(store.get(txid(1)).isReadOnly());
+            assertEquals(TX_HEX, store.getTransaction(txid(2)).hexlify().toLowerCase());
+            assertEquals(2, store.size());
+            assertEquals(2 * RECORD, store.getDiskBytes());
+        }
+        try(TransactionStore store = new TransactionStore(dir, 1 << 20)) {
+            try {
+                new TransactionStore(dir, 1 << 20);
+                fail("The directory is in use");
+            } catch (IOException e) {}
+            assertEquals(2, store.size());
+            assertArrayEquals(RAW, bytes(store.get(txid(2))));
+            assertTrue(store.remove(txid(2)));
+            assertFalse(store.remove(txid(2)));
+        }
+        try(TransactionStore store = new TransactionStore(dir, 1 << 20)) {
+            assertEquals(1, store.size());
+            assertFalse(store.contains(txid(2)));
+            assertEquals(RECORD + 41, store.getDeadBytes());
+        }
+    }
+
+    @Test
+    public void tornAppendTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        try(TransactionStore store = new TransactionStore(dir, 1 << 20)) {
+            store.put(txid(1), RAW);
+            store.put(txid(2), RAW);
+        }
+        Path segment = dir.resolve("00000000.txs");
+        // A crash in the middle of the second append.
+        try(RandomAccessFile f = new RandomAccessFile(segment.toFile(), "rw")) {
+            f.setLength(2 * RECORD - 10);
+        }
+        try(TransactionStore store = new TransactionStore(dir, 1 << 20)) {
+            assertTrue(store.contains(txid(1)));
+            assertFalse(store.contains(txid(2)));
+            assertEquals(RECORD, Files.size(segment));
+            store.put(txid(3), RAW);
+        }
+        // A corrupted record.
+        try(RandomAccessFile f = new RandomAccessFile(segment.toFile(), "rw")) {
+            f.seek(RECORD + 50);
+            f.write(0xFF ^ RAW[9]);
+        }
+        try(TransactionStore store = new TransactionStore(dir, 1 << 20)) {
+            assertEquals(1, store.size());
+            assertArrayEquals(RAW, bytes(store.get(txid(1))));
+        }
+    }
+
+    @Test
+    public void compactTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        try(TransactionStore store = new TransactionStore(dir, 100 * RECORD, 2 * RECORD)) {
+            for(int i = 0; i < 6; i++)
+                store.put(txid(i), RAW);
+            store.put(txid(0), RAW);
+            store.remove(txid(1));
+            store.remove(txid(2));
+            assertEquals(4, store.size());
+            assertEquals(3 * RECORD + 2 * 41, store.getDeadBytes());
+            store.compact();
+            assertEquals(0, store.getDeadBytes());
+            assertEquals(4 * RECORD, store.getDiskBytes());
+        }
+        try(TransactionStore store = new TransactionStore(dir, 100 * RECORD, 2 * RECORD)) {
+            assertEquals(4, store.size());
+            assertEquals(0, store.getDeadBytes());
+            for(int i : new int[] {0, 3, 4, 5})
+                assertArrayEquals(RAW, bytes(store.get(txid(i))));
+        }
+    }
+
+    @Test
+    public void maxBytesTest() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        try(TransactionStore store = new TransactionStore(dir, 6 * RECORD, 2 * RECORD)) {
+            for(int i = 0; i < 20; i++) {
+                store.put(txid(i), RAW);
+                assertTrue(store.getDiskBytes() <= 6 * RECORD);
+            }
+            assertTrue(store.contains(txid(19)));
+            assertFalse(store.contains(txid(0)));
+            assertTrue(store.size() >= 5);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package bitcoin;
+
+import bitcoin.transaction.AbsoluteOutput;
+import bitcoin.transaction.Input;
+import bitcoin.transaction.Output;
+import bitcoin.transaction.Transaction;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.security.InvalidParameterException;
+import java.util.*;
+
+import static core.Utils.hexToByteArray;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 16-05-17.
+ */
+public class UtxoSetTest {
+    static private final String ADDRESS_A = "60E533E1AAE7FE238CDA3683619FC5D22D85716C";
+    static private final String ADDRESS_B = "0102030405060708090A0B0C0D0E0F1011121314";
+    static private final String OTHER = "FFEEDDCCBBAA99887766554433221100FFEEDDCC";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static private String txid(int i) {
+        return String.format("ab%062x", i);
+    }
+
+    static private Output payTo(String address, long value) {
+        return new Output(value, hexToByteArray("76a914" + address + "88ac"));
+    }
+
+    static private Transaction transaction(List<AbsoluteOutput> spent, Output... outputs) {
+        Transaction tx = new Transaction();
+        // Coinbase like input, a transaction without inputs would look like a segwit one.
+        if(spent.isEmpty())
+            tx.appendInput(new Input(-1, new byte[32], new byte[] {0x51}));
+        for(AbsoluteOutput ao : spent)
+            tx.appendInput(new Input(ao, new byte[0]));
+        for(Output o : outputs)
+            tx.appendOutput(o);
+        return tx;
+    }
+
+    @Test
+    public void growAndRemoveTest() {
+        UtxoSet set = new UtxoSet();
+        Output output = payTo(ADDRESS_A, 1);
+        for(int i = 0; i < 5000; i++)
+            set.add(txid(i / 3), i % 3, output, i);
+        assertEquals(5000, set.size());
+        for(int i = 0; i < 5000; i += 2)
+            assertTrue(set.spend(txid(i / 3), i % 3));
+        assertFalse(set.spend(txid(0), 0));
+        assertEquals(2500, set.size());
+        for(int i = 0; i < 5000; i++) {
+            assertEquals(i % 2 == 1, set.contains(txid(i / 3), i % 3));
+            if(i % 2 == 1)
+                assertEquals(i, set.getHeight(txid(i / 3), i % 3));
+        }
+        assertEquals(2500, set.getByAddress(ADDRESS_A).size());
+        assertEquals(2500, set.getAll().size());
+    }
+
+    @Test
+    public void reuseEntriesTest() {
+        // Spending and adding outputs reuses the entries and compacts the scripts, the indexes
+        // must follow.
+        UtxoSet set = new UtxoSet();
+        Map<String, Output> expected = new HashMap<>();
+        Random random = new Random(7);
+        for(int i = 0; i < 20000; i++) {
+            String txid = txid(random.nextInt(300));
+            int vout = random.nextInt(4);
+            String key = txid + ":" + vout;
+            if(expected.containsKey(key)) {
+                assertTrue(set.spend(txid, vout));
+                expected.remove(key);
+                continue;
+            }
+            Output output = random.nextBoolean()
+                    ? payTo(random.nextBoolean() ? ADDRESS_A : ADDRESS_B, random.nextInt(1000))
+                    : new Output(random.nextInt(1000), new byte[random.nextInt(60)]);
+            set.add(txid, vout, output, i);
+            expected.put(key, output);
+        }
+        assertEquals(expected.size(), set.size());
+        long balanceA = 0;
+        for(Map.Entry<String, Output> e : expected.entrySet()) {
+            String[] outpoint = e.getKey().split(":");
+            AbsoluteOutput o = set.get(outpoint[0], Integer.parseInt(outpoint[1]));
+            assertEquals(e.getValue().getValue(), o.getValue());
+            assertArrayEquals(e.getValue().getScript(), o.getScript());
+            if(o.isPayToKey() && o.getPayAddress().equals(ADDRESS_A))
+                balanceA += o.getValue();
+        }
+        assertEquals(balanceA, set.getBalance(ADDRESS_A));
+        List<AbsoluteOutput> byValue = set.getAtLeast(0);
+        assertEquals(expected.size(), byValue.size());
+        for(int i = 1; i < byValue.size(); i++)
+            assertTrue(byValue.get(i - 1).getValue() <= byValue.get(i).getValue());
+    }
+
+    @Test
+    public void applyTest() throws Exception {
+        UtxoSet set = new UtxoSet(Arrays.asList(ADDRESS_A, ADDRESS_B.toLowerCase()));
+        Transaction funding = transaction(Collections.emptyList(), payTo(ADDRESS_A, 1000),
+                                          payTo(OTHER, 2000), payTo(ADDRESS_B, 3000));
+        Block block = new Block("hash1", Collections.singletonList(txid(1)), null, 1, new Date());
+        set.apply(block, Collections.singletonMap(txid(1), funding));
+        assertEquals(1, set.getHeight());
+        assertEquals("hash1", set.getBlockHash());
+        assertEquals(2, set.size());
+        assertFalse(set.contains(txid(1), 1));
+
+        AbsoluteOutput a = set.get(txid(1), 0);
+        assertEquals(1000, a.getValue());
+        assertEquals(ADDRESS_A, a.getPayAddress());
+        assertEquals(1, set.getHeight(txid(1), 0));
+
+        // Our own transaction, spending the output to A.
+        Transaction spend = transaction(Collections.singletonList(a), payTo(ADDRESS_B, 900));
+        set.apply(spend);
+        String spendId = spend.txid().toLowerCase();
+        assertFalse(set.contains(txid(1), 0));
+        assertEquals(UtxoSet.UNCONFIRMED, set.getHeight(spendId, 0));
+        assertTrue(set.getByAddress(ADDRESS_A).isEmpty());
+        assertEquals(3900, set.getBalance(ADDRESS_B));
+
+        // Then it gets confirmed.
+        set.apply(new Block("hash2", Collections.singletonList(spendId), null, 2, new Date()),
+                  Collections.singletonMap(spendId, spend));
+        assertEquals(2, set.getHeight(spendId, 0));
+        assertEquals(2, set.size());
+
+        try {
+            set.apply(new Block("hash4", Collections.emptyList(), null, 4, new Date()),
+                      Collections.emptyMap());
+            fail("A block was skipped");
+        } catch (InvalidParameterException e) {
+            assertEquals(2, set.getHeight());
+        }
+    }
+
+    @Test
+    public void unconfirmedChainTest() throws Exception {
+        UtxoSet set = new UtxoSet(Collections.singleton(ADDRESS_A));
+        Transaction funding = transaction(Collections.emptyList(), payTo(ADDRESS_A, 1000));
+        set.apply(new Block("hash1", Collections.singletonList(txid(1)), null, 1, new Date()),
+                  Collections.singletonMap(txid(1), funding));
+
+        // Broadcast A, then B spending A before A gets confirmed.
+        Transaction a = transaction(Collections.singletonList(set.get(txid(1), 0)),
+                                    payTo(ADDRESS_A, 900), payTo(ADDRESS_A, 50));
+        set.apply(a);
+        String aId = a.txid().toLowerCase();
+        Transaction b = transaction(Collections.singletonList(set.get(aId, 0)),
+                                    payTo(ADDRESS_A, 800));
+        set.apply(b);
+        String bId = b.txid().toLowerCase();
+        assertEquals(850, set.getBalance(ADDRESS_A));
+
+        Path file = folder.getRoot().toPath().resolve("utxo");
+        set.save(file);
+        set = UtxoSet.load(file);
+
+        // The block confirming A must not bring back the output B spent.
+        set.apply(new Block("hash2", Collections.singletonList(aId), null, 2, new Date()),
+                  Collections.singletonMap(aId, a));
+        assertFalse(set.contains(aId, 0));
+        assertEquals(2, set.getHeight(aId, 1));
+        assertEquals(850, set.getBalance(ADDRESS_A));
+        assertEquals(2, set.getAtLeast(0).size());
+
+        set.apply(new Block("hash3", Collections.singletonList(bId), null, 3, new Date()),
+                  Collections.singletonMap(bId, b));
+        assertEquals(3, set.getHeight(bId, 0));
+        assertEquals(850, set.getBalance(ADDRESS_A));
+    }
+
+    @Test
+    public void valueIndexTest() {
+        UtxoSet set = new UtxoSet();
+        long[] values = {500, 100, 300, 200, 400};
+        for(int i = 0; i < values.length; i++)
+            set.add(txid(i), 0, payTo(i % 2 == 0 ? ADDRESS_A : ADDRESS_B, values[i]), 1);
+
+        List<AbsoluteOutput> atLeast = set.getAtLeast(300);
+        assertEquals(3, atLeast.size());
+        assertEquals(300, atLeast.get(0).getValue());
+        assertEquals(500, atLeast.get(2).getValue());
+        assertTrue(set.getAtLeast(501).isEmpty());
+
+        List<AbsoluteOutput> coins = set.selectCoins(350);
+        assertEquals(1, coins.size());
+        assertEquals(txid(4), coins.get(0).getTxId());
+        coins = set.selectCoins(800);
+        assertEquals(2, coins.size());
+        assertEquals(500, coins.get(0).getValue());
+        assertEquals(400, coins.get(1).getValue());
+        assertTrue(set.selectCoins(1501).isEmpty());
+
+        assertEquals(3, ClientUtils.getUnspentOutputs(set, Collections.singleton(ADDRESS_A))
+                                   .size());
+        assertEquals(2, ClientUtils.getOutputsAvailableAtLeast(
+                set, Arrays.asList(ADDRESS_A, ADDRESS_B), 400).size());
+    }
+
+    @Test
+    public void snapshotTest() throws Exception {
+        UtxoSet set = new UtxoSet(Collections.singleton(ADDRESS_A));
+        for(int i = 0; i < 100; i++)
+            set.add(txid(i), i % 4, payTo(ADDRESS_A, i), i % 2 == 0 ? i : UtxoSet.UNCONFIRMED);
+        set.load(Collections.emptyList(), 120, "hash120");
+        Path file = folder.getRoot().toPath().resolve("utxo");
+        set.save(file);
+        set.save(file);
+
+        UtxoSet loaded = UtxoSet.load(file);
+        assertEquals(100, loaded.size());
+        assertEquals(120, loaded.getHeight());
+        assertEquals("hash120", loaded.getBlockHash());
+        for(int i = 0; i < 100; i++) {
+            AbsoluteOutput o = loaded.get(txid(i), i % 4);
+            assertEquals(i, o.getValue());
+            assertEquals(ADDRESS_A, o.getPayAddress());
+            assertEquals(i % 2 == 0 ? i : UtxoSet.UNCONFIRMED, loaded.getHeight(txid(i), i % 4));
+        }
+        assertTrue(loaded.isWatched(payTo(ADDRESS_A, 1)));
+        assertFalse(loaded.isWatched(payTo(OTHER, 1)));
+        assertEquals(set.getBalance(ADDRESS_A), loaded.getBalance(ADDRESS_A));
+    }
+
+    @Test
+    public void scanTest() throws Exception {
+        try(RpcStub stub = new RpcStub()) {
+            Map<String, Object> unspent = new LinkedHashMap<>();
+            unspent.put("txid", txid(1));
+            unspent.put("vout", 2L);
+            unspent.put("scriptPubKey", "76a914" + ADDRESS_A.toLowerCase() + "88ac");
+            unspent.put("amount", 0.00012345);
+            unspent.put("height", 3L);
+            Map<String, Object> scan = new LinkedHashMap<>();
+            scan.put("success", true);
+            scan.put("height", 5L);
+            scan.put("bestblock", "hash5");
+            scan.put("unspents", Collections.singletonList(unspent));
+            stub.on("scantxoutset", Arrays.asList("start", Collections.singletonList(
+                    Collections.singletonMap("desc", "raw(76a914" + ADDRESS_A.toLowerCase()
+                                                     + "88ac)"))), scan);
+            BitcoindClient client = new BitcoindClient(stub.getUrl(), false);
+
+            UtxoSet set = new UtxoSet(Collections.singleton(ADDRESS_A));
+            set.scan(client);
+            assertEquals(5, set.getHeight());
+            assertEquals("hash5", set.getBlockHash());
+            assertEquals(12345, set.getBalance(ADDRESS_A));
+            assertEquals(3, set.getHeight(txid(1), 2));
+            try {
+                new UtxoSet().scan(client);
+                fail("Every output can't be scanned");
+            } catch (InvalidParameterException e) {}
+        }
+    }
+
+    @Test
+    public void syncTest() throws Exception {
+        try(RpcStub stub = new RpcStub()) {
+            List<AbsoluteOutput> previous = new ArrayList<>();
+            for(int height = 1; height <= 5; height++) {
+                Transaction tx = transaction(previous, payTo(ADDRESS_A, 1000 - height),
+                                             payTo(OTHER, height));
+                String txid = tx.txid().toLowerCase();
+                previous = Collections.singletonList(new AbsoluteOutput(tx.getOutputs().get(0),
+                                                                        0, txid));
+                stub.onTransaction(txid, tx.hexlify(), true);
+                Map<String, Object> block = new LinkedHashMap<>();
+                block.put("hash", "hash" + height);
+                block.put("height", (long) height);
+                block.put("time", 1494633600L + height);
+                block.put("tx", Collections.singletonList(txid));
+                stub.on("getblockhash", Collections.singletonList((long) height), "hash" + height);
+                stub.on("getblock", Collections.singletonList("hash" + height), block);
+            }
+            stub.on("getblockcount", Collections.emptyList(), 5L);
+            BitcoindClient client = new BitcoindClient(stub.getUrl(), false);
+            client.setBatchSize(2);
+
+            UtxoSet set = new UtxoSet(Collections.singleton(ADDRESS_A));
+            set.load(Collections.emptyList(), 0, "hash0");
+            assertEquals(5, set.sync(client));
+            assertEquals(5, set.getHeight());
+            assertEquals(1, set.size());
+            assertEquals(995, set.getBalance(ADDRESS_A));
+            assertEquals(previous.get(0).getTxId(), set.getByAddress(ADDRESS_A).get(0).getTxId());
+            assertEquals(0, set.sync(client));
+        }
+    }
+}
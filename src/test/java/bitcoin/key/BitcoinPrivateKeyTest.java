@@ -52,6 +52,21 @@ public class BitcoinPrivateKeyTest {
                      bitcoinPrivateKey.getPublicKey().toWIF());
     }
 
+    @Test
+    public void publicKeyIsMemoizedTest() throws InvalidKeySpecException, InvalidAlgorithmParameterException, NoSuchAlgorithmException, IOException {
+        BitcoinPrivateKey bitcoinPrivateKey = new BitcoinPrivateKey(
+                "18E14A7B6A307F426A94F8114701E7C8E774E7F9A47E2C2035DB29A206321725", false, false);
+        BitcoinPublicKey publicKey = bitcoinPrivateKey.getPublicKey();
+        assertSame(publicKey, bitcoinPrivateKey.getPublicKey());
+
+        // Returned arrays are copies, modifying them does not affect the cached values.
+        publicKey.getAddress()[0] ^= 1;
+        publicKey.getKey(true)[1] ^= 1;
+        assertEquals("16UwLL9Risc3QfPqBUvKofHmBQ7wMtjvM", publicKey.toWIF());
+        assertEquals("0250863AD64A87AE8A2FE83C1AF1A8403CB53F53E486D8511DAD8A04887E5B2352",
+                     byteArrayToHex(publicKey.getKey(true)));
+    }
+
     @Test
     public void signingTest() throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, InvalidKeyException, SignatureException, IOException, InvalidKeySpecException {
         BitcoinPrivateKey bitcoinPrivateKey = new BitcoinPrivateKey(true, true);
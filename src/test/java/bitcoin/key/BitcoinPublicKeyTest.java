@@ -1,15 +1,20 @@
 package bitcoin.key;
 
+import org.bitcoinj.core.ECKey;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import static bitcoin.key.Utils.bytesToBigInteger;
 import static core.Utils.hexToByteArray;
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNotEquals;
+import static core.Utils.mergeArrays;
+import static org.junit.Assert.*;
 
 /**
  * Created by fmontoto on 10-11-16.
@@ -55,4 +60,65 @@ public class BitcoinPublicKeyTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void decompressTest() throws Exception {
+        Random random = new Random(3);
+        for(int i = 0; i < 20; i++) {
+            ECKey ecKey = ECKey.fromPrivate(new BigInteger(256, random).mod(Secp256k1.n));
+            byte[] uncompressed = ecKey.decompress().getPubKey();
+            assertArrayEquals(Arrays.copyOfRange(uncompressed, 1, 65),
+                              BitcoinPublicKey.decompressPubKey(ecKey.getPubKey()));
+            BitcoinPublicKey fromCompressed = new BitcoinPublicKey(ecKey.getPubKey(), false);
+            assertEquals(new BitcoinPublicKey(uncompressed, true, false), fromCompressed);
+            assertArrayEquals(ecKey.getPubKey(), fromCompressed.getKey());
+        }
+
+        // x = 5, 5^3 + 7 is not a square modulo p.
+        byte[] notOnCurve = new byte[33];
+        notOnCurve[0] = 0x02;
+        notOnCurve[32] = 5;
+        try {
+            BitcoinPublicKey.decompressPubKey(notOnCurve);
+            fail("Not the abscissa of a point.");
+        } catch (IllegalArgumentException e) {
+        }
+        byte[] uncompressed = hexToByteArray("0450863AD64A87AE8A2FE83C1AF1A8403CB53F53E486D8511DAD8A04887E5B23522CD470243453A299FA9E77237716103ABC11A1DF38855ED6F2EE187E9C582BA6");
+        uncompressed[64] ^= 1;
+        try {
+            new BitcoinPublicKey(uncompressed, false);
+            fail("Not a point of the curve.");
+        } catch (InvalidKeySpecException e) {
+        }
+    }
+
+    @Test
+    public void decodedKeysCacheTest() throws Exception {
+        String publicKeyHex = "030881eb43770203716888f131eaba4d9b35446d60cebafebcb9908ffdb050b006";
+        BitcoinPublicKey testnetKey = new BitcoinPublicKey(publicKeyHex, true, true);
+        byte[] serialized = mergeArrays(new byte[] {0x55, 0x66}, testnetKey.serialize());
+        BitcoinPublicKey loaded = BitcoinPublicKey.fromSerialized(serialized, 2);
+        assertEquals(testnetKey, loaded);
+        assertSame(loaded, BitcoinPublicKey.fromSerialized(testnetKey.serialize()));
+        assertSame(loaded, BitcoinPublicKey.fromKey(hexToByteArray(publicKeyHex), true));
+
+        BitcoinPublicKey mainnetKey = BitcoinPublicKey.fromKey(hexToByteArray(publicKeyHex), false);
+        assertNotEquals(loaded, mainnetKey);
+        assertEquals(new BitcoinPublicKey(publicKeyHex, true, false).toWIF(), mainnetKey.toWIF());
+        assertNotNull(mainnetKey.getEncoded());
+    }
+
+    @Test
+    public void batchAddressConversionTest() throws Exception {
+        List<String> hexAddresses = Arrays.asList("010966776006953D5567439E5E39F86A0D273BEE",
+                                                  "0000000000000000000000000000000000000000");
+        List<String> wifAddresses = BitcoinPublicKey.hexTxAddressesToWIF(hexAddresses, false);
+        assertEquals("16UwLL9Risc3QfPqBUvKofHmBQ7wMtjvM", wifAddresses.get(0));
+        assertEquals(BitcoinPublicKey.txAddressToWIF(hexAddresses.get(1), false), wifAddresses.get(1));
+
+        List<byte[]> txAddresses = BitcoinPublicKey.WIFToTxAddresses(wifAddresses);
+        for(int i = 0; i < hexAddresses.size(); i++)
+            assertArrayEquals(hexToByteArray(hexAddresses.get(i)), txAddresses.get(i));
+        assertEquals(BitcoinPublicKey.hexTxAddressesToWIF(hexAddresses, true),
+                     BitcoinPublicKey.txAddressesToWIF(txAddresses, true));
+    }
+}
@@ -0,0 +1,124 @@
+package bitcoin.key;
+
+import org.bitcoinj.crypto.ChildNumber;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.crypto.HDKeyDerivation;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Test;
+
+import java.security.InvalidParameterException;
+import java.util.List;
+import java.util.Random;
+
+import static bitcoin.key.ExtendedKey.hardened;
+import static core.Utils.hexToByteArray;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 10-05-17.
+ */
+public class ExtendedKeyTest {
+
+    // BIP 32 test vector 1.
+    @Test
+    public void bip32VectorTest() throws Exception {
+        ExtendedKey master = ExtendedKey.fromSeed(
+                hexToByteArray("000102030405060708090a0b0c0d0e0f"), false);
+        assertEquals("xprv9s21ZrQH143K3QTDL4LXw2F7HEK3wJUD2nW2nRk4stbPy6cq3jPPqjiChkVvvNKmPGJxWUtg6LnF5kejMRNNU3TGtRBeJgk33yuGBxrMPHi",
+                     master.serialize());
+        assertEquals("xpub661MyMwAqRbcFtXgS5sYJABqqG9YLmC4Q1Rdap9gSE8NqtwybGhePY2gZ29ESFjqJoCu1Rupje8YtGqsefD265TMg7usUDFdp6W1EGMcet8",
+                     master.serializePublic());
+
+        ExtendedKey child = master.derive("m/0'");
+        assertEquals("xprv9uHRZZhk6KAJC1avXpDAp4MDc3sQKNxDiPvvkX8Br5ngLNv1TxvUxt4cV1rGL5hj6KCesnDYUhd7oWgT11eZG7XnxHrnYeSvkzY7d2bhkJ7",
+                     child.serialize());
+        assertEquals("xpub68Gmy5EdvgibQVfPdqkBBCHxA5htiqg55crXYuXoQRKfDBFA1WEjWgP6LHhwBZeNK1VTsfTFUHCdrfp1bgwQ9xv5ski8PX9rL2dZXvgGDnw",
+                     child.serializePublic());
+
+        child = child.derive(1);
+        assertEquals("xprv9wTYmMFdV23N2TdNG573QoEsfRrWKQgWeibmLntzniatZvR9BmLnvSxqu53Kw1UmYPxLgboyZQaXwTCg8MSY3H2EU4pWcQDnRnrVA1xe8fs",
+                     child.serialize());
+        assertEquals("xpub6ASuArnXKPbfEwhqN6e3mwBcDTgzisQN1wXN9BJcM47sSikHjJf3UFHKkNAWbWMiGj7Wf5uMash7SyYq527Hqck2AxYysAA7xmALppuCkwQ",
+                     child.serializePublic());
+        // Public derivation reaches the same public key.
+        assertEquals(child.neuter(), master.derive("m/0'").neuter().derive(1));
+        assertEquals(master.getFingerprint(), master.derive(hardened(0)).getParentFingerprint());
+    }
+
+    @Test
+    public void sameAsBitcoinjTest() throws Exception {
+        Random random = new Random(8);
+        byte[] seed = new byte[32];
+        random.nextBytes(seed);
+        ExtendedKey key = ExtendedKey.fromSeed(seed, false);
+        DeterministicKey expected = HDKeyDerivation.createMasterPrivateKey(seed);
+        for(int depth = 0; depth < 6; depth++) {
+            int index = random.nextInt(1 << 20);
+            boolean isHardened = depth % 2 == 0;
+            key = key.derive(isHardened ? hardened(index) : index);
+            expected = HDKeyDerivation.deriveChildKey(expected, new ChildNumber(index, isHardened));
+            assertEquals(expected.serializePrivB58(MainNetParams.get()), key.serialize());
+            assertEquals(expected.serializePubB58(MainNetParams.get()), key.serializePublic());
+            assertArrayEquals(expected.getPubKey(), key.getPublicKey().getKey());
+            assertEquals(expected.getPrivKey(), key.getPrivateKey().getS());
+        }
+    }
+
+    @Test
+    public void parseTest() throws Exception {
+        ExtendedKey master = ExtendedKey.fromSeed(new byte[16], true);
+        ExtendedKey key = master.derive("m/44h/1'/0'/0/7");
+        assertEquals(5, key.getDepth());
+        assertEquals(7, key.getChildNumber());
+        assertTrue(key.serialize().startsWith("tprv"));
+        assertEquals(key, ExtendedKey.parse(key.serialize()));
+        ExtendedKey watchOnly = ExtendedKey.parse(key.serializePublic());
+        assertTrue(watchOnly.serialize().startsWith("tpub"));
+        assertFalse(watchOnly.hasPrivateKey());
+        assertEquals(key.neuter(), watchOnly);
+        assertEquals(key.derive("3/4").getPublicKey(), watchOnly.derive("3/4").getPublicKey());
+
+        try {
+            watchOnly.derive(hardened(0));
+            fail("Hardened derivation without the private key.");
+        } catch (InvalidParameterException e) {
+        }
+        try {
+            key.derive("m/0");
+            fail("Absolute path from a child.");
+        } catch (InvalidParameterException e) {
+        }
+    }
+
+    @Test
+    public void betKeyChainTest() throws Exception {
+        ExtendedKey master = ExtendedKey.fromSeed(hexToByteArray("000102030405060708090a0b0c0d0e0f"), true);
+        BetKeyChain chain = new BetKeyChain(master);
+        byte[] betHash = hexToByteArray("010966776006953D5567439E5E39F86A0D273BEE");
+        byte[] otherBetHash = hexToByteArray("110966776006953D5567439E5E39F86A0D273BEE");
+
+        ExtendedKey betKey = chain.getBetKey(betHash);
+        assertEquals(3, betKey.getDepth());
+        assertEquals(betKey, master.derive(BetKeyChain.PURPOSE)
+                .derive(hardened(0x01096677 >>> 1)).derive(hardened(0x6006953D >>> 1)));
+        assertNotEquals(betKey, chain.getBetKey(otherBetHash));
+        assertEquals(master.derive(BetKeyChain.PURPOSE).getPrivateKey().getS(),
+                     chain.getIdentityKey().getS());
+
+        List<String> addresses = BetKeyChain.getAddresses(
+                ExtendedKey.parse(chain.getBetWatchKey(betHash)), 0, 3);
+        assertEquals(chain.getPublicKey(betHash, 2).toWIF(), addresses.get(2));
+
+        KeyRing keyRing = new KeyRing();
+        chain.register(keyRing, betHash, 3);
+        for(int i = 0; i < 3; i++)
+            assertEquals(chain.getPrivateKey(betHash, i).getS(), keyRing.get(addresses.get(i)).getS());
+        assertNull(keyRing.get(chain.getPublicKey(betHash, 3).toWIF()));
+        // Found without asking bitcoind, there is no client to ask.
+        assertEquals(chain.getIdentityKey().getS(),
+                     keyRing.getOrLoad(chain.getIdentityKey().getPublicKey().toWIF(), null)
+                            .getS());
+        assertEquals(chain.getPrivateKey(betHash, BetKeyChain.CHANGE_KEY).getS(),
+                     keyRing.getOrLoad(addresses.get(BetKeyChain.CHANGE_KEY), null).getS());
+    }
+}
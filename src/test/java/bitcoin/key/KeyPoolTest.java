@@ -0,0 +1,82 @@
+package bitcoin.key;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 11-05-17.
+ */
+public class KeyPoolTest {
+
+    static private void waitFilled(KeyPool pool) throws InterruptedException {
+        for(int i = 0; i < 2000; i++) {
+            if(pool.getAvailableKeys() == pool.getKeyWatermark()
+                    && pool.getAvailableSecrets() == pool.getSecretWatermark())
+                return;
+            Thread.sleep(10);
+        }
+        fail("The pool was not refilled");
+    }
+
+    @Test
+    public void keysTest() throws Exception {
+        KeyPool pool = new KeyPool(true, true, 10);
+        waitFilled(pool);
+        Set<ByteBuffer> seen = new HashSet<>();
+        // Takes more than the watermark, some of them are generated inline.
+        for(int i = 0; i < 25; i++) {
+            BitcoinPrivateKey key = pool.takeKey();
+            assertTrue(key.isTestnet());
+            assertEquals(33, key.getPublicKey().getKey().length);
+            assertTrue(seen.add(ByteBuffer.wrap(key.getS().toByteArray())));
+            assertEquals(key.toWIF(), BitcoinPrivateKey.fromWIF(key.toWIF()).toWIF());
+            assertEquals(key.getPublicKey(), BitcoinPrivateKey.fromWIF(key.toWIF()).getPublicKey());
+        }
+        waitFilled(pool);
+    }
+
+    @Test
+    public void secretsTest() throws Exception {
+        KeyPool pool = new KeyPool(false, false, 10);
+        waitFilled(pool);
+        Set<ByteBuffer> seen = new HashSet<>();
+        Set<Integer> sizes = new HashSet<>();
+        for(int i = 0; i < 200; i++) {
+            byte[] secret = pool.takeSecret(19, 25);
+            assertTrue(secret.length >= 19 && secret.length < 25);
+            assertTrue(seen.add(ByteBuffer.wrap(secret)));
+            sizes.add(secret.length);
+        }
+        assertEquals(6, sizes.size());
+        waitFilled(pool);
+    }
+
+    @Test
+    public void separateWatermarksTest() throws Exception {
+        KeyPool pool = new KeyPool(true, false, 0, 5);
+        waitFilled(pool);
+        assertEquals(0, pool.getAvailableKeys());
+        assertEquals(5, pool.getAvailableSecrets());
+        // Generated inline, the pool still keeps no keys.
+        assertNotNull(pool.takeKey());
+        pool.takeSecret(1, 2);
+        waitFilled(pool);
+        assertEquals(0, pool.getAvailableKeys());
+
+        KeyPool shared = KeyPool.getInstance();
+        assertEquals(0, shared.getKeyWatermark());
+        assertEquals(KeyPool.DEFAULT_WATERMARK, shared.getSecretWatermark());
+        assertEquals(0, KeyPool.getInstance(true, true).getSecretWatermark());
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void secretSizeTest() {
+        KeyPool.getInstance().takeSecret(10, 10);
+    }
+}
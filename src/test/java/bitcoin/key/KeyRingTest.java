@@ -0,0 +1,72 @@
+package bitcoin.key;
+
+import bitcoin.transaction.Input;
+import bitcoin.transaction.Output;
+import bitcoin.transaction.ScriptInterpreter;
+import bitcoin.transaction.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static bitcoin.key.BitcoinPublicKey.WIFToTxAddress;
+import static bitcoin.key.Utils.r160SHA256Hash;
+import static core.Utils.byteArrayToHex;
+import static core.Utils.hexToByteArray;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 05-05-17.
+ */
+public class KeyRingTest {
+    private BitcoinPrivateKey privateKey;
+    private KeyRing keyRing;
+
+    @Before
+    public void setUp() throws Exception {
+        privateKey = new BitcoinPrivateKey(
+                "18E14A7B6A307F426A94F8114701E7C8E774E7F9A47E2C2035DB29A206321725", false, false);
+        keyRing = new KeyRing();
+    }
+
+    @Test
+    public void lookUpTest() throws Exception {
+        byte[] uncompressedAddress = WIFToTxAddress("16UwLL9Risc3QfPqBUvKofHmBQ7wMtjvM");
+        byte[] compressedAddress = r160SHA256Hash(privateKey.getPublicKey().getKey(true));
+
+        assertNull(keyRing.get(uncompressedAddress));
+        keyRing.add(privateKey);
+        assertSame(privateKey, keyRing.get(uncompressedAddress));
+        assertEquals(privateKey.getS(), keyRing.get(compressedAddress).getS());
+        assertSame(privateKey, keyRing.get("16UwLL9Risc3QfPqBUvKofHmBQ7wMtjvM"));
+        assertFalse(keyRing.contains(new byte[20]));
+
+        keyRing.remove(privateKey);
+        assertFalse(keyRing.contains(uncompressedAddress));
+        assertFalse(keyRing.contains(compressedAddress));
+    }
+
+    @Test
+    public void instancesAreIndependentTest() throws Exception {
+        keyRing.add(privateKey);
+        assertFalse(new KeyRing().contains(privateKey.getPublicKey().getAddress()));
+        assertSame(KeyRing.getInstance(), KeyRing.getInstance());
+    }
+
+    // The key returned for an address must put in the scriptSig the public key it hashes.
+    @Test
+    public void signOtherEncodingTest() throws Exception {
+        keyRing.add(privateKey);
+        byte[] compressedAddress = r160SHA256Hash(privateKey.getPublicKey().getKey(true));
+        BitcoinPrivateKey key = keyRing.get(compressedAddress);
+        assertArrayEquals(compressedAddress, r160SHA256Hash(key.getPublicKey().getKey()));
+
+        byte[] scriptPubKey = hexToByteArray("76A914" + byteArrayToHex(compressedAddress) + "88AC");
+        Transaction tx = new Transaction();
+        tx.appendInput(new Input(0, new byte[32], new byte[0]));
+        tx.appendOutput(new Output(1000, new byte[] {0x51}));
+        tx.setTempScriptSigForSigning(0, scriptPubKey);
+        tx.sign(key, 0);
+        ScriptInterpreter.verify(tx, Collections.singletonList(scriptPubKey));
+    }
+}
@@ -0,0 +1,95 @@
+package bitcoin.key;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.List;
+
+import static core.Utils.byteArrayToHex;
+import static core.Utils.hexToByteArray;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 12-05-17.
+ */
+public class MuSigTest {
+    static private final byte[] X1 =
+            hexToByteArray("02F9308A019258C31049344F85F89D5229B531C845836F99B08601F113BCE036F9");
+    static private final byte[] X2 =
+            hexToByteArray("03DFF1D77F2A671C5F36183726DB2341BE58FEAE1DA2DECED843240F7B502BA659");
+    static private final byte[] X3 =
+            hexToByteArray("023590A94E768F8E1815C2F24B4D80A8E3149316C3518CE7B7AD338368D038CA66");
+
+    static private String aggregate(byte[]... keys) {
+        return byteArrayToHex(MuSig.keyAgg(Arrays.asList(keys)).getXOnlyKey()).toUpperCase();
+    }
+
+    @Test
+    public void keyAggTest() {
+        // BIP 327 test vectors.
+        assertEquals("90539EEDE565F5D054F32CC0C220126889ED1E5D193BAF15AEF344FE59D4610C",
+                     aggregate(X1, X2, X3));
+        assertEquals("6204DE8B083426DC6EAF9502D27024D53FC826BF7D2012148A0575435DF54B2B",
+                     aggregate(X3, X2, X1));
+        assertEquals("B436E3BAD62B8CD409969A224731C193D051162D8C5AE8B109306127DA3AA935",
+                     aggregate(X1, X1, X1));
+        assertEquals("69BC22BFA5D106306E48A20679DE1D7389386124D07571D0D872686028C26A3E",
+                     aggregate(X1, X1, X2, X2));
+        List<byte[]> sorted = MuSig.sortKeys(Arrays.asList(X3, X2, X1));
+        assertArrayEquals(X3, sorted.get(0));
+        assertArrayEquals(X1, sorted.get(1));
+        assertArrayEquals(X2, sorted.get(2));
+    }
+
+    private byte[] signTogether(BitcoinPrivateKey a, BitcoinPrivateKey b,
+                                MuSig.KeyAggContext ctx, byte[] msg) throws Exception {
+        MuSig.SecretNonce nonceA = MuSig.nonceGen(a, ctx, msg);
+        MuSig.SecretNonce nonceB = MuSig.nonceGen(b, ctx, null);
+        byte[] aggNonce = MuSig.nonceAgg(
+                Arrays.asList(nonceA.getPublicNonce(), nonceB.getPublicNonce()));
+        MuSig.Session session = new MuSig.Session(aggNonce, ctx, msg);
+        byte[] sigA = MuSig.sign(nonceA, a, session);
+        byte[] sigB = MuSig.sign(nonceB, b, session);
+        assertTrue(MuSig.partialSigVerify(sigA, nonceA.getPublicNonce(),
+                                          a.getPublicKey().getKey(true), session));
+        assertTrue(MuSig.partialSigVerify(sigB, nonceB.getPublicNonce(),
+                                          b.getPublicKey().getKey(true), session));
+        assertFalse(MuSig.partialSigVerify(sigA, nonceB.getPublicNonce(),
+                                           b.getPublicKey().getKey(true), session));
+        try {
+            MuSig.sign(nonceA, a, session);
+            fail("A nonce can not be used twice");
+        } catch (InvalidParameterException e) {
+            // Expected.
+        }
+        return MuSig.partialSigAgg(Arrays.asList(sigA, sigB), session);
+    }
+
+    @Test
+    public void signTest() throws Exception {
+        byte[] msg = hexToByteArray(
+                "F95466D086770E689964664219266FE5ED215C92AE20BAB5C9D79ADDDDF3C0CF");
+        for(int i = 1; i < 6; i++) {
+            BitcoinPrivateKey a = new BitcoinPrivateKey(
+                    Utils.get32ByteRepresentation(BigInteger.valueOf(7919L * i)), true, true);
+            BitcoinPrivateKey b = new BitcoinPrivateKey(
+                    Utils.get32ByteRepresentation(BigInteger.valueOf(104729L * i * i)), true, true);
+            MuSig.KeyAggContext ctx = MuSig.keyAgg(a.getPublicKey(), b.getPublicKey());
+
+            byte[] sig = signTogether(a, b, ctx, msg);
+            assertTrue(Schnorr.verify(ctx.getXOnlyKey(), msg, sig));
+
+            // Taproot key path: the output key commits to the aggregated key.
+            Taproot.OutputKey outputKey = Taproot.outputKey(ctx.getXOnlyKey(), null);
+            MuSig.KeyAggContext tweaked = ctx.applyXOnlyTweak(
+                    Taproot.tweak(ctx.getXOnlyKey(), null));
+            assertArrayEquals(outputKey.getKey(), tweaked.getXOnlyKey());
+            assertEquals(outputKey.hasOddY(), !tweaked.hasEvenY());
+            sig = signTogether(a, b, tweaked, msg);
+            assertTrue(Schnorr.verify(outputKey.getKey(), msg, sig));
+            assertFalse(Schnorr.verify(ctx.getXOnlyKey(), msg, sig));
+        }
+    }
+}
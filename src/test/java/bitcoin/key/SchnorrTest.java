@@ -0,0 +1,73 @@
+package bitcoin.key;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static core.Utils.byteArrayToHex;
+import static core.Utils.hexToByteArray;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 12-05-17.
+ */
+public class SchnorrTest {
+    // BIP 340 test vectors: secret key, public key, aux rand, message and signature.
+    static private final String[][] SIGNING_VECTORS = {
+            {"0000000000000000000000000000000000000000000000000000000000000003",
+             "F9308A019258C31049344F85F89D5229B531C845836F99B08601F113BCE036F9",
+             "0000000000000000000000000000000000000000000000000000000000000000",
+             "0000000000000000000000000000000000000000000000000000000000000000",
+             "E907831F80848D1069A5371B402410364BDF1C5F8307B0084C55F1CE2DCA8215"
+                     + "25F66A4A85EA8B71E482A74F382D2CE5EBEEE8FDB2172F477DF4900D310536C0"},
+            {"B7E151628AED2A6ABF7158809CF4F3C762E7160F38B4DA56A784D9045190CFEF",
+             "DFF1D77F2A671C5F36183726DB2341BE58FEAE1DA2DECED843240F7B502BA659",
+             "0000000000000000000000000000000000000000000000000000000000000001",
+             "243F6A8885A308D313198A2E03707344A4093822299F31D0082EFA98EC4E6C89",
+             "6896BD60EEAE296DB48A229FF71DFE071BDE413E6D43F917DC8DCF8C78DE3341"
+                     + "8906D11AC976ABCCB20B091292BFF4EA897EFCB639EA871CFA95F6DE339E4B0A"},
+            {"C90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74020BBEA63B14E5C9",
+             "DD308AFEC5777E13121FA72B9CC1B7CC0139715309B086C960E18FD969774EB8",
+             "C87AA53824B4D7AE2EB035A2B5BBBCCC080E76CDC6D1692C4B0B62D798E6D906",
+             "7E2D58D8B3BCDF1ABADEC7829054F90DDA9805AAB56C77333024B9D0A508B75C",
+             "5831AAEED7B44BB74E5EAB94BA9D4294C49BCF2A60728D8B4C200F50DD313C1B"
+                     + "AB745879A5AD954A72C45A91C3A51D3C7ADEA98D82F8481E0E1E03674A6F3FB7"},
+    };
+
+    @Test
+    public void signTest() {
+        for(String[] v : SIGNING_VECTORS) {
+            byte[] sig = Schnorr.sign(new BigInteger(v[0], 16), hexToByteArray(v[3]),
+                                      hexToByteArray(v[2]));
+            assertEquals(v[4], byteArrayToHex(sig).toUpperCase());
+            assertEquals(v[1], byteArrayToHex(Schnorr.xOnly(
+                    Secp256k1.multiplyG(new BigInteger(v[0], 16)))).toUpperCase());
+            assertTrue(Schnorr.verify(hexToByteArray(v[1]), hexToByteArray(v[3]), sig));
+        }
+    }
+
+    @Test
+    public void verifyTest() {
+        // R with a small x coordinate.
+        assertTrue(Schnorr.verify(
+                hexToByteArray("D69C3509BB99E412E68B0FE8544E72837DFA30746D8BE2AA65975F29D22DC7B9"),
+                hexToByteArray("4DF3C3F68FCC83B27E9D42C90431A72499F17875C81A599B566C9889B9696703"),
+                hexToByteArray("00000000000000000000003B78CE563F89A0ED9414F5AA28AD0D96D6795F9C63"
+                               + "76AFB1548AF603B3EB45C9F8207DEE1060CB71C04E80F593060B07D28308D7F4")));
+        // Public key not on the curve.
+        assertFalse(Schnorr.verify(
+                hexToByteArray("EEFDEA4CDB677750A420FEE807EACF21EB9898AE79B9768766E4FAA04A2D4A34"),
+                hexToByteArray("243F6A8885A308D313198A2E03707344A4093822299F31D0082EFA98EC4E6C89"),
+                hexToByteArray(SIGNING_VECTORS[1][4])));
+
+        String[] v = SIGNING_VECTORS[1];
+        byte[] sig = hexToByteArray(v[4]);
+        byte[] msg = hexToByteArray(v[3]);
+        sig[63] ^= 1;
+        assertFalse(Schnorr.verify(hexToByteArray(v[1]), msg, sig));
+        sig[63] ^= 1;
+        msg[0] ^= 1;
+        assertFalse(Schnorr.verify(hexToByteArray(v[1]), msg, sig));
+        assertFalse(Schnorr.verify(hexToByteArray(v[2]), hexToByteArray(v[3]), sig));
+    }
+}
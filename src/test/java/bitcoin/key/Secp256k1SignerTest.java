@@ -0,0 +1,172 @@
+package bitcoin.key;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.Random;
+
+import static core.Utils.hexToByteArray;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 04-05-17.
+ */
+public class Secp256k1SignerTest {
+
+    // bitcoinj also uses RFC 6979 nonces and canonical S, the signatures must be identical.
+    @Test
+    public void sameAsBitcoinjTest() throws Exception {
+        Random random = new Random(1234);
+        for(int i = 0; i < 20; i++) {
+            BigInteger key = new BigInteger(256, random).mod(Secp256k1.n);
+            byte[] digest = new byte[32];
+            random.nextBytes(digest);
+            ECKey ecKey = ECKey.fromPrivate(key);
+            byte[] expected = ecKey.sign(Sha256Hash.wrap(digest)).encodeToDER();
+            byte[] signature = Secp256k1Signer.sign(key, digest);
+            assertArrayEquals(expected, signature);
+            assertTrue(ECKey.verify(digest, signature, ecKey.getPubKey()));
+            assertTrue(ECKey.ECDSASignature.decodeFromDER(signature).isCanonical());
+        }
+    }
+
+    @Test
+    public void verifyTest() throws Exception {
+        Random random = new Random(4321);
+        for(int i = 0; i < 20; i++) {
+            BigInteger key = new BigInteger(256, random).mod(Secp256k1.n);
+            byte[] digest = new byte[32];
+            random.nextBytes(digest);
+            ECKey ecKey = ECKey.fromPrivate(key, i % 2 == 0);
+            byte[] signature = ecKey.sign(Sha256Hash.wrap(digest)).encodeToDER();
+            assertTrue(Secp256k1Verifier.verify(ecKey.getPubKey(), digest, signature));
+
+            digest[i] ^= 1;
+            assertFalse(Secp256k1Verifier.verify(ecKey.getPubKey(), digest, signature));
+        }
+    }
+
+    @Test
+    public void verifyRejectsMalformedTest() throws Exception {
+        BigInteger key = BigInteger.valueOf(12345);
+        byte[] digest = new byte[32];
+        byte[] publicKey = ECKey.fromPrivate(key).getPubKey();
+        byte[] signature = Secp256k1Signer.sign(key, digest);
+        assertTrue(Secp256k1Verifier.verify(publicKey, digest, signature));
+
+        byte[] badLength = signature.clone();
+        badLength[1]++;
+        assertFalse(Secp256k1Verifier.verify(publicKey, digest, badLength));
+        byte[] notOnCurve = publicKey.clone();
+        notOnCurve[32] ^= 1;
+        assertFalse(Secp256k1Verifier.verify(notOnCurve, digest, signature));
+        assertFalse(Secp256k1Verifier.verify(new byte[0], digest, signature));
+        assertFalse(Secp256k1Verifier.verify(publicKey, digest, new byte[0]));
+    }
+
+    @Test
+    public void multiplyGTest() {
+        BigInteger[] g = Secp256k1.multiplyG(BigInteger.ONE);
+        assertEquals(Secp256k1.spec.getGenerator().getAffineX(), g[0]);
+        assertEquals(Secp256k1.spec.getGenerator().getAffineY(), g[1]);
+
+        BigInteger key = new BigInteger(
+                "18E14A7B6A307F426A94F8114701E7C8E774E7F9A47E2C2035DB29A206321725", 16);
+        BigInteger[] point = Secp256k1.multiplyG(key);
+        assertEquals(new BigInteger(
+                "50863AD64A87AE8A2FE83C1AF1A8403CB53F53E486D8511DAD8A04887E5B2352", 16), point[0]);
+        assertEquals(new BigInteger(
+                "2CD470243453A299FA9E77237716103ABC11A1DF38855ED6F2EE187E9C582BA6", 16), point[1]);
+
+        assertNull(Secp256k1.multiplyG(Secp256k1.n));
+    }
+
+    @Test
+    public void fieldArithmeticTest() {
+        BigInteger p = Secp256k1.p;
+        Random random = new Random(5);
+        BigInteger[] edges = {BigInteger.ZERO, BigInteger.ONE, p.subtract(BigInteger.ONE),
+                              BigInteger.ONE.shiftLeft(255), p.subtract(BigInteger.ONE.shiftLeft(32))};
+        for(int i = 0; i < 2000; i++) {
+            BigInteger a = i < 25 ? edges[i % 5] : new BigInteger(256, random).mod(p);
+            BigInteger b = i < 25 ? edges[i / 5] : new BigInteger(256, random).mod(p);
+            long[] fa = Secp256k1Field.fromBigInteger(a);
+            long[] fb = Secp256k1Field.fromBigInteger(b);
+            assertEquals(a.multiply(b).mod(p), Secp256k1Field.toBigInteger(Secp256k1Field.mul(fa, fb)));
+            assertEquals(a.multiply(a).mod(p), Secp256k1Field.toBigInteger(Secp256k1Field.sqr(fa)));
+            assertEquals(a.add(b).mod(p), Secp256k1Field.toBigInteger(Secp256k1Field.add(fa, fb)));
+            assertEquals(a.subtract(b).mod(p), Secp256k1Field.toBigInteger(Secp256k1Field.sub(fa, fb)));
+            if(a.signum() != 0 && i % 10 == 0)
+                assertEquals(a.modInverse(p), Secp256k1Field.toBigInteger(Secp256k1Field.inv(fa)));
+        }
+    }
+
+    @Test
+    public void fieldSqrtTest() {
+        BigInteger p = Secp256k1.p;
+        BigInteger exponent = p.add(BigInteger.ONE).shiftRight(2);
+        Random random = new Random(6);
+        int squares = 0;
+        for(int i = 0; i < 200; i++) {
+            BigInteger a = new BigInteger(256, random).mod(p);
+            BigInteger root = a.modPow(exponent, p);
+            boolean isSquare = root.multiply(root).mod(p).equals(a);
+            long[] odd = Secp256k1Field.sqrt(Secp256k1Field.fromBigInteger(a), true);
+            long[] even = Secp256k1Field.sqrt(Secp256k1Field.fromBigInteger(a), false);
+            if(!isSquare) {
+                assertNull(odd);
+                assertNull(even);
+                continue;
+            }
+            squares++;
+            BigInteger oddRoot = root.testBit(0) ? root : p.subtract(root);
+            assertEquals(oddRoot, Secp256k1Field.toBigInteger(odd));
+            assertEquals(p.subtract(oddRoot), Secp256k1Field.toBigInteger(even));
+        }
+        assertTrue(squares > 50 && squares < 150);
+
+        byte[] bytes = new byte[33];
+        Secp256k1Field.toBytes(Secp256k1Field.fromBigInteger(p.subtract(BigInteger.ONE)), bytes, 1);
+        assertEquals(p.subtract(BigInteger.ONE), Secp256k1Field.toBigInteger(
+                Secp256k1Field.fromBytes(bytes, 1)));
+        assertNull(Secp256k1Field.fromBytes(Utils.get32ByteRepresentation(p), 0));
+    }
+
+    @Test(expected = InvalidKeyException.class)
+    public void keyOutOfRangeTest() throws InvalidKeyException {
+        Secp256k1Signer.sign(Secp256k1.n, new byte[32]);
+    }
+
+    @Test
+    public void bitcoinPrivateKeySignTest() throws Exception {
+        BitcoinPrivateKey key = new BitcoinPrivateKey(
+                "18E14A7B6A307F426A94F8114701E7C8E774E7F9A47E2C2035DB29A206321725", true, false);
+        byte[] message = hexToByteArray("02EC0D0EDF");
+        byte[] signature = key.sign(message);
+        assertArrayEquals(signature, key.sign(message));
+        assertTrue(ECKey.verify(bitcoin.Utils.doubleSHA256(message), signature,
+                                key.getPublicKey().getKey()));
+    }
+
+    @Test
+    public void generateKeysTest() throws Exception {
+        KeyPair pair = Secp256k1.generatePair();
+        BigInteger secret = ((ECPrivateKey) pair.getPrivate()).getS();
+        assertTrue(secret.signum() > 0 && secret.compareTo(Secp256k1.n) < 0);
+        BigInteger[] q = Secp256k1.multiplyG(secret);
+        assertEquals(q[0], ((ECPublicKey) pair.getPublic()).getW().getAffineX());
+        assertEquals(q[1], ((ECPublicKey) pair.getPublic()).getW().getAffineY());
+
+        BitcoinPrivateKey key = new BitcoinPrivateKey(true, false);
+        assertNotEquals(key.getS(), new BitcoinPrivateKey(true, false).getS());
+        byte[] message = hexToByteArray("02EC0D0EDF");
+        assertTrue(ECKey.verify(bitcoin.Utils.doubleSHA256(message), key.sign(message),
+                                key.getPublicKey().getKey()));
+    }
+}
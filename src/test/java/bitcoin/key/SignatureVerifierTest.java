@@ -0,0 +1,115 @@
+package bitcoin.key;
+
+import bitcoin.key.SignatureVerifier.SignatureCheck;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 07-05-17.
+ */
+public class SignatureVerifierTest {
+    private ExecutorService executor;
+    private SignatureVerifier verifier;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        verifier = new SignatureVerifier(100, 4, executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    // Few keys signing many digests, some of the signatures are corrupted.
+    private List<SignatureCheck> checks(Random random, int size, boolean[] expected) {
+        ECKey[] keys = new ECKey[3];
+        for(int i = 0; i < keys.length; i++)
+            keys[i] = ECKey.fromPrivate(new BigInteger(256, random).mod(Secp256k1.n), i != 1);
+        List<SignatureCheck> ret = new ArrayList<>();
+        for(int i = 0; i < size; i++) {
+            byte[] digest = new byte[32];
+            random.nextBytes(digest);
+            ECKey key = keys[i % keys.length];
+            byte[] signature = key.sign(Sha256Hash.wrap(digest)).encodeToDER();
+            expected[i] = i % 5 != 3;
+            if(!expected[i])
+                digest[0] ^= 1;
+            ret.add(new SignatureCheck(key.getPubKey(), digest, signature));
+        }
+        return ret;
+    }
+
+    @Test
+    public void batchTest() throws Exception {
+        boolean[] expected = new boolean[30];
+        List<SignatureCheck> checks = checks(new Random(42), expected.length, expected);
+        assertTrue(Arrays.equals(expected, verifier.verify(checks)));
+        for(int i = 0; i < checks.size(); i++) {
+            SignatureCheck check = checks.get(i);
+            assertEquals(expected[i], ECKey.verify(check.getDigest(), check.getSignature(),
+                                                   check.getPublicKey()));
+        }
+        assertEquals(0, verifier.verify(new ArrayList<>()).length);
+    }
+
+    @Test
+    public void cacheTest() throws Exception {
+        boolean[] expected = new boolean[10];
+        List<SignatureCheck> checks = checks(new Random(7), expected.length, expected);
+        int valid = 0;
+        for(boolean b : expected)
+            valid += b ? 1 : 0;
+        assertTrue(Arrays.equals(expected, verifier.verify(checks)));
+        assertEquals(valid, verifier.getCachedSignatures());
+        // Second time from the cache, invalid ones are checked again.
+        assertTrue(Arrays.equals(expected, verifier.verify(checks)));
+        assertEquals(valid, verifier.getCachedSignatures());
+
+        SignatureVerifier small = new SignatureVerifier(2, 1, executor);
+        assertTrue(Arrays.equals(expected, small.verify(checks)));
+        assertEquals(2, small.getCachedSignatures());
+        assertTrue(Arrays.equals(expected, small.verify(checks)));
+    }
+
+    // After a few uses the key gets its table of multiples.
+    @Test
+    public void repeatedKeyTest() throws Exception {
+        Random random = new Random(99);
+        BigInteger key = new BigInteger(256, random).mod(Secp256k1.n);
+        byte[] publicKey = ECKey.fromPrivate(key).getPubKey();
+        for(int i = 0; i < 10; i++) {
+            byte[] digest = new byte[32];
+            random.nextBytes(digest);
+            byte[] signature = Secp256k1Signer.sign(key, digest);
+            assertTrue(verifier.verify(publicKey, digest, signature));
+            digest[31] ^= 1;
+            assertFalse(verifier.verify(publicKey, digest, signature));
+        }
+        byte[] notOnCurve = publicKey.clone();
+        notOnCurve[32] ^= 1;
+        byte[] digest = new byte[32];
+        for(int i = 0; i < 5; i++)
+            assertFalse(verifier.verify(notOnCurve, digest, Secp256k1Signer.sign(key, digest)));
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void digestLengthTest() throws Exception {
+        verifier.verify(new byte[33], new byte[20], new byte[8]);
+    }
+}
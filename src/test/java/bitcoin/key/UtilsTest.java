@@ -3,10 +3,12 @@ package bitcoin.key;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
 
 import static bitcoin.key.Utils.bitcoinB58Decode;
 import static bitcoin.key.Utils.bitcoinB58Encode;
+import static bitcoin.key.Utils.get32ByteRepresentation;
 import static core.Utils.hexToByteArray;
 import static org.junit.Assert.assertArrayEquals;
 
@@ -24,5 +26,14 @@ public class UtilsTest {
 
     }
 
-
+    @Test
+    public void get32ByteRepresentationTest() {
+        byte[] expected = new byte[32];
+        expected[30] = 0x01;
+        expected[31] = 0x02;
+        assertArrayEquals(expected, get32ByteRepresentation(BigInteger.valueOf(0x0102)));
+        expected[0] = (byte) 0x80;
+        assertArrayEquals(expected, get32ByteRepresentation(
+                BigInteger.ONE.shiftLeft(255).add(BigInteger.valueOf(0x0102))));
+    }
 }
\ No newline at end of file
@@ -3,8 +3,11 @@ package bitcoin.transaction;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static core.Utils.byteArrayToHex;
-import static org.junit.Assert.assertEquals;
+import static core.Utils.hexToByteArray;
+import static org.junit.Assert.*;
 
 /**
  * Created by fmontoto on 23-11-16.
@@ -31,4 +34,43 @@ public class OutputTest {
         assertEquals(rawOutput, byteArrayToHex(o.serialize()));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void classificationTest() {
+        Output payToKey = new Output(rawOutput);
+        assertTrue(payToKey.isPayToKey());
+        assertFalse(payToKey.isPayToScript() || payToKey.isOpReturn() || payToKey.isMultisig());
+        assertEquals("C8E90996C7C6080EE06284600C684ED904D14C5C", payToKey.getPayAddress());
+
+        Output payToScript = new Output(0, hexToByteArray(
+                "A914C8E90996C7C6080EE06284600C684ED904D14C5C87"));
+        assertTrue(payToScript.isPayToScript());
+        assertFalse(payToScript.isPayToKey());
+
+        Output opReturn = new Output(0, hexToByteArray("6A0401020304"));
+        assertTrue(opReturn.isOpReturn());
+        assertEquals(Arrays.asList("OP_RETURN", "OP_PUSH_4_bytes", "01020304"),
+                     opReturn.getParsedScript());
+
+        String pubKey = "02F262D368F940FE1F751194092438B541BA809A4E81D145870C9A121D1419235F";
+        Output multisig = new Output(0, hexToByteArray("5121" + pubKey + "21" + pubKey + "52AE"));
+        assertTrue(multisig.isMultisig());
+        assertFalse(new Output(0, hexToByteArray("5221" + pubKey + "51AE")).isMultisig());
+    }
+
+    @Test
+    public void nonStandardScriptTest() {
+        // Push of 5 bytes with only 2 available.
+        Output o = new Output(0, hexToByteArray("050102"));
+        assertFalse(o.isPayToKey() || o.isPayToScript() || o.isOpReturn() || o.isMultisig());
+        assertEquals(Arrays.asList("ERROR. Non standard"), o.getParsedScript());
+    }
+
+    @Test
+    public void equalsIgnoresParsedScriptTest() {
+        Output o1 = new Output(rawOutput);
+        Output o2 = new Output(rawOutput);
+        o1.getParsedScript();
+        assertEquals(o1, o2);
+        assertEquals(o1.hashCode(), o2.hashCode());
+    }
+}
@@ -0,0 +1,214 @@
+package bitcoin.transaction;
+
+import bitcoin.BitcoindClient;
+import bitcoin.key.BitcoinPrivateKey;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static bitcoin.Constants.*;
+import static bitcoin.key.Utils.r160SHA256Hash;
+import static bitcoin.transaction.builder.InputBuilder.redeemMultisigOrOneSignatureTimeoutOutput;
+import static bitcoin.transaction.builder.OutputBuilder.createPayToPubKeyOutput;
+import static bitcoin.transaction.builder.OutputBuilder.multisigOrOneSignatureTimeoutOutput;
+import static bitcoin.transaction.builder.TransactionBuilder.*;
+import static bitcoin.transaction.Utils.readScriptNum;
+import static core.Utils.mergeArrays;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 06-05-17.
+ */
+public class ScriptInterpreterTest {
+    private BitcoinPrivateKey srcKey;
+    private BitcoinPrivateKey neededKey;
+    private BitcoinPrivateKey optionalKey;
+    private AbsoluteOutput srcOutput;
+
+    @Before
+    public void setUp() throws Exception {
+        srcKey = new BitcoinPrivateKey(
+                "18E14A7B6A307F426A94F8114701E7C8E774E7F9A47E2C2035DB29A206321725", false, true);
+        neededKey = new BitcoinPrivateKey(
+                "E9873D79C6D87DC0FB6A5778633389F4453213303DA61F20BD67FC233AA33262", true, true);
+        optionalKey = new BitcoinPrivateKey(
+                "0C28FCA386C7A227600B2FE50B7CAE11EC86D3BF1FBE471BE89827E19D72AA1D", true, true);
+        srcOutput = fundingOutput(0);
+    }
+
+    // An output paying to srcKey, in a transaction which is never verified.
+    private AbsoluteOutput fundingOutput(int n) throws Exception {
+        Transaction funding = new Transaction(1, 0);
+        funding.appendInput(new Input(n, new byte[32], new byte[0]));
+        funding.appendOutput(createPayToPubKeyOutput(100000, srcKey.getPublicKey().toWIF()));
+        return new AbsoluteOutput(funding, 0);
+    }
+
+    @Test
+    public void payToPubKeyHashTest() throws Exception {
+        Transaction tx = payToPublicKeyHash(srcOutput, neededKey.getPublicKey().toWIF(), 90000);
+        tx.sign(srcKey);
+        new ScriptInterpreter(tx).verify(Collections.singletonList(srcOutput.getScript()));
+
+        tx.getOutput(0).setValue(95000);
+        try {
+            new ScriptInterpreter(tx).verify(Collections.singletonList(srcOutput.getScript()));
+            fail("The signature does not cover the new value.");
+        } catch (ScriptException e) {
+            assertEquals(0, e.getInputNo());
+        }
+    }
+
+    @Test
+    public void payToScriptHashTimeoutTest() throws Exception {
+        byte[] redeemScript = multisigOrOneSignatureTimeoutOutput(
+                TimeUnit.MINUTES, 20, neededKey.getPublicKey().getKey(),
+                optionalKey.getPublicKey().getKey());
+        Transaction t0 = payToScriptHash(srcOutput, redeemScript, srcOutput.getValue());
+        t0.sign(srcKey);
+        new ScriptInterpreter(t0).verify(Collections.singletonList(srcOutput.getScript()));
+        AbsoluteOutput scriptHashOutput = new AbsoluteOutput(t0, 0);
+        List<byte[]> prevOutScripts = Collections.singletonList(scriptHashOutput.getScript());
+
+        // Both signatures, no timeout needed.
+        Transaction t1 = payToPublicKeyHash(scriptHashOutput, srcKey.getPublicKey().toWIF(),
+                                            srcOutput.getValue());
+        t1.setTempScriptSigForSigning(0, redeemScript);
+        byte[] neededSignature = t1.getPayToScriptSignature(neededKey, getHashType("ALL"), 0);
+        byte[] optionalSignature = t1.getPayToScriptSignature(optionalKey, getHashType("ALL"), 0);
+        t1.getInput(0).setScript(redeemMultisigOrOneSignatureTimeoutOutput(
+                redeemScript, neededSignature, optionalSignature));
+        new ScriptInterpreter(t1).verify(prevOutScripts);
+
+        // Only the needed signature, the sequence number must satisfy the timeout.
+        assertNull(timeoutSpend(scriptHashOutput, redeemScript, 2, 20));
+        assertTrue(timeoutSpend(scriptHashOutput, redeemScript, 2, 10)
+                           .getMessage().contains("Relative lock time not reached"));
+        assertTrue(timeoutSpend(scriptHashOutput, redeemScript, 1, 20)
+                           .getMessage().contains("version 2"));
+    }
+
+    private ScriptException timeoutSpend(AbsoluteOutput scriptHashOutput, byte[] redeemScript,
+                                         int version, int minutes) throws Exception {
+        int sequenceNo = (int) readScriptNum(createSequenceNumber(TimeUnit.MINUTES, minutes));
+        Transaction tx = payToPublicKeyHash(
+                scriptHashOutput, srcKey.getPublicKey().toWIF(), optionalKey.getPublicKey().toWIF(),
+                scriptHashOutput.getValue(), 0, version, 0, sequenceNo);
+        tx.setTempScriptSigForSigning(0, redeemScript);
+        byte[] signature = tx.getPayToScriptSignature(neededKey, getHashType("ALL"), 0);
+        tx.getInput(0).setScript(redeemMultisigOrOneSignatureTimeoutOutput(redeemScript, signature));
+        try {
+            new ScriptInterpreter(tx).verifyInput(0, scriptHashOutput.getScript());
+            return null;
+        } catch (ScriptException e) {
+            return e;
+        }
+    }
+
+    // Same structure than OutputBuilder.checkMultiHash, counting the failures in the alt stack.
+    @Test
+    public void hashesAndAltStackTest() throws Exception {
+        byte[] preimage = "preimage".getBytes();
+        byte[] hash = r160SHA256Hash(preimage);
+        byte[] prevOutScript = mergeArrays(
+                getOpcodeAsArray("OP_0"), getOpcodeAsArray("OP_TOALTSTACK"),
+                getOpcodeAsArray("OP_HASH160"), pushDataOpcode(hash.length), hash,
+                getOpcodeAsArray("OP_EQUAL"),
+                getOpcodeAsArray("OP_IF"),
+                getOpcodeAsArray("OP_ELSE"),
+                    getOpcodeAsArray("OP_FROMALTSTACK"), getOpcodeAsArray("OP_1ADD"),
+                    getOpcodeAsArray("OP_TOALTSTACK"),
+                getOpcodeAsArray("OP_ENDIF"),
+                getOpcodeAsArray("OP_FROMALTSTACK"), getOpcodeAsArray("OP_0"),
+                getOpcodeAsArray("OP_LESSTHANOREQUAL"));
+
+        Transaction tx = new Transaction(1, 0);
+        tx.appendInput(new Input(0, new byte[32], mergeArrays(
+                pushDataOpcode(preimage.length), preimage)));
+        new ScriptInterpreter(tx).verifyInput(0, prevOutScript);
+
+        tx.getInput(0).setScript(mergeArrays(pushDataOpcode(3), "bad".getBytes()));
+        try {
+            new ScriptInterpreter(tx).verifyInput(0, prevOutScript);
+            fail("One failure is more than the allowed.");
+        } catch (ScriptException e) {
+            assertEquals(0, e.getInputNo());
+        }
+    }
+
+    @Test(expected = ScriptException.class)
+    public void unbalancedConditionalTest() throws Exception {
+        Transaction tx = new Transaction(1, 0);
+        tx.appendInput(new Input(0, new byte[32], new byte[0]));
+        new ScriptInterpreter(tx).verifyInput(0, mergeArrays(
+                getOpcodeAsArray("OP_1"), getOpcodeAsArray("OP_IF"), getOpcodeAsArray("OP_1")));
+    }
+
+    @Test
+    public void numbersTest() throws ScriptException {
+        long[] values = {0, 1, -1, 127, 128, -128, 255, 256, -32768, 1 << 22, Integer.MAX_VALUE};
+        for(long v : values)
+            assertEquals(v, ScriptInterpreter.readNum(ScriptInterpreter.serializeNum(v), 5, 0));
+        assertEquals(2, ScriptInterpreter.serializeNum(128).length);
+        assertFalse(ScriptInterpreter.castToBool(new byte[] {0x00, (byte) 0x80}));
+        assertTrue(ScriptInterpreter.castToBool(new byte[] {(byte) 0x80, 0x00}));
+    }
+
+    @Test
+    public void parallelVerifyTest() throws Exception {
+        List<AbsoluteOutput> srcOutputs = new ArrayList<>();
+        for(int i = 0; i < 6; i++)
+            srcOutputs.add(fundingOutput(i));
+        Transaction tx = payToPublicKeyHash(srcOutputs, neededKey.getPublicKey().toWIF(), 500000);
+        Map<Integer, BitcoinPrivateKey> keys = new HashMap<>();
+        List<byte[]> prevOutScripts = new ArrayList<>();
+        for(int i = 0; i < srcOutputs.size(); i++) {
+            keys.put(i, srcKey);
+            prevOutScripts.add(srcOutputs.get(i).getScript());
+        }
+        tx.signAll(keys);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ScriptInterpreter.verify(tx, prevOutScripts, executor);
+            ScriptInterpreter.verify(tx, prevOutScripts);
+
+            byte[] script = tx.getInput(4).getScript().clone();
+            script[10] ^= 1;
+            tx.getInput(4).setScript(script);
+            try {
+                ScriptInterpreter.verify(tx, prevOutScripts, executor);
+                fail("Input 4 signature is corrupted.");
+            } catch (ScriptException e) {
+                assertEquals(4, e.getInputNo());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void localVerificationTest() throws Exception {
+        List<AbsoluteOutput> srcOutputs = Arrays.asList(fundingOutput(0), fundingOutput(1));
+        Transaction tx = payToPublicKeyHash(srcOutputs, neededKey.getPublicKey().toWIF(), 150000);
+        tx.sign(srcKey, 0);
+        // Nothing is fetched from bitcoind, the spent outputs are all known.
+        BitcoindClient client = new BitcoindClient(new URL("http://127.0.0.1:1/"), true);
+
+        client.verifyInputsLocally(tx, Collections.singletonMap(0, srcOutputs.get(0)));
+        try {
+            client.verifyInputsLocally(tx, Collections.singletonMap(1, srcOutputs.get(1)));
+            fail("Input 1 is not signed yet.");
+        } catch (BitcoindClient.BitcoindClientException e) {
+            assertTrue(e.getMessage().startsWith("Input 1"));
+        }
+
+        tx.sign(srcKey, 1);
+        client.verifyTransactionLocally(tx, srcOutputs);
+    }
+}
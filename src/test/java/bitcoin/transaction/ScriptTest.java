@@ -0,0 +1,54 @@
+package bitcoin.transaction;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static core.Utils.hexToByteArray;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 21-04-17.
+ */
+public class ScriptTest {
+
+    @Test
+    public void payToKeyTest() {
+        byte[] program = hexToByteArray("76A914C8E90996C7C6080EE06284600C684ED904D14C5C88AC");
+        Script script = new Script(program);
+        assertTrue(script.isComplete());
+        assertEquals(5, script.size());
+        assertTrue(script.getChunk(0).isOpcode((byte) 0x76));
+        ScriptChunk hash = script.getChunk(2);
+        assertTrue(hash.isPushData());
+        assertEquals(2, hash.getOffset());
+        assertEquals(3, hash.getDataOffset());
+        assertEquals(21, hash.getByteSize());
+        assertArrayEquals(Arrays.copyOfRange(program, 3, 23), hash.getData());
+        assertTrue(hash.dataStartsWith(new byte[]{(byte) 0xC8, (byte) 0xE9}));
+        assertFalse(hash.dataEquals(new byte[]{(byte) 0xC8, (byte) 0xE9}));
+    }
+
+    @Test
+    public void pushDataOpcodesTest() {
+        byte[] data = new byte[300];
+        Arrays.fill(data, (byte) 7);
+        // OP_0 OP_PUSHDATA1 [2 bytes] OP_PUSHDATA2 [300 bytes]
+        byte[] program = core.Utils.mergeArrays(hexToByteArray("004C020102" + "4D2C01"), data);
+        Script script = new Script(program);
+        assertTrue(script.isComplete());
+        assertEquals(3, script.size());
+        assertFalse(script.getChunk(0).isPushData());
+        assertTrue(script.getChunk(1).dataEquals(new byte[]{1, 2}));
+        assertTrue(script.getChunk(2).dataEquals(data));
+    }
+
+    @Test
+    public void truncatedScriptTest() {
+        Script script = new Script(hexToByteArray("6A0401020304" + "0501"));
+        assertFalse(script.isComplete());
+        assertEquals(2, script.size());
+        assertFalse(script.isOpReturnData());
+        assertTrue(new Script(hexToByteArray("6A0401020304")).isOpReturnData());
+    }
+}
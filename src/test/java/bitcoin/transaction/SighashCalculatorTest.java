@@ -0,0 +1,219 @@
+package bitcoin.transaction;
+
+import bitcoin.key.BitcoinPrivateKey;
+import bitcoin.key.MuSig;
+import bitcoin.key.Schnorr;
+import bitcoin.key.Taproot;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.InvalidParameterException;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static bitcoin.Constants.getHashType;
+import static bitcoin.Utils.doubleSHA256;
+import static bitcoin.transaction.builder.OutputBuilder.createPayToTaprootOutput;
+import static bitcoin.transaction.builder.OutputBuilder.oneSignatureOnTimeoutLeaf;
+import static core.Utils.hexToByteArray;
+import static core.Utils.mergeArrays;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 02-05-17.
+ */
+public class SighashCalculatorTest {
+    private Transaction tx;
+
+    @Before
+    public void setUp() throws ParseTransactionException {
+        tx = new Transaction(
+                "010000000167ACA719146B3E5F0A5C4D37C2E487C1635C36272BE6C3E614AA2C9A0BADC2520000000"
+                + "06A473044022053002185456A6C14112DDF0576D6679BED9CC17E1F0555C717C8DB1E512041CE02"
+                + "206FA9CFBC517BEBEC996E4BBE9F43DB546D4606D71EE137BB22E77733E5971536012102F262D3D"
+                + "68F940FE1F751194092438B541BA809A4E81D145870C9A121D1419235FFFFFFFF02000000000000"
+                + "00002A6A28444F4350524F4F467F1213F5F0D7DE70C071A65BEC6A7D1D061C225323AD2B9CF495C"
+                + "E4518F66E4B107A0700000000001976A9140002104E305CA7CF99DD6D2A688561F23197DB8388AC"
+                + "00000000");
+        for(int i = 1; i < 5; i++) {
+            byte[] prevTxHash = new byte[32];
+            prevTxHash[0] = (byte) i;
+            Input input = new Input(i, prevTxHash, new byte[10 * i]);
+            input.setSequenceNo(i);
+            tx.appendInput(input);
+        }
+    }
+
+    // The digest as computed before, removing the other scripts and serializing the whole tx.
+    static private byte[] reserializedDigest(Transaction tx, int inputNo, byte[] subscript)
+            throws ParseTransactionException, NoSuchAlgorithmException {
+        Transaction copy = new Transaction(tx);
+        for(int i = 0; i < copy.getInputs().size(); i++)
+            copy.getInput(i).setScript(i == inputNo ? subscript : new byte[0]);
+        return doubleSHA256(mergeArrays(copy.serialize(), new byte[] {0x01, 0x00, 0x00, 0x00}));
+    }
+
+    @Test
+    public void legacyDigestTest() throws ParseTransactionException, NoSuchAlgorithmException {
+        SighashCalculator calculator = new SighashCalculator(tx);
+        byte[] subscript = hexToByteArray("76A9140002104E305CA7CF99DD6D2A688561F23197DB8388AC");
+        // Out of order to exercise rewinding the shared state.
+        int[] order = {0, 2, 4, 1, 3, 3};
+        for(int inputNo : order)
+            assertArrayEquals(reserializedDigest(tx, inputNo, subscript),
+                              calculator.legacyDigest(inputNo, subscript, getHashType("ALL")));
+    }
+
+    @Test
+    public void legacyDigestWithoutCloningTest()
+            throws ParseTransactionException, NoSuchAlgorithmException {
+        SighashCalculator calculator = new SighashCalculator(tx, false);
+        byte[] subscript = hexToByteArray("76A9140002104E305CA7CF99DD6D2A688561F23197DB8388AC");
+        int[] order = {0, 2, 4, 1, 3, 3};
+        for(int inputNo : order)
+            assertArrayEquals(reserializedDigest(tx, inputNo, subscript),
+                              calculator.legacyDigest(inputNo, subscript, getHashType("ALL")));
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void unsupportedHashTypeTest() throws NoSuchAlgorithmException {
+        new SighashCalculator(tx).legacyDigest(0, new byte[0], getHashType("NONE"));
+    }
+
+    @Test
+    public void doesNotModifyTransactionTest()
+            throws ParseTransactionException, NoSuchAlgorithmException {
+        byte[] before = tx.serialize();
+        List<byte[]> scripts = new ArrayList<>();
+        for(Input i : tx.getInputs())
+            scripts.add(i.getScript());
+        SighashCalculator calculator = tx.sighashCalculator();
+        for(int i = 0; i < tx.getInputs().size(); i++)
+            calculator.legacyDigest(i, new byte[3], getHashType("ALL"));
+        assertArrayEquals(before, tx.serialize());
+        for(int i = 0; i < tx.getInputs().size(); i++)
+            assertSame(scripts.get(i), tx.getInput(i).getScript());
+    }
+
+    @Test
+    public void cachedCalculatorTest() throws NoSuchAlgorithmException {
+        SighashCalculator calculator = tx.sighashCalculator();
+        tx.getInput(1).setScript(new byte[20]);
+        assertSame(calculator, tx.sighashCalculator());
+        tx.getInput(1).setSequenceNo(7);
+        assertNotSame(calculator, tx.sighashCalculator());
+        calculator = tx.sighashCalculator();
+        tx.getOutput(0).setValue(3);
+        assertNotSame(calculator, tx.sighashCalculator());
+        calculator = tx.sighashCalculator();
+        tx.getInputs().remove(4);
+        assertNotSame(calculator, tx.sighashCalculator());
+        assertEquals(4, tx.sighashCalculator().getInputsCount());
+    }
+
+    @Test
+    public void taprootDigestTest() throws Exception {
+        BitcoinPrivateKey a = new BitcoinPrivateKey(
+                "18E14A7B6A307F426A94F8114701E7C8E774E7F9A47E2C2035DB29A206321725", true, false);
+        BitcoinPrivateKey b = new BitcoinPrivateKey(
+                "B7E151628AED2A6ABF7158809CF4F3C762E7160F38B4DA56A784D9045190CFEF", true, false);
+        MuSig.KeyAggContext ctx = MuSig.keyAgg(a.getPublicKey(), b.getPublicKey());
+        byte[] leafHash = Taproot.leafHash(oneSignatureOnTimeoutLeaf(
+                a.getPublicKey(), TimeUnit.SECONDS, 1024));
+        Taproot.OutputKey outputKey = Taproot.outputKey(ctx.getXOnlyKey(), leafHash);
+
+        List<Output> spent = new ArrayList<>();
+        for(int i = 0; i < tx.getInputs().size(); i++)
+            spent.add(createPayToTaprootOutput(1000 * (i + 1), outputKey.getKey()));
+        SighashCalculator calculator = new SighashCalculator(tx);
+        byte[] keyPath = calculator.taprootDigest(1, spent, SighashCalculator.SIGHASH_DEFAULT,
+                                                  null);
+        assertArrayEquals(keyPath, new SighashCalculator(tx).taprootDigest(
+                1, new ArrayList<>(spent), SighashCalculator.SIGHASH_DEFAULT, null));
+        // Everything is signed, the hash type included.
+        assertFalse(Arrays.equals(keyPath, calculator.taprootDigest(
+                1, spent, getHashType("ALL"), null)));
+        assertFalse(Arrays.equals(keyPath, calculator.taprootDigest(
+                2, spent, SighashCalculator.SIGHASH_DEFAULT, null)));
+        assertFalse(Arrays.equals(keyPath, calculator.taprootDigest(
+                1, spent, SighashCalculator.SIGHASH_DEFAULT, leafHash)));
+        List<Output> otherAmounts = new ArrayList<>(spent);
+        otherAmounts.set(4, createPayToTaprootOutput(1, outputKey.getKey()));
+        assertFalse(Arrays.equals(keyPath, calculator.taprootDigest(
+                1, otherAmounts, SighashCalculator.SIGHASH_DEFAULT, null)));
+        // The same list with other contents isn't served from the cached hashes.
+        spent.set(4, createPayToTaprootOutput(1, outputKey.getKey()));
+        assertFalse(Arrays.equals(keyPath, calculator.taprootDigest(
+                1, spent, SighashCalculator.SIGHASH_DEFAULT, null)));
+        spent.set(4, createPayToTaprootOutput(5000, outputKey.getKey()));
+        assertArrayEquals(keyPath, calculator.taprootDigest(
+                1, spent, SighashCalculator.SIGHASH_DEFAULT, null));
+        try {
+            calculator.taprootDigest(1, spent, getHashType("NONE"), null);
+            fail("Only SIGHASH_DEFAULT and SIGHASH_ALL are supported");
+        } catch (InvalidParameterException e) {}
+        tx.getInput(3).setSequenceNo(9);
+        assertFalse(Arrays.equals(keyPath, tx.sighashCalculator().taprootDigest(
+                1, spent, SighashCalculator.SIGHASH_DEFAULT, null)));
+
+        // Both players spend through the key path with a single signature.
+        ctx = ctx.applyXOnlyTweak(Taproot.tweak(ctx.getXOnlyKey(), leafHash));
+        MuSig.SecretNonce nonceA = MuSig.nonceGen(a, ctx, keyPath);
+        MuSig.SecretNonce nonceB = MuSig.nonceGen(b, ctx, keyPath);
+        MuSig.Session session = new MuSig.Session(
+                MuSig.nonceAgg(Arrays.asList(nonceA.getPublicNonce(), nonceB.getPublicNonce())),
+                ctx, keyPath);
+        byte[] signature = MuSig.partialSigAgg(
+                Arrays.asList(MuSig.sign(nonceA, a, session), MuSig.sign(nonceB, b, session)),
+                session);
+        assertTrue(Schnorr.verify(outputKey.getKey(), keyPath, signature));
+    }
+
+    @Test
+    public void bip341KeyPathSpendingTest() throws Exception {
+        // keyPathSpending vector from BIP341's wallet-test-vectors.json.
+        Transaction vectorTx = new Transaction(
+                "02000000097de20cbff686da83a54981d2b9bab3586f4ca7e48f57f5b55963115f3b334e9c01000000"
+                + "0000000000d7b7cab57b1393ace2d064f4d4a2cb8af6def61273e127517d44759b6dafdd99000000"
+                + "0000fffffffff8e1f583384333689228c5d28eac13366be082dc57441760d957275419a418420000"
+                + "000000fffffffff0689180aa63b30cb162a73c6d2a38b7eeda2a83ece74310fda0843ad604853b01"
+                + "00000000feffffffaa5202bdf6d8ccd2ee0f0202afbbb7461d9264a25e5bfd3c5a52ee1239e0ba6c"
+                + "0000000000feffffff956149bdc66faa968eb2be2d2faa29718acbfe3941215893a2a3446d32acd0"
+                + "50000000000000000000e664b9773b88c09c32cb70a2a3e4da0ced63b7ba3b22f848531bbb1d5d5f"
+                + "4c94010000000000000000e9aa6b8e6c9de67619e6a3924ae25696bb7b694bb677a632a74ef7eadf"
+                + "d4eabf0000000000ffffffffa778eb6a263dc090464cd125c466b5a99667720b1c110468831d058a"
+                + "a1b82af10100000000ffffffff0200ca9a3b000000001976a91406afd46bcdfd22ef94ac122aa11f"
+                + "241244a37ecc88ac807840cb0000000020ac9a87f5594be208f8532db38cff670c450ed2fea8fcde"
+                + "fcc9a663f78bab962b0065cd1d");
+        String[][] utxosSpent = {
+                {"512053a1f6e454df1aa2776a2814a721372d6258050de330b3c6d10ee8f4e0dda343",
+                 "420000000"},
+                {"5120147c9c57132f6e7ecddba9800bb0c4449251c92a1e60371ee77557b6620f3ea3",
+                 "462000000"},
+                {"76a914751e76e8199196d454941c45d1b3a323f1433bd688ac", "294000000"},
+                {"5120e4d810fd50586274face62b8a807eb9719cef49c04177cc6b76a9a4251d5450e",
+                 "504000000"},
+                {"512091b64d5324723a985170e4dc5a0f84c041804f2cd12660fa5dec09fc21783605",
+                 "630000000"},
+                {"00147dd65592d0ab2fe0d0257d571abf032cd9db93dc", "378000000"},
+                {"512075169f4001aa68f15bbed28b218df1d0a62cbbcf1188c6665110c293c907b831",
+                 "672000000"},
+                {"5120712447206d7a5238acc7ff53fbe94a3b64539ad291c7cdbc490b7577e4b17df5",
+                 "546000000"},
+                {"512077e30a5522dd9f894c3f8b8bd4c4b2cf82ca7da8a3ea6a239655c39c050ab220",
+                 "588000000"}};
+        List<Output> spent = new ArrayList<>();
+        for(String[] utxo : utxosSpent)
+            spent.add(new Output(Long.parseLong(utxo[1]), hexToByteArray(utxo[0])));
+        SighashCalculator calculator = new SighashCalculator(vectorTx);
+
+        assertArrayEquals(
+                hexToByteArray("bf013ea93474aa67815b1b6cc441d23b64fa310911d991e713cd34c7f5d46669"),
+                calculator.taprootDigest(3, spent, getHashType("ALL"), null));
+        assertArrayEquals(
+                hexToByteArray("4f900a0bae3f1446fd48490c2958b5a023228f01661cda3496a11da502a7f7ef"),
+                calculator.taprootDigest(4, spent, SighashCalculator.SIGHASH_DEFAULT, null));
+    }
+}
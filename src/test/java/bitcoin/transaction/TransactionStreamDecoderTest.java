@@ -0,0 +1,132 @@
+package bitcoin.transaction;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static bitcoin.transaction.TransactionStreamDecoder.Format.BINARY;
+import static bitcoin.transaction.TransactionStreamDecoder.Format.HEX_LINES;
+import static core.Utils.hexToByteArray;
+import static core.Utils.mergeArrays;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 20-04-17.
+ */
+public class TransactionStreamDecoderTest {
+    private String rawTransactionHex;
+    private byte[] rawTransaction;
+
+    @Before
+    public void setUp() {
+        rawTransactionHex =
+                "010000000167ACA719146B3E5F0A5C4D37C2E487C1635C36272BE6C3E614AA2C9A0BADC2520000000"
+                + "06A473044022053002185456A6C14112DDF0576D6679BED9CC17E1F0555C717C8DB1E512041CE02"
+                + "206FA9CFBC517BEBEC996E4BBE9F43DB546D4606D71EE137BB22E77733E5971536012102F262D3D"
+                + "68F940FE1F751194092438B541BA809A4E81D145870C9A121D1419235FFFFFFFF02000000000000"
+                + "00002A6A28444F4350524F4F467F1213F5F0D7DE70C071A65BEC6A7D1D061C225323AD2B9CF495C"
+                + "E4518F66E4B107A0700000000001976A9140002104E305CA7CF99DD6D2A688561F23197DB8388AC"
+                + "00000000";
+        rawTransaction = hexToByteArray(rawTransactionHex);
+    }
+
+    private TransactionStreamDecoder decoder(byte[] content, TransactionStreamDecoder.Format format,
+                                             int bufferSize) {
+        return new TransactionStreamDecoder(
+                Channels.newChannel(new ByteArrayInputStream(content)), format, bufferSize,
+                TransactionStreamDecoder.DEFAULT_MAX_BUFFER_SIZE);
+    }
+
+    @Test
+    public void binaryAcrossRefillsTest() {
+        byte[] content = mergeArrays(rawTransaction, rawTransaction, rawTransaction);
+        // Smaller than a transaction, to force refills and growing the buffer.
+        TransactionStreamDecoder decoder = decoder(content, BINARY, 7);
+        int count = 0;
+        while(decoder.hasNext()) {
+            assertArrayEquals(rawTransaction, decoder.next().serialize());
+            count++;
+        }
+        assertEquals(3, count);
+        assertEquals(content.length, decoder.getOffset());
+    }
+
+    @Test
+    public void hexLinesTest() {
+        String content = rawTransactionHex + "\r\n\n  " + rawTransactionHex.toLowerCase() + "\n"
+                + rawTransactionHex;
+        TransactionStreamDecoder decoder = decoder(
+                content.getBytes(StandardCharsets.US_ASCII), HEX_LINES, 16);
+        assertEquals(3, decoder.stream().peek(
+                tx -> assertArrayEquals(rawTransaction, tx.serialize())).count());
+    }
+
+    @Test
+    public void corruptHexLineIsSkippedTest() {
+        String content = rawTransactionHex + "\n" + rawTransactionHex.substring(10) + "\n"
+                + rawTransactionHex + "\n";
+        TransactionStreamDecoder decoder = decoder(
+                content.getBytes(StandardCharsets.US_ASCII), HEX_LINES, 64);
+        List<Transaction> decodedTxs = new ArrayList<>();
+        long corruptOffset = -1;
+        while(true) {
+            try {
+                if(!decoder.hasNext())
+                    break;
+                decodedTxs.add(decoder.next());
+            } catch (CorruptTransactionException e) {
+                corruptOffset = e.getOffset();
+            }
+        }
+        assertEquals(2, decodedTxs.size());
+        assertEquals(rawTransactionHex.length() + 1, corruptOffset);
+    }
+
+    @Test
+    public void truncatedBinaryTest() {
+        byte[] content = mergeArrays(rawTransaction, rawTransaction);
+        byte[] truncated = new byte[content.length - 3];
+        System.arraycopy(content, 0, truncated, 0, truncated.length);
+        TransactionStreamDecoder decoder = decoder(truncated, BINARY, 32);
+        decoder.next();
+        try {
+            decoder.next();
+            fail();
+        } catch (CorruptTransactionException e) {
+            assertEquals(rawTransaction.length, e.getOffset());
+        }
+        assertFalse(decoder.hasNext());
+    }
+
+    @Test
+    public void impossibleCounterTest() {
+        // Version and an input counter of 2^32 - 1, followed by endless zeros.
+        byte[] header = hexToByteArray("01000000FEFFFFFFFF");
+        int[] read = {0};
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() {
+                int i = read[0]++;
+                return i < header.length ? header[i] & 0xFF : 0;
+            }
+        };
+        TransactionStreamDecoder decoder = new TransactionStreamDecoder(
+                Channels.newChannel(endless), BINARY, 32,
+                TransactionStreamDecoder.DEFAULT_MAX_BUFFER_SIZE);
+        try {
+            decoder.next();
+            fail();
+        } catch (CorruptTransactionException e) {
+            assertEquals(0, e.getOffset());
+        }
+        // Failed on the first chunk, without growing the buffer up to its max size.
+        assertTrue(read[0] <= 64);
+        assertFalse(decoder.hasNext());
+    }
+}
@@ -1,12 +1,29 @@
 package bitcoin.transaction;
 
+import bitcoin.key.BitcoinPrivateKey;
+import org.bitcoinj.core.ECKey;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
 import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
 
+import static bitcoin.Constants.getHashType;
+import static bitcoin.Utils.doubleSHA256;
+import static bitcoin.transaction.builder.OutputBuilder.createPayToPubKeyOutput;
+import static bitcoin.transaction.Utils.arrayReverse;
 import static core.Utils.byteArrayToHex;
+import static core.Utils.hexToByteArray;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by fmontoto on 23-11-16.
@@ -44,4 +61,275 @@ public class TransactionTest {
         assertEquals("98C56156FF9801C6D3BE58D7EBF2C6C9F187BCDD66F4EBA717A22FF9E5C1685F", tx.txid(false));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void serializedSizeTest() throws ParseTransactionException {
+        Transaction tx = new Transaction(rawTransaction);
+        assertEquals(rawTransaction.length() / 2, tx.serializedSize());
+        assertEquals(tx.serialize().length, tx.wireSize());
+        tx.getInput(0).setScript(new byte[300]);
+        assertEquals(tx.serialize().length, tx.serializedSize());
+    }
+
+    @Test
+    public void serializeToTest() throws ParseTransactionException {
+        Transaction tx = new Transaction(rawTransaction);
+        ByteBuffer buffer = ByteBuffer.allocate(tx.serializedSize() + 3);
+        buffer.put((byte) 0x01);
+        tx.serializeTo(buffer);
+        assertEquals(tx.serializedSize() + 1, buffer.position());
+        byte[] written = new byte[tx.serializedSize()];
+        buffer.position(1);
+        buffer.get(written);
+        assertArrayEquals(hexToByteArray(rawTransaction), written);
+    }
+
+    // The memoized txid must be the same than the one from a freshly parsed copy.
+    private static void assertTxidUpToDate(Transaction tx)
+            throws NoSuchAlgorithmException, ParseTransactionException {
+        assertEquals(new Transaction(tx.serialize()).txid(), tx.txid());
+    }
+
+    @Test
+    public void txIdInvalidationTest() throws NoSuchAlgorithmException, ParseTransactionException {
+        Transaction tx = new Transaction(rawTransaction);
+        String originalTxid = tx.txid();
+        assertEquals(originalTxid, tx.txid());
+
+        tx.getOutput(1).setValue(tx.getOutput(1).getValue() - 1);
+        assertNotEquals(originalTxid, tx.txid());
+        assertTxidUpToDate(tx);
+
+        tx.getInput(0).setSequenceNo(0);
+        assertTxidUpToDate(tx);
+
+        tx.getInput(0).setScript(new byte[] {0x51});
+        assertTxidUpToDate(tx);
+
+        tx.appendOutput(new Output(1000, new byte[] {0x51}));
+        assertTxidUpToDate(tx);
+
+        tx.getOutputs().remove(tx.getOutputs().size() - 1);
+        assertTxidUpToDate(tx);
+
+        tx.getInputs().add(new Input(tx.getInput(0).serialize()));
+        assertTxidUpToDate(tx);
+
+        tx.getOutputs().subList(0, 1).set(0, new Output(5, new byte[] {0x51}));
+        assertTxidUpToDate(tx);
+
+        tx.getInputs().subList(0, 2).subList(1, 2).clear();
+        assertEquals(1, tx.getInputs().size());
+        assertTxidUpToDate(tx);
+    }
+
+    @Test
+    public void wtxIdTest() throws NoSuchAlgorithmException, ParseTransactionException {
+        Transaction tx = new Transaction(rawTransaction);
+        assertEquals(tx.txid(), tx.wtxid());
+        assertEquals(tx.txid(false), tx.wtxid(false));
+    }
+
+    @Test
+    public void fromHexCharSequenceTest() throws ParseTransactionException {
+        Transaction tx = new Transaction(new StringBuilder(rawTransaction.toLowerCase()));
+        assertEquals(rawTransaction, tx.hexlify());
+
+        // Does not fit in the shared decoding buffer.
+        Transaction big = new Transaction(rawTransaction);
+        for(int i = 0; i < 2000; i++)
+            big.appendOutput(new Output(i, new byte[40]));
+        assertEquals(big.hexlify(), new Transaction(big.hexlify()).hexlify());
+    }
+
+    private Transaction segwitTransaction() throws ParseTransactionException {
+        Transaction tx = new Transaction(rawTransaction);
+        tx.getInput(0).setScript(new byte[0]);
+        tx.getInput(0).setWitness(Arrays.asList(new byte[72], hexToByteArray("02F262D3D68F94")));
+        return tx;
+    }
+
+    @Test
+    public void segwitRoundTripTest() throws ParseTransactionException {
+        Transaction tx = segwitTransaction();
+        byte[] serialized = tx.serialize();
+        assertEquals(0x00, serialized[4]);
+        assertEquals(0x01, serialized[5]);
+        assertEquals(serialized.length, tx.serializedSize());
+
+        Transaction parsed = new Transaction(serialized);
+        assertEquals(1, new TransactionView(serialized).getVersion());
+        assertTrue(parsed.hasWitness());
+        assertEquals(2, parsed.getInput(0).getWitness().size());
+        assertArrayEquals(new byte[72], parsed.getInput(0).getWitness().get(0));
+        assertArrayEquals(hexToByteArray("02F262D3D68F94"),
+                          parsed.getInput(0).getWitness().get(1));
+        assertEquals(tx.getInput(0), parsed.getInput(0));
+        assertArrayEquals(serialized, parsed.serialize());
+    }
+
+    @Test
+    public void segwitIdsTest() throws NoSuchAlgorithmException, ParseTransactionException {
+        Transaction tx = segwitTransaction();
+        Transaction stripped = segwitTransaction();
+        stripped.getInput(0).setWitness(Arrays.asList());
+        assertFalse(stripped.hasWitness());
+
+        String expectedTxid = byteArrayToHex(arrayReverse(doubleSHA256(stripped.serialize())));
+        assertEquals(expectedTxid, tx.txid());
+        assertEquals(stripped.txid(), tx.txid());
+        assertEquals(byteArrayToHex(arrayReverse(doubleSHA256(tx.serialize()))), tx.wtxid());
+        assertNotEquals(tx.txid(), tx.wtxid());
+
+        String wtxid = tx.wtxid();
+        tx.getInput(0).setWitness(Arrays.asList(new byte[71]));
+        assertEquals(expectedTxid, tx.txid());
+        assertNotEquals(wtxid, tx.wtxid());
+    }
+
+    @Test
+    public void weightTest() throws ParseTransactionException {
+        Transaction legacy = new Transaction(rawTransaction);
+        assertEquals(4 * legacy.serializedSize(), legacy.weight());
+        assertEquals(legacy.serializedSize(), legacy.vsize());
+
+        Transaction tx = segwitTransaction();
+        int baseSize = tx.serializedSize(false);
+        int totalSize = tx.serializedSize();
+        // marker, flag, stack size and two items (72 + 7 bytes, one byte length each).
+        assertEquals(2 + 1 + 73 + 8, totalSize - baseSize);
+        assertEquals(3 * baseSize + totalSize, tx.weight());
+        assertEquals((3 * baseSize + totalSize + 3) / 4, tx.vsize());
+        assertTrue(tx.vsize() < totalSize);
+    }
+
+    // The test transaction with 4 more inputs, each one with its own script and sequence number.
+    private Transaction multiInputTransaction() throws ParseTransactionException {
+        Transaction tx = new Transaction(rawTransaction);
+        for(int i = 1; i < 5; i++) {
+            byte[] prevTxHash = new byte[32];
+            prevTxHash[0] = (byte) i;
+            Input input = new Input(i, prevTxHash, new byte[10 * i]);
+            input.setSequenceNo(i);
+            tx.appendInput(input);
+        }
+        return tx;
+    }
+
+    @Test
+    public void signAllTest() throws Exception {
+        Transaction tx = multiInputTransaction();
+        BitcoinPrivateKey key = new BitcoinPrivateKey(
+                "18E14A7B6A307F426A94F8114701E7C8E774E7F9A47E2C2035DB29A206321725", true, false);
+        byte[] scriptPubKey = createPayToPubKeyOutput(0, key.getPublicKey().toWIF()).getScript();
+        Map<Integer, BitcoinPrivateKey> keys = new HashMap<>();
+        for(int i = 1; i < tx.getInputs().size(); i++) {
+            tx.setTempScriptSigForSigning(i, scriptPubKey);
+            keys.put(i, key);
+        }
+        byte[] unsignedFirstScript = tx.getInput(0).getScript();
+        SighashCalculator calculator = new SighashCalculator(tx);
+
+        tx.signAll(keys);
+
+        assertSame(unsignedFirstScript, tx.getInput(0).getScript());
+        for(int i = 1; i < tx.getInputs().size(); i++) {
+            Script scriptSig = tx.getInput(i).getScriptSig();
+            assertEquals(2, scriptSig.size());
+            byte[] signature = scriptSig.getChunk(0).getData();
+            assertEquals((byte) getHashType("ALL"), signature[signature.length - 1]);
+            assertArrayEquals(key.getPublicKey().getKey(), scriptSig.getChunk(1).getData());
+            byte[] digest = calculator.legacyDigest(i, scriptPubKey, getHashType("ALL"));
+            assertTrue(ECKey.verify(digest, Arrays.copyOf(signature, signature.length - 1),
+                                    key.getPublicKey().getKey()));
+        }
+    }
+
+    @Test
+    public void signAllIsAtomicTest() throws Exception {
+        Transaction tx = multiInputTransaction();
+        BitcoinPrivateKey key = new BitcoinPrivateKey(
+                "18E14A7B6A307F426A94F8114701E7C8E774E7F9A47E2C2035DB29A206321725", true, false);
+        Map<Integer, BitcoinPrivateKey> keys = new HashMap<>();
+        keys.put(0, key);
+        keys.put(tx.getInputs().size(), key);
+        byte[] before = tx.serialize();
+        try {
+            tx.signAll(keys);
+            fail("Signed an input which does not exist");
+        } catch (InvalidParameterException e) {
+            assertArrayEquals(before, tx.serialize());
+        }
+    }
+
+
+    // An executor failing the second task it gets, running the others in the caller thread.
+    static private class FailingExecutor extends AbstractExecutorService {
+        private int tasks = 0;
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            boolean fail = ++tasks == 2;
+            return new FutureTask<>(() -> {
+                if(fail)
+                    throw new IllegalStateException("Task failed");
+                return callable.call();
+            });
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+
+    @Test
+    public void signAllExecutorFailuresTest() throws Exception {
+        Transaction tx = multiInputTransaction();
+        BitcoinPrivateKey key = new BitcoinPrivateKey(
+                "18E14A7B6A307F426A94F8114701E7C8E774E7F9A47E2C2035DB29A206321725", true, false);
+        Map<Integer, BitcoinPrivateKey> keys = new HashMap<>();
+        for(int i = 0; i < tx.getInputs().size(); i++)
+            keys.put(i, key);
+        byte[] before = tx.serialize();
+
+        ExecutorService rejecting = Executors.newSingleThreadExecutor();
+        rejecting.shutdown();
+        try {
+            tx.signAll(keys, rejecting);
+            fail("The executor rejects every task");
+        } catch (RejectedExecutionException e) {
+            assertArrayEquals(before, tx.serialize());
+        }
+
+        try {
+            tx.signAll(keys, new FailingExecutor());
+            fail("A task failed");
+        } catch (IllegalStateException e) {
+            assertArrayEquals(before, tx.serialize());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package bitcoin.transaction;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static core.Utils.byteArrayToHex;
+import static core.Utils.hexToByteArray;
+import static core.Utils.mergeArrays;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 18-04-17.
+ */
+public class TransactionViewTest {
+    private byte[] rawTransaction;
+
+    @Before
+    public void setUp() {
+        rawTransaction = hexToByteArray(
+                "010000000167ACA719146B3E5F0A5C4D37C2E487C1635C36272BE6C3E614AA2C9A0BADC2520000000"
+                + "06A473044022053002185456A6C14112DDF0576D6679BED9CC17E1F0555C717C8DB1E512041CE02"
+                + "206FA9CFBC517BEBEC996E4BBE9F43DB546D4606D71EE137BB22E77733E5971536012102F262D3D"
+                + "68F940FE1F751194092438B541BA809A4E81D145870C9A121D1419235FFFFFFFF02000000000000"
+                + "00002A6A28444F4350524F4F467F1213F5F0D7DE70C071A65BEC6A7D1D061C225323AD2B9CF495C"
+                + "E4518F66E4B107A0700000000001976A9140002104E305CA7CF99DD6D2A688561F23197DB8388AC"
+                + "00000000");
+    }
+
+    @Test
+    public void offsetsTest() throws ParseTransactionException {
+        TransactionView view = new TransactionView(rawTransaction);
+        Transaction tx = new Transaction(rawTransaction);
+
+        assertEquals(1, view.getVersion());
+        assertEquals(0, view.getLockTime());
+        assertFalse(view.hasWitness());
+        assertEquals(rawTransaction.length, view.getByteSize());
+        assertEquals(1, view.getInputsCount());
+        assertEquals(2, view.getOutputsCount());
+        for(int i = 0; i < view.getOutputsCount(); i++) {
+            assertEquals(tx.getOutput(i), view.getOutput(i));
+            assertEquals(tx.getOutput(i).getValue(), view.getOutputValue(i));
+        }
+        assertEquals(tx.getInput(0), view.getInput(0));
+        assertArrayEquals(rawTransaction, view.serialize());
+    }
+
+    @Test
+    public void scriptSliceTest() throws ParseTransactionException {
+        TransactionView view = new TransactionView(rawTransaction);
+        ByteBuffer script = view.getOutputScript(1);
+        byte[] scriptBytes = new byte[script.remaining()];
+        script.get(scriptBytes);
+        assertEquals("76A9140002104E305CA7CF99DD6D2A688561F23197DB8388AC",
+                     byteArrayToHex(scriptBytes));
+        assertTrue(script.isReadOnly());
+        assertEquals(view.getInput(0).getScript().length, view.getInputScript(0).remaining());
+    }
+
+    @Test
+    public void concatenatedTransactionsTest() throws ParseTransactionException {
+        ByteBuffer buffer = ByteBuffer.wrap(mergeArrays(rawTransaction, rawTransaction));
+        TransactionView first = new TransactionView(buffer);
+        assertEquals(0, buffer.position());
+        buffer.position(first.getByteSize());
+        TransactionView second = new TransactionView(buffer);
+        assertEquals(rawTransaction.length, second.getByteSize());
+        assertArrayEquals(first.serialize(), second.serialize());
+    }
+
+    @Test
+    public void materializedTransactionIsIndependentTest() throws ParseTransactionException {
+        TransactionView view = new TransactionView(rawTransaction);
+        Transaction tx = view.toTransaction();
+        tx.getOutput(0).setValue(1234);
+        assertEquals(0, view.getOutputValue(0));
+        assertEquals(0, view.getOutput(0).getValue());
+    }
+
+    @Test(expected = ParseTransactionException.class)
+    public void truncatedTransactionTest() throws ParseTransactionException {
+        new TransactionView(ByteBuffer.wrap(rawTransaction, 0, rawTransaction.length - 5));
+    }
+
+    @Test(expected = ParseTransactionException.class)
+    public void absurdCounterTest() throws ParseTransactionException {
+        new TransactionView(hexToByteArray("01000000FEFFFFFF7F"));
+    }
+
+    @Test
+    public void witnessTest() throws ParseTransactionException {
+        Transaction tx = new Transaction(rawTransaction);
+        tx.getInput(0).setWitness(Arrays.asList(hexToByteArray("0102"), new byte[0]));
+        TransactionView view = new TransactionView(tx.serialize());
+        assertTrue(view.hasWitness());
+        assertEquals(1, view.getVersion());
+        assertEquals(tx.serializedSize(), view.getByteSize());
+        assertEquals(2, view.getWitness(0).size());
+        assertArrayEquals(hexToByteArray("0102"), view.getWitness(0).get(0));
+        assertEquals(0, view.getWitness(0).get(1).length);
+        assertArrayEquals(hexToByteArray("0202010200"), view.getWitnessScript());
+        assertEquals(tx.getInput(0), view.getInput(0));
+        assertEquals(0, view.getOutput(0).getValue());
+        assertTrue(new TransactionView(rawTransaction).getWitness(0).isEmpty());
+    }
+
+    @Test
+    public void unknownSegwitFlagTest() throws ParseTransactionException {
+        Transaction tx = new Transaction(rawTransaction);
+        tx.getInput(0).setWitness(Arrays.asList(new byte[72], new byte[33]));
+        byte[] serialized = tx.serialize();
+        assertEquals(0x01, serialized[5]);
+        assertTrue(new TransactionView(serialized).hasWitness());
+
+        serialized[5] = 0x02;
+        try {
+            new TransactionView(serialized);
+            fail();
+        } catch (TransactionView.TruncatedTransactionException e) {
+            fail("Not a truncated transaction");
+        } catch (ParseTransactionException e) {
+            assertTrue(e.getMessage().contains("segwit flag"));
+        }
+    }
+}
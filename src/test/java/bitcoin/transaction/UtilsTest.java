@@ -2,6 +2,7 @@ package bitcoin.transaction;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 import static bitcoin.transaction.Utils.*;
@@ -111,6 +112,17 @@ public class UtilsTest {
 
     }
 
+    @Test
+    public void testWriteVarInt() throws Exception {
+        long[] values = {0, 1, 252, 253, 0xFFFFL, 0x10000L, 0xFFFFFFFFL, 0x100000000L};
+        for(long val : values) {
+            ByteBuffer buffer = ByteBuffer.allocate(varIntByteSize(val));
+            writeVarInt(buffer, val);
+            assertArrayEquals(serializeVarInt(val), buffer.array());
+            assertEquals(val, readVarInt(buffer.array()));
+        }
+    }
+
     @Test
     public void testArrayReverse() throws Exception {
         assertArrayEquals(new byte[]{0x01, 0x00},
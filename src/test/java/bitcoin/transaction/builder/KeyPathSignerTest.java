@@ -0,0 +1,141 @@
+package bitcoin.transaction.builder;
+
+import bitcoin.key.BitcoinPrivateKey;
+import bitcoin.key.BitcoinPublicKey;
+import bitcoin.key.Schnorr;
+import bitcoin.transaction.*;
+import core.Bet;
+import core.Oracle;
+import core.ZeroMQChannel;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.InvalidParameterException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static bitcoin.transaction.builder.OutputBuilder.createPayToPubKeyOutput;
+import static bitcoin.transaction.builder.TransactionBuilder.*;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 18-05-17.
+ */
+public class KeyPathSignerTest {
+    private BitcoinPrivateKey[] playersKey;
+    private BitcoinPublicKey[] playersPubKey;
+    private BitcoinPrivateKey[] oraclesKey;
+    private Bet bet;
+
+    @Before
+    public void setUp() throws Exception {
+        playersKey = new BitcoinPrivateKey[] {new BitcoinPrivateKey(true, false),
+                                              new BitcoinPrivateKey(true, false)};
+        playersPubKey = new BitcoinPublicKey[] {playersKey[0].getPublicKey(),
+                                                playersKey[1].getPublicKey()};
+        oraclesKey = new BitcoinPrivateKey[] {new BitcoinPrivateKey(true, false),
+                                              new BitcoinPrivateKey(true, false)};
+        List<Oracle> oracles = new ArrayList<>();
+        for(BitcoinPrivateKey oracleKey : oraclesKey)
+            oracles.add(new Oracle(oracleKey.getPublicKey().toWIF()));
+        bet = new Bet("Taproot bet", 1, 2, oracles, new LinkedList<>(), playersPubKey,
+                      new Bet.Amounts(60000, 3000000, 100000000, 50000, 10000000,
+                                      bitcoin.Constants.FEE),
+                      TimeUnit.SECONDS, 24 * 3600,
+                      new ZeroMQChannel("localhost:4324", "172.19.2.54:8876"));
+    }
+
+    static private AbsoluteOutput funding(BitcoinPrivateKey key, long value, int i)
+            throws Exception {
+        return new AbsoluteOutput(createPayToPubKeyOutput(value, key.getPublicKey().toWIF()), 0,
+                                  String.format("cd%062x", i));
+    }
+
+    // Both players sign the input through the key path, as they would over the channel.
+    private void keyPathSign(Transaction tx, int inputNo, List<? extends Output> spentOutputs,
+                             byte[] merkleRoot) throws Exception {
+        KeyPathSigner a = new KeyPathSigner(tx, inputNo, spentOutputs, playersKey[0],
+                                            playersPubKey, merkleRoot);
+        KeyPathSigner b = new KeyPathSigner(tx, inputNo, spentOutputs, playersKey[1],
+                                            playersPubKey, merkleRoot);
+        byte[] signatureA = a.sign(b.getPublicNonce());
+        byte[] signatureB = b.sign(a.getPublicNonce());
+        try {
+            a.complete(signatureA, signatureA, b.getPublicNonce(), playersPubKey[1]);
+            fail("The partial signature is not from the other player");
+        } catch (InvalidParameterException e) {}
+        a.complete(signatureA, signatureB, b.getPublicNonce(), playersPubKey[1]);
+
+        byte[] outputKey = Arrays.copyOfRange(spentOutputs.get(inputNo).getScript(), 2, 34);
+        byte[] digest = new SighashCalculator(tx).taprootDigest(
+                inputNo, new ArrayList<>(spentOutputs), SighashCalculator.SIGHASH_DEFAULT, null);
+        assertTrue(Schnorr.verify(outputKey, digest, tx.getInput(inputNo).getWitness().get(0)));
+    }
+
+    // The witnesses, marker and flag included, must fit in the virtual size counted for them.
+    static private void assertWitnessVsize(Transaction tx, long expectedVsize) {
+        long witnessWeight = tx.serializedSize(true) - tx.serializedSize(false);
+        assertEquals(expectedVsize, (witnessWeight + 3) / 4);
+    }
+
+    @Test
+    public void promiseInscriptionBetTest() throws Exception {
+        AbsoluteOutput playerFunds = funding(playersKey[0], 300000000, 1);
+        long timeoutSecs = bet.getRelativeBetResolutionSecs();
+        Transaction betPromise = betPromise(Collections.singletonList(playerFunds),
+                                            playersPubKey[0].toWIF(), bet, true, true,
+                                            timeoutSecs);
+        betPromise.sign(playersKey[0]);
+
+        // Each oracle inscription spends its first payment, the players sign it through the key
+        // path once the oracle signed its inputs.
+        List<Transaction> inscriptions = new ArrayList<>();
+        List<BitcoinPublicKey> oraclesPubKey = new ArrayList<>();
+        List<byte[]> playerAWinHashes = new ArrayList<>(), playerBWinHashes = new ArrayList<>();
+        for(int i = 0; i < oraclesKey.length; i++) {
+            BitcoinPrivateKey oracleKey = oraclesKey[i];
+            AbsoluteOutput oracleFunds = funding(oracleKey, 20000000, 2 + i);
+            List<byte[]> answersHash = Arrays.asList(new byte[] {(byte) i, 0},
+                                                     new byte[] {(byte) i, 1});
+            Transaction inscription = oracleInscription(
+                    Collections.singletonList(oracleFunds), Collections.singletonList(oracleKey),
+                    oracleKey.getPublicKey(), answersHash, bet, betPromise);
+            String inscriptionTxid = inscription.txid();
+            List<Output> inscriptionSpent = Arrays.asList(
+                    oracleFunds, new AbsoluteOutput(betPromise, 3 + i));
+            keyPathSign(inscription, 1, inscriptionSpent, null);
+            new ScriptInterpreter(inscription).verifyInput(0, oracleFunds.getScript());
+            assertEquals(inscriptionTxid, inscription.txid());
+            assertWitnessVsize(inscription, taprootKeyPathRedeemVsize(1, 1));
+
+            inscriptions.add(inscription);
+            oraclesPubKey.add(oracleKey.getPublicKey());
+            playerAWinHashes.add(answersHash.get(0));
+            playerBWinHashes.add(answersHash.get(1));
+        }
+
+        // The bet spends both prizes of the promise through the key path.
+        Transaction betTx = TransactionBuilder.bet(
+                betPromise, inscriptions, bet, oraclesPubKey, playerAWinHashes, playerBWinHashes,
+                Arrays.asList(playersPubKey));
+        List<Output> betSpent = new ArrayList<>();
+        betSpent.add(new AbsoluteOutput(betPromise, 1));
+        betSpent.add(new AbsoluteOutput(betPromise, 2));
+        for(Transaction inscription : inscriptions)
+            betSpent.add(new AbsoluteOutput(inscription, 0));
+        keyPathSign(betTx, 0, betSpent,
+                    betPromisePrizeMerkleRoot(betPromise, 1, bet, timeoutSecs));
+        keyPathSign(betTx, 1, betSpent,
+                    betPromisePrizeMerkleRoot(betPromise, 2, bet, timeoutSecs));
+        try {
+            betPromisePrizeMerkleRoot(betPromise, 1, bet, timeoutSecs + TIMEOUT_GRANULARITY);
+            fail("The prize was built with another timeout");
+        } catch (InvalidParameterException e) {}
+        assertWitnessVsize(betTx, taprootKeyPathRedeemVsize(2, inscriptions.size()));
+
+        try {
+            new KeyPathSigner(betTx, 0, betSpent, playersKey[0], playersPubKey, null);
+            fail("The prize has a script tree");
+        } catch (InvalidParameterException e) {}
+    }
+}
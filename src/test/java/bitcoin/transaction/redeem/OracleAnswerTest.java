@@ -0,0 +1,60 @@
+package bitcoin.transaction.redeem;
+
+import bitcoin.key.BitcoinPrivateKey;
+import bitcoin.key.Secp256k1Signer;
+import bitcoin.transaction.Input;
+import bitcoin.transaction.Output;
+import bitcoin.transaction.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static bitcoin.Constants.getHashType;
+import static core.Utils.mergeArrays;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 17-05-17.
+ */
+public class OracleAnswerTest {
+    private BitcoinPrivateKey oracleKey;
+    private BitcoinPrivateKey otherKey;
+
+    @Before
+    public void setUp() throws Exception {
+        oracleKey = new BitcoinPrivateKey(
+                "E9873D79C6D87DC0FB6A5778633389F4453213303DA61F20BD67FC233AA33262", true, true);
+        otherKey = new BitcoinPrivateKey(
+                "0C28FCA386C7A227600B2FE50B7CAE11EC86D3BF1FBE471BE89827E19D72AA1D", true, true);
+    }
+
+    // An answer spending the output n of a bet, signed by signer. Only the parts parse reads
+    // are in the redeem script: OP_IF [oracle public key] OP_CHECKSIGVERIFY OP_ENDIF.
+    private Transaction answer(int n, BitcoinPrivateKey signer) throws Exception {
+        byte[] oraclePubKey = oracleKey.getPublicKey().getKey();
+        byte[] redeemScript = mergeArrays(new byte[] {0x63, (byte) oraclePubKey.length},
+                                          oraclePubKey, new byte[] {(byte) 0xad, 0x68});
+        Transaction tx = new Transaction(2, 0);
+        tx.appendInput(new Input(n, new byte[32], new byte[0]));
+        tx.appendOutput(new Output(1000, new byte[] {0x51}));
+
+        byte hashType = getHashType("ALL");
+        byte[] digest = tx.sighashCalculator().legacyDigest(0, redeemScript, hashType);
+        byte[] signature = mergeArrays(Secp256k1Signer.sign(signer.getS(), digest),
+                                       new byte[] {hashType});
+        byte[] preImage = new byte[20];
+        Arrays.fill(preImage, (byte) n);
+        tx.getInputs().get(0).setScript(mergeArrays(
+                new byte[] {(byte) preImage.length}, preImage, new byte[] {0x51},
+                new byte[] {(byte) signature.length}, signature, new byte[] {0x51},
+                new byte[] {(byte) redeemScript.length}, redeemScript));
+        return tx;
+    }
+
+    @Test
+    public void oracleSignatureTest() throws Exception {
+        assertTrue(OracleAnswer.parse(answer(1, oracleKey), true).isOracleSignatureValid());
+        assertFalse(OracleAnswer.parse(answer(1, otherKey), true).isOracleSignatureValid());
+    }
+}
@@ -0,0 +1,62 @@
+package core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 15-05-17.
+ */
+public class LruCacheTest {
+    @Test
+    public void capacityTest() {
+        LruCache<Integer, String> cache = new LruCache<>(2);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        assertEquals("a", cache.get(1));
+        cache.put(3, "c");
+        assertNull(cache.get(2));
+        assertEquals("a", cache.get(1));
+        assertEquals("c", cache.get(3));
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void weightTest() {
+        LruCache<Integer, String> cache = new LruCache<>(10, String::length);
+        cache.put(1, "aaaa");
+        cache.put(2, "bbbb");
+        assertEquals(8, cache.getWeight());
+        cache.put(1, "aa");
+        assertEquals(6, cache.getWeight());
+        // 2 is the least recently used.
+        cache.put(3, "ccccc");
+        assertFalse(cache.containsKey(2));
+        assertEquals(7, cache.getWeight());
+        // Heavier than the whole cache, not kept and nothing else evicted.
+        cache.put(4, "ddddddddddd");
+        assertFalse(cache.containsKey(4));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getEvictions());
+        assertEquals("aa", cache.remove(1));
+        assertEquals(5, cache.getWeight());
+        cache.clear();
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void ttlTest() throws Exception {
+        LruCache<Integer, String> cache = new LruCache<>(10);
+        cache.put(1, "a", 50);
+        cache.put(2, "b");
+        assertEquals("a", cache.get(1));
+        Thread.sleep(100);
+        assertNull(cache.get(1));
+        assertEquals("b", cache.get(2));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+}
@@ -0,0 +1,72 @@
+package core;
+
+import bitcoin.BitcoindClient;
+import bitcoin.key.BetKeyChain;
+import bitcoin.key.BitcoinPrivateKey;
+import bitcoin.key.BitcoinPublicKey;
+import bitcoin.key.ExtendedKey;
+import bitcoin.key.KeyRing;
+import bitcoin.transaction.AbsoluteOutput;
+import bitcoin.transaction.ScriptInterpreter;
+import bitcoin.transaction.Transaction;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static bitcoin.transaction.builder.OutputBuilder.createPayToPubKeyOutput;
+import static bitcoin.transaction.builder.TransactionBuilder.betPromise;
+import static core.Utils.hexToByteArray;
+import static org.junit.Assert.*;
+
+/**
+ * Created by fmontoto on 19-05-17.
+ */
+public class ParticipatingOracleTest {
+
+    @After
+    public void tearDown() {
+        KeyRing.getInstance().clear();
+    }
+
+    @Test
+    public void inscriptionFromMasterKeyTest() throws Exception {
+        BetKeyChain keyChain = new BetKeyChain(ExtendedKey.fromSeed(
+                hexToByteArray("000102030405060708090a0b0c0d0e0f"), true));
+        String oracleAddress = keyChain.getIdentityKey().getPublicKey().toWIF();
+        List<Oracle> oracles = Arrays.asList(
+                new Oracle(oracleAddress),
+                new Oracle(new BitcoinPrivateKey(true, false).getPublicKey().toWIF()));
+        BitcoinPrivateKey[] playersKey = {new BitcoinPrivateKey(true, false),
+                                          new BitcoinPrivateKey(true, false)};
+        BitcoinPublicKey[] playersPubKey = {playersKey[0].getPublicKey(),
+                                            playersKey[1].getPublicKey()};
+        Bet bet = new Bet("Master key bet", 1, 2, oracles, new LinkedList<>(), playersPubKey,
+                          new Bet.Amounts(60000, 3000000, 100000000, 50000, 10000000,
+                                          bitcoin.Constants.FEE),
+                          TimeUnit.SECONDS, 24 * 3600,
+                          new ZeroMQChannel("localhost:4324", "172.19.2.54:8876"));
+        AbsoluteOutput playerFunds = new AbsoluteOutput(
+                createPayToPubKeyOutput(300000000, playersPubKey[0].toWIF()), 0,
+                String.format("cd%062x", 1));
+        Transaction promise = betPromise(Collections.singletonList(playerFunds),
+                                         playersPubKey[0].toWIF(), bet, true);
+
+        // The oracle funds the inscription from the funding key of the bet.
+        String fundingAddress = keyChain.getPublicKey(bet.getHash(), BetKeyChain.FUNDING_KEY)
+                                        .toWIF();
+        AbsoluteOutput oracleFunds = new AbsoluteOutput(
+                createPayToPubKeyOutput(20000000, fundingAddress), 0,
+                String.format("cd%062x", 2));
+        // Nothing listens there, any call to bitcoind (as dumpprivkey) fails.
+        BitcoindClient client = new BitcoindClient(new URL("http://127.0.0.1:1"), true);
+        Transaction inscription = ParticipatingOracle.participate(oracles.get(0), promise)
+                .generateInscriptionTransaction(client, bet,
+                                                Collections.singletonList(oracleFunds),
+                                                keyChain);
+        new ScriptInterpreter(inscription).verifyInput(0, oracleFunds.getScript());
+        assertNotNull(KeyRing.getInstance().get(oracleAddress));
+    }
+}
@@ -5,11 +5,15 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
 import java.security.InvalidParameterException;
 
 import static core.Utils.*;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  * Created by fmontoto on 09-11-16.
@@ -39,6 +43,50 @@ public class UtilsTest {
         assertArrayEquals(new byte[] { (byte) 0x01, (byte)0x3e}, hexToByteArray("013E"));
     }
 
+    @Test
+    public void hexCodecVariantsTest() throws Exception {
+        byte[] expected = new byte[] {(byte) 0xae, (byte) 0x32, (byte) 0x01};
+        byte[] dst = new byte[5];
+        assertEquals(3, hexToByteArray("--ae3201", 2, 8, dst, 1));
+        assertArrayEquals(new byte[] {0, (byte) 0xae, (byte) 0x32, (byte) 0x01, 0}, dst);
+        assertArrayEquals(expected, hexToByteArray("AE3201".toCharArray()));
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+        buffer.put((byte) 7);
+        hexToByteBuffer(new StringBuilder("ae3201"), buffer);
+        assertEquals(4, buffer.position());
+        buffer.position(1);
+        assertEquals("AE3201", byteBufferToHex(buffer));
+        assertEquals(1, buffer.position());
+
+        char[] hex = new char[4];
+        Utils.byteArrayToHex(expected, 1, 3, hex, 0);
+        assertArrayEquals("3201".toCharArray(), hex);
+        assertEquals("AE3201", Utils.byteArrayToHex(expected));
+    }
+
+    @Test
+    public void hexToByteBufferOverflowTest() throws Exception {
+        for(ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.allocate(4),
+                                                  ByteBuffer.allocateDirect(4)}) {
+            buffer.limit(2);
+            try {
+                hexToByteBuffer("ae3201", buffer);
+                fail();
+            } catch (BufferOverflowException e) {
+                assertEquals(0, buffer.position());
+                buffer.limit(4);
+                assertEquals(0, buffer.getInt());
+            }
+        }
+    }
+
+    @Test
+    public void invalidHexDigitTest() throws Exception {
+        exception.expect(InvalidParameterException.class);
+        hexToByteArray("0g");
+    }
+
     @Test
     public void encodeB58Test() throws Exception {
         assertEquals("3", encodeB58(BigInteger.valueOf(2)));
@@ -74,6 +122,37 @@ public class UtilsTest {
         assertEquals("fakp243NM", encodeB58(decodeB58("fakp243NM")));
     }
 
+    @Test
+    public void byteArrayB58Test() throws Exception {
+        assertEquals("", byteArrayToB58(new byte[0]));
+        assertEquals("11", byteArrayToB58(new byte[2]));
+        assertArrayEquals(new byte[2], b58ToByteArray("11"));
+        assertEquals("5HueCGU8rMjxEXxiPuD5BDku4MkFqeZyd4dZ1jvhTVqvbTLvyTJ", byteArrayToB58(hexToByteArray(
+                "800C28FCA386C7A227600B2FE50B7CAE11EC86D3BF1FBE471BE89827E19D72AA1D507A5B8D")));
+
+        // Same result as the BigInteger version, plus a '1' per leading zero byte.
+        Random random = new Random(3);
+        for(int i = 0; i < 200; i++) {
+            byte[] data = new byte[1 + random.nextInt(40)];
+            random.nextBytes(data);
+            for(int j = 0; j < i % 3 && j < data.length; j++)
+                data[j] = 0;
+            int zeros = 0;
+            while(zeros < data.length && data[zeros] == 0)
+                zeros++;
+            String encoded = byteArrayToB58(data);
+            assertEquals(new String(new char[zeros]).replace('\0', '1')
+                         + encodeB58(new BigInteger(1, data)), encoded);
+            assertArrayEquals(data, b58ToByteArray(encoded));
+        }
+    }
+
+    @Test
+    public void invalidB58DigitTest() throws Exception {
+        exception.expect(InvalidParameterException.class);
+        b58ToByteArray("12O");
+    }
+
     @Test
     public void mergeArraysTest() {
         byte[] a = {0x00, 0x0a};